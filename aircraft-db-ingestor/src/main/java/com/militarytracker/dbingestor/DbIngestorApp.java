@@ -6,20 +6,49 @@ import com.militarytracker.common.kafka.KafkaConsumerFactory;
 import com.militarytracker.common.lifecycle.HealthCheckServer;
 import com.militarytracker.common.lifecycle.ShutdownHook;
 import com.militarytracker.common.metrics.MetricsServer;
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry;
+import com.militarytracker.dbingestor.cache.AircraftIdCache;
+import com.militarytracker.dbingestor.cache.AircraftPartitioner;
+import com.militarytracker.dbingestor.cache.FlightSessionRegistry;
+import com.militarytracker.dbingestor.cache.PositionChangeFilter;
+import com.militarytracker.dbingestor.consumer.CatchUpPolicy;
 import com.militarytracker.dbingestor.consumer.FlightKafkaConsumer;
+import com.militarytracker.dbingestor.consumer.OffsetTracker;
+import com.militarytracker.dbingestor.consumer.PartitionStateRebalanceListener;
 import com.militarytracker.dbingestor.repository.AircraftRepository;
+import com.militarytracker.dbingestor.repository.ConsumerOffsetRepository;
 import com.militarytracker.dbingestor.repository.FlightPositionRepository;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository;
 import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import com.militarytracker.dbingestor.repository.IngestionLogRepository;
+import com.militarytracker.dbingestor.repository.PositionPartitionRepository;
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository;
 import com.militarytracker.dbingestor.service.IngestionService;
+import com.militarytracker.dbingestor.service.PartitionMaintainer;
+import com.militarytracker.dbingestor.service.TrackCloser;
+import com.militarytracker.dbingestor.service.TrackRebuilder;
+import com.militarytracker.dbingestor.spool.DiskSpool;
 import com.zaxxer.hikari.HikariDataSource;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class DbIngestorApp {
 
     private static final Logger LOG = LoggerFactory.getLogger(DbIngestorApp.class);
 
+    private static final long IDLE_TRACK_FLUSH_INTERVAL_SECONDS = 5;
+    private static final long CONSUMER_SHUTDOWN_TIMEOUT_MS = 30_000;
+
     public static void main(String[] args) throws Exception {
         LOG.info("Starting Aircraft DB Ingestor...");
 
@@ -30,25 +59,169 @@ public class DbIngestorApp {
 
         HikariDataSource dataSource = DataSourceFactory.create(config.getSubConfig("database"));
 
-        AircraftRepository aircraftRepo = new AircraftRepository(dataSource);
-        FlightPositionRepository positionRepo = new FlightPositionRepository();
-        FlightTrackRepository trackRepo = new FlightTrackRepository();
-        IngestionService ingestionService = new IngestionService(dataSource, aircraftRepo, positionRepo, trackRepo);
-
-        KafkaConsumer<String, String> kafkaConsumer = KafkaConsumerFactory.create(config.getSubConfig("kafka"));
         String topic = config.getString("kafka.topic");
-        FlightKafkaConsumer flightConsumer = new FlightKafkaConsumer(kafkaConsumer, ingestionService, topic);
+        int workers = config.getInt("ingest.consumer.workers");
+        List<KafkaConsumer<String, String>> kafkaConsumers = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            kafkaConsumers.add(KafkaConsumerFactory.create(config.getSubConfig("kafka")));
+        }
+        // Tells which partition each aircraft's records arrive on, so that per-aircraft state can
+        // be warmed and evicted per partition; the workers set its partition count on assignment,
+        // so the ingestor can start before the topic exists
+        AircraftPartitioner partitioner = new AircraftPartitioner();
+
+        AircraftIdCache aircraftCache = new AircraftIdCache(config.getInt("ingest.aircraft-cache.max-size"));
+        AircraftRepository aircraftRepo = new AircraftRepository(dataSource, aircraftCache, partitioner);
+        FlightPositionRepository positionRepo = new FlightPositionRepository(
+                FlightPositionRepository.WriteMode.fromConfig(config.getString("ingest.position-writer")));
+        ActiveTrackRegistry trackRegistry = new ActiveTrackRegistry(config.getInt("ingest.track-registry.max-size"));
+        Duration segmentGap = Duration.ofSeconds(config.getLong("ingest.track-segmentation.gap-seconds"));
+        boolean closeOnGround = config.getBoolean("ingest.track-segmentation.close-on-ground");
+        FlightTrackRepository trackRepo = FlightTrackRepository.builder()
+                .registry(trackRegistry)
+                .flushing(config.getInt("ingest.track-buffer.max-points"),
+                        Duration.ofSeconds(config.getLong("ingest.track-buffer.max-age-seconds")))
+                .segmentation(segmentGap, closeOnGround)
+                .build();
+        // Re-segments what catch-up and spool replay wrote on the writer's own connection, so
+        // only the cursor and batch sizes of the offline rebuild apply
+        TrackRebuilder catchUpRebuilder = new TrackRebuilder(dataSource, new TrackRebuildRepository(),
+                segmentGap, closeOnGround, 1, config.getInt("ingest.track-rebuild.aircraft-per-chunk"),
+                config.getInt("ingest.track-rebuild.fetch-size"),
+                config.getInt("ingest.track-rebuild.write-batch-size"));
+        String offsetStoreMode = config.getString("ingest.offset-store");
+        ConsumerOffsetRepository offsetStore = switch (offsetStoreMode.trim().toLowerCase(Locale.ROOT)) {
+            case "database" -> new ConsumerOffsetRepository(dataSource, config.getString("kafka.consumer-group"));
+            case "kafka" -> null;
+            default -> throw new IllegalArgumentException("Unknown ingest.offset-store: " + offsetStoreMode);
+        };
+        PositionChangeFilter changeFilter = null;
+        if (config.getBoolean("ingest.position-filter.enabled")) {
+            changeFilter = new PositionChangeFilter(config.getInt("ingest.position-filter.max-size"),
+                    config.getInt("ingest.position-filter.position-meters"),
+                    config.getInt("ingest.position-filter.altitude-feet"),
+                    config.getInt("ingest.position-filter.speed-knots"),
+                    config.getInt("ingest.position-filter.track-degrees"),
+                    Duration.ofSeconds(config.getLong("ingest.position-filter.keepalive-seconds")));
+            if (config.getLong("ingest.position-filter.keepalive-seconds")
+                    >= config.getLong("ingest.track-segmentation.gap-seconds")) {
+                LOG.warn("Position keepalive is not shorter than the track gap; stationary aircraft will split tracks");
+            }
+        }
+        FlightSessionRepository sessionRepo = null;
+        if (config.getBoolean("ingest.flight-sessions.enabled")) {
+            sessionRepo = new FlightSessionRepository(
+                    new FlightSessionRegistry(config.getInt("ingest.flight-sessions.registry-max-size")),
+                    Duration.ofSeconds(config.getLong("ingest.flight-sessions.signal-loss-seconds")));
+            if (changeFilter != null && config.getLong("ingest.position-filter.keepalive-seconds")
+                    >= config.getLong("ingest.flight-sessions.signal-loss-seconds")) {
+                LOG.warn("Position keepalive is not shorter than the signal-loss gap; parked aircraft will lose their sessions");
+            }
+        }
+        IngestionLogRepository ingestionLogRepo = config.getBoolean("ingest.ingestion-log.enabled")
+                ? new IngestionLogRepository()
+                : null;
+        IngestionService ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .offsetRepo(offsetStore)
+                .changeFilter(changeFilter)
+                .logRepo(ingestionLogRepo)
+                .sessionRepo(sessionRepo)
+                .catchUpRebuilder(catchUpRebuilder)
+                .build();
+
+        int maxBatchSize = config.getInt("ingest.batch.max-size");
+        long lingerMs = config.getLong("ingest.batch.linger-ms");
+        int queueCapacity = config.getInt("ingest.consumer.queue-capacity");
+        boolean spoolEnabled = config.getBoolean("ingest.spool.enabled");
+        Path spoolDir = Path.of(config.getString("ingest.spool.dir"));
+        int spoolSegmentBytes = config.getInt("ingest.spool.segment-mb") * 1024 * 1024;
+        int spoolMaxSegments = config.getInt("ingest.spool.max-segments");
+        CatchUpPolicy catchUp = config.getBoolean("ingest.catch-up.enabled")
+                ? new CatchUpPolicy(config.getLong("ingest.catch-up.enter-lag"),
+                        config.getLong("ingest.catch-up.exit-lag"), config.getInt("ingest.catch-up.batch-size"))
+                : CatchUpPolicy.disabled();
+        if (workers >= config.getInt("database.pool.max-size")) {
+            LOG.warn("{} consumer workers leave no spare connection in a pool of {}",
+                    workers, config.getInt("database.pool.max-size"));
+        }
+
+        // flight_positions has no default partition, so today's must exist before the first batch:
+        // after an outage longer than premake-days it would not, and every insert would fail
+        PartitionMaintainer partitionMaintainer = new PartitionMaintainer(dataSource, new PositionPartitionRepository(),
+                config.getInt("ingest.position-partitions.premake-days"),
+                config.getInt("ingest.position-partitions.retention-days"),
+                PartitionMaintainer.RetentionMode.fromConfig(config.getString("ingest.position-partitions.retention-mode")));
+        long partitionInterval = config.getLong("ingest.position-partitions.interval-minutes");
+        partitionMaintainer.run();
+
+        // Records are keyed by hex, so each aircraft lives on one partition and therefore on
+        // one worker: aircraft are ingested concurrently while each one stays in order.
+        PartitionStateRebalanceListener rebalanceListener = new PartitionStateRebalanceListener(partitioner, dataSource,
+                aircraftRepo, changeFilter, trackRepo, sessionRepo,
+                Duration.ofMinutes(config.getLong("ingest.warm-up.recent-minutes")));
+        List<FlightKafkaConsumer> flightConsumers = new ArrayList<>(workers);
+        List<Thread> consumerThreads = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            KafkaConsumer<String, String> kafkaConsumer = kafkaConsumers.get(i);
+            OffsetTracker offsetTracker = new OffsetTracker(config.getLong("ingest.offset-commit.interval-ms"),
+                    config.getInt("ingest.offset-commit.max-records"));
+            // Each worker keeps its own spool, so a worker replays only what it spooled itself
+            DiskSpool spool = spoolEnabled
+                    ? new DiskSpool(spoolDir.resolve("worker-" + i), spoolSegmentBytes, spoolMaxSegments)
+                    : null;
+            FlightKafkaConsumer flightConsumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, topic)
+                    .batching(maxBatchSize, lingerMs)
+                    .rebalanceListener(rebalanceListener)
+                    .partitionCountListener(rebalanceListener::refreshPartitionCount)
+                    .offsets(offsetTracker)
+                    .offsetStore(offsetStore)
+                    .queueCapacity(queueCapacity)
+                    .spool(spool)
+                    .catchUp(catchUp)
+                    .build();
+            flightConsumers.add(flightConsumer);
+            consumerThreads.add(Thread.ofVirtual().name("flight-consumer-" + i).start(flightConsumer));
+        }
 
-        Thread consumerThread = Thread.startVirtualThread(flightConsumer);
+        long closerInterval = config.getLong("ingest.track-segmentation.closer-interval-seconds");
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingest-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance.scheduleWithFixedDelay(new TrackCloser(dataSource, trackRepo, sessionRepo),
+                closerInterval, closerInterval, TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(ingestionService::flushIdleTracks,
+                IDLE_TRACK_FLUSH_INTERVAL_SECONDS, IDLE_TRACK_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        maintenance.scheduleWithFixedDelay(partitionMaintainer, partitionInterval, partitionInterval, TimeUnit.MINUTES);
+        Duration ingestionLogRetention = Duration.ofDays(config.getLong("ingest.ingestion-log.retention-days"));
+        maintenance.scheduleWithFixedDelay(() -> ingestionService.purgeIngestionLog(ingestionLogRetention),
+                partitionInterval, partitionInterval, TimeUnit.MINUTES);
 
         healthServer.setReady(true);
-        LOG.info("Aircraft DB Ingestor started. Consuming from topic: {}", topic);
+        LOG.info("Aircraft DB Ingestor started. Consuming from topic: {} with {} workers "
+                        + "(position writer: {}, offsets stored in {}, position filter {}, spool {}, catch-up {})",
+                topic, workers, positionRepo.getWriteMode(), offsetStore != null ? "database" : "kafka",
+                changeFilter != null ? "on" : "off", spoolEnabled ? spoolDir : "off",
+                catchUp.isEnabled() ? "above lag " + catchUp.getEnterLag() : "off");
 
+        // Resources are closed in reverse order: consumers flush their last batch before the pool closes
         new ShutdownHook()
-                .register(flightConsumer::shutdown)
-                .register(dataSource::close)
-                .register(metricsServer::stop)
                 .register(healthServer::stop)
+                .register(metricsServer::stop)
+                .register(dataSource::close)
+                .register(() -> maintenance.shutdown())
+                .register(() -> stopConsumers(flightConsumers, consumerThreads))
                 .install();
     }
+
+    private static void stopConsumers(List<FlightKafkaConsumer> consumers, List<Thread> threads) throws InterruptedException {
+        for (FlightKafkaConsumer consumer : consumers) {
+            consumer.shutdown();
+        }
+        for (Thread thread : threads) {
+            thread.join(CONSUMER_SHUTDOWN_TIMEOUT_MS);
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package com.militarytracker.dbingestor;
+
+import com.militarytracker.common.config.AppConfig;
+import com.militarytracker.common.jdbc.DataSourceFactory;
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository;
+import com.militarytracker.dbingestor.service.TrackRebuilder;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Offline rebuild of {@code flight_tracks} from {@code flight_positions} for a time range:
+ * <pre>
+ * java -cp app.jar com.militarytracker.dbingestor.TrackRebuildApp --from 2026-01-01 --to 2026-02-01 [--run-id ID]
+ * </pre>
+ * {@code --from} and {@code --to} take a UTC date or an ISO-8601 instant. The run id defaults
+ * to the range; running again with the same id resumes from the last checkpoint. Exits with
+ * status 1 if any chunk failed, 2 on bad arguments.
+ */
+public class TrackRebuildApp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrackRebuildApp.class);
+
+    private static final String USAGE =
+            "Usage: TrackRebuildApp --from <date|instant> --to <date|instant> [--run-id <id>]";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        Instant from = parseTime(options.get("from"));
+        Instant to = parseTime(options.get("to"));
+        if (from == null || to == null || !from.isBefore(to)) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        String runId = options.getOrDefault("run-id", from + "/" + to);
+
+        AppConfig config = AppConfig.load();
+        Duration segmentGap = Duration.ofSeconds(config.getLong("ingest.track-segmentation.gap-seconds"));
+        int parallelism = config.getInt("ingest.track-rebuild.parallelism");
+        if (parallelism > config.getInt("database.pool.max-size")) {
+            LOG.warn("Rebuild parallelism {} exceeds the pool of {} connections; workers will wait for connections",
+                    parallelism, config.getInt("database.pool.max-size"));
+        }
+        if (to.isAfter(Instant.now().minus(segmentGap))) {
+            LOG.warn("Range ends within the segment gap of now; stop the ingestor or its open tracks will be rebuilt under it");
+        }
+
+        TrackRebuilder.Summary summary;
+        try (HikariDataSource dataSource = DataSourceFactory.create(config.getSubConfig("database"))) {
+            TrackRebuilder rebuilder = new TrackRebuilder(dataSource, new TrackRebuildRepository(), segmentGap,
+                    config.getBoolean("ingest.track-segmentation.close-on-ground"),
+                    parallelism,
+                    config.getInt("ingest.track-rebuild.aircraft-per-chunk"),
+                    config.getInt("ingest.track-rebuild.fetch-size"),
+                    config.getInt("ingest.track-rebuild.write-batch-size"));
+            summary = rebuilder.rebuild(runId, from, to);
+        }
+        if (summary.getFailed() > 0) {
+            LOG.error("{} chunks failed; run again with --run-id {} to retry them", summary.getFailed(), runId);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].startsWith("--")) {
+                options.put(args[i].substring(2), args[i + 1]);
+            }
+        }
+        return options;
+    }
+
+    static Instant parseTime(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return value.contains("T") ? Instant.parse(value) : LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
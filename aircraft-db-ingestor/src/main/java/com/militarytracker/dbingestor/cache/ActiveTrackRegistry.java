@@ -0,0 +1,208 @@
+package com.militarytracker.dbingestor.cache;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Bounded LRU registry of open flight tracks keyed by (aircraft id, flight). It holds the
+ * track id, the time of its last point and how many points are waiting to be flushed into
+ * the track's linestring, so the ingest path can extend a track without looking it up in
+ * {@code flight_tracks} first. A miss simply falls back to the database.
+ */
+public class ActiveTrackRegistry {
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, ActiveTrack> tracks;
+
+    public ActiveTrackRegistry(int maxSize) {
+        this.maxSize = maxSize;
+        this.tracks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ActiveTrack> eldest) {
+                if (size() > ActiveTrackRegistry.this.maxSize) {
+                    IngestorMetrics.TRACK_REGISTRY_EVICTIONS.inc();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized ActiveTrack lookup(long aircraftId, String flight) {
+        ActiveTrack track = tracks.get(new Key(aircraftId, flight));
+        if (track != null) {
+            IngestorMetrics.TRACK_REGISTRY_HITS.inc();
+        } else {
+            IngestorMetrics.TRACK_REGISTRY_MISSES.inc();
+        }
+        return track;
+    }
+
+    /**
+     * Registers or refreshes an open track. Only call this once the transaction that
+     * created or extended the track has committed.
+     */
+    public synchronized void register(ActiveTrack track) {
+        tracks.put(new Key(track.getAircraftId(), track.getFlight()), track);
+        IngestorMetrics.TRACK_REGISTRY_SIZE.set(tracks.size());
+    }
+
+    public synchronized void remove(long aircraftId, String flight) {
+        tracks.remove(new Key(aircraftId, flight));
+        IngestorMetrics.TRACK_REGISTRY_SIZE.set(tracks.size());
+    }
+
+    public synchronized void clear() {
+        tracks.clear();
+        IngestorMetrics.TRACK_REGISTRY_SIZE.set(0);
+    }
+
+    /**
+     * Removes the open tracks of the given aircraft, e.g. those of a revoked partition.
+     *
+     * @return the number of tracks removed
+     */
+    public synchronized int evictAircraft(Set<Long> aircraftIds) {
+        int before = tracks.size();
+        tracks.keySet().removeIf(key -> aircraftIds.contains(key.aircraftId));
+        IngestorMetrics.TRACK_REGISTRY_SIZE.set(tracks.size());
+        return before - tracks.size();
+    }
+
+    /**
+     * @return tracks holding unflushed points that have been waiting since before the cutoff
+     */
+    public synchronized List<ActiveTrack> pendingSince(Instant cutoff) {
+        List<ActiveTrack> due = new ArrayList<>();
+        for (ActiveTrack track : tracks.values()) {
+            if (track.getFirstPendingAt() != null && !track.getFirstPendingAt().isAfter(cutoff)) {
+                due.add(track);
+            }
+        }
+        return due;
+    }
+
+    public synchronized int size() {
+        return tracks.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Snapshot of one open track as of its last committed point. Points that are stored in
+     * {@code flight_positions} but not yet appended to the linestring are only counted here;
+     * the flush reads them back from {@code flight_positions}.
+     */
+    public static final class ActiveTrack {
+        private final long aircraftId;
+        private final String flight;
+        private final long trackId;
+        private final Instant lastPointAt;
+        private final int pendingPoints;
+        private final Instant firstPendingAt;
+        private final String closeReason;
+
+        public ActiveTrack(long aircraftId, String flight, long trackId, Instant lastPointAt) {
+            this(aircraftId, flight, trackId, lastPointAt, 0, null);
+        }
+
+        public ActiveTrack(long aircraftId, String flight, long trackId, Instant lastPointAt,
+                           int pendingPoints, Instant firstPendingAt) {
+            this(aircraftId, flight, trackId, lastPointAt, pendingPoints, firstPendingAt, null);
+        }
+
+        private ActiveTrack(long aircraftId, String flight, long trackId, Instant lastPointAt,
+                            int pendingPoints, Instant firstPendingAt, String closeReason) {
+            this.aircraftId = aircraftId;
+            this.flight = flight;
+            this.trackId = trackId;
+            this.lastPointAt = lastPointAt;
+            this.pendingPoints = pendingPoints;
+            this.firstPendingAt = firstPendingAt;
+            this.closeReason = closeReason;
+        }
+
+        public ActiveTrack withPendingPoint(Instant at) {
+            return new ActiveTrack(aircraftId, flight, trackId, at, pendingPoints + 1,
+                    firstPendingAt != null ? firstPendingAt : at);
+        }
+
+        public ActiveTrack flushed() {
+            return new ActiveTrack(aircraftId, flight, trackId, lastPointAt, 0, null);
+        }
+
+        /**
+         * @param reason why the track ended, e.g. {@code gap}, {@code landing} or {@code idle}
+         */
+        public ActiveTrack closed(String reason) {
+            return new ActiveTrack(aircraftId, flight, trackId, lastPointAt, 0, null, reason);
+        }
+
+        public long getAircraftId() {
+            return aircraftId;
+        }
+
+        public String getFlight() {
+            return flight;
+        }
+
+        public long getTrackId() {
+            return trackId;
+        }
+
+        public Instant getLastPointAt() {
+            return lastPointAt;
+        }
+
+        public int getPendingPoints() {
+            return pendingPoints;
+        }
+
+        public Instant getFirstPendingAt() {
+            return firstPendingAt;
+        }
+
+        public boolean isClosed() {
+            return closeReason != null;
+        }
+
+        public String getCloseReason() {
+            return closeReason;
+        }
+    }
+
+    private static final class Key {
+        private final long aircraftId;
+        private final String flight;
+
+        private Key(long aircraftId, String flight) {
+            this.aircraftId = aircraftId;
+            this.flight = flight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key other)) {
+                return false;
+            }
+            return aircraftId == other.aircraftId && flight.equals(other.flight);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(aircraftId, flight);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.militarytracker.dbingestor.cache;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.model.api.AcItem;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Bounded LRU cache of hex_icao to aircraft id, together with the registration, type,
+ * description and operator the aircraft row holds as far as the ingestor has written them.
+ * The upsert keeps a stored value when the record's is null ({@code COALESCE}), and the
+ * cache merges the same way, so a lookup only misses when the record carries a value that
+ * differs from the cached one. Records that omit metadata therefore do not keep evicting
+ * the complete ones, and the database is only touched for unknown aircraft or when their
+ * metadata changed.
+ */
+public class AircraftIdCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public AircraftIdCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > AircraftIdCache.this.maxSize) {
+                    IngestorMetrics.AIRCRAFT_CACHE_EVICTIONS.inc();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached aircraft id, or null if the aircraft is unknown or the upsert would
+     *         change its metadata
+     */
+    public synchronized Long lookup(AcItem item) {
+        Entry entry = entries.get(item.getHex());
+        if (entry != null && !entry.changedBy(item)) {
+            IngestorMetrics.AIRCRAFT_CACHE_HITS.inc();
+            return entry.id;
+        }
+        IngestorMetrics.AIRCRAFT_CACHE_MISSES.inc();
+        return null;
+    }
+
+    /**
+     * Records the id of an aircraft and merges the record's metadata into what is cached for
+     * it, as the upsert did. Only call this once the transaction that wrote the row has
+     * committed, otherwise a rollback leaves a dangling id behind.
+     */
+    public synchronized void put(AcItem item, long id) {
+        Entry previous = entries.get(item.getHex());
+        entries.put(item.getHex(), previous != null && previous.id == id
+                ? previous.merge(item)
+                : new Entry(id, item.getRegistration(), item.getAircraftType(), item.getDescription(),
+                        item.getOperator()));
+        IngestorMetrics.AIRCRAFT_CACHE_SIZE.set(entries.size());
+    }
+
+    public synchronized void invalidate(String hex) {
+        entries.remove(hex);
+        IngestorMetrics.AIRCRAFT_CACHE_SIZE.set(entries.size());
+    }
+
+    /**
+     * Removes the aircraft whose hex matches, e.g. those of a revoked partition.
+     *
+     * @return the number of aircraft removed
+     */
+    public synchronized int evictIf(Predicate<String> hex) {
+        int before = entries.size();
+        entries.keySet().removeIf(hex);
+        IngestorMetrics.AIRCRAFT_CACHE_SIZE.set(entries.size());
+        return before - entries.size();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        private final long id;
+        private final String registration;
+        private final String aircraftType;
+        private final String description;
+        private final String operator;
+
+        private Entry(long id, String registration, String aircraftType, String description, String operator) {
+            this.id = id;
+            this.registration = registration;
+            this.aircraftType = aircraftType;
+            this.description = description;
+            this.operator = operator;
+        }
+
+        /**
+         * @return whether the upsert of {@code item} would change any of the cached values
+         */
+        private boolean changedBy(AcItem item) {
+            return changes(item.getRegistration(), registration)
+                    || changes(item.getAircraftType(), aircraftType)
+                    || changes(item.getDescription(), description)
+                    || changes(item.getOperator(), operator);
+        }
+
+        private Entry merge(AcItem item) {
+            return new Entry(id,
+                    coalesce(item.getRegistration(), registration),
+                    coalesce(item.getAircraftType(), aircraftType),
+                    coalesce(item.getDescription(), description),
+                    coalesce(item.getOperator(), operator));
+        }
+
+        private static boolean changes(String incoming, String cached) {
+            return incoming != null && !incoming.equals(cached);
+        }
+
+        private static String coalesce(String incoming, String cached) {
+            return incoming != null ? incoming : cached;
+        }
+    }
+}
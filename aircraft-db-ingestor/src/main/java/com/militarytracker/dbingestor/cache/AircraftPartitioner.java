@@ -0,0 +1,106 @@
+package com.militarytracker.dbingestor.cache;
+
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tells which partition of the flights topic an aircraft's records arrive on. The poller keys
+ * records by hex and publishes them through the default partitioner, so the partition is the
+ * murmur2 hash of the hex modulo the partition count. The ids of aircraft seen by the ingest
+ * path are remembered with their partition, so that state keyed by aircraft id can be evicted
+ * when a partition is revoked. The partition count is taken from the topic on the first
+ * assignment and follows it when partitions are added at runtime; see
+ * {@code PartitionStateRebalanceListener#refreshPartitionCount}.
+ */
+public class AircraftPartitioner {
+
+    /**
+     * The partition of every aircraft until the partition count is known, e.g. for records
+     * replayed from the spool before the first assignment.
+     */
+    public static final int UNKNOWN_PARTITION = -1;
+
+    private volatile int partitionCount;
+    private final ConcurrentHashMap<Long, Integer> partitionById = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a partitioner whose partition count is not known yet.
+     */
+    public AircraftPartitioner() {
+    }
+
+    public AircraftPartitioner(int partitionCount) {
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("partitionCount must be positive: " + partitionCount);
+        }
+        this.partitionCount = partitionCount;
+    }
+
+    public int partitionOf(String hex) {
+        int partitionCount = this.partitionCount;
+        if (partitionCount == 0) {
+            return UNKNOWN_PARTITION;
+        }
+        return Utils.toPositive(Utils.murmur2(hex.getBytes(StandardCharsets.UTF_8))) % partitionCount;
+    }
+
+    public void record(String hex, long aircraftId) {
+        partitionById.put(aircraftId, partitionOf(hex));
+    }
+
+    /**
+     * @param aircraftIds aircraft ids keyed by hex
+     */
+    public void record(Map<String, Long> aircraftIds) {
+        for (Map.Entry<String, Long> entry : aircraftIds.entrySet()) {
+            record(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Forgets the aircraft of the given partitions.
+     *
+     * @return their ids
+     */
+    public Set<Long> forget(Collection<Integer> partitions) {
+        Set<Long> ids = new HashSet<>();
+        Iterator<Map.Entry<Long, Integer>> it = partitionById.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Integer> entry = it.next();
+            if (partitions.contains(entry.getValue())) {
+                ids.add(entry.getKey());
+                it.remove();
+            }
+        }
+        return ids;
+    }
+
+    public int size() {
+        return partitionById.size();
+    }
+
+    /**
+     * @return the partition count, or 0 if it is not known yet
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * Changes the partition count, after which every aircraft may map to another partition.
+     * The ids recorded so far keep their old partition until forgotten.
+     */
+    public void setPartitionCount(int partitionCount) {
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("partitionCount must be positive: " + partitionCount);
+        }
+        this.partitionCount = partitionCount;
+    }
+}
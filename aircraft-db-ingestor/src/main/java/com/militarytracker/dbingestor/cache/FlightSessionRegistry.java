@@ -0,0 +1,143 @@
+package com.militarytracker.dbingestor.cache;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU map of aircraft id to the state of that aircraft's flight session machine:
+ * airborne in an open session, on the ground (with where it was parked, so a takeoff can
+ * record its departure point), or neither, after signal loss. A miss falls back to looking
+ * up the open session in {@code flight_sessions}; an aircraft whose ground state was evicted
+ * simply has its next takeoff recorded as not observed.
+ */
+public class FlightSessionRegistry {
+
+    private final int maxSize;
+    private final LinkedHashMap<Long, SessionState> states;
+
+    public FlightSessionRegistry(int maxSize) {
+        this.maxSize = maxSize;
+        this.states = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SessionState> eldest) {
+                return size() > FlightSessionRegistry.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized SessionState lookup(long aircraftId) {
+        return states.get(aircraftId);
+    }
+
+    /**
+     * Registers the state of an aircraft. Only call this once the transaction that moved
+     * the aircraft into that state has committed.
+     */
+    public synchronized void register(SessionState state) {
+        states.put(state.getAircraftId(), state);
+    }
+
+    /**
+     * Replaces the aircraft's state only if it is still in the given session, so that a
+     * session closed in the background does not clobber one the ingest path opened since.
+     */
+    public synchronized void replaceIfInSession(long sessionId, SessionState state) {
+        SessionState current = states.get(state.getAircraftId());
+        if (current == null || Long.valueOf(sessionId).equals(current.getSessionId())) {
+            states.put(state.getAircraftId(), state);
+        }
+    }
+
+    /**
+     * Forgets the given aircraft, e.g. those of a revoked partition.
+     *
+     * @return the number of aircraft removed
+     */
+    public synchronized int evictAircraft(Set<Long> aircraftIds) {
+        int before = states.size();
+        states.keySet().removeIf(aircraftIds::contains);
+        return before - states.size();
+    }
+
+    public synchronized void clear() {
+        states.clear();
+    }
+
+    public synchronized int size() {
+        return states.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Immutable snapshot of one aircraft's session state.
+     */
+    public static final class SessionState {
+        private final long aircraftId;
+        private final Long sessionId;
+        private final boolean onGround;
+        private final Double groundLon;
+        private final Double groundLat;
+        private final Instant lastSeenAt;
+
+        private SessionState(long aircraftId, Long sessionId, boolean onGround,
+                             Double groundLon, Double groundLat, Instant lastSeenAt) {
+            this.aircraftId = aircraftId;
+            this.sessionId = sessionId;
+            this.onGround = onGround;
+            this.groundLon = groundLon;
+            this.groundLat = groundLat;
+            this.lastSeenAt = lastSeenAt;
+        }
+
+        public static SessionState airborne(long aircraftId, long sessionId, Instant lastSeenAt) {
+            return new SessionState(aircraftId, sessionId, false, null, null, lastSeenAt);
+        }
+
+        public static SessionState onGround(long aircraftId, double lon, double lat, Instant lastSeenAt) {
+            return new SessionState(aircraftId, null, true, lon, lat, lastSeenAt);
+        }
+
+        /**
+         * No open session and the ground state is unknown, e.g. after the signal was lost.
+         */
+        public static SessionState lost(long aircraftId, Instant lastSeenAt) {
+            return new SessionState(aircraftId, null, false, null, null, lastSeenAt);
+        }
+
+        public long getAircraftId() {
+            return aircraftId;
+        }
+
+        /**
+         * @return the open session, or null if the aircraft has none
+         */
+        public Long getSessionId() {
+            return sessionId;
+        }
+
+        public boolean isOpen() {
+            return sessionId != null;
+        }
+
+        public boolean isOnGround() {
+            return onGround;
+        }
+
+        public Double getGroundLon() {
+            return groundLon;
+        }
+
+        public Double getGroundLat() {
+            return groundLat;
+        }
+
+        public Instant getLastSeenAt() {
+            return lastSeenAt;
+        }
+    }
+}
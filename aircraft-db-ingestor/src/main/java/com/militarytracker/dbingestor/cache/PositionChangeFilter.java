@@ -0,0 +1,178 @@
+package com.militarytracker.dbingestor.cache;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.model.api.AcItem;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Bounded LRU map of hex_icao to the last position written for that aircraft, used to drop
+ * positions that repeat it. The poller republishes every aircraft on every poll, so parked or
+ * slow aircraft would otherwise store the same row over and over. A position is kept when it
+ * moved, climbed, sped up or turned by more than the configured tolerances, when its flight,
+ * squawk or on-ground flag changed, or when the last written position is older than the
+ * keepalive interval. An unknown aircraft always passes.
+ */
+public class PositionChangeFilter {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+
+    private final int maxSize;
+    private final double positionMeters;
+    private final int altitudeFeet;
+    private final double speedKnots;
+    private final double trackDegrees;
+    private final Duration keepalive;
+    private final LinkedHashMap<String, LastPosition> lastWritten;
+
+    private long checked;
+    private long suppressed;
+
+    public PositionChangeFilter(int maxSize, double positionMeters, int altitudeFeet,
+                                double speedKnots, double trackDegrees, Duration keepalive) {
+        this.maxSize = maxSize;
+        this.positionMeters = positionMeters;
+        this.altitudeFeet = altitudeFeet;
+        this.speedKnots = speedKnots;
+        this.trackDegrees = trackDegrees;
+        this.keepalive = keepalive;
+        this.lastWritten = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LastPosition> eldest) {
+                return size() > PositionChangeFilter.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the positions that differ from the last one written for their aircraft, or from
+     *         an earlier one in the same batch, in their original order
+     */
+    public synchronized List<AcItem> filter(List<AcItem> items, Instant now) {
+        List<AcItem> changed = new ArrayList<>(items.size());
+        Map<String, LastPosition> batch = new HashMap<>();
+        for (AcItem item : items) {
+            LastPosition previous = batch.containsKey(item.getHex())
+                    ? batch.get(item.getHex())
+                    : lastWritten.get(item.getHex());
+            if (previous == null || isChanged(previous, item, now)) {
+                changed.add(item);
+                batch.put(item.getHex(), new LastPosition(item, now));
+            } else {
+                suppressed++;
+                IngestorMetrics.POSITIONS_SUPPRESSED.inc();
+            }
+        }
+        checked += items.size();
+        if (checked > 0) {
+            IngestorMetrics.POSITION_SUPPRESSION_RATIO.set((double) suppressed / checked);
+        }
+        return changed;
+    }
+
+    /**
+     * Records positions as the last ones written. Only call this once the transaction that
+     * wrote them has committed, otherwise a rollback would suppress their retry.
+     */
+    public synchronized void recordWritten(List<AcItem> items, Instant at) {
+        for (AcItem item : items) {
+            lastWritten.put(item.getHex(), new LastPosition(item, at));
+        }
+    }
+
+    /**
+     * Records the last position written for one aircraft, e.g. one loaded from
+     * {@code aircraft_latest}.
+     */
+    public synchronized void recordWritten(AcItem item, Instant at) {
+        lastWritten.put(item.getHex(), new LastPosition(item, at));
+    }
+
+    /**
+     * Forgets the aircraft whose hex matches, e.g. those of a revoked partition.
+     *
+     * @return the number of aircraft removed
+     */
+    public synchronized int evictIf(Predicate<String> hex) {
+        int before = lastWritten.size();
+        lastWritten.keySet().removeIf(hex);
+        return before - lastWritten.size();
+    }
+
+    public synchronized int size() {
+        return lastWritten.size();
+    }
+
+    private boolean isChanged(LastPosition previous, AcItem item, Instant now) {
+        if (!previous.writtenAt.plus(keepalive).isAfter(now)) {
+            return true;
+        }
+        if (!Objects.equals(previous.flight, item.getFlight())
+                || !Objects.equals(previous.squawk, item.getSquawk())
+                || previous.onGround != item.isOnGround()) {
+            return true;
+        }
+        if (distanceMeters(previous.lat, previous.lon, item.getLat(), item.getLon()) > positionMeters) {
+            return true;
+        }
+        return exceeds(previous.altitude, item.getAltBaroFeet(), altitudeFeet)
+                || exceeds(previous.groundSpeed, item.getGroundSpeed(), speedKnots)
+                || trackChanged(previous.track, item.getTrack());
+    }
+
+    private boolean trackChanged(Double previous, Double current) {
+        if (previous == null || current == null) {
+            return previous != current;
+        }
+        double diff = Math.abs(previous - current) % 360;
+        return Math.min(diff, 360 - diff) > trackDegrees;
+    }
+
+    private static boolean exceeds(Number previous, Number current, double tolerance) {
+        if (previous == null || current == null) {
+            return previous != current;
+        }
+        return Math.abs(previous.doubleValue() - current.doubleValue()) > tolerance;
+    }
+
+    /**
+     * Equirectangular approximation, accurate to well under a meter at tolerance distances.
+     */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+
+    private static final class LastPosition {
+        private final String flight;
+        private final String squawk;
+        private final boolean onGround;
+        private final double lat;
+        private final double lon;
+        private final Integer altitude;
+        private final Double groundSpeed;
+        private final Double track;
+        private final Instant writtenAt;
+
+        private LastPosition(AcItem item, Instant writtenAt) {
+            this.flight = item.getFlight();
+            this.squawk = item.getSquawk();
+            this.onGround = item.isOnGround();
+            this.lat = item.getLat();
+            this.lon = item.getLon();
+            this.altitude = item.getAltBaroFeet();
+            this.groundSpeed = item.getGroundSpeed();
+            this.track = item.getTrack();
+            this.writtenAt = writtenAt;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.militarytracker.dbingestor.consumer;
+
+/**
+ * When a consumer worker switches to catch-up mode and back. A worker enters it once the
+ * lag summed over its partitions reaches {@code enterLag} and leaves it once the lag has
+ * fallen to {@code exitLag}, so that it does not flap around a single threshold. In catch-up
+ * mode batches of up to {@code batchSize} records are written through COPY and track
+ * maintenance is deferred until the worker has caught up.
+ */
+public class CatchUpPolicy {
+
+    private static final CatchUpPolicy DISABLED = new CatchUpPolicy(Long.MAX_VALUE, 0, 0);
+
+    private final long enterLag;
+    private final long exitLag;
+    private final int batchSize;
+
+    public CatchUpPolicy(long enterLag, long exitLag, int batchSize) {
+        if (exitLag > enterLag) {
+            throw new IllegalArgumentException("exit lag " + exitLag + " is above enter lag " + enterLag);
+        }
+        this.enterLag = enterLag;
+        this.exitLag = exitLag;
+        this.batchSize = batchSize;
+    }
+
+    public static CatchUpPolicy disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    public long getEnterLag() {
+        return enterLag;
+    }
+
+    public long getExitLag() {
+        return exitLag;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
@@ -2,58 +2,187 @@ package com.militarytracker.dbingestor.consumer;
 
 import com.militarytracker.common.json.JsonMapper;
 import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.dbingestor.repository.ConsumerOffsetRepository;
+import com.militarytracker.dbingestor.service.BatchStats;
+import com.militarytracker.dbingestor.service.CatchUpWindow;
+import com.militarytracker.dbingestor.service.DatabaseUnavailableException;
 import com.militarytracker.dbingestor.service.IngestionService;
+import com.militarytracker.dbingestor.spool.DiskSpool;
 import com.militarytracker.model.api.AcItem;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 
+/**
+ * Polls flight records and hands them, in batches, to a writer thread through a bounded
+ * queue. Polling never waits for the database: when the queue is full the assigned partitions
+ * are paused, so {@code poll()} keeps the consumer in the group without fetching more, and
+ * they are resumed once the queue has drained to half its capacity.
+ * <p>
+ * The KafkaConsumer and the {@link OffsetTracker} are only touched by the polling thread.
+ * The writer reports each batch back through a second queue, and the polling thread marks
+ * its offsets or, if the database was unavailable, rewinds the partitions.
+ * <p>
+ * With a {@link DiskSpool}, a batch the database refuses is appended to the spool instead
+ * and counts as written, so consumption carries on through an outage. While the spool holds
+ * anything, later batches are appended behind it rather than written, keeping each aircraft's
+ * positions in order. Once the database accepts writes again the writer drains the whole spool
+ * back to back through the catch-up path, with each position stamped with when its record was
+ * produced, before it takes the next batch, so batches arriving meanwhile wait in the hand-off
+ * queue instead of growing the spool. Only a full spool falls back to rewinding.
+ * <p>
+ * With a {@link CatchUpPolicy}, the polling thread checks the lag of its partitions about
+ * once a second. While the lag is high, batches are larger and marked for catch-up: the
+ * writer loads them through COPY without maintaining tracks, and rebuilds the tracks of the
+ * aircraft it wrote in one pass once the first normal batch arrives.
+ */
 public class FlightKafkaConsumer implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(FlightKafkaConsumer.class);
 
+    private static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    private static final long DEFAULT_LINGER_MS = 1000;
+    private static final long DEFAULT_COMMIT_INTERVAL_MS = 1000;
+    private static final int DEFAULT_COMMIT_MAX_RECORDS = 2000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4;
+    private static final long MAX_POLL_TIMEOUT_MS = 500;
+    private static final long PAUSED_POLL_TIMEOUT_MS = 100;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long DRAIN_TIMEOUT_MS = 30_000;
+    private static final long LAG_CHECK_INTERVAL_MS = 1000;
+
     private final KafkaConsumer<String, String> consumer;
     private final IngestionService ingestionService;
     private final String topic;
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final ConsumerRebalanceListener rebalanceListener;
+    private final IntConsumer partitionCountListener;
+    private final OffsetTracker offsets;
+    private final ConsumerOffsetRepository offsetStore;
+    private final int queueCapacity;
+    private final DiskSpool spool;
+    private final CatchUpPolicy catchUp;
     private final AtomicBoolean shutdown = new AtomicBoolean(false);
 
-    public FlightKafkaConsumer(KafkaConsumer<String, String> consumer,
-                                IngestionService ingestionService,
-                                String topic) {
-        this.consumer = consumer;
-        this.ingestionService = ingestionService;
-        this.topic = topic;
+    private final BlockingQueue<WriteBatch> handOff;
+    private final BlockingQueue<WriteResult> completed = new LinkedBlockingQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicBoolean writerStopped = new AtomicBoolean(false);
+
+    // Owned by the polling thread
+    private final List<PendingRecord> pending = new ArrayList<>();
+    private final Map<TopicPartition, Long> firstHandedOff = new HashMap<>();
+    private long pendingSince;
+    private long pausedSince = -1;
+    private long lagCheckedAt;
+    private boolean catchingUp;
+
+    // Owned by the writer thread
+    private long replayAfter;
+    private CatchUpWindow catchUpWindow;
+    private long rebuildAfter;
+
+    private FlightKafkaConsumer(Builder builder) {
+        this.consumer = builder.consumer;
+        this.ingestionService = builder.ingestionService;
+        this.topic = builder.topic;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.lingerMs = builder.lingerMs;
+        this.rebalanceListener = builder.rebalanceListener;
+        this.partitionCountListener = builder.partitionCountListener;
+        this.offsets = builder.offsets;
+        this.offsetStore = builder.offsetStore;
+        this.queueCapacity = builder.queueCapacity;
+        this.handOff = new ArrayBlockingQueue<>(queueCapacity);
+        this.spool = builder.spool;
+        this.catchUp = builder.catchUp;
+    }
+
+    public static Builder builder(KafkaConsumer<String, String> consumer, IngestionService ingestionService,
+                                  String topic) {
+        return new Builder(consumer, ingestionService, topic);
     }
 
     @Override
     public void run() {
-        consumer.subscribe(Collections.singletonList(topic));
-        LOG.info("Subscribed to topic: {}", topic);
+        Thread writer = Thread.ofVirtual().name(Thread.currentThread().getName() + "-writer").start(this::writeLoop);
+        consumer.subscribe(Collections.singletonList(topic), new CommittingRebalanceListener());
+        LOG.info("Subscribed to topic: {} (max batch size={}, linger={}ms, queue capacity={})",
+                topic, maxBatchSize, lingerMs, queueCapacity);
 
         try {
             while (!shutdown.get()) {
-                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(500));
+                ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(pollTimeoutMs()));
                 for (ConsumerRecord<String, String> record : records) {
+                    IngestorMetrics.RECORDS_READ_FROM_KAFKA.inc();
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    AcItem item = null;
+                    long parseStart = System.nanoTime();
                     try {
-                        IngestorMetrics.RECORDS_READ_FROM_KAFKA.inc();
-                        AcItem item = JsonMapper.get().readValue(record.value(), AcItem.class);
-                        ingestionService.ingest(item);
+                        item = JsonMapper.get().readValue(record.value(), AcItem.class);
                     } catch (Exception e) {
+                        // Kept in pending so its offset is only marked after the records before it
                         LOG.error("Error processing record at offset={}: {}", record.offset(), e.getMessage());
                         IngestorMetrics.RECORDS_FAILED.inc();
                     }
+                    if (pending.isEmpty()) {
+                        pendingSince = System.currentTimeMillis();
+                    }
+                    pending.add(new PendingRecord(partition, record.offset(), item, System.nanoTime() - parseStart,
+                            producedAt(record)));
                 }
-                if (!records.isEmpty()) {
-                    consumer.commitSync();
+
+                handleCompleted();
+                updateLag();
+                if (pending.size() >= batchSize() || lingerExpired()) {
+                    handOffPending(false);
+                }
+                updatePause();
+                if (offsets.isCommitDue(System.currentTimeMillis())) {
+                    commitAsync();
                 }
             }
+
+            if (drain() && offsetStore == null) {
+                commitSync();
+            }
         } finally {
+            if (pausedSince >= 0) {
+                resume();
+            }
+            if (catchingUp) {
+                IngestorMetrics.CATCH_UP_WORKERS.dec();
+            }
+            stopWriter(writer);
             consumer.close();
             LOG.info("Kafka consumer closed");
         }
@@ -62,4 +191,675 @@ public class FlightKafkaConsumer implements Runnable {
     public void shutdown() {
         shutdown.set(true);
     }
+
+    /**
+     * Moves pending records into the hand-off queue in batches of at most
+     * {@link #batchSize()}. Without {@code force}, it stops at the first batch the full
+     * queue rejects and leaves the rest pending; with it, it waits for room.
+     */
+    private void handOffPending(boolean force) {
+        while (!pending.isEmpty()) {
+            List<PendingRecord> chunk = new ArrayList<>(pending.subList(0, Math.min(batchSize(), pending.size())));
+            WriteBatch batch = new WriteBatch(epoch.get(), chunk, catchingUp);
+            inFlight.incrementAndGet();
+            boolean accepted = force ? offerUntilAccepted(batch) : handOff.offer(batch);
+            if (!accepted) {
+                inFlight.decrementAndGet();
+                return;
+            }
+            IngestorMetrics.HANDOFF_QUEUE_DEPTH.inc();
+            for (PendingRecord record : chunk) {
+                firstHandedOff.putIfAbsent(record.partition, record.offset);
+            }
+            pending.subList(0, chunk.size()).clear();
+        }
+    }
+
+    private boolean offerUntilAccepted(WriteBatch batch) {
+        try {
+            while (!handOff.offer(batch, PAUSED_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (writerStopped.get()) {
+                    return false;
+                }
+                handleCompleted();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Hands off everything pending and waits until the writer has finished all of it.
+     *
+     * @return false if the writes did not all succeed in time
+     */
+    private boolean drain() {
+        long epochBefore = epoch.get();
+        handOffPending(true);
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        try {
+            while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                WriteResult result = completed.poll(PAUSED_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    handle(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handleCompleted();
+        if (inFlight.get() > 0) {
+            LOG.warn("Gave up waiting for {} batches to be written", inFlight.get());
+            return false;
+        }
+        return epoch.get() == epochBefore;
+    }
+
+    private void handleCompleted() {
+        WriteResult result;
+        while ((result = completed.poll()) != null) {
+            handle(result);
+        }
+    }
+
+    private void handle(WriteResult result) {
+        if (result.written) {
+            for (PendingRecord record : result.batch.records) {
+                offsets.markProcessed(record.partition, record.offset);
+            }
+        } else {
+            rewind();
+        }
+    }
+
+    /**
+     * Discards everything not yet written and seeks every partition back to its first
+     * unwritten offset. Batches handed off before the rewind are dropped by the writer,
+     * since they belong to an older epoch.
+     */
+    private void rewind() {
+        epoch.incrementAndGet();
+        List<WriteBatch> discarded = new ArrayList<>();
+        handOff.drainTo(discarded);
+        inFlight.addAndGet(-discarded.size());
+        IngestorMetrics.HANDOFF_QUEUE_DEPTH.dec(discarded.size());
+
+        Map<TopicPartition, Long> firstUnwritten = new LinkedHashMap<>();
+        for (Map.Entry<TopicPartition, Long> entry : firstHandedOff.entrySet()) {
+            Long next = offsets.nextOffset(entry.getKey());
+            firstUnwritten.put(entry.getKey(), next != null ? next : entry.getValue());
+        }
+        for (PendingRecord record : pending) {
+            firstUnwritten.putIfAbsent(record.partition, record.offset);
+        }
+        LOG.error("Database unavailable, will re-read {} batches and {} pending records",
+                discarded.size() + 1, pending.size());
+        for (Map.Entry<TopicPartition, Long> entry : firstUnwritten.entrySet()) {
+            if (consumer.assignment().contains(entry.getKey())) {
+                consumer.seek(entry.getKey(), entry.getValue());
+            }
+        }
+        pending.clear();
+        firstHandedOff.clear();
+    }
+
+    private void updatePause() {
+        boolean full = handOff.remainingCapacity() == 0 || pending.size() >= batchSize();
+        if (full && pausedSince < 0) {
+            consumer.pause(consumer.assignment());
+            pausedSince = System.currentTimeMillis();
+            IngestorMetrics.CONSUMER_PAUSES.inc();
+            LOG.debug("Writer is behind, paused {} partitions", consumer.assignment().size());
+        } else if (!full && pausedSince >= 0 && handOff.size() <= queueCapacity / 2) {
+            resume();
+        }
+    }
+
+    /**
+     * Sums the lag of the assigned partitions, at most once per {@link #LAG_CHECK_INTERVAL_MS},
+     * and switches catch-up mode on or off. Partitions whose lag the consumer does not know
+     * yet count as caught up.
+     */
+    private void updateLag() {
+        long now = System.currentTimeMillis();
+        if (!catchUp.isEnabled() || now - lagCheckedAt < LAG_CHECK_INTERVAL_MS) {
+            return;
+        }
+        lagCheckedAt = now;
+        long total = 0;
+        for (TopicPartition partition : consumer.assignment()) {
+            OptionalLong lag = consumer.currentLag(partition);
+            if (lag != null && lag.isPresent()) {
+                IngestorMetrics.CONSUMER_LAG.labels(String.valueOf(partition.partition())).set(lag.getAsLong());
+                total += lag.getAsLong();
+            }
+        }
+        if (!catchingUp && total >= catchUp.getEnterLag()) {
+            catchingUp = true;
+            IngestorMetrics.CATCH_UP_WORKERS.inc();
+            IngestorMetrics.CATCH_UP_SWITCHES.labels("enter").inc();
+            LOG.info("Lag of {} records, switching to catch-up mode (batch size {})", total, catchUp.getBatchSize());
+        } else if (catchingUp && total <= catchUp.getExitLag()) {
+            catchingUp = false;
+            IngestorMetrics.CATCH_UP_WORKERS.dec();
+            IngestorMetrics.CATCH_UP_SWITCHES.labels("exit").inc();
+            LOG.info("Lag down to {} records, leaving catch-up mode", total);
+        }
+    }
+
+    private int batchSize() {
+        return catchingUp ? catchUp.getBatchSize() : maxBatchSize;
+    }
+
+    private void resume() {
+        consumer.resume(consumer.paused());
+        IngestorMetrics.CONSUMER_PAUSED_SECONDS.inc((System.currentTimeMillis() - pausedSince) / 1000.0);
+        pausedSince = -1;
+    }
+
+    /**
+     * Runs on the writer thread. After a failure it backs off and drops every batch of the
+     * failed epoch, which the polling thread re-reads once it has rewound. Before each batch
+     * it drains the spool, if there is anything in it and the database is not known to be down.
+     */
+    private void writeLoop() {
+        long failedEpoch = -1;
+        while (!writerStopped.get()) {
+            if (spool != null && !spool.isEmpty() && System.currentTimeMillis() >= replayAfter) {
+                drainSpool();
+            }
+            WriteBatch batch;
+            try {
+                batch = handOff.poll(PAUSED_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                continue;
+            }
+            IngestorMetrics.HANDOFF_QUEUE_DEPTH.dec();
+            if (batch.epoch <= failedEpoch || batch.epoch != epoch.get()) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            try {
+                writeOrSpool(batch);
+                completed.add(new WriteResult(batch, true));
+            } catch (RuntimeException e) {
+                // Unexpected errors are treated like an outage, so the records are re-read, not skipped
+                if (e instanceof DatabaseUnavailableException) {
+                    LOG.error("Failed to write batch of {} records: {}", batch.records.size(), e.getMessage());
+                } else {
+                    LOG.error("Unexpected error writing batch of {} records", batch.records.size(), e);
+                }
+                failedEpoch = batch.epoch;
+                completed.add(new WriteResult(batch, false));
+                backOff();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+        if (catchUpWindow != null) {
+            ingestionService.finishCatchUp(catchUpWindow);
+        }
+    }
+
+    private void writeOrSpool(WriteBatch batch) {
+        if (spool != null && !spool.isEmpty()) {
+            appendToSpool(batch);
+            return;
+        }
+        try {
+            write(batch);
+        } catch (DatabaseUnavailableException e) {
+            if (spool == null) {
+                throw e;
+            }
+            LOG.error("Database unavailable, spooling batch of {} records to disk: {}",
+                    batch.records.size(), e.getMessage());
+            appendToSpool(batch);
+            replayAfter = System.currentTimeMillis() + RETRY_BACKOFF_MS;
+        }
+    }
+
+    private void write(WriteBatch batch) {
+        BatchStats stats = new BatchStats("kafka:" + topic, batch.records.size());
+        List<AcItem> items = items(batch);
+        long parseNanos = 0;
+        for (PendingRecord record : batch.records) {
+            parseNanos += record.parseNanos;
+        }
+        stats.record(BatchStats.Stage.PARSE, parseNanos);
+        stats.addParseFailures(batch.records.size() - items.size());
+        if (batch.catchUp) {
+            if (catchUpWindow == null) {
+                catchUpWindow = new CatchUpWindow();
+            }
+            ingestionService.ingestBatch(items, seenAt(batch), batchOffsets(batch), stats, catchUpWindow);
+            return;
+        }
+        finishCatchUp();
+        ingestionService.ingestBatch(items, batchOffsets(batch), stats);
+    }
+
+    /**
+     * Rebuilds the tracks deferred while catching up. If that fails the batch is still
+     * written normally and the rebuild is retried after a back-off; the window keeps growing
+     * if the worker falls behind again first.
+     */
+    private void finishCatchUp() {
+        if (catchUpWindow == null || System.currentTimeMillis() < rebuildAfter) {
+            return;
+        }
+        if (ingestionService.finishCatchUp(catchUpWindow)) {
+            catchUpWindow = null;
+        } else {
+            rebuildAfter = System.currentTimeMillis() + RETRY_BACKOFF_MS;
+        }
+    }
+
+    /**
+     * @throws DatabaseUnavailableException if the spool is full or could not be written, so
+     *         that the batch is re-read like after any other failed write
+     */
+    private void appendToSpool(WriteBatch batch) {
+        try {
+            if (!spool.append(items(batch), seenAt(batch), batchOffsets(batch))) {
+                throw new DatabaseUnavailableException("Spool is full, batch of " + batch.records.size()
+                        + " records not written");
+            }
+            IngestorMetrics.BATCHES_SPOOLED.inc();
+        } catch (IOException e) {
+            throw new DatabaseUnavailableException("Failed to spool batch of " + batch.records.size() + " records", e);
+        }
+    }
+
+    /**
+     * Replays spooled batches back to back until the spool is empty. Replay goes through the
+     * catch-up path: COPY, no track maintenance, and each position stamped with when its record
+     * was produced rather than when the database came back. The deferred tracks are rebuilt
+     * before the next normal batch, as after catch-up.
+     */
+    private void drainSpool() {
+        if (catchUpWindow == null) {
+            catchUpWindow = new CatchUpWindow();
+        }
+        long start = System.nanoTime();
+        int replayed = 0;
+        while (!writerStopped.get() && replayNext()) {
+            replayed++;
+        }
+        if (spool.isEmpty()) {
+            LOG.info("Replayed {} spooled batches in {} ms, writing batches directly again",
+                    replayed, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Writes the oldest spooled batch, storing its offsets with it in database mode.
+     *
+     * @return false if the spool is empty or the database is still unavailable, in which case
+     *         replay is retried after a back-off
+     */
+    private boolean replayNext() {
+        DiskSpool.SpooledBatch spooled = spool.peek();
+        if (spooled == null) {
+            return false;
+        }
+        try {
+            ingestionService.ingestBatch(spooled.getItems(), spooled.getSeenAt(), spooled.getNextOffsets(),
+                    new BatchStats("spool:" + topic, spooled.getItems().size()), catchUpWindow);
+        } catch (RuntimeException e) {
+            LOG.warn("Database still unavailable, {} batches remain spooled: {}", spool.size(), e.getMessage());
+            replayAfter = System.currentTimeMillis() + RETRY_BACKOFF_MS;
+            return false;
+        }
+        spool.confirm(spooled);
+        IngestorMetrics.BATCHES_REPLAYED.inc();
+        return true;
+    }
+
+    private Map<TopicPartition, Long> batchOffsets(WriteBatch batch) {
+        return offsetStore != null ? nextOffsets(batch.records) : Map.of();
+    }
+
+    private static List<AcItem> items(WriteBatch batch) {
+        List<AcItem> items = new ArrayList<>(batch.records.size());
+        for (PendingRecord record : batch.records) {
+            if (record.item != null) {
+                items.add(record.item);
+            }
+        }
+        return items;
+    }
+
+    private static List<Instant> seenAt(WriteBatch batch) {
+        List<Instant> seenAt = new ArrayList<>(batch.records.size());
+        for (PendingRecord record : batch.records) {
+            if (record.item != null) {
+                seenAt.add(record.producedAt);
+            }
+        }
+        return seenAt;
+    }
+
+    /**
+     * When the record was produced, which catch-up writes as its {@code seen_at}. Records
+     * without a timestamp, or stamped ahead of this host's clock, count as produced now, so
+     * that no position is dated later than the ones written normally after it.
+     */
+    private static Instant producedAt(ConsumerRecord<String, String> record) {
+        long now = System.currentTimeMillis();
+        return Instant.ofEpochMilli(record.timestamp() < 0 ? now : Math.min(record.timestamp(), now));
+    }
+
+    private void stopWriter(Thread writer) {
+        writerStopped.set(true);
+        try {
+            writer.join(DRAIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<TopicPartition, Long> nextOffsets(List<PendingRecord> records) {
+        Map<TopicPartition, Long> next = new LinkedHashMap<>();
+        for (PendingRecord record : records) {
+            next.merge(record.partition, record.offset + 1, Math::max);
+        }
+        return next;
+    }
+
+    private void seekToStoredOffsets(Collection<TopicPartition> partitions) {
+        try {
+            Map<TopicPartition, Long> stored = new HashMap<>(offsetStore.loadOffsets(partitions));
+            if (spool != null) {
+                // Records already spooled store their offsets only when replayed
+                for (Map.Entry<TopicPartition, Long> entry : spool.spooledOffsets().entrySet()) {
+                    if (partitions.contains(entry.getKey())) {
+                        stored.merge(entry.getKey(), entry.getValue(), Math::max);
+                    }
+                }
+            }
+            for (Map.Entry<TopicPartition, Long> entry : stored.entrySet()) {
+                consumer.seek(entry.getKey(), entry.getValue());
+            }
+            LOG.info("Positioned {} of {} assigned partitions from stored offsets", stored.size(), partitions.size());
+        } catch (Exception e) {
+            // Falls back to the offsets committed to Kafka, which trail the stored ones
+            LOG.warn("Failed to load stored offsets, resuming from Kafka offsets: {}", e.getMessage());
+        }
+    }
+
+    private void commitAsync() {
+        Map<TopicPartition, OffsetAndMetadata> toCommit = offsets.uncommitted();
+        offsets.commitSent(toCommit);
+        consumer.commitAsync(toCommit, (committed, exception) -> {
+            if (exception != null) {
+                LOG.warn("Async offset commit failed, will retry: {}", exception.getMessage());
+                IngestorMetrics.OFFSET_COMMIT_FAILURES.inc();
+                offsets.commitFailed(toCommit);
+            } else {
+                IngestorMetrics.OFFSET_COMMITS.inc();
+            }
+        });
+    }
+
+    private void commitSync() {
+        if (!offsets.hasUncommitted()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> toCommit = offsets.uncommitted();
+        try {
+            consumer.commitSync(toCommit);
+            offsets.commitSent(toCommit);
+            IngestorMetrics.OFFSET_COMMITS.inc();
+        } catch (Exception e) {
+            LOG.warn("Offset commit failed: {}", e.getMessage());
+            IngestorMetrics.OFFSET_COMMIT_FAILURES.inc();
+        }
+    }
+
+    private void backOff() {
+        try {
+            Thread.sleep(RETRY_BACKOFF_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean lingerExpired() {
+        return !pending.isEmpty() && System.currentTimeMillis() - pendingSince >= lingerMs;
+    }
+
+    private long pollTimeoutMs() {
+        if (pausedSince >= 0) {
+            return PAUSED_POLL_TIMEOUT_MS;
+        }
+        if (pending.isEmpty()) {
+            return MAX_POLL_TIMEOUT_MS;
+        }
+        long remaining = lingerMs - (System.currentTimeMillis() - pendingSince);
+        return Math.max(0, Math.min(MAX_POLL_TIMEOUT_MS, remaining));
+    }
+
+    /**
+     * Writes and synchronously commits everything polled before partitions are taken away,
+     * so the next owner starts exactly where this consumer stopped. With an offset store the
+     * writes themselves store the offsets, and newly assigned partitions are positioned from it.
+     */
+    private final class CommittingRebalanceListener implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            // Cooperative rebalances may revoke nothing from this worker; it keeps writing undisturbed
+            if (partitions.isEmpty()) {
+                return;
+            }
+            if (drain() && offsetStore == null) {
+                commitSync();
+            }
+            forget(partitions);
+            if (rebalanceListener != null) {
+                rebalanceListener.onPartitionsRevoked(partitions);
+            }
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            if (partitionCountListener != null) {
+                int partitionCount = partitionCount(partitions);
+                if (partitionCount > 0) {
+                    partitionCountListener.accept(partitionCount);
+                }
+            }
+            if (offsetStore != null && !partitions.isEmpty()) {
+                seekToStoredOffsets(partitions);
+            }
+            if (pausedSince >= 0 && !partitions.isEmpty()) {
+                consumer.pause(partitions);
+            }
+            if (rebalanceListener != null) {
+                rebalanceListener.onPartitionsAssigned(partitions);
+            }
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            // Another consumer may already own these, so neither write what is still pending
+            // nor commit; batches already handed off are allowed to finish
+            pending.removeIf(record -> partitions.contains(record.partition));
+            drain();
+            forget(partitions);
+            if (rebalanceListener != null) {
+                rebalanceListener.onPartitionsLost(partitions);
+            }
+        }
+
+        /**
+         * @return the topic's partition count, at least one more than the highest partition
+         *         assigned, in case the consumer's metadata has not caught up with partitions
+         *         just added; 0 while the topic does not exist
+         */
+        private int partitionCount(Collection<TopicPartition> assigned) {
+            int count = 0;
+            try {
+                List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+                count = partitions != null ? partitions.size() : 0;
+            } catch (KafkaException e) {
+                LOG.warn("Failed to read the partitions of {}: {}", topic, e.getMessage());
+            }
+            for (TopicPartition partition : assigned) {
+                count = Math.max(count, partition.partition() + 1);
+            }
+            return count;
+        }
+
+        private void forget(Collection<TopicPartition> partitions) {
+            offsets.forget(partitions);
+            firstHandedOff.keySet().removeAll(partitions);
+            if (catchUp.isEnabled()) {
+                for (TopicPartition partition : partitions) {
+                    IngestorMetrics.CONSUMER_LAG.remove(String.valueOf(partition.partition()));
+                }
+            }
+        }
+    }
+
+    private static final class PendingRecord {
+        private final TopicPartition partition;
+        private final long offset;
+        private final AcItem item;
+        private final long parseNanos;
+        private final Instant producedAt;
+
+        private PendingRecord(TopicPartition partition, long offset, AcItem item, long parseNanos,
+                              Instant producedAt) {
+            this.partition = partition;
+            this.offset = offset;
+            this.item = item;
+            this.parseNanos = parseNanos;
+            this.producedAt = producedAt;
+        }
+    }
+
+    private static final class WriteBatch {
+        private final long epoch;
+        private final List<PendingRecord> records;
+        private final boolean catchUp;
+
+        private WriteBatch(long epoch, List<PendingRecord> records, boolean catchUp) {
+            this.epoch = epoch;
+            this.records = records;
+            this.catchUp = catchUp;
+        }
+    }
+
+    private static final class WriteResult {
+        private final WriteBatch batch;
+        private final boolean written;
+
+        private WriteResult(WriteBatch batch, boolean written) {
+            this.batch = batch;
+            this.written = written;
+        }
+    }
+
+    /**
+     * Optional settings of a {@link FlightKafkaConsumer}; whatever is not set keeps its default.
+     */
+    public static final class Builder {
+        private final KafkaConsumer<String, String> consumer;
+        private final IngestionService ingestionService;
+        private final String topic;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private long lingerMs = DEFAULT_LINGER_MS;
+        private ConsumerRebalanceListener rebalanceListener;
+        private IntConsumer partitionCountListener;
+        private OffsetTracker offsets = new OffsetTracker(DEFAULT_COMMIT_INTERVAL_MS, DEFAULT_COMMIT_MAX_RECORDS);
+        private ConsumerOffsetRepository offsetStore;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private DiskSpool spool;
+        private CatchUpPolicy catchUp = CatchUpPolicy.disabled();
+
+        private Builder(KafkaConsumer<String, String> consumer, IngestionService ingestionService, String topic) {
+            this.consumer = consumer;
+            this.ingestionService = ingestionService;
+            this.topic = topic;
+        }
+
+        /**
+         * @param maxBatchSize records after which a batch is handed to the writer
+         * @param lingerMs     how long a batch may wait for more records before it is handed on
+         */
+        public Builder batching(int maxBatchSize, long lingerMs) {
+            this.maxBatchSize = maxBatchSize;
+            this.lingerMs = lingerMs;
+            return this;
+        }
+
+        /**
+         * @param rebalanceListener told about assignment changes after the consumer's own
+         *                          handling, or null
+         */
+        public Builder rebalanceListener(ConsumerRebalanceListener rebalanceListener) {
+            this.rebalanceListener = rebalanceListener;
+            return this;
+        }
+
+        /**
+         * @param partitionCountListener told the topic's partition count on every assignment,
+         *                               before the rebalance listener, or null
+         */
+        public Builder partitionCountListener(IntConsumer partitionCountListener) {
+            this.partitionCountListener = partitionCountListener;
+            return this;
+        }
+
+        public Builder offsets(OffsetTracker offsets) {
+            this.offsets = offsets;
+            return this;
+        }
+
+        /**
+         * @param offsetStore if non-null, offsets are stored with each batch in the database and
+         *                    partitions are positioned from there on assignment; Kafka commits are
+         *                    then only informational (lag monitoring) and never synchronous
+         */
+        public Builder offsetStore(ConsumerOffsetRepository offsetStore) {
+            this.offsetStore = offsetStore;
+            return this;
+        }
+
+        /**
+         * @param queueCapacity batches that may wait for the writer before polling is paused
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * @param spool where batches go while the database is unavailable, or null to rewind and
+         *              re-read them instead
+         */
+        public Builder spool(DiskSpool spool) {
+            this.spool = spool;
+            return this;
+        }
+
+        /**
+         * @param catchUp when to switch to catch-up mode, or {@link CatchUpPolicy#disabled()}
+         */
+        public Builder catchUp(CatchUpPolicy catchUp) {
+            this.catchUp = catchUp;
+            return this;
+        }
+
+        public FlightKafkaConsumer build() {
+            return new FlightKafkaConsumer(this);
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.militarytracker.dbingestor.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks, per partition, the offset up to which every record has been processed and
+ * decides when those offsets are due to be committed. Records of a partition are
+ * processed in offset order, so the highest processed offset is also the end of the
+ * contiguous processed range. Not thread-safe: it belongs to one consumer thread.
+ */
+public class OffsetTracker {
+
+    private final long commitIntervalMs;
+    private final int commitMaxRecords;
+
+    private final Map<TopicPartition, Long> processed = new HashMap<>();
+    private final Map<TopicPartition, Long> committed = new HashMap<>();
+    private int processedSinceCommit;
+    private long lastCommitAt;
+
+    public OffsetTracker(long commitIntervalMs, int commitMaxRecords) {
+        this.commitIntervalMs = commitIntervalMs;
+        this.commitMaxRecords = commitMaxRecords;
+        this.lastCommitAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the record at {@code offset} as processed. Offsets at or below one already
+     * marked are ignored.
+     */
+    public void markProcessed(TopicPartition partition, long offset) {
+        long next = offset + 1;
+        Long current = processed.get(partition);
+        if (current == null || next > current) {
+            processed.put(partition, next);
+            processedSinceCommit++;
+        }
+    }
+
+    /**
+     * @return true once there is something to commit and either the commit interval has
+     *         passed or {@code commitMaxRecords} records were processed since the last commit
+     */
+    public boolean isCommitDue(long now) {
+        if (!hasUncommitted()) {
+            return false;
+        }
+        return processedSinceCommit >= commitMaxRecords || now - lastCommitAt >= commitIntervalMs;
+    }
+
+    /**
+     * @return the offset following the last record processed on the partition, or null if
+     *         none was processed since it was assigned
+     */
+    public Long nextOffset(TopicPartition partition) {
+        return processed.get(partition);
+    }
+
+    public boolean hasUncommitted() {
+        for (Map.Entry<TopicPartition, Long> entry : processed.entrySet()) {
+            if (!entry.getValue().equals(committed.get(entry.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the offsets to commit (the next offset to consume, as Kafka expects) for every
+     *         partition that processed records since its last commit
+     */
+    public Map<TopicPartition, OffsetAndMetadata> uncommitted() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (Map.Entry<TopicPartition, Long> entry : processed.entrySet()) {
+            if (!entry.getValue().equals(committed.get(entry.getKey()))) {
+                offsets.put(entry.getKey(), new OffsetAndMetadata(entry.getValue()));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Records that a commit of {@code offsets} was sent.
+     */
+    public void commitSent(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            committed.put(entry.getKey(), entry.getValue().offset());
+        }
+        processedSinceCommit = 0;
+        lastCommitAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Makes the offsets of a failed async commit due again, unless a later commit has
+     * already superseded them.
+     */
+    public void commitFailed(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            committed.remove(entry.getKey(), entry.getValue().offset());
+        }
+    }
+
+    /**
+     * Forgets partitions that are no longer assigned to this consumer.
+     */
+    public void forget(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            processed.remove(partition);
+            committed.remove(partition);
+        }
+    }
+}
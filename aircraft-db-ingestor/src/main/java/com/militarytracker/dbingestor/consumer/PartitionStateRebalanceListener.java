@@ -0,0 +1,173 @@
+package com.militarytracker.dbingestor.consumer;
+
+import com.militarytracker.dbingestor.cache.AircraftPartitioner;
+import com.militarytracker.dbingestor.cache.PositionChangeFilter;
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.dbingestor.repository.AircraftRepository;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository;
+import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the per-aircraft state of the ingestor (aircraft ids, last written positions, open
+ * tracks and flight sessions) in step with the partitions this instance owns. The state of
+ * revoked or lost partitions is evicted, since their aircraft move on under another consumer.
+ * Newly assigned partitions are warmed from the database before their first records are
+ * returned by {@code poll}, so a rebalance does not turn into a burst of per-aircraft lookups
+ * against the primary. With cooperative assignment only the partitions that actually move are
+ * passed here, and the state of the ones a worker keeps is left alone. One instance is shared
+ * by all consumer workers. Adding partitions to the topic changes the partition of most
+ * aircraft, so when a rebalance brings a larger partition count all per-aircraft state is
+ * dropped and the partitioner switches to the new count.
+ */
+public class PartitionStateRebalanceListener implements ConsumerRebalanceListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionStateRebalanceListener.class);
+
+    private final AircraftPartitioner partitioner;
+    private final DataSource dataSource;
+    private final AircraftRepository aircraftRepo;
+    private final PositionChangeFilter changeFilter;
+    private final FlightTrackRepository trackRepo;
+    private final FlightSessionRepository sessionRepo;
+    private final Duration recentWindow;
+
+    /**
+     * @param changeFilter  the position change filter to warm, or null if positions are not filtered
+     * @param sessionRepo   the flight session repository to warm, or null if sessions are not tracked
+     * @param recentWindow  how recently an aircraft must have been seen for its id and last
+     *                      position to be loaded on assignment
+     */
+    public PartitionStateRebalanceListener(AircraftPartitioner partitioner, DataSource dataSource,
+                                           AircraftRepository aircraftRepo, PositionChangeFilter changeFilter,
+                                           FlightTrackRepository trackRepo, FlightSessionRepository sessionRepo,
+                                           Duration recentWindow) {
+        this.partitioner = partitioner;
+        this.dataSource = dataSource;
+        this.aircraftRepo = aircraftRepo;
+        this.changeFilter = changeFilter;
+        this.trackRepo = trackRepo;
+        this.sessionRepo = sessionRepo;
+        this.recentWindow = recentWindow;
+    }
+
+    /**
+     * Takes up the topic's partition count as seen by a worker on assignment, before the
+     * assigned partitions are passed to {@link #onPartitionsAssigned}. A topic's partitions can
+     * only be added, so a count that is not larger than the current one is ignored. Otherwise
+     * the state of every aircraft is evicted: the partitions assigned in the same rebalance are
+     * warmed against the new count, and the aircraft of the others are looked up again as their
+     * records arrive. The first assignment only sets the count, unless aircraft were already
+     * written without one.
+     */
+    public synchronized void refreshPartitionCount(int partitionCount) {
+        int previous = partitioner.getPartitionCount();
+        if (partitionCount <= previous) {
+            return;
+        }
+        partitioner.setPartitionCount(partitionCount);
+        if (previous == 0) {
+            LOG.info("Topic has {} partitions", partitionCount);
+            if (partitioner.size() == 0) {
+                return;
+            }
+        } else {
+            LOG.info("Topic now has {} partitions instead of {}, dropping the state of all aircraft",
+                    partitionCount, previous);
+        }
+        Set<Integer> all = new HashSet<>();
+        all.add(AircraftPartitioner.UNKNOWN_PARTITION);
+        for (int partition = 0; partition < partitionCount; partition++) {
+            all.add(partition);
+        }
+        evict(all);
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        LOG.info("Partitions revoked: {}", partitions);
+        if (!partitions.isEmpty()) {
+            evict(partitionNumbers(partitions));
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Collection<TopicPartition> partitions) {
+        LOG.info("Partitions lost: {}", partitions);
+        if (!partitions.isEmpty()) {
+            evict(partitionNumbers(partitions));
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        LOG.info("Partitions assigned: {}", partitions);
+        if (partitions.isEmpty()) {
+            return;
+        }
+        Set<Integer> numbers = partitionNumbers(partitions);
+        // Whatever is left from an earlier assignment of these partitions may be stale
+        evict(numbers);
+
+        long start = System.nanoTime();
+        Predicate<String> owned = hex -> numbers.contains(partitioner.partitionOf(hex));
+        try {
+            int aircraft = aircraftRepo.warmCache(owned, recentWindow,
+                    changeFilter != null ? changeFilter::recordWritten : null);
+            LOG.info("Warmed aircraft cache with {} aircraft of partitions {}", aircraft, numbers);
+        } catch (Exception e) {
+            // A cold cache only costs extra lookups, so keep consuming
+            LOG.warn("Failed to warm aircraft cache: {}", e.getMessage());
+        }
+        try {
+            trackRepo.warmPartitions(dataSource, partitioner, numbers);
+        } catch (Exception e) {
+            LOG.warn("Failed to warm active track registry: {}", e.getMessage());
+        }
+        if (sessionRepo != null) {
+            try {
+                sessionRepo.warmPartitions(dataSource, partitioner, numbers);
+            } catch (Exception e) {
+                LOG.warn("Failed to warm flight session registry: {}", e.getMessage());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        IngestorMetrics.PARTITION_WARMUP_SECONDS.observe(seconds);
+        LOG.info("Warmed state of partitions {} in {} ms", numbers, Math.round(seconds * 1000));
+    }
+
+    private void evict(Set<Integer> partitions) {
+        Predicate<String> owned = hex -> partitions.contains(partitioner.partitionOf(hex));
+        Set<Long> aircraftIds = partitioner.forget(partitions);
+        int aircraft = aircraftRepo.evictAircraft(owned);
+        if (changeFilter != null) {
+            changeFilter.evictIf(owned);
+        }
+        int tracks = trackRepo.evictAircraft(aircraftIds);
+        if (sessionRepo != null) {
+            sessionRepo.evictAircraft(aircraftIds);
+        }
+        IngestorMetrics.PARTITION_STATE_EVICTED.inc(aircraft);
+        if (aircraft > 0 || tracks > 0) {
+            LOG.info("Evicted {} aircraft and {} open tracks of partitions {}", aircraft, tracks, partitions);
+        }
+    }
+
+    private static Set<Integer> partitionNumbers(Collection<TopicPartition> partitions) {
+        Set<Integer> numbers = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            numbers.add(partition.partition());
+        }
+        return numbers;
+    }
+}
@@ -2,6 +2,7 @@ package com.militarytracker.dbingestor.metrics;
 
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 
 public final class IngestorMetrics {
 
@@ -30,6 +31,163 @@ public final class IngestorMetrics {
             .help("Rate of records being ingested over time")
             .register();
 
+    public static final Counter AIRCRAFT_CACHE_HITS = Counter.build()
+            .name("aircraft_cache_hits")
+            .help("Count of aircraft id lookups answered from the in-memory cache")
+            .register();
+
+    public static final Counter AIRCRAFT_CACHE_MISSES = Counter.build()
+            .name("aircraft_cache_misses")
+            .help("Count of aircraft id lookups that had to go to the database")
+            .register();
+
+    public static final Counter AIRCRAFT_CACHE_EVICTIONS = Counter.build()
+            .name("aircraft_cache_evictions")
+            .help("Count of aircraft evicted from the in-memory cache")
+            .register();
+
+    public static final Gauge AIRCRAFT_CACHE_SIZE = Gauge.build()
+            .name("aircraft_cache_size")
+            .help("Number of aircraft currently held in the in-memory cache")
+            .register();
+
+    public static final Counter TRACK_REGISTRY_HITS = Counter.build()
+            .name("track_registry_hits")
+            .help("Count of active track lookups answered from the in-memory registry")
+            .register();
+
+    public static final Counter TRACK_REGISTRY_MISSES = Counter.build()
+            .name("track_registry_misses")
+            .help("Count of active track lookups that had to go to the database")
+            .register();
+
+    public static final Counter TRACK_REGISTRY_EVICTIONS = Counter.build()
+            .name("track_registry_evictions")
+            .help("Count of active tracks evicted from the in-memory registry")
+            .register();
+
+    public static final Gauge TRACK_REGISTRY_SIZE = Gauge.build()
+            .name("track_registry_size")
+            .help("Number of active tracks currently held in the in-memory registry")
+            .register();
+
+    public static final Counter TRACKS_CLOSED = Counter.build()
+            .name("tracks_closed")
+            .help("Count of flight tracks closed, by reason (gap, landing, idle)")
+            .labelNames("reason")
+            .register();
+
+    public static final Counter FLIGHT_SESSIONS_OPENED = Counter.build()
+            .name("flight_sessions_opened")
+            .help("Count of flight sessions opened on takeoff or on first sighting airborne")
+            .register();
+
+    public static final Counter FLIGHT_SESSIONS_CLOSED = Counter.build()
+            .name("flight_sessions_closed")
+            .help("Count of flight sessions ended, by reason (landing, signal_lost)")
+            .labelNames("reason")
+            .register();
+
+    public static final Counter OFFSET_COMMITS = Counter.build()
+            .name("offset_commits")
+            .help("Count of successful Kafka offset commits")
+            .register();
+
+    public static final Counter OFFSET_COMMIT_FAILURES = Counter.build()
+            .name("offset_commit_failures")
+            .help("Count of failed Kafka offset commits")
+            .register();
+
+    public static final Gauge HANDOFF_QUEUE_DEPTH = Gauge.build()
+            .name("handoff_queue_depth")
+            .help("Batches polled from Kafka waiting for a database writer, across all workers")
+            .register();
+
+    public static final Counter CONSUMER_PAUSES = Counter.build()
+            .name("consumer_pauses")
+            .help("Count of times a consumer paused its partitions because its writer fell behind")
+            .register();
+
+    public static final Counter CONSUMER_PAUSED_SECONDS = Counter.build()
+            .name("consumer_paused_seconds")
+            .help("Total time consumers spent with their partitions paused")
+            .register();
+
+    public static final Gauge POSITION_PARTITIONS = Gauge.build()
+            .name("position_partitions")
+            .help("Number of daily flight_positions partitions attached")
+            .register();
+
+    public static final Counter POSITION_PARTITIONS_EXPIRED = Counter.build()
+            .name("position_partitions_expired")
+            .help("Count of flight_positions partitions dropped or detached by retention")
+            .register();
+
+    public static final Counter POSITIONS_SUPPRESSED = Counter.build()
+            .name("positions_suppressed")
+            .help("Count of positions dropped because they repeat the last position written for the aircraft")
+            .register();
+
+    public static final Gauge POSITION_SUPPRESSION_RATIO = Gauge.build()
+            .name("position_suppression_ratio")
+            .help("Share of positions dropped as unchanged since startup")
+            .register();
+
+    public static final Histogram INGEST_STAGE_SECONDS = Histogram.build()
+            .name("ingest_stage_seconds")
+            .help("Time a batch spent in each ingest stage (parse, aircraft, positions, tracks, commit)")
+            .labelNames("stage")
+            .buckets(0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5)
+            .register();
+
+    public static final Counter BATCHES_SPOOLED = Counter.build()
+            .name("batches_spooled")
+            .help("Count of batches written to the local disk spool because the database was unavailable")
+            .register();
+
+    public static final Counter BATCHES_REPLAYED = Counter.build()
+            .name("batches_replayed")
+            .help("Count of spooled batches written to the database after it recovered")
+            .register();
+
+    public static final Gauge SPOOL_PENDING_BATCHES = Gauge.build()
+            .name("spool_pending_batches")
+            .help("Batches in the local disk spool waiting to be replayed, across all workers")
+            .register();
+
+    public static final Gauge SPOOL_SEGMENTS = Gauge.build()
+            .name("spool_segments")
+            .help("Segment files held by the local disk spool, across all workers")
+            .register();
+
+    public static final Gauge CONSUMER_LAG = Gauge.build()
+            .name("consumer_lag_records")
+            .help("Records between the consumer's position and the end of each assigned partition")
+            .labelNames("partition")
+            .register();
+
+    public static final Gauge CATCH_UP_WORKERS = Gauge.build()
+            .name("catch_up_workers")
+            .help("Consumer workers currently in catch-up mode, writing with COPY and deferring track maintenance")
+            .register();
+
+    public static final Counter CATCH_UP_SWITCHES = Counter.build()
+            .name("catch_up_switches")
+            .help("Count of consumer workers entering or leaving catch-up mode")
+            .labelNames("direction")
+            .register();
+
+    public static final Histogram PARTITION_WARMUP_SECONDS = Histogram.build()
+            .name("partition_warmup_seconds")
+            .help("Time spent loading the aircraft, position, track and session state of newly assigned partitions")
+            .buckets(0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register();
+
+    public static final Counter PARTITION_STATE_EVICTED = Counter.build()
+            .name("partition_state_evicted")
+            .help("Count of cached aircraft dropped because their partition was revoked, lost or reassigned")
+            .register();
+
     private IngestorMetrics() {
     }
 }
@@ -1,5 +1,7 @@
 package com.militarytracker.dbingestor.repository;
 
+import com.militarytracker.dbingestor.cache.AircraftIdCache;
+import com.militarytracker.dbingestor.cache.AircraftPartitioner;
 import com.militarytracker.model.api.AcItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,11 +10,24 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 public class AircraftRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(AircraftRepository.class);
 
+    private static final int DEFAULT_CACHE_SIZE = 50_000;
+
+    // The WHERE clause skips the row rewrite (and the WAL record) when nothing changed.
+    // Such rows are not RETURNed, so their ids are read back with FIND_IDS_SQL.
     private static final String UPSERT_SQL = """
             INSERT INTO aircraft (hex_icao, registration, aircraft_type, description, operator)
             VALUES (?, ?, ?, ?, ?)
@@ -22,16 +37,76 @@ public class AircraftRepository {
                 description = COALESCE(EXCLUDED.description, aircraft.description),
                 operator = COALESCE(EXCLUDED.operator, aircraft.operator),
                 updated_at = NOW()
+            WHERE (aircraft.registration, aircraft.aircraft_type, aircraft.description, aircraft.operator)
+                IS DISTINCT FROM
+                  (COALESCE(EXCLUDED.registration, aircraft.registration),
+                   COALESCE(EXCLUDED.aircraft_type, aircraft.aircraft_type),
+                   COALESCE(EXCLUDED.description, aircraft.description),
+                   COALESCE(EXCLUDED.operator, aircraft.operator))
             RETURNING id
             """;
 
+    // Also the first stage of FlightPositionRepository's unnest writer
+    static final String UPSERT_BATCH_SQL = """
+            INSERT INTO aircraft (hex_icao, registration, aircraft_type, description, operator)
+            SELECT * FROM unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[])
+            ON CONFLICT (hex_icao) DO UPDATE SET
+                registration = COALESCE(EXCLUDED.registration, aircraft.registration),
+                aircraft_type = COALESCE(EXCLUDED.aircraft_type, aircraft.aircraft_type),
+                description = COALESCE(EXCLUDED.description, aircraft.description),
+                operator = COALESCE(EXCLUDED.operator, aircraft.operator),
+                updated_at = NOW()
+            WHERE (aircraft.registration, aircraft.aircraft_type, aircraft.description, aircraft.operator)
+                IS DISTINCT FROM
+                  (COALESCE(EXCLUDED.registration, aircraft.registration),
+                   COALESCE(EXCLUDED.aircraft_type, aircraft.aircraft_type),
+                   COALESCE(EXCLUDED.description, aircraft.description),
+                   COALESCE(EXCLUDED.operator, aircraft.operator))
+            RETURNING hex_icao, id
+            """;
+
+    private static final String FIND_IDS_SQL = """
+            SELECT hex_icao, id FROM aircraft WHERE hex_icao = ANY(?::varchar[])
+            """;
+
+    // Oldest first, so that the most recently seen aircraft are the last to be evicted
+    private static final String LOAD_RECENT_SQL = """
+            SELECT a.id, a.hex_icao, a.registration, a.aircraft_type, a.description, a.operator,
+                   l.flight, ST_X(l.position), ST_Y(l.position), l.alt_baro, l.ground_speed, l.track,
+                   l.squawk, l.on_ground, l.seen_at
+            FROM aircraft_latest l
+            JOIN aircraft a ON a.id = l.aircraft_id
+            WHERE l.seen_at > NOW() - ? * INTERVAL '1 second'
+            ORDER BY l.seen_at
+            """;
+
     private final DataSource dataSource;
+    private final AircraftIdCache cache;
+    private final AircraftPartitioner partitioner;
 
     public AircraftRepository(DataSource dataSource) {
+        this(dataSource, new AircraftIdCache(DEFAULT_CACHE_SIZE));
+    }
+
+    public AircraftRepository(DataSource dataSource, AircraftIdCache cache) {
+        this(dataSource, cache, null);
+    }
+
+    /**
+     * @param partitioner records the partition of every aircraft cached, or null
+     */
+    public AircraftRepository(DataSource dataSource, AircraftIdCache cache, AircraftPartitioner partitioner) {
         this.dataSource = dataSource;
+        this.cache = cache;
+        this.partitioner = partitioner;
     }
 
     public long upsertAircraft(AcItem item, Connection conn) throws Exception {
+        Long cached = cache.lookup(item);
+        if (cached != null) {
+            return cached;
+        }
+
         try (PreparedStatement ps = conn.prepareStatement(UPSERT_SQL)) {
             ps.setString(1, item.getHex());
             ps.setString(2, item.getRegistration());
@@ -43,8 +118,258 @@ public class AircraftRepository {
                 if (rs.next()) {
                     return rs.getLong(1);
                 }
-                throw new IllegalStateException("UPSERT did not return an id for hex=" + item.getHex());
             }
         }
+
+        Long id = findIds(new String[] {item.getHex()}, conn).get(item.getHex());
+        if (id == null) {
+            throw new IllegalStateException("UPSERT did not return an id for hex=" + item.getHex());
+        }
+        return id;
+    }
+
+    /**
+     * Resolves the aircraft id of every distinct aircraft in the batch. Aircraft whose
+     * metadata is unchanged are answered from the cache; the rest are upserted with a
+     * single multi-row statement. A hex that appears more than once is written once, since
+     * Postgres rejects an ON CONFLICT update that touches the same row twice, with each field
+     * taken from the last occurrence that has it, as upserting them one by one would.
+     * That keeps the row in line with the cache, which merges every occurrence.
+     *
+     * @return aircraft ids keyed by hex
+     */
+    public Map<String, Long> upsertAircraftBatch(List<AcItem> items, Connection conn) throws Exception {
+        AircraftBatch batch = lookupBatch(items);
+        Map<String, Long> ids = batch.ids;
+        List<AcItem> misses = batch.misses;
+        if (misses.isEmpty()) {
+            return ids;
+        }
+
+        int size = misses.size();
+        String[] hexes;
+        int written = 0;
+        try (PreparedStatement ps = conn.prepareStatement(UPSERT_BATCH_SQL)) {
+            hexes = bindUpsertBatch(ps, misses, conn);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString(1), rs.getLong(2));
+                    written++;
+                }
+            }
+        }
+
+        if (written < size) {
+            List<String> unchanged = new ArrayList<>(size - written);
+            for (String hex : hexes) {
+                if (!ids.containsKey(hex)) {
+                    unchanged.add(hex);
+                }
+            }
+            ids.putAll(findIds(unchanged.toArray(new String[0]), conn));
+        }
+
+        if (ids.size() != batch.size) {
+            throw new IllegalStateException("Resolved " + ids.size() + " ids for " + batch.size + " aircraft");
+        }
+        LOG.trace("Resolved {} aircraft: {} from cache, {} written, {} unchanged",
+                batch.size, batch.size - size, written, size - written);
+        return ids;
+    }
+
+    /**
+     * Answers what it can of a batch from the cache, without touching the database. The
+     * distinct aircraft are merged as {@link #upsertAircraftBatch(List, Connection)} does.
+     */
+    public AircraftBatch lookupBatch(List<AcItem> items) {
+        Map<String, AcItem> byHex = new LinkedHashMap<>();
+        for (AcItem item : items) {
+            byHex.merge(item.getHex(), item, AircraftRepository::coalesceMetadata);
+        }
+
+        Map<String, Long> ids = new HashMap<>(byHex.size() * 2);
+        List<AcItem> misses = new ArrayList<>();
+        for (AcItem item : byHex.values()) {
+            Long cached = cache.lookup(item);
+            if (cached != null) {
+                ids.put(item.getHex(), cached);
+            } else {
+                misses.add(item);
+            }
+        }
+        return new AircraftBatch(ids, misses, byHex.size());
+    }
+
+    /**
+     * Binds the aircraft to upsert as the first five parameters of {@link #UPSERT_BATCH_SQL}.
+     *
+     * @return their hexes, in the same order
+     */
+    static String[] bindUpsertBatch(PreparedStatement ps, List<AcItem> misses, Connection conn) throws Exception {
+        int size = misses.size();
+        String[] hexes = new String[size];
+        String[] registrations = new String[size];
+        String[] types = new String[size];
+        String[] descriptions = new String[size];
+        String[] operators = new String[size];
+        for (int i = 0; i < size; i++) {
+            AcItem item = misses.get(i);
+            hexes[i] = item.getHex();
+            registrations[i] = item.getRegistration();
+            types[i] = item.getAircraftType();
+            descriptions[i] = item.getDescription();
+            operators[i] = item.getOperator();
+        }
+        ps.setArray(1, conn.createArrayOf("varchar", hexes));
+        ps.setArray(2, conn.createArrayOf("varchar", registrations));
+        ps.setArray(3, conn.createArrayOf("varchar", types));
+        ps.setArray(4, conn.createArrayOf("varchar", descriptions));
+        ps.setArray(5, conn.createArrayOf("varchar", operators));
+        return hexes;
+    }
+
+    /**
+     * @return {@code later}, or a copy with its missing metadata filled in from {@code earlier}
+     */
+    private static AcItem coalesceMetadata(AcItem earlier, AcItem later) {
+        if ((later.getRegistration() != null || earlier.getRegistration() == null)
+                && (later.getAircraftType() != null || earlier.getAircraftType() == null)
+                && (later.getDescription() != null || earlier.getDescription() == null)
+                && (later.getOperator() != null || earlier.getOperator() == null)) {
+            return later;
+        }
+        AcItem merged = new AcItem();
+        merged.setHex(later.getHex());
+        merged.setRegistration(later.getRegistration() != null ? later.getRegistration() : earlier.getRegistration());
+        merged.setAircraftType(later.getAircraftType() != null ? later.getAircraftType() : earlier.getAircraftType());
+        merged.setDescription(later.getDescription() != null ? later.getDescription() : earlier.getDescription());
+        merged.setOperator(later.getOperator() != null ? later.getOperator() : earlier.getOperator());
+        return merged;
+    }
+
+    /**
+     * Makes the ids of a committed batch available to later lookups.
+     */
+    public void cacheCommitted(List<AcItem> items, Map<String, Long> aircraftIds) {
+        for (AcItem item : items) {
+            Long id = aircraftIds.get(item.getHex());
+            if (id != null) {
+                cache.put(item, id);
+                if (partitioner != null) {
+                    partitioner.record(item.getHex(), id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the aircraft seen within {@code window} whose hex matches, e.g. those of a newly
+     * assigned partition, and passes each one's latest position with the time it was seen to
+     * {@code latest}, if given.
+     *
+     * @return the number of aircraft loaded
+     */
+    public int warmCache(Predicate<String> hex, Duration window, BiConsumer<AcItem, Instant> latest) throws Exception {
+        int loaded = 0;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(LOAD_RECENT_SQL)) {
+            ps.setLong(1, window.toSeconds());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (!hex.test(rs.getString(2))) {
+                        continue;
+                    }
+                    AcItem item = readLatest(rs);
+                    long id = rs.getLong(1);
+                    cache.put(item, id);
+                    if (partitioner != null) {
+                        partitioner.record(item.getHex(), id);
+                    }
+                    if (latest != null) {
+                        latest.accept(item, rs.getTimestamp(15).toInstant());
+                    }
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Forgets the aircraft whose hex matches, e.g. those of a revoked partition.
+     *
+     * @return the number of aircraft removed
+     */
+    public int evictAircraft(Predicate<String> hex) {
+        return cache.evictIf(hex);
+    }
+
+    private static AcItem readLatest(ResultSet rs) throws Exception {
+        AcItem item = new AcItem();
+        item.setHex(rs.getString(2));
+        item.setRegistration(rs.getString(3));
+        item.setAircraftType(rs.getString(4));
+        item.setDescription(rs.getString(5));
+        item.setOperator(rs.getString(6));
+        item.setFlight(rs.getString(7));
+        item.setLon(rs.getDouble(8));
+        item.setLat(rs.getDouble(9));
+        int altitude = rs.getInt(10);
+        boolean hasAltitude = !rs.wasNull();
+        if (rs.getBoolean(14)) {
+            item.setAltBaro("ground");
+        } else if (hasAltitude) {
+            item.setAltBaro(altitude);
+        }
+        float speed = rs.getFloat(11);
+        item.setGroundSpeed(rs.wasNull() ? null : (double) speed);
+        float track = rs.getFloat(12);
+        item.setTrack(rs.wasNull() ? null : (double) track);
+        item.setSquawk(rs.getString(13));
+        return item;
+    }
+
+    static Map<String, Long> findIds(String[] hexes, Connection conn) throws Exception {
+        Map<String, Long> ids = new HashMap<>(hexes.length * 2);
+        try (PreparedStatement ps = conn.prepareStatement(FIND_IDS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("varchar", hexes));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * The distinct aircraft of a batch: the ids the cache answered, keyed by hex, and the
+     * aircraft that still have to be upserted.
+     */
+    public static final class AircraftBatch {
+        private final Map<String, Long> ids;
+        private final List<AcItem> misses;
+        private final int size;
+
+        private AircraftBatch(Map<String, Long> ids, List<AcItem> misses, int size) {
+            this.ids = ids;
+            this.misses = misses;
+            this.size = size;
+        }
+
+        public Map<String, Long> getIds() {
+            return ids;
+        }
+
+        public List<AcItem> getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the number of distinct aircraft in the batch
+         */
+        public int size() {
+            return size;
+        }
     }
 }
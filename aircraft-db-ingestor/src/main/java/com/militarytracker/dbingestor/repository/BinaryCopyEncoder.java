@@ -0,0 +1,135 @@
+package com.militarytracker.dbingestor.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Encodes rows in PostgreSQL's binary COPY format ({@code COPY ... FROM STDIN (FORMAT binary)}).
+ * Callers start each row with {@link #startRow(int)} and then write exactly that many fields
+ * in table column order. {@link #finish()} appends the trailer and returns the payload.
+ */
+public final class BinaryCopyEncoder {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    private static final long POSTGRES_EPOCH_MICROS = 946_684_800_000_000L;
+
+    private static final int EWKB_POINT = 1;
+    private static final int EWKB_Z_FLAG = 0x80000000;
+    private static final int EWKB_SRID_FLAG = 0x20000000;
+
+    private final ByteArrayOutputStream buffer;
+    private final DataOutputStream out;
+    private int rows;
+
+    public BinaryCopyEncoder(int expectedRows) {
+        this.buffer = new ByteArrayOutputStream(64 + expectedRows * 128);
+        this.out = new DataOutputStream(buffer);
+        try {
+            out.write(SIGNATURE);
+            out.writeInt(0); // flags
+            out.writeInt(0); // header extension length
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public BinaryCopyEncoder startRow(int fieldCount) throws IOException {
+        out.writeShort(fieldCount);
+        rows++;
+        return this;
+    }
+
+    public BinaryCopyEncoder writeNull() throws IOException {
+        out.writeInt(-1);
+        return this;
+    }
+
+    public BinaryCopyEncoder writeLong(long value) throws IOException {
+        out.writeInt(8);
+        out.writeLong(value);
+        return this;
+    }
+
+    public BinaryCopyEncoder writeInt(Integer value) throws IOException {
+        if (value == null) {
+            return writeNull();
+        }
+        out.writeInt(4);
+        out.writeInt(value);
+        return this;
+    }
+
+    public BinaryCopyEncoder writeFloat(Double value) throws IOException {
+        if (value == null) {
+            return writeNull();
+        }
+        out.writeInt(4);
+        out.writeFloat(value.floatValue());
+        return this;
+    }
+
+    public BinaryCopyEncoder writeBoolean(boolean value) throws IOException {
+        out.writeInt(1);
+        out.writeByte(value ? 1 : 0);
+        return this;
+    }
+
+    public BinaryCopyEncoder writeText(String value) throws IOException {
+        if (value == null) {
+            return writeNull();
+        }
+        return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public BinaryCopyEncoder writeTimestamp(Instant value) throws IOException {
+        long epochMicros = Math.addExact(Math.multiplyExact(value.getEpochSecond(), 1_000_000L), value.getNano() / 1_000);
+        out.writeInt(8);
+        out.writeLong(epochMicros - POSTGRES_EPOCH_MICROS);
+        return this;
+    }
+
+    /**
+     * Writes a PostGIS geometry field as EWKB, which is what {@code geometry_recv} expects.
+     */
+    public BinaryCopyEncoder writePointZ(double x, double y, double z, int srid) throws IOException {
+        return writeBytes(ewkbPointZ(x, y, z, srid));
+    }
+
+    public BinaryCopyEncoder writeBytes(byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+        return this;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public byte[] finish() throws IOException {
+        out.writeShort(-1);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Little-endian EWKB for a POINT Z with an embedded SRID.
+     */
+    static byte[] ewkbPointZ(double x, double y, double z, int srid) {
+        return ByteBuffer.allocate(1 + 4 + 4 + 3 * 8)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) 1)
+                .putInt(EWKB_POINT | EWKB_Z_FLAG | EWKB_SRID_FLAG)
+                .putInt(srid)
+                .putDouble(x)
+                .putDouble(y)
+                .putDouble(z)
+                .array();
+    }
+}
@@ -0,0 +1,101 @@
+package com.militarytracker.dbingestor.repository;
+
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Kafka offsets kept in {@code consumer_offsets}, written in the same transaction as the
+ * records they cover so that a record and its offset are committed together or not at all.
+ * A stored offset only moves forward: a batch replayed from the disk spool after its
+ * partition has moved on must not take the partition back.
+ */
+public class ConsumerOffsetRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerOffsetRepository.class);
+
+    private static final String SAVE_OFFSETS_SQL = """
+            INSERT INTO consumer_offsets (consumer_group, topic, partition, next_offset)
+            SELECT ?::varchar, * FROM unnest(?::varchar[], ?::integer[], ?::bigint[])
+            ON CONFLICT (consumer_group, topic, partition) DO UPDATE SET
+                next_offset = GREATEST(consumer_offsets.next_offset, EXCLUDED.next_offset),
+                updated_at = NOW()
+            """;
+
+    private static final String LOAD_OFFSETS_SQL = """
+            SELECT topic, partition, next_offset FROM consumer_offsets
+            WHERE consumer_group = ? AND topic = ?
+            """;
+
+    private final DataSource dataSource;
+    private final String consumerGroup;
+
+    public ConsumerOffsetRepository(DataSource dataSource, String consumerGroup) {
+        this.dataSource = dataSource;
+        this.consumerGroup = consumerGroup;
+    }
+
+    /**
+     * @param nextOffsets the offset of the next record to consume, per partition
+     */
+    public void saveOffsets(Map<TopicPartition, Long> nextOffsets, Connection conn) throws Exception {
+        int size = nextOffsets.size();
+        String[] topics = new String[size];
+        Integer[] partitions = new Integer[size];
+        Long[] offsets = new Long[size];
+        int i = 0;
+        for (Map.Entry<TopicPartition, Long> entry : nextOffsets.entrySet()) {
+            topics[i] = entry.getKey().topic();
+            partitions[i] = entry.getKey().partition();
+            offsets[i] = entry.getValue();
+            i++;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(SAVE_OFFSETS_SQL)) {
+            ps.setString(1, consumerGroup);
+            ps.setArray(2, conn.createArrayOf("varchar", topics));
+            ps.setArray(3, conn.createArrayOf("integer", partitions));
+            ps.setArray(4, conn.createArrayOf("bigint", offsets));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the stored next offset of each of the given partitions that has one
+     */
+    public Map<TopicPartition, Long> loadOffsets(Collection<TopicPartition> partitions) throws Exception {
+        Map<TopicPartition, Long> stored = new HashMap<>();
+        Set<String> topics = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            topics.add(partition.topic());
+        }
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(LOAD_OFFSETS_SQL)) {
+            for (String topic : topics) {
+                ps.setString(1, consumerGroup);
+                ps.setString(2, topic);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        TopicPartition partition = new TopicPartition(rs.getString(1), rs.getInt(2));
+                        if (partitions.contains(partition)) {
+                            stored.put(partition, rs.getLong(3));
+                        }
+                    }
+                }
+            }
+        }
+        LOG.debug("Loaded stored offsets for {} of {} partitions", stored.size(), partitions.size());
+        return stored;
+    }
+}
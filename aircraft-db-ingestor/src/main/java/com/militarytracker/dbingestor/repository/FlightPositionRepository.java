@@ -1,12 +1,26 @@
 package com.militarytracker.dbingestor.repository;
 
+import com.militarytracker.dbingestor.repository.AircraftRepository.AircraftBatch;
 import com.militarytracker.model.api.AcItem;
+import org.postgresql.PGConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class FlightPositionRepository {
 
@@ -21,51 +35,475 @@ public class FlightPositionRepository {
                  ?, ?, ?, ?, NOW())
             """;
 
+    private static final String COPY_SQL = """
+            COPY flight_positions
+                (aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                 vertical_rate, squawk, category, on_ground, seen_at)
+            FROM STDIN (FORMAT binary)
+            """;
+
+    // Keeps a newer aircraft_latest row from being overwritten
+    private static final String UPSERT_LATEST_CONFLICT_SQL = """
+            ON CONFLICT (aircraft_id) DO UPDATE SET
+                position_id = EXCLUDED.position_id,
+                flight = EXCLUDED.flight,
+                position = EXCLUDED.position,
+                alt_baro = EXCLUDED.alt_baro,
+                alt_geom = EXCLUDED.alt_geom,
+                ground_speed = EXCLUDED.ground_speed,
+                track = EXCLUDED.track,
+                vertical_rate = EXCLUDED.vertical_rate,
+                squawk = EXCLUDED.squawk,
+                category = EXCLUDED.category,
+                on_ground = EXCLUDED.on_ground,
+                seen_at = EXCLUDED.seen_at
+            WHERE aircraft_latest.seen_at <= EXCLUDED.seen_at
+            """;
+
+    // One round trip for the whole position stage: the rows arrive as parallel arrays, and the
+    // newest inserted row per aircraft goes straight on into aircraft_latest
+    private static final String UNNEST_INSERT_SQL = """
+            WITH inserted AS (
+                INSERT INTO flight_positions
+                    (aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                     vertical_rate, squawk, category, on_ground, seen_at)
+                SELECT p.aircraft_id, p.flight, ST_SetSRID(ST_MakePoint(p.lon, p.lat, COALESCE(p.alt_geom, 0)), 4326),
+                       p.alt_baro, p.alt_geom, p.ground_speed, p.track,
+                       p.vertical_rate, p.squawk, p.category, p.on_ground, NOW()
+                FROM unnest(?::bigint[], ?::varchar[], ?::float8[], ?::float8[], ?::integer[], ?::integer[],
+                            ?::float8[], ?::float8[], ?::integer[], ?::varchar[], ?::varchar[], ?::boolean[])
+                    AS p(aircraft_id, flight, lon, lat, alt_baro, alt_geom, ground_speed, track,
+                         vertical_rate, squawk, category, on_ground)
+                RETURNING id, aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                          vertical_rate, squawk, category, on_ground, seen_at
+            )
+            INSERT INTO aircraft_latest
+                (aircraft_id, position_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                 vertical_rate, squawk, category, on_ground, seen_at)
+            SELECT DISTINCT ON (aircraft_id)
+                aircraft_id, id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                vertical_rate, squawk, category, on_ground, seen_at
+            FROM inserted
+            ORDER BY aircraft_id, id DESC
+            """ + UPSERT_LATEST_CONFLICT_SQL;
+
+    // The unnest writer with the aircraft upsert in front, for batches with aircraft the cache
+    // could not answer. Rows the upsert skipped as unchanged are not RETURNed and are read from
+    // the statement's snapshot instead; positions whose aircraft neither found are left out
+    // and the caller writes them once their ids are known. The resolved ids are the result.
+    private static final String UNNEST_AIRCRAFT_INSERT_SQL = """
+            WITH upserted AS (
+            """ + AircraftRepository.UPSERT_BATCH_SQL + """
+            ),
+            resolved AS (
+                SELECT hex_icao, id FROM upserted
+                UNION ALL
+                SELECT a.hex_icao, a.id FROM aircraft a
+                WHERE a.hex_icao = ANY(?::varchar[]) AND a.hex_icao NOT IN (SELECT hex_icao FROM upserted)
+            ),
+            inserted AS (
+                INSERT INTO flight_positions
+                    (aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                     vertical_rate, squawk, category, on_ground, seen_at)
+                SELECT COALESCE(p.aircraft_id, r.id), p.flight,
+                       ST_SetSRID(ST_MakePoint(p.lon, p.lat, COALESCE(p.alt_geom, 0)), 4326),
+                       p.alt_baro, p.alt_geom, p.ground_speed, p.track,
+                       p.vertical_rate, p.squawk, p.category, p.on_ground, NOW()
+                FROM unnest(?::bigint[], ?::varchar[], ?::float8[], ?::float8[], ?::integer[], ?::integer[],
+                            ?::float8[], ?::float8[], ?::integer[], ?::varchar[], ?::varchar[], ?::boolean[],
+                            ?::varchar[]) WITH ORDINALITY
+                    AS p(aircraft_id, flight, lon, lat, alt_baro, alt_geom, ground_speed, track,
+                         vertical_rate, squawk, category, on_ground, hex, ord)
+                LEFT JOIN resolved r ON p.aircraft_id IS NULL AND r.hex_icao = p.hex
+                WHERE COALESCE(p.aircraft_id, r.id) IS NOT NULL
+                ORDER BY p.ord
+                RETURNING id, aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                          vertical_rate, squawk, category, on_ground, seen_at
+            ),
+            latest AS (
+                INSERT INTO aircraft_latest
+                    (aircraft_id, position_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                     vertical_rate, squawk, category, on_ground, seen_at)
+                SELECT DISTINCT ON (aircraft_id)
+                    aircraft_id, id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                    vertical_rate, squawk, category, on_ground, seen_at
+                FROM inserted
+                ORDER BY aircraft_id, id DESC
+            """ + UPSERT_LATEST_CONFLICT_SQL + """
+            )
+            SELECT hex_icao, id FROM resolved
+            """;
+
+    private static final String NOW_SQL = "SELECT NOW()";
+
+    // The INSERT and COPY writers stamp seen_at with the transaction's NOW(), which selects
+    // exactly the rows this transaction wrote
+    private static final String UPSERT_LATEST_SQL = """
+            INSERT INTO aircraft_latest
+                (aircraft_id, position_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                 vertical_rate, squawk, category, on_ground, seen_at)
+            SELECT DISTINCT ON (aircraft_id)
+                aircraft_id, id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                vertical_rate, squawk, category, on_ground, seen_at
+            FROM flight_positions
+            WHERE aircraft_id = ANY(?) AND seen_at = NOW()
+            ORDER BY aircraft_id, id DESC
+            """ + UPSERT_LATEST_CONFLICT_SQL;
+
+    // For positions stamped with when they were recorded rather than NOW(): the newest position
+    // since the batch's earliest one, which the conflict guard only lets through if it is newer
+    private static final String UPSERT_LATEST_SINCE_SQL = """
+            INSERT INTO aircraft_latest
+                (aircraft_id, position_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                 vertical_rate, squawk, category, on_ground, seen_at)
+            SELECT DISTINCT ON (aircraft_id)
+                aircraft_id, id, flight, position, alt_baro, alt_geom, ground_speed, track,
+                vertical_rate, squawk, category, on_ground, seen_at
+            FROM flight_positions
+            WHERE aircraft_id = ANY(?) AND seen_at >= ?
+            ORDER BY aircraft_id, seen_at DESC, id DESC
+            """ + UPSERT_LATEST_CONFLICT_SQL;
+
+    private static final int COPY_FIELD_COUNT = 12;
+    private static final int SRID_WGS84 = 4326;
+
+    /**
+     * How batches of positions are written: a batched INSERT that builds the geometry
+     * in SQL, a binary COPY stream with the geometry encoded client-side as EWKB, or a
+     * single INSERT from array parameters that also upserts {@code aircraft_latest} and,
+     * through {@link #upsertAircraftAndPositions(AircraftBatch, List, Connection)}, the
+     * aircraft, so the aircraft and position stages cost one round trip instead of three or four.
+     */
+    public enum WriteMode {
+        INSERT,
+        COPY,
+        UNNEST;
+
+        public static WriteMode fromConfig(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final WriteMode writeMode;
+
+    public FlightPositionRepository() {
+        this(WriteMode.INSERT);
+    }
+
+    public FlightPositionRepository(WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
     public void insertPosition(long aircraftId, AcItem item, Connection conn) throws Exception {
         try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
-            ps.setLong(1, aircraftId);
-            ps.setString(2, item.getFlight());
-
-            // PostGIS: ST_MakePoint(lon, lat, alt)
-            ps.setDouble(3, item.getLon());
-            ps.setDouble(4, item.getLat());
-            ps.setInt(5, item.getAltGeom() != null ? item.getAltGeom() : 0);
-
-            if (item.getAltBaroFeet() != null) {
-                ps.setInt(6, item.getAltBaroFeet());
-            } else {
-                ps.setNull(6, Types.INTEGER);
-            }
+            bind(ps, aircraftId, item);
+            ps.executeUpdate();
+        }
+    }
 
-            if (item.getAltGeom() != null) {
-                ps.setInt(7, item.getAltGeom());
-            } else {
-                ps.setNull(7, Types.INTEGER);
-            }
+    /**
+     * Writes all positions of a batch using the configured {@link WriteMode}.
+     */
+    public void insertPositions(Map<String, Long> aircraftIds, List<AcItem> items, Connection conn) throws Exception {
+        insertPositions(aircraftIds, items, writeMode, conn);
+    }
+
+    /**
+     * Writes all positions of a batch using the given {@link WriteMode}, e.g. COPY while
+     * catching up regardless of the configured writer.
+     */
+    public void insertPositions(Map<String, Long> aircraftIds, List<AcItem> items, WriteMode mode,
+                                Connection conn) throws Exception {
+        if (items.isEmpty()) {
+            return;
+        }
+        switch (mode) {
+            case COPY -> copyPositions(aircraftIds, items, transactionTimestamp(conn), conn);
+            case UNNEST -> unnestPositions(aircraftIds, items, conn);
+            default -> batchInsertPositions(aircraftIds, items, conn);
+        }
+    }
+
+    /**
+     * Copies the newest position this transaction wrote for each aircraft into
+     * {@code aircraft_latest}, in one statement. Call it after the positions are written.
+     * With {@link WriteMode#UNNEST} this is a no-op, as the insert already did it.
+     */
+    public void upsertLatest(Collection<Long> aircraftIds, Connection conn) throws Exception {
+        upsertLatest(aircraftIds, writeMode, conn);
+    }
+
+    /**
+     * Like {@link #upsertLatest(Collection, Connection)}, for positions written with the
+     * given {@link WriteMode}.
+     */
+    public void upsertLatest(Collection<Long> aircraftIds, WriteMode mode, Connection conn) throws Exception {
+        if (aircraftIds.isEmpty() || mode == WriteMode.UNNEST) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(UPSERT_LATEST_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", aircraftIds.toArray()));
+            int upserted = ps.executeUpdate();
+            LOG.trace("Upserted latest position of {} aircraft", upserted);
+        }
+    }
 
-            if (item.getGroundSpeed() != null) {
-                ps.setDouble(8, item.getGroundSpeed());
-            } else {
-                ps.setNull(8, Types.REAL);
+    /**
+     * Like {@link #upsertLatest(Collection, Connection)}, for positions written by
+     * {@link #copyPositions(Map, List, List, Connection)} with their own {@code seen_at}.
+     *
+     * @param since the earliest {@code seen_at} of the positions written
+     */
+    public void upsertLatestSince(Collection<Long> aircraftIds, Instant since, Connection conn) throws Exception {
+        if (aircraftIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(UPSERT_LATEST_SINCE_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", aircraftIds.toArray()));
+            ps.setTimestamp(2, Timestamp.from(since));
+            int upserted = ps.executeUpdate();
+            LOG.trace("Upserted latest position of {} aircraft", upserted);
+        }
+    }
+
+    /**
+     * Inserts positions through one prepared statement and a single JDBC batch. With
+     * {@code reWriteBatchedInserts} enabled the driver folds the batch into multi-row INSERTs.
+     */
+    void batchInsertPositions(Map<String, Long> aircraftIds, List<AcItem> items, Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+            for (AcItem item : items) {
+                bind(ps, aircraftIds.get(item.getHex()), item);
+                ps.addBatch();
             }
+            ps.executeBatch();
+        }
+        LOG.trace("Inserted {} positions in one batch", items.size());
+    }
+
+    /**
+     * Streams positions through {@code COPY ... FROM STDIN (FORMAT binary)}. {@code seen_at}
+     * is passed in as the transaction's {@code NOW()}, matching what the INSERT path writes.
+     */
+    void copyPositions(Map<String, Long> aircraftIds, List<AcItem> items, Instant seenAt, Connection conn) throws Exception {
+        copyPositions(aircraftIds, items, Collections.nCopies(items.size(), seenAt), conn);
+    }
+
+    /**
+     * Like {@link #insertPositions(Map, List, WriteMode, Connection)} with COPY, stamping each
+     * position with its own {@code seen_at}, such as when its record was produced, so that a
+     * backlog keeps the order and spacing of its positions. Follow it with
+     * {@link #upsertLatestSince(Collection, Instant, Connection)}.
+     *
+     * @param seenAt the {@code seen_at} of each item, in the same order
+     */
+    public void copyPositions(Map<String, Long> aircraftIds, List<AcItem> items, List<Instant> seenAt,
+                              Connection conn) throws Exception {
+        if (items.isEmpty()) {
+            return;
+        }
+        byte[] payload = encodeCopyPayload(aircraftIds, items, seenAt);
+        long copied = conn.unwrap(PGConnection.class)
+                .getCopyAPI()
+                .copyIn(COPY_SQL, new ByteArrayInputStream(payload));
+        LOG.trace("Copied {} positions ({} bytes)", copied, payload.length);
+    }
 
-            if (item.getTrack() != null) {
-                ps.setDouble(9, item.getTrack());
-            } else {
-                ps.setNull(9, Types.REAL);
+    /**
+     * Upserts the aircraft of a batch that the cache could not answer, inserts the positions
+     * and upserts the latest position of each aircraft, all in one statement. Positions of an
+     * aircraft that another transaction created after the statement's snapshot are written
+     * by a second statement once their ids are read.
+     *
+     * @return aircraft ids keyed by hex, for every aircraft of the batch
+     */
+    public Map<String, Long> upsertAircraftAndPositions(AircraftBatch aircraft, List<AcItem> items,
+                                                        Connection conn) throws Exception {
+        Map<String, Long> ids = aircraft.getIds();
+        if (aircraft.getMisses().isEmpty()) {
+            unnestPositions(ids, items, conn);
+            return ids;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(UNNEST_AIRCRAFT_INSERT_SQL)) {
+            String[] hexes = AircraftRepository.bindUpsertBatch(ps, aircraft.getMisses(), conn);
+            ps.setArray(6, conn.createArrayOf("varchar", hexes));
+            bindPositionArrays(ps, 7, ids, items, conn);
+            String[] itemHexes = new String[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                itemHexes[i] = items.get(i).getHex();
+            }
+            ps.setArray(19, conn.createArrayOf("varchar", itemHexes));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString(1), rs.getLong(2));
+                }
             }
+        }
 
-            if (item.getVerticalRate() != null) {
-                ps.setInt(10, item.getVerticalRate());
-            } else {
-                ps.setNull(10, Types.INTEGER);
+        if (ids.size() < aircraft.size()) {
+            Set<String> unresolved = new HashSet<>();
+            for (AcItem item : aircraft.getMisses()) {
+                if (!ids.containsKey(item.getHex())) {
+                    unresolved.add(item.getHex());
+                }
+            }
+            ids.putAll(AircraftRepository.findIds(unresolved.toArray(new String[0]), conn));
+            List<AcItem> remaining = new ArrayList<>();
+            for (AcItem item : items) {
+                if (unresolved.contains(item.getHex())) {
+                    remaining.add(item);
+                }
+            }
+            if (ids.size() != aircraft.size()) {
+                throw new IllegalStateException("Resolved " + ids.size() + " ids for " + aircraft.size() + " aircraft");
             }
+            unnestPositions(ids, remaining, conn);
+        }
+        LOG.trace("Upserted {} aircraft and inserted {} positions in one statement",
+                aircraft.getMisses().size(), items.size());
+        return ids;
+    }
 
-            ps.setString(11, item.getSquawk());
-            ps.setString(12, item.getCategory());
-            ps.setBoolean(13, item.isOnGround());
+    /**
+     * Inserts positions and upserts their aircraft's latest position in a single statement,
+     * binding each column of the batch as one array parameter.
+     */
+    void unnestPositions(Map<String, Long> aircraftIds, List<AcItem> items, Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(UNNEST_INSERT_SQL)) {
+            bindPositionArrays(ps, 1, aircraftIds, items, conn);
+            int latest = ps.executeUpdate();
+            LOG.trace("Inserted {} positions and upserted latest position of {} aircraft", items.size(), latest);
+        }
+    }
 
-            ps.executeUpdate();
+    /**
+     * Binds the twelve position columns of the unnest writers from parameter {@code first}
+     * on. Items whose aircraft id is not known yet get a null id.
+     */
+    private static void bindPositionArrays(PreparedStatement ps, int first, Map<String, Long> aircraftIds,
+                                           List<AcItem> items, Connection conn) throws Exception {
+        int size = items.size();
+        Long[] ids = new Long[size];
+        String[] flights = new String[size];
+        Double[] lons = new Double[size];
+        Double[] lats = new Double[size];
+        Integer[] altBaros = new Integer[size];
+        Integer[] altGeoms = new Integer[size];
+        Double[] groundSpeeds = new Double[size];
+        Double[] tracks = new Double[size];
+        Integer[] verticalRates = new Integer[size];
+        String[] squawks = new String[size];
+        String[] categories = new String[size];
+        Boolean[] onGround = new Boolean[size];
+        for (int i = 0; i < size; i++) {
+            AcItem item = items.get(i);
+            ids[i] = aircraftIds.get(item.getHex());
+            flights[i] = item.getFlight();
+            lons[i] = item.getLon();
+            lats[i] = item.getLat();
+            altBaros[i] = item.getAltBaroFeet();
+            altGeoms[i] = item.getAltGeom();
+            groundSpeeds[i] = item.getGroundSpeed();
+            tracks[i] = item.getTrack();
+            verticalRates[i] = item.getVerticalRate();
+            squawks[i] = item.getSquawk();
+            categories[i] = item.getCategory();
+            onGround[i] = item.isOnGround();
         }
+
+        ps.setArray(first, conn.createArrayOf("bigint", ids));
+        ps.setArray(first + 1, conn.createArrayOf("varchar", flights));
+        ps.setArray(first + 2, conn.createArrayOf("float8", lons));
+        ps.setArray(first + 3, conn.createArrayOf("float8", lats));
+        ps.setArray(first + 4, conn.createArrayOf("integer", altBaros));
+        ps.setArray(first + 5, conn.createArrayOf("integer", altGeoms));
+        ps.setArray(first + 6, conn.createArrayOf("float8", groundSpeeds));
+        ps.setArray(first + 7, conn.createArrayOf("float8", tracks));
+        ps.setArray(first + 8, conn.createArrayOf("integer", verticalRates));
+        ps.setArray(first + 9, conn.createArrayOf("varchar", squawks));
+        ps.setArray(first + 10, conn.createArrayOf("varchar", categories));
+        ps.setArray(first + 11, conn.createArrayOf("boolean", onGround));
+    }
+
+    /**
+     * @return the transaction's {@code NOW()}, which is what positions written in it get
+     *         as {@code seen_at}
+     */
+    public Instant transactionTimestamp(Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(NOW_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1).toInstant();
+        }
+    }
+
+    static byte[] encodeCopyPayload(Map<String, Long> aircraftIds, List<AcItem> items, List<Instant> seenAt) throws Exception {
+        BinaryCopyEncoder encoder = new BinaryCopyEncoder(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            AcItem item = items.get(i);
+            double altGeom = item.getAltGeom() != null ? item.getAltGeom() : 0;
+            encoder.startRow(COPY_FIELD_COUNT)
+                    .writeLong(aircraftIds.get(item.getHex()))
+                    .writeText(item.getFlight())
+                    .writePointZ(item.getLon(), item.getLat(), altGeom, SRID_WGS84)
+                    .writeInt(item.getAltBaroFeet())
+                    .writeInt(item.getAltGeom())
+                    .writeFloat(item.getGroundSpeed())
+                    .writeFloat(item.getTrack())
+                    .writeInt(item.getVerticalRate())
+                    .writeText(item.getSquawk())
+                    .writeText(item.getCategory())
+                    .writeBoolean(item.isOnGround())
+                    .writeTimestamp(seenAt.get(i));
+        }
+        return encoder.finish();
+    }
+
+    private void bind(PreparedStatement ps, long aircraftId, AcItem item) throws Exception {
+        ps.setLong(1, aircraftId);
+        ps.setString(2, item.getFlight());
+
+        // PostGIS: ST_MakePoint(lon, lat, alt)
+        ps.setDouble(3, item.getLon());
+        ps.setDouble(4, item.getLat());
+        ps.setInt(5, item.getAltGeom() != null ? item.getAltGeom() : 0);
+
+        if (item.getAltBaroFeet() != null) {
+            ps.setInt(6, item.getAltBaroFeet());
+        } else {
+            ps.setNull(6, Types.INTEGER);
+        }
+
+        if (item.getAltGeom() != null) {
+            ps.setInt(7, item.getAltGeom());
+        } else {
+            ps.setNull(7, Types.INTEGER);
+        }
+
+        if (item.getGroundSpeed() != null) {
+            ps.setDouble(8, item.getGroundSpeed());
+        } else {
+            ps.setNull(8, Types.REAL);
+        }
+
+        if (item.getTrack() != null) {
+            ps.setDouble(9, item.getTrack());
+        } else {
+            ps.setNull(9, Types.REAL);
+        }
+
+        if (item.getVerticalRate() != null) {
+            ps.setInt(10, item.getVerticalRate());
+        } else {
+            ps.setNull(10, Types.INTEGER);
+        }
+
+        ps.setString(11, item.getSquawk());
+        ps.setString(12, item.getCategory());
+        ps.setBoolean(13, item.isOnGround());
     }
 }
@@ -0,0 +1,459 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.cache.AircraftPartitioner;
+import com.militarytracker.dbingestor.cache.FlightSessionRegistry;
+import com.militarytracker.dbingestor.cache.FlightSessionRegistry.SessionState;
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.model.api.AcItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maintains {@code flight_sessions}, one row per sortie, with a per-aircraft state machine
+ * driven by the on-ground flag: an airborne position after a ground one is a takeoff and
+ * opens a session, an on-ground position ends the open session as a landing, and a position
+ * arriving more than {@code signalLossGap} after the session's last one ends it as
+ * signal loss. An aircraft first seen airborne opens a session whose takeoff was not
+ * observed. Each batch updates every touched session with one statement, so sessions keep
+ * their point count, maximum altitude and last position current as positions arrive.
+ */
+public class FlightSessionRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlightSessionRepository.class);
+
+    static final String END_REASON_LANDING = "landing";
+    static final String END_REASON_SIGNAL_LOST = "signal_lost";
+
+    private static final String FIND_OPEN_SESSION_SQL = """
+            SELECT id, last_seen_at FROM flight_sessions
+            WHERE aircraft_id = ? AND end_time IS NULL
+            ORDER BY start_time DESC LIMIT 1
+            """;
+
+    private static final String CREATE_SESSION_SQL = """
+            INSERT INTO flight_sessions
+                (aircraft_id, callsign, takeoff_observed, departure_position, start_time, last_seen_at)
+            VALUES (?, ?, ?, ST_SetSRID(ST_MakePoint(?, ?), 4326), ?, ?)
+            RETURNING id
+            """;
+
+    private static final String UPDATE_SESSIONS_SQL = """
+            UPDATE flight_sessions s
+            SET point_count = s.point_count + d.points,
+                max_altitude = GREATEST(s.max_altitude, d.max_altitude),
+                callsign = COALESCE(s.callsign, d.callsign),
+                last_position = ST_SetSRID(ST_MakePoint(d.lon, d.lat), 4326),
+                last_seen_at = d.last_seen,
+                end_time = CASE WHEN d.end_reason IS NOT NULL THEN d.last_seen END,
+                end_reason = d.end_reason,
+                arrival_position = CASE WHEN d.end_reason IS NOT NULL
+                                        THEN ST_SetSRID(ST_MakePoint(d.lon, d.lat), 4326) END,
+                updated_at = NOW()
+            FROM unnest(?::bigint[], ?::integer[], ?::integer[], ?::varchar[], ?::float8[], ?::float8[], ?::varchar[],
+                        ?::timestamptz[])
+                 AS d(id, points, max_altitude, callsign, lon, lat, end_reason, last_seen)
+            WHERE s.id = d.id AND s.end_time IS NULL
+            """;
+
+    private static final String CLOSE_LOST_SESSIONS_SQL = """
+            UPDATE flight_sessions SET end_time = last_seen_at, end_reason = 'signal_lost', updated_at = NOW()
+            WHERE id = ANY(?) AND end_time IS NULL
+            """;
+
+    private static final String CLOSE_STALE_SESSIONS_SQL = """
+            UPDATE flight_sessions SET end_time = last_seen_at, end_reason = 'signal_lost', updated_at = NOW()
+            WHERE end_time IS NULL AND last_seen_at < NOW() - ? * INTERVAL '1 second'
+            RETURNING id, aircraft_id, last_seen_at
+            """;
+
+    // The hex tells which partition the aircraft's records arrive on
+    private static final String LOAD_OPEN_SESSIONS_SQL = """
+            SELECT s.id, s.aircraft_id, s.last_seen_at, a.hex_icao FROM flight_sessions s
+            JOIN aircraft a ON a.id = s.aircraft_id
+            WHERE s.end_time IS NULL
+            ORDER BY s.last_seen_at DESC
+            """;
+
+    // Aircraft parked within the signal-loss gap, so their next takeoff is recognized as one
+    private static final String LOAD_GROUNDED_SQL = """
+            SELECT l.aircraft_id, ST_X(l.position), ST_Y(l.position), l.seen_at, a.hex_icao FROM aircraft_latest l
+            JOIN aircraft a ON a.id = l.aircraft_id
+            WHERE l.on_ground AND l.seen_at > NOW() - ? * INTERVAL '1 second'
+            ORDER BY l.seen_at DESC
+            """;
+
+    private final FlightSessionRegistry registry;
+    private final Duration signalLossGap;
+    // Catch-up windows writing backlog positions, whose sessions look silent by the wall clock
+    private final AtomicInteger backlogWindows = new AtomicInteger();
+
+    public FlightSessionRepository(FlightSessionRegistry registry, Duration signalLossGap) {
+        this.registry = registry;
+        this.signalLossGap = signalLossGap;
+    }
+
+    /**
+     * Runs a batch of positions through the state machine, in order, and applies the
+     * resulting session changes. Only positions written in the same transaction should be
+     * passed in.
+     *
+     * @return the changes to pass to {@link #registerCommitted(SessionChanges)} once the
+     *         transaction commits
+     */
+    public SessionChanges updateSessions(Map<String, Long> aircraftIds, List<AcItem> items, Connection conn) throws Exception {
+        return updateSessions(aircraftIds, items, null, conn);
+    }
+
+    /**
+     * Like {@link #updateSessions(Map, List, Connection)}, for positions stamped with when
+     * their records were produced, e.g. a backlog written while catching up: signal loss is
+     * measured between positions and the session times are taken from them rather than
+     * from the time of writing.
+     *
+     * @param seenAt when each item was recorded, in the same order, or null for now
+     */
+    public SessionChanges updateSessions(Map<String, Long> aircraftIds, List<AcItem> items, List<Instant> seenAt,
+                                         Connection conn) throws Exception {
+        Map<Long, SessionState> states = new LinkedHashMap<>();
+        Map<Long, SessionDelta> deltas = new LinkedHashMap<>();
+        List<Long> lost = new ArrayList<>();
+        List<String> endReasons = new ArrayList<>();
+        int opened = 0;
+        Instant now = Instant.now();
+
+        PreparedStatement find = null;
+        PreparedStatement create = null;
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                AcItem item = items.get(i);
+                Instant at = seenAt != null ? seenAt.get(i) : now;
+                long aircraftId = aircraftIds.get(item.getHex());
+                SessionState state = states.get(aircraftId);
+                if (state == null) {
+                    state = registry.lookup(aircraftId);
+                    if (state == null) {
+                        if (find == null) {
+                            find = conn.prepareStatement(FIND_OPEN_SESSION_SQL);
+                        }
+                        state = findOpenSession(find, aircraftId);
+                    }
+                }
+
+                boolean silent = state != null
+                        && Duration.between(state.getLastSeenAt(), at).compareTo(signalLossGap) > 0;
+                if (state != null && state.isOpen() && silent) {
+                    lost.add(state.getSessionId());
+                    endReasons.add(END_REASON_SIGNAL_LOST);
+                    state = SessionState.lost(aircraftId, state.getLastSeenAt());
+                }
+
+                if (item.isOnGround()) {
+                    if (state != null && state.isOpen()) {
+                        SessionDelta delta = deltas.computeIfAbsent(state.getSessionId(), SessionDelta::new);
+                        delta.add(item, at);
+                        delta.endReason = END_REASON_LANDING;
+                        endReasons.add(END_REASON_LANDING);
+                    }
+                    state = SessionState.onGround(aircraftId, item.getLon(), item.getLat(), at);
+                } else {
+                    if (state == null || !state.isOpen()) {
+                        if (create == null) {
+                            create = conn.prepareStatement(CREATE_SESSION_SQL);
+                        }
+                        boolean takeoffObserved = state != null && state.isOnGround() && !silent;
+                        long sessionId = takeoffObserved
+                                ? createSession(create, aircraftId, item, at, true, state.getGroundLon(), state.getGroundLat())
+                                : createSession(create, aircraftId, item, at, false, item.getLon(), item.getLat());
+                        state = SessionState.airborne(aircraftId, sessionId, at);
+                        opened++;
+                    } else {
+                        state = SessionState.airborne(aircraftId, state.getSessionId(), at);
+                    }
+                    deltas.computeIfAbsent(state.getSessionId(), SessionDelta::new).add(item, at);
+                }
+                states.put(aircraftId, state);
+            }
+        } finally {
+            if (find != null) {
+                find.close();
+            }
+            if (create != null) {
+                create.close();
+            }
+        }
+
+        closeLost(lost, conn);
+        applyDeltas(deltas.values(), conn);
+        LOG.trace("Updated {} flight sessions, opened {}, ended {}", deltas.size(), opened, endReasons.size());
+        return new SessionChanges(new ArrayList<>(states.values()), endReasons, opened);
+    }
+
+    /**
+     * Ends every open session whose last position is older than {@code signalLossGap}, for
+     * aircraft that stopped reporting altogether. Nothing is ended while a catch-up window
+     * is open.
+     *
+     * @return the changes to pass to {@link #registerCommitted(SessionChanges)} once the
+     *         transaction commits
+     */
+    public SessionChanges closeLostSessions(Connection conn) throws Exception {
+        if (backlogWindows.get() > 0) {
+            return new SessionChanges(List.of(), List.of(), 0, List.of());
+        }
+        List<SessionState> states = new ArrayList<>();
+        List<Long> sessionIds = new ArrayList<>();
+        List<String> endReasons = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(CLOSE_STALE_SESSIONS_SQL)) {
+            ps.setLong(1, signalLossGap.toSeconds());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sessionIds.add(rs.getLong("id"));
+                    states.add(SessionState.lost(rs.getLong("aircraft_id"), rs.getTimestamp("last_seen_at").toInstant()));
+                    endReasons.add(END_REASON_SIGNAL_LOST);
+                }
+            }
+        }
+        return new SessionChanges(states, endReasons, 0, sessionIds);
+    }
+
+    /**
+     * Holds back {@link #closeLostSessions(Connection)} from the first batch of a catch-up
+     * window until {@link #backlogFinished()}: backlog positions carry when they were
+     * produced, so their sessions would be ended as lost while they are still being written.
+     */
+    public void backlogStarted() {
+        backlogWindows.incrementAndGet();
+    }
+
+    public void backlogFinished() {
+        backlogWindows.decrementAndGet();
+    }
+
+    /**
+     * Records the state changes of a committed transaction in the registry.
+     */
+    public void registerCommitted(SessionChanges changes) {
+        for (int i = 0; i < changes.states.size(); i++) {
+            SessionState state = changes.states.get(i);
+            if (changes.closedSessionIds != null) {
+                registry.replaceIfInSession(changes.closedSessionIds.get(i), state);
+            } else {
+                registry.register(state);
+            }
+        }
+        IngestorMetrics.FLIGHT_SESSIONS_OPENED.inc(changes.opened);
+        for (String reason : changes.endReasons) {
+            IngestorMetrics.FLIGHT_SESSIONS_CLOSED.labels(reason).inc();
+        }
+    }
+
+    /**
+     * Loads the most recently seen open sessions and the aircraft recently parked on the
+     * ground into the registry, for the aircraft whose records arrive on the given partitions
+     * and up to the registry's bound. Their ids are recorded with the partitioner.
+     *
+     * @return the number of aircraft loaded
+     */
+    public synchronized int warmPartitions(DataSource dataSource, AircraftPartitioner partitioner,
+                                           Set<Integer> partitions) throws Exception {
+        int loaded = 0;
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(LOAD_OPEN_SESSIONS_SQL)) {
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (loaded < registry.getMaxSize() && rs.next()) {
+                        String hex = rs.getString("hex_icao");
+                        if (partitions.contains(partitioner.partitionOf(hex))) {
+                            long aircraftId = rs.getLong("aircraft_id");
+                            partitioner.record(hex, aircraftId);
+                            registry.register(SessionState.airborne(aircraftId, rs.getLong("id"),
+                                    rs.getTimestamp("last_seen_at").toInstant()));
+                            loaded++;
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(LOAD_GROUNDED_SQL)) {
+                ps.setLong(1, signalLossGap.toSeconds());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (loaded < registry.getMaxSize() && rs.next()) {
+                        String hex = rs.getString(5);
+                        long aircraftId = rs.getLong(1);
+                        if (partitions.contains(partitioner.partitionOf(hex)) && registry.lookup(aircraftId) == null) {
+                            partitioner.record(hex, aircraftId);
+                            registry.register(SessionState.onGround(aircraftId, rs.getDouble(2), rs.getDouble(3),
+                                    rs.getTimestamp(4).toInstant()));
+                            loaded++;
+                        }
+                    }
+                }
+            }
+        }
+        LOG.info("Warmed flight session registry with {} aircraft of partitions {}", loaded, partitions);
+        return loaded;
+    }
+
+    /**
+     * Forgets the session state of the given aircraft, e.g. those of a revoked partition.
+     *
+     * @return the number of aircraft removed
+     */
+    public int evictAircraft(Set<Long> aircraftIds) {
+        return registry.evictAircraft(aircraftIds);
+    }
+
+    private void closeLost(List<Long> sessionIds, Connection conn) throws Exception {
+        if (sessionIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(CLOSE_LOST_SESSIONS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", sessionIds.toArray()));
+            ps.executeUpdate();
+        }
+    }
+
+    private void applyDeltas(Collection<SessionDelta> deltas, Connection conn) throws Exception {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        int size = deltas.size();
+        Long[] ids = new Long[size];
+        Integer[] points = new Integer[size];
+        Integer[] maxAltitudes = new Integer[size];
+        String[] callsigns = new String[size];
+        Double[] lons = new Double[size];
+        Double[] lats = new Double[size];
+        String[] endReasons = new String[size];
+        Timestamp[] lastSeen = new Timestamp[size];
+        int i = 0;
+        for (SessionDelta delta : deltas) {
+            ids[i] = delta.sessionId;
+            points[i] = delta.points;
+            maxAltitudes[i] = delta.maxAltitude;
+            callsigns[i] = delta.callsign;
+            lons[i] = delta.lon;
+            lats[i] = delta.lat;
+            endReasons[i] = delta.endReason;
+            lastSeen[i] = Timestamp.from(delta.lastSeenAt);
+            i++;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(UPDATE_SESSIONS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", ids));
+            ps.setArray(2, conn.createArrayOf("integer", points));
+            ps.setArray(3, conn.createArrayOf("integer", maxAltitudes));
+            ps.setArray(4, conn.createArrayOf("varchar", callsigns));
+            ps.setArray(5, conn.createArrayOf("float8", lons));
+            ps.setArray(6, conn.createArrayOf("float8", lats));
+            ps.setArray(7, conn.createArrayOf("varchar", endReasons));
+            ps.setArray(8, conn.createArrayOf("timestamptz", lastSeen));
+            ps.executeUpdate();
+        }
+    }
+
+    private SessionState findOpenSession(PreparedStatement ps, long aircraftId) throws Exception {
+        ps.setLong(1, aircraftId);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                return SessionState.airborne(aircraftId, rs.getLong(1), rs.getTimestamp(2).toInstant());
+            }
+            return null;
+        }
+    }
+
+    private long createSession(PreparedStatement ps, long aircraftId, AcItem item, Instant seenAt,
+                               boolean takeoffObserved, double departureLon, double departureLat) throws Exception {
+        ps.setLong(1, aircraftId);
+        ps.setString(2, item.getFlight());
+        ps.setBoolean(3, takeoffObserved);
+        ps.setDouble(4, departureLon);
+        ps.setDouble(5, departureLat);
+        ps.setTimestamp(6, Timestamp.from(seenAt));
+        ps.setTimestamp(7, Timestamp.from(seenAt));
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            throw new IllegalStateException("INSERT did not return a session id for hex=" + item.getHex());
+        }
+    }
+
+    /**
+     * Session state changes made by one transaction.
+     */
+    public static final class SessionChanges {
+        private final List<SessionState> states;
+        private final List<String> endReasons;
+        private final int opened;
+        // Set for background closes: states then only apply to aircraft still in these sessions
+        private final List<Long> closedSessionIds;
+
+        private SessionChanges(List<SessionState> states, List<String> endReasons, int opened) {
+            this(states, endReasons, opened, null);
+        }
+
+        private SessionChanges(List<SessionState> states, List<String> endReasons, int opened, List<Long> closedSessionIds) {
+            this.states = states;
+            this.endReasons = endReasons;
+            this.opened = opened;
+            this.closedSessionIds = closedSessionIds;
+        }
+
+        public List<SessionState> getStates() {
+            return states;
+        }
+
+        public List<String> getEndReasons() {
+            return endReasons;
+        }
+
+        public int getOpened() {
+            return opened;
+        }
+    }
+
+    /**
+     * What a batch adds to one session.
+     */
+    private static final class SessionDelta {
+        private final long sessionId;
+        private int points;
+        private Integer maxAltitude;
+        private String callsign;
+        private double lon;
+        private double lat;
+        private String endReason;
+        private Instant lastSeenAt;
+
+        private SessionDelta(long sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        private void add(AcItem item, Instant seenAt) {
+            points++;
+            lastSeenAt = seenAt;
+            Integer altitude = item.getAltBaroFeet();
+            if (altitude != null && (maxAltitude == null || altitude > maxAltitude)) {
+                maxAltitude = altitude;
+            }
+            if (callsign == null) {
+                callsign = item.getFlight();
+            }
+            lon = item.getLon();
+            lat = item.getLat();
+        }
+    }
+}
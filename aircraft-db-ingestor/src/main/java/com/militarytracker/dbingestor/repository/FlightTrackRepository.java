@@ -1,83 +1,503 @@
 package com.militarytracker.dbingestor.repository;
 
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry;
+import com.militarytracker.dbingestor.cache.AircraftPartitioner;
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
 import com.militarytracker.model.api.AcItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class FlightTrackRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(FlightTrackRepository.class);
 
+    private static final int DEFAULT_REGISTRY_SIZE = 20_000;
+    private static final int DEFAULT_FLUSH_POINTS = 20;
+    private static final Duration DEFAULT_FLUSH_AGE = Duration.ofSeconds(60);
+    private static final Duration DEFAULT_SEGMENT_GAP = Duration.ofMinutes(30);
+
+    private static final String CLOSE_REASON_GAP = "gap";
+    private static final String CLOSE_REASON_LANDING = "landing";
+    private static final String CLOSE_REASON_IDLE = "idle";
+
     private static final String FIND_ACTIVE_TRACK_SQL = """
-            SELECT id FROM flight_tracks
+            SELECT id, last_point_at FROM flight_tracks
             WHERE aircraft_id = ? AND flight = ? AND end_time IS NULL
             ORDER BY start_time DESC LIMIT 1
             """;
 
+    // The hex tells which partition the aircraft's records arrive on
+    private static final String FIND_OPEN_TRACK_AIRCRAFT_SQL = """
+            SELECT DISTINCT ft.aircraft_id, a.hex_icao FROM flight_tracks ft
+            JOIN aircraft a ON a.id = ft.aircraft_id
+            WHERE ft.end_time IS NULL AND ft.flight IS NOT NULL
+            """;
+
+    private static final String LOAD_AIRCRAFT_TRACKS_SQL = """
+            SELECT id, aircraft_id, flight, last_point_at FROM flight_tracks
+            WHERE aircraft_id = ANY(?) AND end_time IS NULL AND flight IS NOT NULL
+            ORDER BY last_point_at DESC LIMIT ?
+            """;
+
     private static final String CREATE_TRACK_SQL = """
-            INSERT INTO flight_tracks (aircraft_id, flight, track_line, start_time, point_count)
-            VALUES (?, ?, ST_SetSRID(ST_MakeLine(ARRAY[ST_MakePoint(?, ?, ?)]), 4326), NOW(), 1)
+            INSERT INTO flight_tracks (aircraft_id, flight, track_line, start_time, last_point_at, point_count)
+            VALUES (?, ?, ST_SetSRID(ST_MakeLine(ARRAY[ST_MakePoint(?, ?, ?)]), 4326), NOW(), NOW(), 1)
+            RETURNING id
             """;
 
-    private static final String APPEND_TO_TRACK_SQL = """
-            UPDATE flight_tracks
-            SET track_line = ST_AddPoint(track_line, ST_MakePoint(?, ?, ?)),
-                point_count = point_count + 1,
-                end_time = NOW(),
+    // Appends every position stored since the track's last_point_at in one rewrite of the
+    // linestring. Because the points are read back from flight_positions, nothing is lost
+    // if the in-memory counters are: the next flush (or the catch-up on startup) picks them up.
+    // The last_point_at guard makes a flush that raced with another one on the same track
+    // (consumer worker, closer, catch-up) skip the row instead of appending the points twice.
+    private static final String FLUSH_TRACKS_SQL_TEMPLATE = """
+            UPDATE flight_tracks t
+            SET track_line = ST_MakeLine(t.track_line, p.line),
+                point_count = t.point_count + p.points,
+                last_point_at = p.last_seen,
                 updated_at = NOW()
-            WHERE id = ?
+            FROM (
+                SELECT ft.id,
+                       ft.last_point_at AS base_point_at,
+                       ST_MakeLine(fp.position ORDER BY fp.seen_at, fp.id) AS line,
+                       COUNT(*) AS points,
+                       MAX(fp.seen_at) AS last_seen
+                FROM flight_tracks ft
+                JOIN flight_positions fp
+                  ON fp.aircraft_id = ft.aircraft_id
+                 AND fp.flight = ft.flight
+                 AND fp.seen_at > ft.last_point_at
+                WHERE ft.end_time IS NULL AND %s
+                GROUP BY ft.id, ft.last_point_at
+            ) p
+            WHERE t.id = p.id AND t.last_point_at = p.base_point_at
             """;
 
-    public void updateOrCreateTrack(long aircraftId, AcItem item, Connection conn) throws Exception {
-        String flight = item.getFlight();
-        if (flight == null) {
-            return;
+    private static final String FLUSH_TRACKS_SQL = FLUSH_TRACKS_SQL_TEMPLATE.formatted("ft.id = ANY(?)");
+
+    // Positions written by the current transaction carry seen_at = NOW(); excluding them keeps
+    // the point that opened a new segment out of the segment being closed.
+    private static final String FLUSH_TRACKS_BEFORE_NOW_SQL =
+            FLUSH_TRACKS_SQL_TEMPLATE.formatted("ft.id = ANY(?) AND fp.seen_at < NOW()");
+
+    private static final String FLUSH_STALE_TRACKS_SQL =
+            FLUSH_TRACKS_SQL_TEMPLATE.formatted("ft.last_point_at < NOW() - ? * INTERVAL '1 second'");
+
+    private static final String FLUSH_AIRCRAFT_TRACKS_SQL = FLUSH_TRACKS_SQL_TEMPLATE.formatted("ft.aircraft_id = ANY(?)");
+
+    private static final String CLOSE_TRACKS_SQL = """
+            UPDATE flight_tracks SET end_time = last_point_at, updated_at = NOW()
+            WHERE id = ANY(?) AND end_time IS NULL
+            """;
+
+    private static final String CLOSE_STALE_TRACKS_SQL = """
+            UPDATE flight_tracks SET end_time = last_point_at, updated_at = NOW()
+            WHERE end_time IS NULL AND last_point_at < NOW() - ? * INTERVAL '1 second'
+            RETURNING id, aircraft_id, flight, last_point_at
+            """;
+
+    private final ActiveTrackRegistry registry;
+    private final int flushPoints;
+    private final Duration flushAge;
+    private final Duration segmentGap;
+    private final boolean closeOnGround;
+
+    private FlightTrackRepository(Builder builder) {
+        this.registry = builder.registry != null ? builder.registry : new ActiveTrackRegistry(DEFAULT_REGISTRY_SIZE);
+        this.flushPoints = builder.flushPoints;
+        this.flushAge = builder.flushAge;
+        this.segmentGap = builder.segmentGap;
+        this.closeOnGround = builder.closeOnGround;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the tracks touched by this point, to be passed to {@link #registerCommitted(List)}
+     *         once the transaction commits; empty if the item has no flight
+     */
+    public List<ActiveTrack> updateOrCreateTrack(long aircraftId, AcItem item, Connection conn) throws Exception {
+        return updateOrCreateTracks(Map.of(item.getHex(), aircraftId), List.of(item), conn);
+    }
+
+    /**
+     * Applies a whole batch of positions to their tracks. The positions must already have
+     * been written in the same transaction. New tracks are created with their first point;
+     * further points are only counted and appended by a flush once a track has
+     * {@code flushPoints} pending points or its oldest pending point is {@code flushAge} old.
+     * All due tracks are flushed with a single statement.
+     * <p>
+     * A track is closed and a new one started when a point arrives more than
+     * {@code segmentGap} after the track's last point, since callsigns are reused from
+     * one sortie to the next. With {@code closeOnGround}, an on-ground point ends the
+     * open track (landing) and on-ground points never start one, so the next airborne
+     * point opens a new segment.
+     *
+     * @return the state of every touched track, closed ones first, to be passed to
+     *         {@link #registerCommitted(List)} once the transaction commits
+     */
+    public List<ActiveTrack> updateOrCreateTracks(Map<String, Long> aircraftIds, List<AcItem> items, Connection conn) throws Exception {
+        Map<String, ActiveTrack> touched = new LinkedHashMap<>();
+        Set<String> closedKeys = new HashSet<>();
+        List<ActiveTrack> gapClosed = new ArrayList<>();
+        List<ActiveTrack> landed = new ArrayList<>();
+        Instant now = Instant.now();
+
+        PreparedStatement find = null;
+        PreparedStatement create = null;
+        try {
+            for (AcItem item : items) {
+                String flight = item.getFlight();
+                if (flight == null) {
+                    continue;
+                }
+
+                long aircraftId = aircraftIds.get(item.getHex());
+                String key = aircraftId + ":" + flight;
+
+                ActiveTrack track = touched.get(key);
+                if (track == null && !closedKeys.contains(key)) {
+                    track = registry.lookup(aircraftId, flight);
+                    if (track == null) {
+                        if (find == null) {
+                            find = conn.prepareStatement(FIND_ACTIVE_TRACK_SQL);
+                        }
+                        track = findActiveTrack(find, aircraftId, flight);
+                    }
+                }
+
+                if (track != null && Duration.between(track.getLastPointAt(), now).compareTo(segmentGap) > 0) {
+                    gapClosed.add(track.closed(CLOSE_REASON_GAP));
+                    touched.remove(key);
+                    closedKeys.add(key);
+                    track = null;
+                }
+
+                if (closeOnGround && item.isOnGround()) {
+                    if (track != null) {
+                        landed.add(track.withPendingPoint(now).closed(CLOSE_REASON_LANDING));
+                        touched.remove(key);
+                        closedKeys.add(key);
+                    }
+                    continue;
+                }
+
+                if (track != null) {
+                    track = track.withPendingPoint(now);
+                } else {
+                    if (create == null) {
+                        create = conn.prepareStatement(CREATE_TRACK_SQL);
+                    }
+                    track = new ActiveTrack(aircraftId, flight, createTrack(create, aircraftId, item), now);
+                }
+                touched.put(key, track);
+            }
+        } finally {
+            if (find != null) {
+                find.close();
+            }
+            if (create != null) {
+                create.close();
+            }
         }
 
-        Long trackId = findActiveTrack(aircraftId, flight, conn);
+        List<ActiveTrack> result = new ArrayList<>(gapClosed.size() + landed.size() + touched.size());
+        result.addAll(gapClosed);
+        result.addAll(landed);
+        List<Long> due = new ArrayList<>();
+        for (ActiveTrack track : touched.values()) {
+            if (isDue(track, now)) {
+                due.add(track.getTrackId());
+                result.add(track.flushed());
+            } else {
+                result.add(track);
+            }
+        }
+        flushTracks(due, conn);
 
-        if (trackId != null) {
-            appendToTrack(trackId, item, conn);
-        } else {
-            createTrack(aircraftId, item, conn);
+        if (!gapClosed.isEmpty() || !landed.isEmpty()) {
+            List<Long> gapIds = trackIds(gapClosed);
+            List<Long> landedIds = trackIds(landed);
+            flushTracks(gapIds, FLUSH_TRACKS_BEFORE_NOW_SQL, conn);
+            flushTracks(landedIds, FLUSH_TRACKS_SQL, conn);
+            List<Long> closedIds = new ArrayList<>(gapIds);
+            closedIds.addAll(landedIds);
+            closeTracks(closedIds, conn);
         }
+
+        LOG.trace("Updated {} tracks, flushed {}, closed {} on gap and {} on landing",
+                touched.size(), due.size(), gapClosed.size(), landed.size());
+        return result;
     }
 
-    private Long findActiveTrack(long aircraftId, String flight, Connection conn) throws Exception {
-        try (PreparedStatement ps = conn.prepareStatement(FIND_ACTIVE_TRACK_SQL)) {
-            ps.setLong(1, aircraftId);
-            ps.setString(2, flight);
+    /**
+     * Flushes tracks whose oldest pending point has waited longer than {@code flushAge},
+     * for aircraft that stopped reporting before their tracks filled up.
+     *
+     * @return the flushed tracks, to be passed to {@link #registerCommitted(List)} once the
+     *         transaction commits
+     */
+    public List<ActiveTrack> flushIdleTracks(Connection conn) throws Exception {
+        List<ActiveTrack> idle = registry.pendingSince(Instant.now().minus(flushAge));
+        if (idle.isEmpty()) {
+            return List.of();
+        }
+
+        List<ActiveTrack> flushed = new ArrayList<>(idle.size());
+        for (ActiveTrack track : idle) {
+            flushed.add(track.flushed());
+        }
+        flushTracks(trackIds(idle), conn);
+        LOG.debug("Flushed {} idle tracks", idle.size());
+        return flushed;
+    }
+
+    /**
+     * Closes every open track whose last point is older than {@code segmentGap}. Pending
+     * points are caught up from {@code flight_positions} first, so a track that is still
+     * receiving positions is not closed just because its linestring lags behind.
+     *
+     * @return the closed tracks, to be passed to {@link #registerCommitted(List)} once the
+     *         transaction commits
+     */
+    public List<ActiveTrack> closeIdleTracks(Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(FLUSH_STALE_TRACKS_SQL)) {
+            ps.setLong(1, segmentGap.toSeconds());
+            ps.executeUpdate();
+        }
+
+        List<ActiveTrack> closed = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(CLOSE_STALE_TRACKS_SQL)) {
+            ps.setLong(1, segmentGap.toSeconds());
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getLong(1);
+                while (rs.next()) {
+                    closed.add(new ActiveTrack(rs.getLong("aircraft_id"), rs.getString("flight"),
+                            rs.getLong("id"), rs.getTimestamp("last_point_at").toInstant())
+                            .closed(CLOSE_REASON_IDLE));
                 }
-                return null;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Records the tracks touched by a committed transaction in the registry, dropping the
+     * ones that were closed.
+     */
+    public void registerCommitted(List<ActiveTrack> tracks) {
+        for (ActiveTrack track : tracks) {
+            if (track.isClosed()) {
+                registry.remove(track.getAircraftId(), track.getFlight());
+                IngestorMetrics.TRACKS_CLOSED.labels(track.getCloseReason()).inc();
+            } else {
+                registry.register(track);
             }
         }
     }
 
-    private void createTrack(long aircraftId, AcItem item, Connection conn) throws Exception {
-        try (PreparedStatement ps = conn.prepareStatement(CREATE_TRACK_SQL)) {
-            ps.setLong(1, aircraftId);
-            ps.setString(2, item.getFlight());
-            ps.setDouble(3, item.getLon());
-            ps.setDouble(4, item.getLat());
-            ps.setInt(5, item.getAltGeom() != null ? item.getAltGeom() : 0);
+    /**
+     * Loads the open tracks of the aircraft whose records arrive on the given partitions into
+     * the registry, up to the registry's bound, after appending any positions that were stored
+     * but never flushed (for example because the previous owner stopped with points pending).
+     * Their ids are recorded with the partitioner.
+     *
+     * @return the number of tracks loaded
+     */
+    public synchronized int warmPartitions(DataSource dataSource, AircraftPartitioner partitioner,
+                                           Set<Integer> partitions) throws Exception {
+        try (Connection conn = dataSource.getConnection()) {
+            List<Long> aircraftIds = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement(FIND_OPEN_TRACK_AIRCRAFT_SQL)) {
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String hex = rs.getString(2);
+                        if (partitions.contains(partitioner.partitionOf(hex))) {
+                            partitioner.record(hex, rs.getLong(1));
+                            aircraftIds.add(rs.getLong(1));
+                        }
+                    }
+                }
+            }
+            int loaded = loadAircraftTracks(aircraftIds, conn);
+            LOG.info("Warmed active track registry with {} open tracks of partitions {}", loaded, partitions);
+            return loaded;
+        }
+    }
+
+    /**
+     * Replaces the registry entries of the given aircraft with their open tracks as stored,
+     * e.g. after their tracks were rebuilt at the end of a catch-up window.
+     *
+     * @return the number of tracks loaded
+     */
+    public synchronized int reloadAircraft(Collection<Long> aircraftIds, DataSource dataSource) throws Exception {
+        registry.evictAircraft(new HashSet<>(aircraftIds));
+        try (Connection conn = dataSource.getConnection()) {
+            return loadAircraftTracks(aircraftIds, conn);
+        }
+    }
+
+    /**
+     * Forgets the open tracks of the given aircraft, e.g. those of a revoked partition. Their
+     * pending points stay in {@code flight_positions} for the next owner's warm-up to flush.
+     *
+     * @return the number of tracks removed
+     */
+    public int evictAircraft(Set<Long> aircraftIds) {
+        return registry.evictAircraft(aircraftIds);
+    }
+
+    private boolean isDue(ActiveTrack track, Instant now) {
+        if (track.getPendingPoints() == 0) {
+            return false;
+        }
+        return track.getPendingPoints() >= flushPoints
+                || Duration.between(track.getFirstPendingAt(), now).compareTo(flushAge) >= 0;
+    }
+
+    private int loadAircraftTracks(Collection<Long> aircraftIds, Connection conn) throws Exception {
+        if (aircraftIds.isEmpty()) {
+            return 0;
+        }
+        Array ids = conn.createArrayOf("bigint", aircraftIds.toArray());
+        try (PreparedStatement ps = conn.prepareStatement(FLUSH_AIRCRAFT_TRACKS_SQL)) {
+            ps.setArray(1, ids);
+            int rebuilt = ps.executeUpdate();
+            if (rebuilt > 0) {
+                LOG.info("Caught up {} open tracks from flight_positions", rebuilt);
+            }
+        }
+        List<ActiveTrack> loaded = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(LOAD_AIRCRAFT_TRACKS_SQL)) {
+            ps.setArray(1, ids);
+            ps.setInt(2, registry.getMaxSize());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    loaded.add(new ActiveTrack(rs.getLong("aircraft_id"), rs.getString("flight"),
+                            rs.getLong("id"), rs.getTimestamp("last_point_at").toInstant()));
+                }
+            }
+        }
+        // Oldest first, so that the most recently extended tracks are the last to be evicted
+        for (int i = loaded.size() - 1; i >= 0; i--) {
+            registry.register(loaded.get(i));
+        }
+        return loaded.size();
+    }
+
+    private void flushTracks(List<Long> trackIds, Connection conn) throws Exception {
+        flushTracks(trackIds, FLUSH_TRACKS_SQL, conn);
+    }
+
+    private void flushTracks(List<Long> trackIds, String sql, Connection conn) throws Exception {
+        if (trackIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("bigint", trackIds.toArray()));
             ps.executeUpdate();
         }
     }
 
-    private void appendToTrack(long trackId, AcItem item, Connection conn) throws Exception {
-        try (PreparedStatement ps = conn.prepareStatement(APPEND_TO_TRACK_SQL)) {
-            ps.setDouble(1, item.getLon());
-            ps.setDouble(2, item.getLat());
-            ps.setInt(3, item.getAltGeom() != null ? item.getAltGeom() : 0);
-            ps.setLong(4, trackId);
+    private void closeTracks(List<Long> trackIds, Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(CLOSE_TRACKS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", trackIds.toArray()));
             ps.executeUpdate();
         }
     }
+
+    private static List<Long> trackIds(List<ActiveTrack> tracks) {
+        List<Long> ids = new ArrayList<>(tracks.size());
+        for (ActiveTrack track : tracks) {
+            ids.add(track.getTrackId());
+        }
+        return ids;
+    }
+
+    private ActiveTrack findActiveTrack(PreparedStatement ps, long aircraftId, String flight) throws Exception {
+        ps.setLong(1, aircraftId);
+        ps.setString(2, flight);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                return new ActiveTrack(aircraftId, flight, rs.getLong(1), rs.getTimestamp(2).toInstant());
+            }
+            return null;
+        }
+    }
+
+    private long createTrack(PreparedStatement ps, long aircraftId, AcItem item) throws Exception {
+        ps.setLong(1, aircraftId);
+        ps.setString(2, item.getFlight());
+        ps.setDouble(3, item.getLon());
+        ps.setDouble(4, item.getLat());
+        ps.setInt(5, item.getAltGeom() != null ? item.getAltGeom() : 0);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            throw new IllegalStateException("INSERT did not return a track id for hex=" + item.getHex());
+        }
+    }
+
+    /**
+     * Settings of a {@link FlightTrackRepository}; whatever is not set keeps its default.
+     */
+    public static final class Builder {
+        private ActiveTrackRegistry registry;
+        private int flushPoints = DEFAULT_FLUSH_POINTS;
+        private Duration flushAge = DEFAULT_FLUSH_AGE;
+        private Duration segmentGap = DEFAULT_SEGMENT_GAP;
+        private boolean closeOnGround = true;
+
+        private Builder() {
+        }
+
+        public Builder registry(ActiveTrackRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * @param flushPoints buffered points of a track after which they are written
+         * @param flushAge    how long points may stay buffered before they are written
+         */
+        public Builder flushing(int flushPoints, Duration flushAge) {
+            this.flushPoints = flushPoints;
+            this.flushAge = flushAge;
+            return this;
+        }
+
+        /**
+         * @param segmentGap    silence after which an aircraft's next point starts a new track
+         * @param closeOnGround whether landing closes the track
+         */
+        public Builder segmentation(Duration segmentGap, boolean closeOnGround) {
+            this.segmentGap = segmentGap;
+            this.closeOnGround = closeOnGround;
+            return this;
+        }
+
+        public FlightTrackRepository build() {
+            return new FlightTrackRepository(this);
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.service.BatchStats;
+import com.militarytracker.dbingestor.service.BatchStats.Stage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * One {@code ingestion_log} row per ingested batch, with its record counts and the time
+ * spent in each ingest stage.
+ */
+public class IngestionLogRepository {
+
+    private static final String INSERT_SQL = """
+            INSERT INTO ingestion_log
+                (batch_id, source_url, records_received, records_ingested, records_failed, records_skipped,
+                 started_at, completed_at, error_message,
+                 parse_ms, aircraft_ms, positions_ms, tracks_ms, commit_ms)
+            VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String PURGE_SQL = "DELETE FROM ingestion_log WHERE started_at < ?";
+
+    public void insert(BatchStats stats, int ingested, int failed, int skipped, String error,
+                       Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+            ps.setObject(1, stats.getBatchId());
+            ps.setString(2, stats.getSource());
+            ps.setInt(3, stats.getReceived());
+            ps.setInt(4, ingested);
+            ps.setInt(5, failed);
+            ps.setInt(6, skipped);
+            ps.setTimestamp(7, Timestamp.from(stats.getStartedAt()));
+            ps.setString(8, error);
+            int index = 9;
+            for (Stage stage : Stage.values()) {
+                Double millis = stats.getMillis(stage);
+                if (millis != null) {
+                    ps.setDouble(index++, millis);
+                } else {
+                    ps.setNull(index++, Types.DOUBLE);
+                }
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the number of rows older than the retention that were deleted
+     */
+    public int purgeOlderThan(Duration retention, Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(PURGE_SQL)) {
+            ps.setTimestamp(1, Timestamp.from(Instant.now().minus(retention)));
+            return ps.executeUpdate();
+        }
+    }
+}
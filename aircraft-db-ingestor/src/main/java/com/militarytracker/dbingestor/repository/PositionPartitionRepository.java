@@ -0,0 +1,89 @@
+package com.militarytracker.dbingestor.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DDL for the daily partitions of {@code flight_positions}. Partition names are generated
+ * from dates or read back from the catalog, never taken from input, so they are safe to
+ * splice into statements that cannot take bind parameters.
+ */
+public class PositionPartitionRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PositionPartitionRepository.class);
+
+    public static final String PARTITION_PREFIX = "flight_positions_p";
+    public static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final String LIST_PARTITIONS_SQL = """
+            SELECT c.relname FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'flight_positions'::regclass
+            ORDER BY c.relname
+            """;
+
+    private static final String CREATE_PARTITION_SQL = """
+            CREATE TABLE IF NOT EXISTS %s PARTITION OF flight_positions
+            FOR VALUES FROM ('%s 00:00:00+00') TO ('%s 00:00:00+00')
+            """;
+
+    private static final String LOCK_TIMEOUT_SQL = "SET LOCAL lock_timeout = '%ds'";
+
+    public static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + PARTITION_SUFFIX.format(day);
+    }
+
+    public List<String> listPartitions(Connection conn) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(LIST_PARTITIONS_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Creates the partition holding {@code [day, day + 1)} in UTC unless it already exists.
+     */
+    public void createPartition(LocalDate day, Connection conn) throws Exception {
+        execute(conn, CREATE_PARTITION_SQL.formatted(partitionName(day), day, day.plusDays(1)));
+    }
+
+    public void dropPartition(String name, Connection conn) throws Exception {
+        execute(conn, "DROP TABLE " + name);
+        LOG.info("Dropped position partition {}", name);
+    }
+
+    /**
+     * Detaches a partition, leaving it as a standalone table for archiving.
+     */
+    public void detachPartition(String name, Connection conn) throws Exception {
+        execute(conn, "ALTER TABLE flight_positions DETACH PARTITION " + name);
+        LOG.info("Detached position partition {}", name);
+    }
+
+    /**
+     * Bounds how long partition DDL waits for the ACCESS EXCLUSIVE lock on
+     * {@code flight_positions}, so it never queues ingest writes behind it for long.
+     */
+    public void setLockTimeout(int seconds, Connection conn) throws Exception {
+        execute(conn, LOCK_TIMEOUT_SQL.formatted(seconds));
+    }
+
+    private void execute(Connection conn, String sql) throws Exception {
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.service.TrackSegmenter.Segment;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SQL behind the rebuild of {@code flight_tracks}: finding the tracks a time range touches
+ * for a chunk of aircraft (a range of ids offline, or the aircraft written while the ingestor
+ * caught up), replacing them with segments computed from {@code flight_positions}, and
+ * checkpointing finished chunks in {@code track_rebuild_checkpoints}.
+ */
+public class TrackRebuildRepository {
+
+    private static final String AIRCRAFT_ID_BOUNDS_SQL = "SELECT MIN(id), MAX(id) FROM aircraft";
+
+    private static final String AIRCRAFT_RANGE = "aircraft_id BETWEEN ? AND ?";
+    private static final String AIRCRAFT_LIST = "aircraft_id = ANY(?)";
+
+    private static final String OVERLAPPING_TRACKS_SQL_TEMPLATE = """
+            SELECT MIN(start_time), MAX(last_point_at) FROM flight_tracks
+            WHERE %s AND start_time <= ? AND last_point_at >= ?
+            """;
+
+    private static final String DELETE_TRACKS_SQL_TEMPLATE = """
+            DELETE FROM flight_tracks
+            WHERE %s AND start_time <= ? AND last_point_at >= ?
+            """;
+
+    private static final String STREAM_POSITIONS_SQL_TEMPLATE = """
+            SELECT id, aircraft_id, flight, seen_at, on_ground FROM flight_positions
+            WHERE %s AND seen_at BETWEEN ? AND ? AND flight IS NOT NULL
+            ORDER BY aircraft_id, flight, seen_at, id
+            """;
+
+    // The (seen_at, id) bounds select exactly the positions the segmenter streamed for each
+    // segment; the plain seen_at range lets the planner use the (aircraft_id, seen_at) index
+    private static final String INSERT_SEGMENTS_SQL = """
+            INSERT INTO flight_tracks
+                (aircraft_id, flight, track_line, start_time, end_time, last_point_at, point_count)
+            SELECT s.aircraft_id, s.flight, ST_MakeLine(fp.position ORDER BY fp.seen_at, fp.id),
+                   s.start_at, CASE WHEN s.closed THEN s.last_at END, s.last_at, COUNT(*)
+            FROM unnest(?::bigint[], ?::varchar[], ?::timestamptz[], ?::bigint[], ?::timestamptz[],
+                        ?::bigint[], ?::boolean[])
+                AS s(aircraft_id, flight, start_at, first_id, last_at, last_id, closed)
+            JOIN flight_positions fp
+              ON fp.aircraft_id = s.aircraft_id
+             AND fp.flight = s.flight
+             AND fp.seen_at BETWEEN s.start_at AND s.last_at
+             AND (fp.seen_at, fp.id) >= (s.start_at, s.first_id)
+             AND (fp.seen_at, fp.id) <= (s.last_at, s.last_id)
+            GROUP BY s.aircraft_id, s.flight, s.start_at, s.first_id, s.last_at, s.last_id, s.closed
+            """;
+
+    private static final String LOAD_CHECKPOINTS_SQL =
+            "SELECT first_aircraft_id FROM track_rebuild_checkpoints WHERE run_id = ?";
+
+    private static final String SAVE_CHECKPOINT_SQL = """
+            INSERT INTO track_rebuild_checkpoints
+                (run_id, first_aircraft_id, last_aircraft_id, range_start, range_end,
+                 positions_read, tracks_deleted, tracks_written)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    /**
+     * Receives the positions streamed by {@link #streamPositions}.
+     */
+    @FunctionalInterface
+    public interface PositionVisitor {
+        void visit(long positionId, long aircraftId, String flight, Instant seenAt, boolean onGround) throws Exception;
+    }
+
+    /**
+     * @return the lowest and highest aircraft id, or null if there are no aircraft
+     */
+    public long[] aircraftIdBounds(Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(AIRCRAFT_ID_BOUNDS_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            long max = rs.getLong(2);
+            return rs.wasNull() ? null : new long[]{rs.getLong(1), max};
+        }
+    }
+
+    /**
+     * Widens a time range until it covers every track of the aircraft that it touches, so
+     * that no track is rebuilt from only part of its positions.
+     *
+     * @return the widened range
+     */
+    public TimeRange coverOverlappingTracks(long firstAircraftId, long lastAircraftId, Instant from, Instant to,
+                                           Connection conn) throws Exception {
+        return coverOverlappingTracks(AircraftSelection.range(firstAircraftId, lastAircraftId), from, to, conn);
+    }
+
+    /**
+     * Like {@link #coverOverlappingTracks(long, long, Instant, Instant, Connection)}, for the
+     * given aircraft.
+     */
+    public TimeRange coverOverlappingTracks(Collection<Long> aircraftIds, Instant from, Instant to,
+                                           Connection conn) throws Exception {
+        return coverOverlappingTracks(AircraftSelection.of(aircraftIds), from, to, conn);
+    }
+
+    /**
+     * @return the number of tracks of the aircraft that overlap the range and were deleted
+     */
+    public int deleteTracks(long firstAircraftId, long lastAircraftId, Instant from, Instant to,
+                            Connection conn) throws Exception {
+        return deleteTracks(AircraftSelection.range(firstAircraftId, lastAircraftId), from, to, conn);
+    }
+
+    /**
+     * @return the number of tracks of the given aircraft that overlap the range and were deleted
+     */
+    public int deleteTracks(Collection<Long> aircraftIds, Instant from, Instant to, Connection conn) throws Exception {
+        return deleteTracks(AircraftSelection.of(aircraftIds), from, to, conn);
+    }
+
+    /**
+     * Streams the positions of the aircraft in the range, in segmenter order, through a
+     * server-side cursor of {@code fetchSize} rows. The connection must not be in
+     * auto-commit mode, otherwise the driver reads the whole result into memory.
+     *
+     * @return the number of positions streamed
+     */
+    public long streamPositions(long firstAircraftId, long lastAircraftId, Instant from, Instant to,
+                                int fetchSize, PositionVisitor visitor, Connection conn) throws Exception {
+        return streamPositions(AircraftSelection.range(firstAircraftId, lastAircraftId), from, to,
+                fetchSize, visitor, conn);
+    }
+
+    /**
+     * Like {@link #streamPositions(long, long, Instant, Instant, int, PositionVisitor, Connection)},
+     * for the given aircraft.
+     */
+    public long streamPositions(Collection<Long> aircraftIds, Instant from, Instant to,
+                                int fetchSize, PositionVisitor visitor, Connection conn) throws Exception {
+        return streamPositions(AircraftSelection.of(aircraftIds), from, to, fetchSize, visitor, conn);
+    }
+
+    private TimeRange coverOverlappingTracks(AircraftSelection aircraft, Instant from, Instant to,
+                                            Connection conn) throws Exception {
+        Instant start = from;
+        Instant end = to;
+        try (PreparedStatement ps = conn.prepareStatement(OVERLAPPING_TRACKS_SQL_TEMPLATE.formatted(aircraft.predicate))) {
+            while (true) {
+                int next = aircraft.bind(ps, conn);
+                ps.setTimestamp(next, Timestamp.from(end));
+                ps.setTimestamp(next + 1, Timestamp.from(start));
+                Instant widenedStart = start;
+                Instant widenedEnd = end;
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getTimestamp(1) != null) {
+                        widenedStart = min(start, rs.getTimestamp(1).toInstant());
+                        widenedEnd = max(end, rs.getTimestamp(2).toInstant());
+                    }
+                }
+                if (widenedStart.equals(start) && widenedEnd.equals(end)) {
+                    return new TimeRange(start, end);
+                }
+                start = widenedStart;
+                end = widenedEnd;
+            }
+        }
+    }
+
+    private int deleteTracks(AircraftSelection aircraft, Instant from, Instant to, Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(DELETE_TRACKS_SQL_TEMPLATE.formatted(aircraft.predicate))) {
+            int next = aircraft.bind(ps, conn);
+            ps.setTimestamp(next, Timestamp.from(to));
+            ps.setTimestamp(next + 1, Timestamp.from(from));
+            return ps.executeUpdate();
+        }
+    }
+
+    private long streamPositions(AircraftSelection aircraft, Instant from, Instant to,
+                                 int fetchSize, PositionVisitor visitor, Connection conn) throws Exception {
+        long streamed = 0;
+        try (PreparedStatement ps = conn.prepareStatement(STREAM_POSITIONS_SQL_TEMPLATE.formatted(aircraft.predicate))) {
+            ps.setFetchSize(fetchSize);
+            int next = aircraft.bind(ps, conn);
+            ps.setTimestamp(next, Timestamp.from(from));
+            ps.setTimestamp(next + 1, Timestamp.from(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    visitor.visit(rs.getLong(1), rs.getLong(2), rs.getString(3),
+                            rs.getTimestamp(4).toInstant(), rs.getBoolean(5));
+                    streamed++;
+                }
+            }
+        }
+        return streamed;
+    }
+
+    /**
+     * Inserts one track per segment, building its linestring from the segment's positions,
+     * in a single statement.
+     *
+     * @return the number of tracks inserted
+     */
+    public int insertSegments(List<Segment> segments, Connection conn) throws Exception {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        int size = segments.size();
+        Long[] aircraftIds = new Long[size];
+        String[] flights = new String[size];
+        Timestamp[] starts = new Timestamp[size];
+        Long[] firstIds = new Long[size];
+        Timestamp[] lasts = new Timestamp[size];
+        Long[] lastIds = new Long[size];
+        Boolean[] closed = new Boolean[size];
+        for (int i = 0; i < size; i++) {
+            Segment segment = segments.get(i);
+            aircraftIds[i] = segment.getAircraftId();
+            flights[i] = segment.getFlight();
+            starts[i] = Timestamp.from(segment.getStartAt());
+            firstIds[i] = segment.getFirstId();
+            lasts[i] = Timestamp.from(segment.getLastAt());
+            lastIds[i] = segment.getLastId();
+            closed[i] = segment.isClosed();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_SEGMENTS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", aircraftIds));
+            ps.setArray(2, conn.createArrayOf("varchar", flights));
+            ps.setArray(3, conn.createArrayOf("timestamptz", starts));
+            ps.setArray(4, conn.createArrayOf("bigint", firstIds));
+            ps.setArray(5, conn.createArrayOf("timestamptz", lasts));
+            ps.setArray(6, conn.createArrayOf("bigint", lastIds));
+            ps.setArray(7, conn.createArrayOf("boolean", closed));
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the first aircraft id of every chunk the run has finished
+     */
+    public Set<Long> loadCheckpoints(String runId, Connection conn) throws Exception {
+        Set<Long> done = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement(LOAD_CHECKPOINTS_SQL)) {
+            ps.setString(1, runId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    done.add(rs.getLong(1));
+                }
+            }
+        }
+        return done;
+    }
+
+    public void saveCheckpoint(String runId, long firstAircraftId, long lastAircraftId, Instant from, Instant to,
+                               long positionsRead, int tracksDeleted, int tracksWritten,
+                               Connection conn) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(SAVE_CHECKPOINT_SQL)) {
+            ps.setString(1, runId);
+            ps.setLong(2, firstAircraftId);
+            ps.setLong(3, lastAircraftId);
+            ps.setTimestamp(4, Timestamp.from(from));
+            ps.setTimestamp(5, Timestamp.from(to));
+            ps.setLong(6, positionsRead);
+            ps.setInt(7, tracksDeleted);
+            ps.setInt(8, tracksWritten);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * An inclusive range of {@code seen_at}.
+     */
+    public static final class TimeRange {
+        private final Instant start;
+        private final Instant end;
+
+        public TimeRange(Instant start, Instant end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public Instant getStart() {
+            return start;
+        }
+
+        public Instant getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * The aircraft a statement applies to, either a range of ids or a list of them.
+     */
+    private static final class AircraftSelection {
+        private final String predicate;
+        private final long firstId;
+        private final long lastId;
+        private final Collection<Long> ids;
+
+        private AircraftSelection(String predicate, long firstId, long lastId, Collection<Long> ids) {
+            this.predicate = predicate;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.ids = ids;
+        }
+
+        private static AircraftSelection range(long firstId, long lastId) {
+            return new AircraftSelection(AIRCRAFT_RANGE, firstId, lastId, null);
+        }
+
+        private static AircraftSelection of(Collection<Long> ids) {
+            return new AircraftSelection(AIRCRAFT_LIST, 0, 0, ids);
+        }
+
+        /**
+         * @return the index of the next parameter
+         */
+        private int bind(PreparedStatement ps, Connection conn) throws Exception {
+            if (ids != null) {
+                ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+                return 2;
+            }
+            ps.setLong(1, firstId);
+            ps.setLong(2, lastId);
+            return 3;
+        }
+    }
+
+    private static Instant min(Instant a, Instant b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static Instant max(Instant a, Instant b) {
+        return a.isAfter(b) ? a : b;
+    }
+}
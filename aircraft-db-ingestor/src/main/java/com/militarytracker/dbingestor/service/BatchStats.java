@@ -0,0 +1,116 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Counts and per-stage timings of one batch, from parsing the Kafka records to the commit.
+ * Each stage is timed as a lap since the previous one, so the laps add up to the batch's
+ * time in the ingest path. Not thread-safe: a batch is timed by one thread at a time.
+ */
+public class BatchStats {
+
+    /**
+     * Ingest stages, in the order a batch goes through them. {@code POSITIONS} includes
+     * the {@code aircraft_latest} upsert, {@code TRACKS} includes flight sessions and
+     * {@code COMMIT} includes storing offsets.
+     */
+    public enum Stage {
+        PARSE,
+        AIRCRAFT,
+        POSITIONS,
+        TRACKS,
+        COMMIT;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final UUID batchId = UUID.randomUUID();
+    private final Instant startedAt = Instant.now();
+    private final String source;
+    private final int received;
+    private final Map<Stage, Long> stageNanos = new EnumMap<>(Stage.class);
+    private long lapStart = System.nanoTime();
+    private int parseFailures;
+
+    /**
+     * @param source   where the records came from, e.g. {@code kafka:military_flights}
+     * @param received records in the batch, including those that could not be parsed
+     */
+    public BatchStats(String source, int received) {
+        this.source = source;
+        this.received = received;
+    }
+
+    /**
+     * Records time spent in a stage outside the lap sequence, e.g. parsing that happened
+     * record by record as the batch was polled.
+     */
+    public void record(Stage stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    /**
+     * Starts timing the next stage from now.
+     */
+    public void startLap() {
+        lapStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the lap of {@code stage} and starts the next one.
+     */
+    public void lap(Stage stage) {
+        long now = System.nanoTime();
+        record(stage, now - lapStart);
+        lapStart = now;
+    }
+
+    public void addParseFailures(int count) {
+        parseFailures += count;
+    }
+
+    /**
+     * Exports the stage timings to the {@code ingest_stage_seconds} histogram.
+     */
+    public void observe() {
+        for (Map.Entry<Stage, Long> entry : stageNanos.entrySet()) {
+            IngestorMetrics.INGEST_STAGE_SECONDS.labels(entry.getKey().label()).observe(entry.getValue() / 1e9);
+        }
+    }
+
+    public UUID getBatchId() {
+        return batchId;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getParseFailures() {
+        return parseFailures;
+    }
+
+    /**
+     * @return the time spent in the stage in milliseconds, or null if the batch never reached it
+     */
+    public Double getMillis(Stage stage) {
+        Long nanos = stageNanos.get(stage);
+        return nanos != null ? nanos / 1e6 : null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.militarytracker.dbingestor.service;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What was written while catching up without track maintenance: the earliest {@code seen_at}
+ * of the positions written and the aircraft they belong to, so that their
+ * tracks can be rebuilt from {@code flight_positions} once catch-up ends. Only used by the
+ * thread that writes the batches.
+ */
+public class CatchUpWindow {
+
+    private Instant since;
+    private final Set<Long> aircraftIds = new HashSet<>();
+
+    /**
+     * @return the earliest {@code seen_at} of a position written or attempted while catching
+     *         up, or null if no catch-up batch has been attempted
+     */
+    public Instant getSince() {
+        return since;
+    }
+
+    public Set<Long> getAircraftIds() {
+        return aircraftIds;
+    }
+
+    public boolean isEmpty() {
+        return aircraftIds.isEmpty();
+    }
+
+    void openAt(Instant seenAt) {
+        if (since == null || seenAt.isBefore(since)) {
+            since = seenAt;
+        }
+    }
+
+    void addAircraft(Collection<Long> ids) {
+        aircraftIds.addAll(ids);
+    }
+}
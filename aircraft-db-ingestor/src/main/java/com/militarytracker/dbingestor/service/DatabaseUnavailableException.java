@@ -0,0 +1,17 @@
+package com.militarytracker.dbingestor.service;
+
+/**
+ * Thrown when records could not be ingested because no database connection could be
+ * obtained. Unlike a record-level failure, the records are not lost: the caller is
+ * expected to retry them.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+
+    public DatabaseUnavailableException(String message) {
+        super(message);
+    }
+
+    public DatabaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
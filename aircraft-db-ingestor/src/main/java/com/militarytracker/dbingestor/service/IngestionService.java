@@ -1,62 +1,590 @@
 package com.militarytracker.dbingestor.service;
 
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import com.militarytracker.dbingestor.cache.PositionChangeFilter;
 import com.militarytracker.dbingestor.metrics.IngestorMetrics;
 import com.militarytracker.dbingestor.repository.AircraftRepository;
+import com.militarytracker.dbingestor.repository.AircraftRepository.AircraftBatch;
+import com.militarytracker.dbingestor.repository.ConsumerOffsetRepository;
 import com.militarytracker.dbingestor.repository.FlightPositionRepository;
+import com.militarytracker.dbingestor.repository.FlightPositionRepository.WriteMode;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository.SessionChanges;
 import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import com.militarytracker.dbingestor.repository.IngestionLogRepository;
+import com.militarytracker.dbingestor.service.BatchStats.Stage;
 import com.militarytracker.model.api.AcItem;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.Savepoint;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class IngestionService {
 
     private static final Logger LOG = LoggerFactory.getLogger(IngestionService.class);
 
+    private static final String DIRECT_SOURCE = "direct";
+
     private final DataSource dataSource;
     private final AircraftRepository aircraftRepo;
     private final FlightPositionRepository positionRepo;
     private final FlightTrackRepository trackRepo;
+    private final ConsumerOffsetRepository offsetRepo;
+    private final PositionChangeFilter changeFilter;
+    private final IngestionLogRepository logRepo;
+    private final FlightSessionRepository sessionRepo;
+    private final TrackRebuilder catchUpRebuilder;
+
+    private IngestionService(Builder builder) {
+        this.dataSource = builder.dataSource;
+        this.aircraftRepo = builder.aircraftRepo;
+        this.positionRepo = builder.positionRepo;
+        this.trackRepo = builder.trackRepo;
+        this.offsetRepo = builder.offsetRepo;
+        this.changeFilter = builder.changeFilter;
+        this.logRepo = builder.logRepo;
+        this.sessionRepo = builder.sessionRepo;
+        this.catchUpRebuilder = builder.catchUpRebuilder;
+    }
 
-    public IngestionService(DataSource dataSource,
-                            AircraftRepository aircraftRepo,
-                            FlightPositionRepository positionRepo,
-                            FlightTrackRepository trackRepo) {
-        this.dataSource = dataSource;
-        this.aircraftRepo = aircraftRepo;
-        this.positionRepo = positionRepo;
-        this.trackRepo = trackRepo;
+    public static Builder builder(DataSource dataSource, AircraftRepository aircraftRepo,
+                                  FlightPositionRepository positionRepo, FlightTrackRepository trackRepo) {
+        return new Builder(dataSource, aircraftRepo, positionRepo, trackRepo);
     }
 
-    public void ingest(AcItem item) {
-        if (item.getLat() == null || item.getLon() == null) {
+    /**
+     * @throws DatabaseUnavailableException if the connection could not be obtained or broke;
+     *         the record was not written and should be retried
+     */
+    public boolean ingest(AcItem item) {
+        if (!hasPosition(item)) {
             LOG.debug("Skipping item hex={} with no position data", item.getHex());
-            return;
+            return false;
         }
 
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
             try {
-                long aircraftId = aircraftRepo.upsertAircraft(item, conn);
-                positionRepo.insertPosition(aircraftId, item, conn);
-                trackRepo.updateOrCreateTrack(aircraftId, item, conn);
+                RecordWrite write = writeRecord(item, conn);
                 conn.commit();
+                registerCommitted(item, write);
 
                 IngestorMetrics.RECORDS_INGESTED.inc();
                 IngestorMetrics.TOTAL_RECORDS.inc();
                 IngestorMetrics.RATE_OF_RECORDS.inc();
 
                 LOG.trace("Ingested record for hex={}", item.getHex());
+                return true;
             } catch (Exception e) {
                 conn.rollback();
                 IngestorMetrics.RECORDS_FAILED.inc();
                 LOG.error("Failed to ingest record for hex={}: {}", item.getHex(), e.getMessage());
             }
         } catch (Exception e) {
-            IngestorMetrics.RECORDS_FAILED.inc();
-            LOG.error("Database connection error for hex={}: {}", item.getHex(), e.getMessage());
+            throw new DatabaseUnavailableException("Database connection error for hex=" + item.getHex(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Ingests a batch of records in a single transaction on one connection. Positions that
+     * the change filter finds unchanged are dropped and not counted as written. If the
+     * batch transaction fails, it is rolled back and the records are retried one by
+     * one, each behind a savepoint of one retry transaction, so that a single bad record
+     * does not take the rest of the batch with it.
+     *
+     * @return the number of records written to the database
+     * @throws DatabaseUnavailableException if the connection could not be obtained or broke;
+     *         the records should be retried
+     */
+    public int ingestBatch(List<AcItem> items) {
+        return ingestBatch(items, Map.of());
+    }
+
+    /**
+     * Like {@link #ingestBatch(List)}, and also stores the Kafka offsets that follow the
+     * batch in {@code consumer_offsets} within the batch transaction, so that the records
+     * and their offsets are committed together. Offsets are stored even when no record of
+     * the batch had a position. If the batch has to be retried record by record, the
+     * offsets are stored in the retry transaction, so they still commit together with
+     * exactly the records that were written.
+     *
+     * @param nextOffsets the offset of the next record to consume, per partition; ignored
+     *                    when no offset repository is configured
+     */
+    public int ingestBatch(List<AcItem> items, Map<TopicPartition, Long> nextOffsets) {
+        return ingestBatch(items, nextOffsets, new BatchStats(DIRECT_SOURCE, items.size()));
+    }
+
+    /**
+     * Like {@link #ingestBatch(List, Map)}, timing each stage into {@code stats}. Once the
+     * batch is done the timings are exported as metrics and, with a log repository, written
+     * to {@code ingestion_log} together with the record counts.
+     */
+    public int ingestBatch(List<AcItem> items, Map<TopicPartition, Long> nextOffsets, BatchStats stats) {
+        return ingestBatch(items, null, nextOffsets, stats, null);
+    }
+
+    /**
+     * Like {@link #ingestBatch(List, Map, BatchStats)}. With a catch-up window, positions are
+     * loaded through COPY whatever the configured write mode, each stamped with when its
+     * record was produced instead of the time of writing, so that a backlog keeps its order
+     * and spacing. Tracks are not maintained; the aircraft written are added to the window
+     * instead, and their tracks are rebuilt by {@link #finishCatchUp(CatchUpWindow)}. Flight
+     * sessions follow the positions' times, and records retried one by one are written the
+     * same way.
+     *
+     * @param seenAt  when each item was recorded, in the same order; required with a window
+     * @param catchUp the catch-up window the batch belongs to, or null to write it normally
+     */
+    public int ingestBatch(List<AcItem> items, List<Instant> seenAt, Map<TopicPartition, Long> nextOffsets,
+                           BatchStats stats, CatchUpWindow catchUp) {
+        if (catchUp != null && catchUpRebuilder == null) {
+            throw new IllegalStateException("Catch-up batches need a catch-up rebuilder");
+        }
+        boolean storeOffsets = offsetRepo != null && !nextOffsets.isEmpty();
+        List<AcItem> positioned = new ArrayList<>(items.size());
+        Map<AcItem, Instant> recordedAt = new IdentityHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            AcItem item = items.get(i);
+            if (hasPosition(item)) {
+                positioned.add(item);
+                if (seenAt != null) {
+                    recordedAt.put(item, seenAt.get(i));
+                }
+            } else {
+                LOG.debug("Skipping item hex={} with no position data", item.getHex());
+            }
+        }
+        Instant now = Instant.now();
+        if (changeFilter != null) {
+            positioned = changeFilter.filter(positioned, now);
+        }
+        int skipped = items.size() - positioned.size();
+        if (positioned.isEmpty()) {
+            if (storeOffsets) {
+                saveOffsets(nextOffsets);
+            }
+            finish(stats, 0, 0, skipped, null);
+            return 0;
+        }
+
+        List<Instant> positionedSeenAt = null;
+        Instant earliest = null;
+        if (catchUp != null) {
+            positionedSeenAt = new ArrayList<>(positioned.size());
+            for (AcItem item : positioned) {
+                positionedSeenAt.add(recordedAt.get(item));
+            }
+            earliest = Collections.min(positionedSeenAt);
+            if (catchUp.getSince() == null && sessionRepo != null) {
+                sessionRepo.backlogStarted();
+            }
+            catchUp.openAt(earliest);
+        }
+
+        String error = null;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                stats.startLap();
+                Map<String, Long> aircraftIds;
+                List<ActiveTrack> tracks;
+                if (catchUp == null && positionRepo.getWriteMode() == WriteMode.UNNEST) {
+                    // Aircraft, positions and latest positions go in one statement
+                    AircraftBatch aircraft = aircraftRepo.lookupBatch(positioned);
+                    stats.lap(Stage.AIRCRAFT);
+                    aircraftIds = positionRepo.upsertAircraftAndPositions(aircraft, positioned, conn);
+                    stats.lap(Stage.POSITIONS);
+                    tracks = trackRepo.updateOrCreateTracks(aircraftIds, positioned, conn);
+                } else if (catchUp != null) {
+                    aircraftIds = aircraftRepo.upsertAircraftBatch(positioned, conn);
+                    stats.lap(Stage.AIRCRAFT);
+                    positionRepo.copyPositions(aircraftIds, positioned, positionedSeenAt, conn);
+                    positionRepo.upsertLatestSince(new HashSet<>(aircraftIds.values()), earliest, conn);
+                    stats.lap(Stage.POSITIONS);
+                    tracks = List.of();
+                } else {
+                    aircraftIds = aircraftRepo.upsertAircraftBatch(positioned, conn);
+                    stats.lap(Stage.AIRCRAFT);
+                    positionRepo.insertPositions(aircraftIds, positioned, conn);
+                    positionRepo.upsertLatest(new HashSet<>(aircraftIds.values()), conn);
+                    stats.lap(Stage.POSITIONS);
+                    tracks = trackRepo.updateOrCreateTracks(aircraftIds, positioned, conn);
+                }
+                SessionChanges sessions = sessionRepo != null
+                        ? sessionRepo.updateSessions(aircraftIds, positioned, positionedSeenAt, conn)
+                        : null;
+                stats.lap(Stage.TRACKS);
+                if (storeOffsets) {
+                    offsetRepo.saveOffsets(nextOffsets, conn);
+                }
+                conn.commit();
+                stats.lap(Stage.COMMIT);
+                aircraftRepo.cacheCommitted(positioned, aircraftIds);
+                trackRepo.registerCommitted(tracks);
+                if (sessions != null) {
+                    sessionRepo.registerCommitted(sessions);
+                }
+                if (catchUp != null) {
+                    catchUp.addAircraft(aircraftIds.values());
+                }
+                if (changeFilter != null) {
+                    changeFilter.recordWritten(positioned, now);
+                }
+
+                IngestorMetrics.RECORDS_INGESTED.inc(positioned.size());
+                IngestorMetrics.TOTAL_RECORDS.inc(positioned.size());
+                IngestorMetrics.RATE_OF_RECORDS.inc(positioned.size());
+
+                LOG.debug("Ingested batch of {} records", positioned.size());
+            } catch (Exception e) {
+                conn.rollback();
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                LOG.warn("Failed to ingest batch of {} records, retrying individually: {}",
+                        positioned.size(), e.getMessage());
+            }
+        } catch (Exception e) {
+            throw new DatabaseUnavailableException(
+                    "Database connection error for batch of " + positioned.size() + " records", e);
+        }
+        if (error == null) {
+            finish(stats, positioned.size(), 0, skipped, null);
+            return positioned.size();
+        }
+
+        List<AcItem> written = retryIndividually(positioned, positionedSeenAt, storeOffsets ? nextOffsets : Map.of(),
+                catchUp);
+        if (changeFilter != null) {
+            changeFilter.recordWritten(written, now);
+        }
+        finish(stats, written.size(), positioned.size() - written.size(), skipped, error);
+        return written.size();
+    }
+
+    /**
+     * Writes the records of a failed batch one by one in a single transaction. Each record
+     * is written behind a savepoint and rolled back to it if it fails, so the others and the
+     * offsets are committed together once all have been tried. The in-memory state of each
+     * record is taken up as soon as it is written, as the next record of the same aircraft
+     * builds on it, and dropped again if the transaction does not commit.
+     *
+     * @param seenAt      when each item was recorded, in the same order, with a window
+     * @param nextOffsets the offsets to store with the records, or empty
+     * @param catchUp     the catch-up window the records belong to, or null
+     * @return the records written
+     * @throws DatabaseUnavailableException if the connection could not be obtained or broke,
+     *         in which case nothing was written
+     */
+    private List<AcItem> retryIndividually(List<AcItem> items, List<Instant> seenAt,
+                                           Map<TopicPartition, Long> nextOffsets, CatchUpWindow catchUp) {
+        List<AcItem> written = new ArrayList<>(items.size());
+        Set<Long> writtenIds = new HashSet<>();
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < items.size(); i++) {
+                    AcItem item = items.get(i);
+                    Savepoint savepoint = conn.setSavepoint();
+                    RecordWrite write;
+                    try {
+                        write = catchUp != null ? writeBacklogRecord(item, seenAt.get(i), conn) : writeRecord(item, conn);
+                    } catch (Exception e) {
+                        conn.rollback(savepoint);
+                        IngestorMetrics.RECORDS_FAILED.inc();
+                        LOG.error("Failed to ingest record for hex={}: {}", item.getHex(), e.getMessage());
+                        continue;
+                    }
+                    conn.releaseSavepoint(savepoint);
+                    registerCommitted(item, write);
+                    written.add(item);
+                    writtenIds.add(write.aircraftId);
+                }
+                if (!nextOffsets.isEmpty()) {
+                    offsetRepo.saveOffsets(nextOffsets, conn);
+                }
+                conn.commit();
+                if (catchUp != null) {
+                    catchUp.addAircraft(writtenIds);
+                }
+            } catch (Exception e) {
+                evict(written, writtenIds);
+                conn.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            throw new DatabaseUnavailableException(
+                    "Database connection error while retrying " + items.size() + " records", e);
+        }
+        IngestorMetrics.RECORDS_INGESTED.inc(written.size());
+        IngestorMetrics.TOTAL_RECORDS.inc(written.size());
+        IngestorMetrics.RATE_OF_RECORDS.inc(written.size());
+        return written;
+    }
+
+    /**
+     * Writes one record: its aircraft, position, latest position, tracks and sessions.
+     *
+     * @return what to take up in memory once the record is committed
+     */
+    private RecordWrite writeRecord(AcItem item, Connection conn) throws Exception {
+        long aircraftId = aircraftRepo.upsertAircraft(item, conn);
+        positionRepo.insertPosition(aircraftId, item, conn);
+        // The single position went in through INSERT whatever the batch write mode is
+        positionRepo.upsertLatest(List.of(aircraftId), WriteMode.INSERT, conn);
+        List<ActiveTrack> tracks = trackRepo.updateOrCreateTrack(aircraftId, item, conn);
+        SessionChanges sessions = sessionRepo != null
+                ? sessionRepo.updateSessions(Map.of(item.getHex(), aircraftId), List.of(item), conn)
+                : null;
+        return new RecordWrite(aircraftId, tracks, sessions);
+    }
+
+    /**
+     * Writes one record of a catch-up window like {@link #ingestBatch(List, List, Map, BatchStats, CatchUpWindow)}
+     * does: its position stamped with {@code seenAt} and its tracks left to the rebuild.
+     */
+    private RecordWrite writeBacklogRecord(AcItem item, Instant seenAt, Connection conn) throws Exception {
+        long aircraftId = aircraftRepo.upsertAircraft(item, conn);
+        Map<String, Long> aircraftIds = Map.of(item.getHex(), aircraftId);
+        positionRepo.copyPositions(aircraftIds, List.of(item), List.of(seenAt), conn);
+        positionRepo.upsertLatestSince(List.of(aircraftId), seenAt, conn);
+        SessionChanges sessions = sessionRepo != null
+                ? sessionRepo.updateSessions(aircraftIds, List.of(item), List.of(seenAt), conn)
+                : null;
+        return new RecordWrite(aircraftId, List.of(), sessions);
+    }
+
+    private void registerCommitted(AcItem item, RecordWrite write) {
+        aircraftRepo.cacheCommitted(List.of(item), Map.of(item.getHex(), write.aircraftId));
+        trackRepo.registerCommitted(write.tracks);
+        if (write.sessions != null) {
+            sessionRepo.registerCommitted(write.sessions);
+        }
+    }
+
+    /**
+     * Forgets the in-memory state of aircraft whose writes were rolled back, so that it is
+     * loaded again from what was actually committed.
+     */
+    private void evict(List<AcItem> items, Set<Long> aircraftIds) {
+        Set<String> hexes = new HashSet<>();
+        for (AcItem item : items) {
+            hexes.add(item.getHex());
+        }
+        aircraftRepo.evictAircraft(hexes::contains);
+        trackRepo.evictAircraft(aircraftIds);
+        if (sessionRepo != null) {
+            sessionRepo.evictAircraft(aircraftIds);
+        }
+    }
+
+    /**
+     * Ends a catch-up window: re-segments the tracks of the aircraft written during it from
+     * {@code flight_positions}, replacing every track of theirs that overlaps the window,
+     * reloads their entries in the active track registry and lets lost flight sessions be
+     * swept again.
+     *
+     * @return false if the rebuild failed and should be retried with the same window
+     */
+    public boolean finishCatchUp(CatchUpWindow catchUp) {
+        if (catchUp.isEmpty()) {
+            closeWindow(catchUp);
+            return true;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                long start = System.nanoTime();
+                TrackRebuilder.Summary rebuilt = catchUpRebuilder.rebuildAircraft(catchUp.getAircraftIds(),
+                        catchUp.getSince(), Instant.now(), conn);
+                conn.commit();
+                trackRepo.reloadAircraft(catchUp.getAircraftIds(), dataSource);
+                closeWindow(catchUp);
+                LOG.info("Rebuilt tracks of {} aircraft written since {} ({} positions, {} tracks replaced by {}) "
+                                + "in {} ms", catchUp.getAircraftIds().size(), catchUp.getSince(),
+                        rebuilt.getPositionsRead(), rebuilt.getTracksDeleted(), rebuilt.getTracksWritten(),
+                        (System.nanoTime() - start) / 1_000_000);
+                return true;
+            } catch (Exception e) {
+                conn.rollback();
+                LOG.warn("Failed to rebuild tracks after catch-up: {}", e.getMessage());
+            }
+        } catch (Exception e) {
+            LOG.error("Database connection error while rebuilding tracks after catch-up: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    private void closeWindow(CatchUpWindow catchUp) {
+        if (catchUp.getSince() != null && sessionRepo != null) {
+            sessionRepo.backlogFinished();
+        }
+    }
+
+    /**
+     * Appends points of tracks that have stopped receiving positions before reaching the
+     * flush threshold, so their linestrings do not lag behind {@code flight_positions}.
+     *
+     * @return the number of tracks flushed
+     */
+    public int flushIdleTracks() {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<ActiveTrack> flushed = trackRepo.flushIdleTracks(conn);
+                conn.commit();
+                trackRepo.registerCommitted(flushed);
+                return flushed.size();
+            } catch (Exception e) {
+                conn.rollback();
+                LOG.warn("Failed to flush idle tracks: {}", e.getMessage());
+            }
+        } catch (Exception e) {
+            LOG.error("Database connection error while flushing idle tracks: {}", e.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Deletes {@code ingestion_log} rows older than the retention.
+     */
+    public void purgeIngestionLog(Duration retention) {
+        if (logRepo == null) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            int purged = logRepo.purgeOlderThan(retention, conn);
+            LOG.debug("Purged {} ingestion_log rows older than {}", purged, retention);
+        } catch (Exception e) {
+            LOG.warn("Failed to purge ingestion_log: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Exports the batch's timings and logs it. The log row is written after the batch has
+     * committed, on its own, so that it can include the commit time; losing it only loses
+     * telemetry.
+     */
+    private void finish(BatchStats stats, int ingested, int failed, int skipped, String error) {
+        stats.observe();
+        if (logRepo == null) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            logRepo.insert(stats, ingested, failed + stats.getParseFailures(), skipped, error, conn);
+        } catch (Exception e) {
+            LOG.warn("Failed to write ingestion_log for batch {}: {}", stats.getBatchId(), e.getMessage());
+        }
+    }
+
+    private void saveOffsets(Map<TopicPartition, Long> nextOffsets) {
+        try (Connection conn = dataSource.getConnection()) {
+            offsetRepo.saveOffsets(nextOffsets, conn);
+        } catch (Exception e) {
+            throw new DatabaseUnavailableException("Failed to store offsets " + nextOffsets, e);
+        }
+    }
+
+    private static boolean hasPosition(AcItem item) {
+        return item.getLat() != null && item.getLon() != null;
+    }
+
+    /**
+     * The outcome of writing one record, to be taken up in memory once it is committed.
+     */
+    private static final class RecordWrite {
+        private final long aircraftId;
+        private final List<ActiveTrack> tracks;
+        private final SessionChanges sessions;
+
+        private RecordWrite(long aircraftId, List<ActiveTrack> tracks, SessionChanges sessions) {
+            this.aircraftId = aircraftId;
+            this.tracks = tracks;
+            this.sessions = sessions;
+        }
+    }
+
+    /**
+     * Optional collaborators of an {@link IngestionService}; whatever is not set is left out.
+     */
+    public static final class Builder {
+        private final DataSource dataSource;
+        private final AircraftRepository aircraftRepo;
+        private final FlightPositionRepository positionRepo;
+        private final FlightTrackRepository trackRepo;
+        private ConsumerOffsetRepository offsetRepo;
+        private PositionChangeFilter changeFilter;
+        private IngestionLogRepository logRepo;
+        private FlightSessionRepository sessionRepo;
+        private TrackRebuilder catchUpRebuilder;
+
+        private Builder(DataSource dataSource, AircraftRepository aircraftRepo,
+                        FlightPositionRepository positionRepo, FlightTrackRepository trackRepo) {
+            this.dataSource = dataSource;
+            this.aircraftRepo = aircraftRepo;
+            this.positionRepo = positionRepo;
+            this.trackRepo = trackRepo;
+        }
+
+        /**
+         * @param offsetRepo where {@link IngestionService#ingestBatch(List, Map)} stores Kafka offsets,
+         *                   or null when offsets are committed to Kafka instead
+         */
+        public Builder offsetRepo(ConsumerOffsetRepository offsetRepo) {
+            this.offsetRepo = offsetRepo;
+            return this;
+        }
+
+        /**
+         * @param changeFilter drops positions of a batch that repeat the last one written for
+         *                     their aircraft, or null to write every position
+         */
+        public Builder changeFilter(PositionChangeFilter changeFilter) {
+            this.changeFilter = changeFilter;
+            return this;
+        }
+
+        /**
+         * @param logRepo where a row per batch is written to {@code ingestion_log}, or null to
+         *                only export the batch timings as metrics
+         */
+        public Builder logRepo(IngestionLogRepository logRepo) {
+            this.logRepo = logRepo;
+            return this;
+        }
+
+        /**
+         * @param sessionRepo maintains {@code flight_sessions} in each batch transaction, or null
+         *                    to not track takeoffs and landings
+         */
+        public Builder sessionRepo(FlightSessionRepository sessionRepo) {
+            this.sessionRepo = sessionRepo;
+            return this;
+        }
+
+        /**
+         * @param catchUpRebuilder re-segments the tracks of the aircraft written by catch-up
+         *                         batches when the window ends; required to write them
+         */
+        public Builder catchUpRebuilder(TrackRebuilder catchUpRebuilder) {
+            this.catchUpRebuilder = catchUpRebuilder;
+            return this;
+        }
+
+        public IngestionService build() {
+            return new IngestionService(this);
         }
     }
 }
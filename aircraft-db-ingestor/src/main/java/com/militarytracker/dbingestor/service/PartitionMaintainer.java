@@ -0,0 +1,138 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.dbingestor.repository.PositionPartitionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scheduled task that keeps the daily partitions of {@code flight_positions} ahead of
+ * the clock and expires the ones that fall outside the retention window. Expiring a
+ * day is a single DROP (or DETACH) instead of a DELETE followed by vacuum.
+ */
+public class PartitionMaintainer implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionMaintainer.class);
+
+    private static final int LOCK_TIMEOUT_SECONDS = 5;
+
+    /**
+     * What happens to a partition once it is older than the retention window.
+     */
+    public enum RetentionMode {
+        DROP,
+        DETACH;
+
+        public static RetentionMode fromConfig(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final DataSource dataSource;
+    private final PositionPartitionRepository partitionRepo;
+    private final int premakeDays;
+    private final int retentionDays;
+    private final RetentionMode retentionMode;
+
+    public PartitionMaintainer(DataSource dataSource,
+                               PositionPartitionRepository partitionRepo,
+                               int premakeDays,
+                               int retentionDays,
+                               RetentionMode retentionMode) {
+        this.dataSource = dataSource;
+        this.partitionRepo = partitionRepo;
+        this.premakeDays = premakeDays;
+        this.retentionDays = retentionDays;
+        this.retentionMode = retentionMode;
+    }
+
+    @Override
+    public void run() {
+        try {
+            maintain(LocalDate.now(ZoneOffset.UTC));
+        } catch (Exception e) {
+            LOG.error("Position partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the partitions for {@code today} through {@code today + premakeDays}, then
+     * expires every partition whose whole day lies more than {@code retentionDays} before
+     * {@code today}. Each partition is handled in its own transaction, so a lock timeout
+     * only postpones that partition to the next run.
+     */
+    void maintain(LocalDate today) throws Exception {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            for (int i = 0; i <= premakeDays; i++) {
+                LocalDate day = today.plusDays(i);
+                runInTransaction(conn, "create partition for " + day, () -> partitionRepo.createPartition(day, conn));
+            }
+
+            LocalDate oldestRetained = today.minusDays(retentionDays);
+            List<String> partitions = partitionRepo.listPartitions(conn);
+            conn.commit();
+            int remaining = partitions.size();
+            for (String name : partitions) {
+                LocalDate day = partitionDay(name);
+                if (day == null || !day.isBefore(oldestRetained)) {
+                    continue;
+                }
+                boolean expired = runInTransaction(conn, "expire partition " + name, () -> {
+                    if (retentionMode == RetentionMode.DETACH) {
+                        partitionRepo.detachPartition(name, conn);
+                    } else {
+                        partitionRepo.dropPartition(name, conn);
+                    }
+                });
+                if (expired) {
+                    IngestorMetrics.POSITION_PARTITIONS_EXPIRED.inc();
+                    remaining--;
+                }
+            }
+            IngestorMetrics.POSITION_PARTITIONS.set(remaining);
+        }
+    }
+
+    /**
+     * @return the day a partition holds, or null if the table is not a daily partition
+     */
+    static LocalDate partitionDay(String name) {
+        if (!name.startsWith(PositionPartitionRepository.PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(name.substring(PositionPartitionRepository.PARTITION_PREFIX.length()),
+                    PositionPartitionRepository.PARTITION_SUFFIX);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private boolean runInTransaction(Connection conn, String what, PartitionAction action) throws Exception {
+        try {
+            partitionRepo.setLockTimeout(LOCK_TIMEOUT_SECONDS, conn);
+            action.apply();
+            conn.commit();
+            return true;
+        } catch (Exception e) {
+            conn.rollback();
+            LOG.warn("Failed to {}: {}", what, e.getMessage());
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PartitionAction {
+        void apply() throws Exception;
+    }
+}
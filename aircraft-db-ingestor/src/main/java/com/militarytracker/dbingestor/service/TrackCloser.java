@@ -0,0 +1,64 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository.SessionChanges;
+import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * Scheduled task that finalizes tracks of aircraft that stopped reporting without
+ * landing, so open tracks do not stay open (and keep growing) until the callsign
+ * shows up again. With a session repository it also ends their flight sessions as
+ * signal loss, in the same transaction.
+ */
+public class TrackCloser implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrackCloser.class);
+
+    private final DataSource dataSource;
+    private final FlightTrackRepository trackRepo;
+    private final FlightSessionRepository sessionRepo;
+
+    public TrackCloser(DataSource dataSource, FlightTrackRepository trackRepo) {
+        this(dataSource, trackRepo, null);
+    }
+
+    public TrackCloser(DataSource dataSource, FlightTrackRepository trackRepo, FlightSessionRepository sessionRepo) {
+        this.dataSource = dataSource;
+        this.trackRepo = trackRepo;
+        this.sessionRepo = sessionRepo;
+    }
+
+    @Override
+    public void run() {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<ActiveTrack> closed = trackRepo.closeIdleTracks(conn);
+                SessionChanges lost = sessionRepo != null ? sessionRepo.closeLostSessions(conn) : null;
+                conn.commit();
+                trackRepo.registerCommitted(closed);
+                if (!closed.isEmpty()) {
+                    LOG.info("Closed {} idle flight tracks", closed.size());
+                }
+                if (lost != null) {
+                    sessionRepo.registerCommitted(lost);
+                    if (!lost.getEndReasons().isEmpty()) {
+                        LOG.info("Ended {} flight sessions on signal loss", lost.getEndReasons().size());
+                    }
+                }
+            } catch (Exception e) {
+                conn.rollback();
+                LOG.warn("Failed to close idle flight tracks: {}", e.getMessage());
+            }
+        } catch (Exception e) {
+            LOG.error("Database connection error while closing idle flight tracks: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository;
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository.PositionVisitor;
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository.TimeRange;
+import com.militarytracker.dbingestor.service.TrackSegmenter.Segment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recomputes {@code flight_tracks} for a time range from {@code flight_positions}, for when
+ * the incrementally maintained tracks have drifted. Aircraft are split into fixed chunks of
+ * {@code aircraftPerChunk} ids that {@code parallelism} virtual threads take in turn, each on
+ * its own connection. A chunk is one transaction: the range is widened to cover every track
+ * of the chunk's aircraft that it touches, those tracks are deleted, the positions are
+ * streamed through a server-side cursor into a {@link TrackSegmenter}, and the segments are
+ * inserted {@code writeBatchSize} at a time, with the linestrings built in SQL. The chunk
+ * is checkpointed in the same transaction, so a run that is interrupted or has failed
+ * chunks can be repeated with the same run id and only redoes what did not commit.
+ * <p>
+ * Tracks still open are rebuilt too, so run it while the ingestor is stopped or for a range
+ * that ends more than a segment gap ago. The ingestor itself uses
+ * {@link #rebuildAircraft(Collection, Instant, Instant, Connection)} to re-segment what it
+ * wrote while catching up.
+ */
+public class TrackRebuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrackRebuilder.class);
+
+    private static final int PROGRESS_LOG_CHUNKS = 100;
+
+    private final DataSource dataSource;
+    private final TrackRebuildRepository rebuildRepo;
+    private final Duration segmentGap;
+    private final boolean closeOnGround;
+    private final int parallelism;
+    private final int aircraftPerChunk;
+    private final int fetchSize;
+    private final int writeBatchSize;
+
+    public TrackRebuilder(DataSource dataSource,
+                          TrackRebuildRepository rebuildRepo,
+                          Duration segmentGap,
+                          boolean closeOnGround,
+                          int parallelism,
+                          int aircraftPerChunk,
+                          int fetchSize,
+                          int writeBatchSize) {
+        this.dataSource = dataSource;
+        this.rebuildRepo = rebuildRepo;
+        this.segmentGap = segmentGap;
+        this.closeOnGround = closeOnGround;
+        this.parallelism = parallelism;
+        this.aircraftPerChunk = aircraftPerChunk;
+        this.fetchSize = fetchSize;
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * Rebuilds the tracks of every aircraft for positions seen from {@code from} to
+     * {@code to}, skipping the chunks that {@code runId} has already checkpointed.
+     */
+    public Summary rebuild(String runId, Instant from, Instant to) throws Exception {
+        long[] bounds;
+        Set<Long> done;
+        try (Connection conn = dataSource.getConnection()) {
+            bounds = rebuildRepo.aircraftIdBounds(conn);
+            done = rebuildRepo.loadCheckpoints(runId, conn);
+        }
+        Summary summary = new Summary();
+        if (bounds == null) {
+            return summary;
+        }
+        // Chunks are aligned on multiples of the chunk size so a resumed run sees the same ones
+        long firstChunk = (bounds[0] - 1) / aircraftPerChunk * aircraftPerChunk + 1;
+        long maxId = bounds[1];
+        long chunks = (maxId - firstChunk) / aircraftPerChunk + 1;
+        Instant openAfter = Instant.now().minus(segmentGap);
+        LOG.info("Rebuilding tracks from {} to {} (run {}): {} chunks of {} aircraft, {} already done, {} in parallel",
+                from, to, runId, chunks, aircraftPerChunk, done.size(), parallelism);
+
+        AtomicLong next = new AtomicLong(firstChunk);
+        List<Thread> workers = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(Thread.ofVirtual().name("track-rebuild-" + i).start(() -> {
+                long first;
+                while ((first = next.getAndAdd(aircraftPerChunk)) <= maxId) {
+                    if (done.contains(first)) {
+                        summary.skipped.incrementAndGet();
+                        continue;
+                    }
+                    rebuildChunk(runId, first, first + aircraftPerChunk - 1, from, to, openAfter, summary);
+                    long finished = summary.chunks.get() + summary.failed.get();
+                    if (finished % PROGRESS_LOG_CHUNKS == 0) {
+                        LOG.info("Rebuilt {} of {} chunks ({} failed)", finished, chunks - done.size(), summary.failed.get());
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        LOG.info("Rebuilt tracks from {} to {} (run {}): {} chunks, {} skipped, {} failed, {} positions read, "
+                        + "{} tracks replaced by {}", from, to, runId, summary.getChunks(), summary.getSkipped(),
+                summary.getFailed(), summary.getPositionsRead(), summary.getTracksDeleted(), summary.getTracksWritten());
+        return summary;
+    }
+
+    private void rebuildChunk(String runId, long firstId, long lastId, Instant from, Instant to, Instant openAfter,
+                              Summary summary) {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                TimeRange range = rebuildRepo.coverOverlappingTracks(firstId, lastId, from, to, conn);
+                int deleted = rebuildRepo.deleteTracks(firstId, lastId, range.getStart(), range.getEnd(), conn);
+
+                int[] written = {0};
+                long read = segment(visitor -> rebuildRepo.streamPositions(firstId, lastId, range.getStart(),
+                        range.getEnd(), fetchSize, visitor, conn), openAfter, written, conn);
+
+                rebuildRepo.saveCheckpoint(runId, firstId, lastId, range.getStart(), range.getEnd(),
+                        read, deleted, written[0], conn);
+                conn.commit();
+                summary.chunks.incrementAndGet();
+                summary.positionsRead.addAndGet(read);
+                summary.tracksDeleted.addAndGet(deleted);
+                summary.tracksWritten.addAndGet(written[0]);
+                LOG.debug("Rebuilt aircraft {}-{} from {} to {}: {} positions, {} tracks replaced by {}",
+                        firstId, lastId, range.getStart(), range.getEnd(), read, deleted, written[0]);
+            } catch (Exception e) {
+                conn.rollback();
+                summary.failed.incrementAndGet();
+                LOG.warn("Failed to rebuild tracks of aircraft {}-{}: {}", firstId, lastId, e.getMessage());
+            }
+        } catch (Exception e) {
+            summary.failed.incrementAndGet();
+            LOG.error("Database connection error while rebuilding tracks of aircraft {}-{}: {}",
+                    firstId, lastId, e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the tracks of the given aircraft for positions seen from {@code from} to
+     * {@code to} inside the caller's transaction, without checkpointing. Segments whose last
+     * position is within a segment gap of now stay open so the ingestor can extend them.
+     */
+    public Summary rebuildAircraft(Collection<Long> aircraftIds, Instant from, Instant to,
+                                   Connection conn) throws Exception {
+        Summary summary = new Summary();
+        if (aircraftIds.isEmpty()) {
+            return summary;
+        }
+        TimeRange range = rebuildRepo.coverOverlappingTracks(aircraftIds, from, to, conn);
+        int deleted = rebuildRepo.deleteTracks(aircraftIds, range.getStart(), range.getEnd(), conn);
+        int[] written = {0};
+        long read = segment(visitor -> rebuildRepo.streamPositions(aircraftIds, range.getStart(), range.getEnd(),
+                fetchSize, visitor, conn), Instant.now().minus(segmentGap), written, conn);
+        summary.chunks.incrementAndGet();
+        summary.positionsRead.addAndGet(read);
+        summary.tracksDeleted.addAndGet(deleted);
+        summary.tracksWritten.addAndGet(written[0]);
+        return summary;
+    }
+
+    /**
+     * Feeds the streamed positions through a segmenter and inserts its segments
+     * {@code writeBatchSize} at a time, adding them to {@code written[0]}.
+     *
+     * @return the number of positions read
+     */
+    private long segment(PositionSource positions, Instant openAfter, int[] written, Connection conn)
+            throws Exception {
+        List<Segment> pending = new ArrayList<>(writeBatchSize);
+        TrackSegmenter segmenter = new TrackSegmenter(segmentGap, closeOnGround, openAfter, pending::add);
+        long read = positions.stream((positionId, aircraftId, flight, seenAt, onGround) -> {
+            segmenter.accept(positionId, aircraftId, flight, seenAt, onGround);
+            if (pending.size() >= writeBatchSize) {
+                written[0] += rebuildRepo.insertSegments(pending, conn);
+                pending.clear();
+            }
+        });
+        segmenter.finish();
+        written[0] += rebuildRepo.insertSegments(pending, conn);
+        return read;
+    }
+
+    @FunctionalInterface
+    private interface PositionSource {
+        long stream(PositionVisitor visitor) throws Exception;
+    }
+
+    /**
+     * Totals of a rebuild run; chunks skipped were checkpointed by an earlier attempt.
+     */
+    public static final class Summary {
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong positionsRead = new AtomicLong();
+        private final AtomicLong tracksDeleted = new AtomicLong();
+        private final AtomicLong tracksWritten = new AtomicLong();
+
+        public long getChunks() {
+            return chunks.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getPositionsRead() {
+            return positionsRead.get();
+        }
+
+        public long getTracksDeleted() {
+            return tracksDeleted.get();
+        }
+
+        public long getTracksWritten() {
+            return tracksWritten.get();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.militarytracker.dbingestor.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Cuts a stream of positions into track segments by the rules the ingestor applies as
+ * positions arrive: one track per aircraft and callsign, a new one after a gap longer than
+ * {@code segmentGap} and, with {@code closeOnGround}, the track ends on the first on-ground
+ * position and on-ground positions never start one. Positions must come ordered by
+ * aircraft, callsign, {@code seen_at} and id. Only the bounds of the current segment are
+ * held, so memory does not grow with the number of positions.
+ */
+public class TrackSegmenter {
+
+    private final Duration segmentGap;
+    private final boolean closeOnGround;
+    private final Instant openAfter;
+    private final Consumer<Segment> sink;
+
+    private long aircraftId;
+    private String flight;
+    private Instant startAt;
+    private long firstId;
+    private Instant lastAt;
+    private long lastId;
+
+    /**
+     * @param openAfter the last segment of an aircraft and callsign is left open when its
+     *                  last point is after this, as the ingestor may still extend it
+     * @param sink      receives each segment once it is complete
+     */
+    public TrackSegmenter(Duration segmentGap, boolean closeOnGround, Instant openAfter, Consumer<Segment> sink) {
+        this.segmentGap = segmentGap;
+        this.closeOnGround = closeOnGround;
+        this.openAfter = openAfter;
+        this.sink = sink;
+    }
+
+    public void accept(long positionId, long aircraftId, String flight, Instant seenAt, boolean onGround) {
+        if (aircraftId != this.aircraftId || !Objects.equals(flight, this.flight)) {
+            finish();
+            this.aircraftId = aircraftId;
+            this.flight = flight;
+        }
+        if (startAt != null && Duration.between(lastAt, seenAt).compareTo(segmentGap) > 0) {
+            emit(true);
+        }
+        if (closeOnGround && onGround) {
+            if (startAt != null) {
+                lastAt = seenAt;
+                lastId = positionId;
+                emit(true);
+            }
+            return;
+        }
+        if (startAt == null) {
+            startAt = seenAt;
+            firstId = positionId;
+        }
+        lastAt = seenAt;
+        lastId = positionId;
+    }
+
+    /**
+     * Emits the segment in progress, if any. Call it after the last position.
+     */
+    public void finish() {
+        if (startAt != null) {
+            emit(!lastAt.isAfter(openAfter));
+        }
+    }
+
+    private void emit(boolean closed) {
+        sink.accept(new Segment(aircraftId, flight, startAt, firstId, lastAt, lastId, closed));
+        startAt = null;
+    }
+
+    /**
+     * The positions of one track: those of the aircraft and callsign from
+     * ({@code startAt}, {@code firstId}) to ({@code lastAt}, {@code lastId}) inclusive, in
+     * {@code seen_at}, id order.
+     */
+    public static final class Segment {
+        private final long aircraftId;
+        private final String flight;
+        private final Instant startAt;
+        private final long firstId;
+        private final Instant lastAt;
+        private final long lastId;
+        private final boolean closed;
+
+        public Segment(long aircraftId, String flight, Instant startAt, long firstId,
+                       Instant lastAt, long lastId, boolean closed) {
+            this.aircraftId = aircraftId;
+            this.flight = flight;
+            this.startAt = startAt;
+            this.firstId = firstId;
+            this.lastAt = lastAt;
+            this.lastId = lastId;
+            this.closed = closed;
+        }
+
+        public long getAircraftId() {
+            return aircraftId;
+        }
+
+        public String getFlight() {
+            return flight;
+        }
+
+        public Instant getStartAt() {
+            return startAt;
+        }
+
+        public long getFirstId() {
+            return firstId;
+        }
+
+        public Instant getLastAt() {
+            return lastAt;
+        }
+
+        public long getLastId() {
+            return lastId;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+}
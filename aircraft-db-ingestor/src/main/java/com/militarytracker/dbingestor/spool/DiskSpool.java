@@ -0,0 +1,428 @@
+package com.militarytracker.dbingestor.spool;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.militarytracker.common.json.JsonMapper;
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.model.api.AcItem;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of batches that could not be written to the database, kept on local disk
+ * in fixed-size memory-mapped segment files so that an outage of the primary does not lose
+ * records or stop consumption. Batches are read back strictly in the order they were appended,
+ * and a segment file is deleted as soon as every batch in it has been confirmed.
+ * <p>
+ * A record is {@code [int length][int crc32][payload]}, where the payload holds the batch's
+ * next offsets, the time each of its records was produced and the records as JSON. The length
+ * is written and forced last, so a record torn by a crash reads as the end of its segment;
+ * confirming a record negates its length in place. Segments left by a previous run are
+ * recovered on open.
+ */
+public class DiskSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskSpool.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int HEADER_BYTES = 8;
+    private static final TypeReference<List<AcItem>> ITEMS_TYPE = new TypeReference<>() {
+    };
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Map<TopicPartition, Long> spooledOffsets = new HashMap<>();
+    private long nextSequence;
+    private int pendingBatches;
+
+    /**
+     * @param segmentBytes size of each segment file; a batch must fit in one segment
+     * @param maxSegments  segments the spool may hold before {@link #append} refuses batches
+     */
+    public DiskSpool(Path dir, int segmentBytes, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(dir);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(DiskSpool::isSegment).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file, sequenceOf(file));
+            nextSequence = segment.sequence + 1;
+            if (segment.pending == 0) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            segments.addLast(segment);
+            pendingBatches += segment.pending;
+            segment.forEachPending(payload -> mergeOffsets(decodeOffsets(payload)));
+        }
+        IngestorMetrics.SPOOL_PENDING_BATCHES.inc(pendingBatches);
+        IngestorMetrics.SPOOL_SEGMENTS.inc(segments.size());
+        if (pendingBatches > 0) {
+            LOG.info("Recovered {} spooled batches in {} segments from {}", pendingBatches, segments.size(), dir);
+        }
+    }
+
+    /**
+     * Appends a batch and forces it to disk.
+     *
+     * @param seenAt      when each item was recorded, in the same order, which replay writes
+     *                    as its {@code seen_at}
+     * @param nextOffsets the offset of the next record to consume per partition, stored again
+     *                    when the batch is replayed; empty when offsets are kept in Kafka
+     * @return false if the spool already holds {@code maxSegments} segments and the batch
+     *         does not fit in the last one
+     * @throws IOException if the batch could not be written, or is larger than a segment
+     */
+    public synchronized boolean append(List<AcItem> items, List<Instant> seenAt,
+                                       Map<TopicPartition, Long> nextOffsets) throws IOException {
+        byte[] payload = encode(items, seenAt, nextOffsets);
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.fits(payload.length)) {
+            if (HEADER_BYTES + payload.length > segmentBytes) {
+                throw new IOException("Batch of " + payload.length + " bytes does not fit in a "
+                        + segmentBytes + " byte spool segment");
+            }
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            long sequence = nextSequence++;
+            tail = Segment.create(dir.resolve(segmentName(sequence)), sequence, segmentBytes);
+            segments.addLast(tail);
+            IngestorMetrics.SPOOL_SEGMENTS.inc();
+        }
+        tail.append(payload);
+        pendingBatches++;
+        mergeOffsets(nextOffsets);
+        IngestorMetrics.SPOOL_PENDING_BATCHES.inc();
+        return true;
+    }
+
+    /**
+     * @return the oldest batch not yet confirmed, or null if the spool is empty. Returns the
+     *         same batch until it is confirmed.
+     */
+    public synchronized SpooledBatch peek() {
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            if (head.pending == 0) {
+                dropHead();
+                continue;
+            }
+            byte[] payload = head.readPending();
+            try {
+                return decode(head, payload);
+            } catch (IOException e) {
+                // The checksum matched, so this is not a torn write; skip it rather than block the spool
+                LOG.error("Dropping undecodable spooled batch in {}: {}", head.path.getFileName(), e.getMessage());
+                head.confirm();
+                pendingBatches--;
+                IngestorMetrics.SPOOL_PENDING_BATCHES.dec();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks a batch returned by {@link #peek()} as written, deleting its segment file once
+     * nothing in it is pending.
+     */
+    public synchronized void confirm(SpooledBatch batch) {
+        Segment head = segments.peekFirst();
+        if (head != batch.segment || head.readPosition != batch.position) {
+            throw new IllegalStateException("Spooled batches must be confirmed in order");
+        }
+        head.confirm();
+        pendingBatches--;
+        IngestorMetrics.SPOOL_PENDING_BATCHES.dec();
+        if (head.pending == 0) {
+            dropHead();
+        }
+        if (pendingBatches == 0) {
+            spooledOffsets.clear();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingBatches == 0;
+    }
+
+    public synchronized int size() {
+        return pendingBatches;
+    }
+
+    /**
+     * @return per partition, the offset following the last batch spooled while the spool has
+     *         been non-empty. A consumer seeking to stored offsets must not go below these, or
+     *         it would read the spooled records a second time.
+     */
+    public synchronized Map<TopicPartition, Long> spooledOffsets() {
+        return new HashMap<>(spooledOffsets);
+    }
+
+    private void dropHead() {
+        Segment head = segments.pollFirst();
+        IngestorMetrics.SPOOL_SEGMENTS.dec();
+        try {
+            Files.deleteIfExists(head.path);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete spool segment {}: {}", head.path, e.getMessage());
+        }
+    }
+
+    private void mergeOffsets(Map<TopicPartition, Long> nextOffsets) {
+        for (Map.Entry<TopicPartition, Long> entry : nextOffsets.entrySet()) {
+            spooledOffsets.merge(entry.getKey(), entry.getValue(), Math::max);
+        }
+    }
+
+    static byte[] encode(List<AcItem> items, List<Instant> seenAt, Map<TopicPartition, Long> nextOffsets)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(nextOffsets.size());
+            for (Map.Entry<TopicPartition, Long> entry : nextOffsets.entrySet()) {
+                out.writeUTF(entry.getKey().topic());
+                out.writeInt(entry.getKey().partition());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(seenAt.size());
+            for (Instant instant : seenAt) {
+                out.writeLong(instant.toEpochMilli());
+            }
+            JsonMapper.get().writeValue((OutputStream) out, items);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SpooledBatch decode(Segment segment, byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            Map<TopicPartition, Long> nextOffsets = readOffsets(in);
+            int count = in.readInt();
+            List<Instant> seenAt = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                seenAt.add(Instant.ofEpochMilli(in.readLong()));
+            }
+            List<AcItem> items = JsonMapper.get().readValue((InputStream) in, ITEMS_TYPE);
+            if (items.size() != seenAt.size()) {
+                throw new IOException(items.size() + " items but " + seenAt.size() + " timestamps");
+            }
+            return new SpooledBatch(items, seenAt, nextOffsets, segment, segment.readPosition);
+        }
+    }
+
+    private static Map<TopicPartition, Long> decodeOffsets(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            return readOffsets(in);
+        } catch (IOException e) {
+            return Map.of();
+        }
+    }
+
+    private static Map<TopicPartition, Long> readOffsets(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<TopicPartition, Long> nextOffsets = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            nextOffsets.put(new TopicPartition(in.readUTF(), in.readInt()), in.readLong());
+        }
+        return nextOffsets;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String segmentName(long sequence) {
+        // Zero-padded so that segment files sort in sequence order
+        return String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * A batch read back from the spool, to be confirmed once it has been written.
+     */
+    public static final class SpooledBatch {
+        private final List<AcItem> items;
+        private final List<Instant> seenAt;
+        private final Map<TopicPartition, Long> nextOffsets;
+        private final Segment segment;
+        private final int position;
+
+        private SpooledBatch(List<AcItem> items, List<Instant> seenAt, Map<TopicPartition, Long> nextOffsets,
+                             Segment segment, int position) {
+            this.items = items;
+            this.seenAt = seenAt;
+            this.nextOffsets = nextOffsets;
+            this.segment = segment;
+            this.position = position;
+        }
+
+        public List<AcItem> getItems() {
+            return items;
+        }
+
+        /**
+         * @return when each item was recorded, in the same order as {@link #getItems()}
+         */
+        public List<Instant> getSeenAt() {
+            return seenAt;
+        }
+
+        public Map<TopicPartition, Long> getNextOffsets() {
+            return nextOffsets;
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private int pending;
+
+        private Segment(Path path, long sequence, MappedByteBuffer buffer) {
+            this.path = path;
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, long sequence, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Mapping past the end of the file grows it; the new bytes read as zero
+                return new Segment(path, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        /**
+         * Maps an existing segment and finds its first pending record and the end of its
+         * valid records. Anything after a torn or corrupt record is zeroed so that later
+         * appends cannot be confused with it.
+         */
+        static Segment open(Path path, long sequence) throws IOException {
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = new Segment(path, sequence, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            int firstPending = -1;
+            while (position + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                int size = Math.abs(length);
+                if (position + HEADER_BYTES + size > buffer.capacity()
+                        || (length > 0 && buffer.getInt(position + 4) != checksum(buffer, position + HEADER_BYTES, size))) {
+                    LOG.warn("Discarding torn record at {} in spool segment {}", position, path.getFileName());
+                    segment.zero(position);
+                    break;
+                }
+                if (length > 0) {
+                    segment.pending++;
+                    if (firstPending < 0) {
+                        firstPending = position;
+                    }
+                }
+                position += HEADER_BYTES + size;
+            }
+            segment.writePosition = position;
+            segment.readPosition = firstPending >= 0 ? firstPending : position;
+            return segment;
+        }
+
+        boolean fits(int payloadBytes) {
+            return writePosition + HEADER_BYTES + payloadBytes <= buffer.capacity();
+        }
+
+        void append(byte[] payload) {
+            int position = writePosition;
+            buffer.put(position + HEADER_BYTES, payload);
+            buffer.putInt(position + 4, checksum(buffer, position + HEADER_BYTES, payload.length));
+            buffer.force(position + 4, 4 + payload.length);
+            buffer.putInt(position, payload.length);
+            buffer.force(position, 4);
+            writePosition = position + HEADER_BYTES + payload.length;
+            pending++;
+        }
+
+        byte[] readPending() {
+            byte[] payload = new byte[buffer.getInt(readPosition)];
+            buffer.get(readPosition + HEADER_BYTES, payload);
+            return payload;
+        }
+
+        /**
+         * Confirms the record at the read position and moves past it.
+         */
+        void confirm() {
+            int length = buffer.getInt(readPosition);
+            buffer.putInt(readPosition, -length);
+            buffer.force(readPosition, 4);
+            readPosition += HEADER_BYTES + length;
+            pending--;
+        }
+
+        void forEachPending(Consumer<byte[]> action) {
+            int position = readPosition;
+            while (position < writePosition) {
+                int length = buffer.getInt(position);
+                if (length > 0) {
+                    byte[] payload = new byte[length];
+                    buffer.get(position + HEADER_BYTES, payload);
+                    action.accept(payload);
+                }
+                position += HEADER_BYTES + Math.abs(length);
+            }
+        }
+
+        private void zero(int from) {
+            for (int i = from; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+
+        private static int checksum(MappedByteBuffer buffer, int from, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(from, length));
+            return (int) crc.getValue();
+        }
+    }
+}
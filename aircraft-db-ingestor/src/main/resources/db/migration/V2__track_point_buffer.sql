@@ -0,0 +1,10 @@
+-- ============================================================
+-- Buffered track points: last_point_at marks the newest position
+-- already folded into track_line; later positions are appended in bulk
+-- ============================================================
+ALTER TABLE flight_tracks ADD COLUMN last_point_at TIMESTAMPTZ;
+UPDATE flight_tracks SET last_point_at = COALESCE(end_time, updated_at, start_time);
+ALTER TABLE flight_tracks ALTER COLUMN last_point_at SET DEFAULT NOW();
+ALTER TABLE flight_tracks ALTER COLUMN last_point_at SET NOT NULL;
+
+CREATE INDEX idx_flight_tracks_open ON flight_tracks (aircraft_id, flight) WHERE end_time IS NULL;
@@ -0,0 +1,58 @@
+-- ============================================================
+-- flight_positions: declarative range partitioning by day (UTC)
+-- Partitions are named flight_positions_pYYYYMMDD. The ingestor's
+-- partition maintainer creates future days and expires old ones.
+-- Existing rows are copied, so run this in a maintenance window.
+-- ============================================================
+CREATE TABLE flight_positions_partitioned (
+    id              BIGINT          NOT NULL DEFAULT nextval('flight_positions_id_seq'),
+    aircraft_id     BIGINT          NOT NULL REFERENCES aircraft(id),
+    flight          VARCHAR(8),
+    position        GEOMETRY(POINTZ, 4326) NOT NULL,
+    alt_baro        INTEGER,
+    alt_geom        INTEGER,
+    ground_speed    REAL,
+    track           REAL,
+    vertical_rate   INTEGER,
+    squawk          VARCHAR(4),
+    category        VARCHAR(4),
+    on_ground       BOOLEAN         DEFAULT FALSE,
+    seen_at         TIMESTAMPTZ     NOT NULL,
+    ingested_at     TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+
+    PRIMARY KEY (id, seen_at)
+) PARTITION BY RANGE (seen_at);
+
+DO $$
+DECLARE
+    day DATE;
+    last_day DATE := (NOW() AT TIME ZONE 'UTC')::date + 7;
+BEGIN
+    SELECT COALESCE(MIN(seen_at AT TIME ZONE 'UTC')::date, (NOW() AT TIME ZONE 'UTC')::date)
+    INTO day FROM flight_positions;
+    WHILE day <= last_day LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF flight_positions_partitioned FOR VALUES FROM (%L) TO (%L)',
+                       'flight_positions_p' || to_char(day, 'YYYYMMDD'),
+                       day::timestamp AT TIME ZONE 'UTC',
+                       (day + 1)::timestamp AT TIME ZONE 'UTC');
+        day := day + 1;
+    END LOOP;
+END $$;
+
+INSERT INTO flight_positions_partitioned
+    (id, aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+     vertical_rate, squawk, category, on_ground, seen_at, ingested_at)
+SELECT id, aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+       vertical_rate, squawk, category, on_ground, seen_at, ingested_at
+FROM flight_positions;
+
+ALTER SEQUENCE flight_positions_id_seq OWNED BY NONE;
+DROP TABLE flight_positions;
+ALTER TABLE flight_positions_partitioned RENAME TO flight_positions;
+ALTER TABLE flight_positions RENAME CONSTRAINT flight_positions_partitioned_pkey TO flight_positions_pkey;
+ALTER SEQUENCE flight_positions_id_seq OWNED BY flight_positions.id;
+
+CREATE INDEX idx_flight_positions_geom ON flight_positions USING GIST (position);
+CREATE INDEX idx_flight_positions_seen ON flight_positions (seen_at DESC);
+CREATE INDEX idx_flight_positions_aircraft_time ON flight_positions (aircraft_id, seen_at DESC);
+CREATE INDEX idx_flight_positions_flight ON flight_positions (flight);
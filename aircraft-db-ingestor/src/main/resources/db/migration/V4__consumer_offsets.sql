@@ -0,0 +1,14 @@
+-- ============================================================
+-- Kafka offsets stored in the same transaction as the data they
+-- cover (ingest.offset-store = "database"). next_offset is the
+-- offset of the next record to consume, as Kafka commits it.
+-- ============================================================
+CREATE TABLE consumer_offsets (
+    consumer_group  VARCHAR(255)    NOT NULL,
+    topic           VARCHAR(255)    NOT NULL,
+    partition       INTEGER         NOT NULL,
+    next_offset     BIGINT          NOT NULL,
+    updated_at      TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+
+    PRIMARY KEY (consumer_group, topic, partition)
+);
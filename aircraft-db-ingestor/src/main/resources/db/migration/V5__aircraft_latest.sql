@@ -0,0 +1,33 @@
+-- ============================================================
+-- Latest position per aircraft, upserted with every ingested
+-- batch so live queries read one row per aircraft instead of
+-- scanning flight_positions. position_id points at the row in
+-- flight_positions it was copied from.
+-- ============================================================
+CREATE TABLE aircraft_latest (
+    aircraft_id     BIGINT          PRIMARY KEY REFERENCES aircraft(id),
+    position_id     BIGINT          NOT NULL,
+    flight          VARCHAR(8),
+    position        GEOMETRY(POINTZ, 4326) NOT NULL,
+    alt_baro        INTEGER,
+    alt_geom        INTEGER,
+    ground_speed    REAL,
+    track           REAL,
+    vertical_rate   INTEGER,
+    squawk          VARCHAR(4),
+    category        VARCHAR(4),
+    on_ground       BOOLEAN         DEFAULT FALSE,
+    seen_at         TIMESTAMPTZ     NOT NULL
+);
+
+CREATE INDEX idx_aircraft_latest_geom ON aircraft_latest USING GIST (position);
+CREATE INDEX idx_aircraft_latest_seen ON aircraft_latest (seen_at DESC);
+
+INSERT INTO aircraft_latest
+    (aircraft_id, position_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+     vertical_rate, squawk, category, on_ground, seen_at)
+SELECT DISTINCT ON (aircraft_id)
+    aircraft_id, id, flight, position, alt_baro, alt_geom, ground_speed, track,
+    vertical_rate, squawk, category, on_ground, seen_at
+FROM flight_positions
+ORDER BY aircraft_id, seen_at DESC, id DESC;
@@ -0,0 +1,12 @@
+-- ============================================================
+-- Per-batch telemetry in ingestion_log: records skipped (no
+-- position or unchanged) and the time spent in each ingest
+-- stage, in milliseconds.
+-- ============================================================
+ALTER TABLE ingestion_log
+    ADD COLUMN records_skipped  INTEGER     NOT NULL DEFAULT 0,
+    ADD COLUMN parse_ms         DOUBLE PRECISION,
+    ADD COLUMN aircraft_ms      DOUBLE PRECISION,
+    ADD COLUMN positions_ms     DOUBLE PRECISION,
+    ADD COLUMN tracks_ms        DOUBLE PRECISION,
+    ADD COLUMN commit_ms        DOUBLE PRECISION;
@@ -0,0 +1,28 @@
+-- ============================================================
+-- Flight sessions: one row per sortie, opened on takeoff (or when
+-- an aircraft is first seen airborne) and closed on landing or
+-- signal loss. Updated incrementally by the ingestor, so sorties
+-- can be listed without aggregating flight_positions. Sessions
+-- start with the data ingested after this migration.
+-- ============================================================
+CREATE TABLE flight_sessions (
+    id                  BIGSERIAL       PRIMARY KEY,
+    aircraft_id         BIGINT          NOT NULL REFERENCES aircraft(id),
+    callsign            VARCHAR(8),
+    start_time          TIMESTAMPTZ     NOT NULL,
+    end_time            TIMESTAMPTZ,
+    end_reason          VARCHAR(16),
+    takeoff_observed    BOOLEAN         NOT NULL DEFAULT FALSE,
+    departure_position  GEOMETRY(POINT, 4326),
+    arrival_position    GEOMETRY(POINT, 4326),
+    last_position       GEOMETRY(POINT, 4326),
+    max_altitude        INTEGER,
+    point_count         INTEGER         NOT NULL DEFAULT 0,
+    last_seen_at        TIMESTAMPTZ     NOT NULL,
+    created_at          TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+    updated_at          TIMESTAMPTZ     NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX idx_flight_sessions_aircraft ON flight_sessions (aircraft_id, start_time DESC);
+CREATE INDEX idx_flight_sessions_time ON flight_sessions (start_time DESC);
+CREATE INDEX idx_flight_sessions_open ON flight_sessions (last_seen_at) WHERE end_time IS NULL;
@@ -0,0 +1,19 @@
+-- ============================================================
+-- Progress of offline flight_tracks rebuilds (TrackRebuildApp).
+-- A chunk of aircraft ids is rebuilt and checkpointed in one
+-- transaction, so an interrupted run resumes with the first chunk
+-- that has no row for its run_id.
+-- ============================================================
+CREATE TABLE track_rebuild_checkpoints (
+    run_id              VARCHAR(64)     NOT NULL,
+    first_aircraft_id   BIGINT          NOT NULL,
+    last_aircraft_id    BIGINT          NOT NULL,
+    range_start         TIMESTAMPTZ     NOT NULL,
+    range_end           TIMESTAMPTZ     NOT NULL,
+    positions_read      BIGINT          NOT NULL,
+    tracks_deleted      INTEGER         NOT NULL,
+    tracks_written      INTEGER         NOT NULL,
+    completed_at        TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+
+    PRIMARY KEY (run_id, first_aircraft_id)
+);
@@ -0,0 +1,107 @@
+package com.militarytracker.dbingestor.cache;
+
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ActiveTrackRegistryTest {
+
+    @Test
+    void shouldReturnRegisteredTrack() {
+        ActiveTrackRegistry registry = new ActiveTrackRegistry(10);
+        Instant lastPoint = Instant.parse("2026-02-27T12:00:00Z");
+        registry.register(new ActiveTrack(42L, "RCH405", 7L, lastPoint));
+
+        ActiveTrack track = registry.lookup(42L, "RCH405");
+
+        assertNotNull(track);
+        assertEquals(7L, track.getTrackId());
+        assertEquals(lastPoint, track.getLastPointAt());
+    }
+
+    @Test
+    void shouldKeyTracksByAircraftAndFlight() {
+        ActiveTrackRegistry registry = new ActiveTrackRegistry(10);
+        registry.register(new ActiveTrack(42L, "RCH405", 7L, Instant.now()));
+
+        assertNull(registry.lookup(42L, "RCH406"));
+        assertNull(registry.lookup(43L, "RCH405"));
+    }
+
+    @Test
+    void shouldStayWithinBound() {
+        ActiveTrackRegistry registry = new ActiveTrackRegistry(2);
+
+        registry.register(new ActiveTrack(1L, "A", 1L, Instant.now()));
+        registry.register(new ActiveTrack(2L, "B", 2L, Instant.now()));
+        registry.register(new ActiveTrack(3L, "C", 3L, Instant.now()));
+
+        assertEquals(2, registry.size());
+        assertNull(registry.lookup(1L, "A"));
+        assertNotNull(registry.lookup(3L, "C"));
+    }
+
+    @Test
+    void shouldEvictEveryTrackOfGivenAircraft() {
+        ActiveTrackRegistry registry = new ActiveTrackRegistry(10);
+        registry.register(new ActiveTrack(1L, "A", 1L, Instant.now()));
+        registry.register(new ActiveTrack(1L, "B", 2L, Instant.now()));
+        registry.register(new ActiveTrack(2L, "A", 3L, Instant.now()));
+
+        assertEquals(2, registry.evictAircraft(Set.of(1L)));
+
+        assertEquals(1, registry.size());
+        assertNotNull(registry.lookup(2L, "A"));
+    }
+
+    @Test
+    void shouldForgetRemovedAndClearedTracks() {
+        ActiveTrackRegistry registry = new ActiveTrackRegistry(10);
+        registry.register(new ActiveTrack(1L, "A", 1L, Instant.now()));
+        registry.register(new ActiveTrack(2L, "B", 2L, Instant.now()));
+
+        registry.remove(1L, "A");
+        assertNull(registry.lookup(1L, "A"));
+
+        registry.clear();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void shouldCountPendingPointsUntilFlushed() {
+        Instant first = Instant.parse("2026-02-27T12:00:00Z");
+        Instant second = first.plusSeconds(10);
+
+        ActiveTrack track = new ActiveTrack(42L, "RCH405", 7L, first)
+                .withPendingPoint(first)
+                .withPendingPoint(second);
+
+        assertEquals(2, track.getPendingPoints());
+        assertEquals(first, track.getFirstPendingAt());
+        assertEquals(second, track.getLastPointAt());
+
+        ActiveTrack flushed = track.flushed();
+        assertEquals(0, flushed.getPendingPoints());
+        assertNull(flushed.getFirstPendingAt());
+        assertEquals(second, flushed.getLastPointAt());
+    }
+
+    @Test
+    void shouldReturnTracksPendingSinceCutoff() {
+        ActiveTrackRegistry registry = new ActiveTrackRegistry(10);
+        Instant cutoff = Instant.parse("2026-02-27T12:00:00Z");
+        registry.register(new ActiveTrack(1L, "A", 1L, cutoff).withPendingPoint(cutoff.minusSeconds(5)));
+        registry.register(new ActiveTrack(2L, "B", 2L, cutoff).withPendingPoint(cutoff.plusSeconds(5)));
+        registry.register(new ActiveTrack(3L, "C", 3L, cutoff));
+
+        List<ActiveTrack> due = registry.pendingSince(cutoff);
+
+        assertEquals(1, due.size());
+        assertEquals(1L, due.get(0).getTrackId());
+    }
+}
@@ -0,0 +1,116 @@
+package com.militarytracker.dbingestor.cache;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AircraftIdCacheTest {
+
+    @Test
+    void shouldMissForUnknownAircraft() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+
+        assertNull(cache.lookup(createItem("AE1234", "C-17A")));
+    }
+
+    @Test
+    void shouldHitWhenMetadataIsUnchanged() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+        cache.put(createItem("AE1234", "C-17A"), 42L);
+
+        assertEquals(42L, cache.lookup(createItem("AE1234", "C-17A")));
+    }
+
+    @Test
+    void shouldMissWhenMetadataChanged() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+        cache.put(createItem("AE1234", "C-17A"), 42L);
+
+        assertNull(cache.lookup(createItem("AE1234", "C-5M")));
+    }
+
+    @Test
+    void shouldHitAlternatingRecordsThatOmitMetadata() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+        AcItem complete = createItem("AE1234", "C-17A");
+        AcItem sparse = createItem("AE1234", null);
+        sparse.setOperator(null);
+        cache.put(complete, 42L);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(42L, cache.lookup(sparse));
+            cache.put(sparse, 42L);
+            assertEquals(42L, cache.lookup(complete));
+            cache.put(complete, 42L);
+        }
+    }
+
+    @Test
+    void shouldMergeMetadataLikeTheUpsert() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+        AcItem registrationOnly = new AcItem();
+        registrationOnly.setHex("AE1234");
+        registrationOnly.setRegistration("05-5140");
+        AcItem typeOnly = new AcItem();
+        typeOnly.setHex("AE1234");
+        typeOnly.setAircraftType("C-17A");
+
+        cache.put(registrationOnly, 42L);
+        assertNull(cache.lookup(typeOnly));
+        cache.put(typeOnly, 42L);
+
+        AcItem both = createItem("AE1234", "C-17A");
+        both.setOperator(null);
+        assertEquals(42L, cache.lookup(both));
+        assertNull(cache.lookup(createItem("AE1234", "C-17A")));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+        AircraftIdCache cache = new AircraftIdCache(2);
+        double evictionsBefore = IngestorMetrics.AIRCRAFT_CACHE_EVICTIONS.get();
+
+        cache.put(createItem("AE0001", "C-17A"), 1L);
+        cache.put(createItem("AE0002", "C-17A"), 2L);
+        cache.lookup(createItem("AE0001", "C-17A"));
+        cache.put(createItem("AE0003", "C-17A"), 3L);
+
+        assertEquals(2, cache.size());
+        assertEquals(1L, cache.lookup(createItem("AE0001", "C-17A")));
+        assertNull(cache.lookup(createItem("AE0002", "C-17A")));
+        assertEquals(evictionsBefore + 1, IngestorMetrics.AIRCRAFT_CACHE_EVICTIONS.get());
+    }
+
+    @Test
+    void shouldForgetInvalidatedAircraft() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+        cache.put(createItem("AE1234", "C-17A"), 42L);
+
+        cache.invalidate("AE1234");
+
+        assertNull(cache.lookup(createItem("AE1234", "C-17A")));
+    }
+
+    @Test
+    void shouldEvictMatchingAircraft() {
+        AircraftIdCache cache = new AircraftIdCache(10);
+        cache.put(createItem("AE0001", "C-17A"), 1L);
+        cache.put(createItem("AE0002", "C-17A"), 2L);
+
+        assertEquals(1, cache.evictIf("AE0001"::equals));
+
+        assertNull(cache.lookup(createItem("AE0001", "C-17A")));
+        assertEquals(2L, cache.lookup(createItem("AE0002", "C-17A")));
+    }
+
+    private AcItem createItem(String hex, String type) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setAircraftType(type);
+        item.setRegistration("05-5140");
+        item.setOperator("USAF");
+        return item;
+    }
+}
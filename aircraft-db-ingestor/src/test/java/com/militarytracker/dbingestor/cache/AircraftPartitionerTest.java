@@ -0,0 +1,53 @@
+package com.militarytracker.dbingestor.cache;
+
+import org.apache.kafka.clients.producer.internals.BuiltInPartitioner;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AircraftPartitionerTest {
+
+    @Test
+    void shouldMatchProducerPartitionForHexKey() {
+        AircraftPartitioner partitioner = new AircraftPartitioner(6);
+
+        for (String hex : List.of("AE1234", "ae1234", "43C6E1", "3F4A21", "000001")) {
+            assertEquals(BuiltInPartitioner.partitionForKey(hex.getBytes(StandardCharsets.UTF_8), 6),
+                    partitioner.partitionOf(hex));
+        }
+    }
+
+    @Test
+    void shouldUseUnknownPartitionUntilPartitionCountIsSet() {
+        AircraftPartitioner partitioner = new AircraftPartitioner();
+        partitioner.record("AE1234", 42L);
+
+        assertEquals(AircraftPartitioner.UNKNOWN_PARTITION, partitioner.partitionOf("AE1234"));
+
+        partitioner.setPartitionCount(6);
+
+        assertEquals(BuiltInPartitioner.partitionForKey("AE1234".getBytes(StandardCharsets.UTF_8), 6),
+                partitioner.partitionOf("AE1234"));
+        assertEquals(Set.of(42L), partitioner.forget(Set.of(AircraftPartitioner.UNKNOWN_PARTITION)));
+    }
+
+    @Test
+    void shouldForgetOnlyAircraftOfGivenPartitions() {
+        AircraftPartitioner partitioner = new AircraftPartitioner(6);
+        String other = "AE0001";
+        for (int i = 2; partitioner.partitionOf(other) == partitioner.partitionOf("AE1234"); i++) {
+            other = "AE000" + i;
+        }
+        partitioner.record(Map.of("AE1234", 42L, other, 43L));
+
+        Set<Long> forgotten = partitioner.forget(Set.of(partitioner.partitionOf("AE1234")));
+
+        assertEquals(Set.of(42L), forgotten);
+        assertEquals(1, partitioner.size());
+    }
+}
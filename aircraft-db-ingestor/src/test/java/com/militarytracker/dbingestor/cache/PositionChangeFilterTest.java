@@ -0,0 +1,119 @@
+package com.militarytracker.dbingestor.cache;
+
+import com.militarytracker.dbingestor.metrics.IngestorMetrics;
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PositionChangeFilterTest {
+
+    private static final Instant T0 = Instant.parse("2026-03-01T12:00:00Z");
+
+    private final PositionChangeFilter filter =
+            new PositionChangeFilter(100, 25, 50, 5, 5, Duration.ofSeconds(300));
+
+    @Test
+    void shouldPassUnknownAircraft() {
+        AcItem item = createItem("AE1234", 38.0, -77.0);
+
+        assertEquals(List.of(item), filter.filter(List.of(item), T0));
+    }
+
+    @Test
+    void shouldSuppressUnchangedPosition() {
+        filter.recordWritten(List.of(createItem("AE1234", 38.0, -77.0)), T0);
+        double suppressedBefore = IngestorMetrics.POSITIONS_SUPPRESSED.get();
+
+        List<AcItem> written = filter.filter(List.of(createItem("AE1234", 38.0001, -77.0)), T0.plusSeconds(15));
+
+        assertTrue(written.isEmpty());
+        assertEquals(suppressedBefore + 1, IngestorMetrics.POSITIONS_SUPPRESSED.get());
+        assertTrue(IngestorMetrics.POSITION_SUPPRESSION_RATIO.get() > 0);
+    }
+
+    @Test
+    void shouldPassPositionMovedBeyondTolerance() {
+        filter.recordWritten(List.of(createItem("AE1234", 38.0, -77.0)), T0);
+        AcItem moved = createItem("AE1234", 38.001, -77.0);
+
+        assertEquals(List.of(moved), filter.filter(List.of(moved), T0.plusSeconds(15)));
+    }
+
+    @Test
+    void shouldPassAltitudeSpeedAndTrackChanges() {
+        filter.recordWritten(List.of(createItem("AE1234", 38.0, -77.0)), T0);
+        AcItem climbed = createItem("AE1234", 38.0, -77.0);
+        climbed.setAltBaro(1100);
+        AcItem faster = createItem("AE1234", 38.0, -77.0);
+        faster.setGroundSpeed(20.0);
+        AcItem turned = createItem("AE1234", 38.0, -77.0);
+        turned.setTrack(10.0);
+
+        assertEquals(1, filter.filter(List.of(climbed), T0.plusSeconds(15)).size());
+        assertEquals(1, filter.filter(List.of(faster), T0.plusSeconds(15)).size());
+        assertEquals(1, filter.filter(List.of(turned), T0.plusSeconds(15)).size());
+    }
+
+    @Test
+    void shouldCompareTrackAcrossNorth() {
+        AcItem previous = createItem("AE1234", 38.0, -77.0);
+        previous.setTrack(358.0);
+        filter.recordWritten(List.of(previous), T0);
+        AcItem current = createItem("AE1234", 38.0, -77.0);
+        current.setTrack(2.0);
+
+        assertTrue(filter.filter(List.of(current), T0.plusSeconds(15)).isEmpty());
+    }
+
+    @Test
+    void shouldPassWhenFlightOrSquawkChanges() {
+        filter.recordWritten(List.of(createItem("AE1234", 38.0, -77.0)), T0);
+        AcItem squawking = createItem("AE1234", 38.0, -77.0);
+        squawking.setSquawk("7700");
+
+        assertEquals(List.of(squawking), filter.filter(List.of(squawking), T0.plusSeconds(15)));
+    }
+
+    @Test
+    void shouldPassKeepaliveAfterInterval() {
+        filter.recordWritten(List.of(createItem("AE1234", 38.0, -77.0)), T0);
+        AcItem keepalive = createItem("AE1234", 38.0, -77.0);
+
+        assertEquals(List.of(keepalive), filter.filter(List.of(keepalive), T0.plusSeconds(300)));
+    }
+
+    @Test
+    void shouldSuppressDuplicatesWithinOneBatch() {
+        AcItem first = createItem("AE1234", 38.0, -77.0);
+        AcItem repeat = createItem("AE1234", 38.0, -77.0);
+
+        assertEquals(List.of(first), filter.filter(List.of(first, repeat), T0));
+    }
+
+    @Test
+    void shouldNotSuppressAfterUnrecordedWrite() {
+        AcItem item = createItem("AE1234", 38.0, -77.0);
+        filter.filter(List.of(item), T0);
+
+        // The first batch was rolled back, so the retry must still pass
+        assertEquals(List.of(item), filter.filter(List.of(item), T0.plusSeconds(1)));
+    }
+
+    private static AcItem createItem(String hex, double lat, double lon) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setFlight("RCH405");
+        item.setLat(lat);
+        item.setLon(lon);
+        item.setAltBaro(1000);
+        item.setGroundSpeed(10.0);
+        item.setTrack(0.0);
+        item.setSquawk("1200");
+        return item;
+    }
+}
@@ -1,21 +1,46 @@
 package com.militarytracker.dbingestor.consumer;
 
+import com.militarytracker.dbingestor.repository.ConsumerOffsetRepository;
+import com.militarytracker.dbingestor.service.CatchUpWindow;
+import com.militarytracker.dbingestor.service.DatabaseUnavailableException;
 import com.militarytracker.dbingestor.service.IngestionService;
+import com.militarytracker.dbingestor.spool.DiskSpool;
 import com.militarytracker.model.api.AcItem;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -27,6 +52,9 @@ class FlightKafkaConsumerTest {
     @Mock
     private IngestionService ingestionService;
 
+    @Mock
+    private ConsumerOffsetRepository offsetStore;
+
     @Test
     void shouldProcessRecordsAndCommit() {
         String json = "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0,\"alt_baro\":35000}";
@@ -39,7 +67,7 @@ class FlightKafkaConsumerTest {
                 .thenReturn(records)
                 .thenReturn(emptyRecords);
 
-        FlightKafkaConsumer consumer = new FlightKafkaConsumer(kafkaConsumer, ingestionService, "military_flights");
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights").build();
 
         // Run in a separate thread and stop after a short time
         Thread thread = new Thread(consumer);
@@ -50,7 +78,338 @@ class FlightKafkaConsumerTest {
         consumer.shutdown();
         try { thread.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
 
-        verify(ingestionService, atLeastOnce()).ingest(any(AcItem.class));
-        verify(kafkaConsumer, atLeastOnce()).commitSync();
+        verify(ingestionService, atLeastOnce()).ingestBatch(anyList(), anyMap(), any());
+        verify(ingestionService, never()).ingest(any(AcItem.class));
+        verify(kafkaConsumer).commitSync(Map.of(tp, new OffsetAndMetadata(1)));
+    }
+
+    @Test
+    void shouldFlushWhenBatchIsFull() {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        ConsumerRecord<String, String> first = new ConsumerRecord<>("military_flights", 0, 0, "AE1234",
+                "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}");
+        ConsumerRecord<String, String> second = new ConsumerRecord<>("military_flights", 0, 1, "AE5678",
+                "{\"hex\":\"AE5678\",\"lat\":39.0,\"lon\":-76.0}");
+        ConsumerRecords<String, String> records = new ConsumerRecords<>(Map.of(tp, List.of(first, second)));
+
+        when(kafkaConsumer.poll(any(Duration.class)))
+                .thenReturn(records)
+                .thenReturn(new ConsumerRecords<>(Map.of()));
+
+        // Linger is long enough that only the size limit can trigger the flush
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(2, 60_000)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(ingestionService, timeout(5000)).ingestBatch(argThat(batch -> batch.size() == 2), anyMap(), any());
+        verify(kafkaConsumer, timeout(5000)).commitAsync(eq(Map.of(tp, new OffsetAndMetadata(2))), any());
+
+        consumer.shutdown();
+        try { thread.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    @Test
+    void shouldRewindAndNotCommitWhenDatabaseIsUnavailable() {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("military_flights", 0, 7, "AE1234",
+                "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}");
+        ConsumerRecords<String, String> records = new ConsumerRecords<>(Map.of(tp, List.of(record)));
+
+        when(kafkaConsumer.poll(any(Duration.class)))
+                .thenReturn(records)
+                .thenReturn(new ConsumerRecords<>(Map.of()));
+        when(kafkaConsumer.assignment()).thenReturn(Set.of(tp));
+        when(ingestionService.ingestBatch(anyList(), anyMap(), any())).thenThrow(new DatabaseUnavailableException("down"));
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(1, 60_000)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(kafkaConsumer, timeout(5000)).seek(tp, 7L);
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        verify(kafkaConsumer, never()).commitAsync(anyMap(), any());
+        verify(kafkaConsumer, never()).commitSync(anyMap());
+    }
+
+    @Test
+    void shouldStoreOffsetsWithBatchInDatabaseMode() {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("military_flights", 0, 10, "AE1234",
+                "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}");
+
+        when(kafkaConsumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(tp, List.of(record))))
+                .thenReturn(new ConsumerRecords<>(Map.of()));
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(1, 60_000)
+                .offsets(new OffsetTracker(60_000, 100))
+                .offsetStore(offsetStore)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(ingestionService, timeout(5000)).ingestBatch(argThat(batch -> batch.size() == 1), eq(Map.of(tp, 11L)), any());
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        verify(kafkaConsumer, never()).commitSync(anyMap());
+    }
+
+    @Test
+    void shouldSeekToStoredOffsetsOnAssignment() throws Exception {
+        TopicPartition stored = new TopicPartition("military_flights", 0);
+        TopicPartition fresh = new TopicPartition("military_flights", 1);
+        // The consumer may be shut down before its first poll
+        lenient().when(kafkaConsumer.poll(any(Duration.class))).thenReturn(new ConsumerRecords<>(Map.of()));
+        when(offsetStore.loadOffsets(List.of(stored, fresh))).thenReturn(Map.of(stored, 42L));
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(1, 60_000)
+                .offsets(new OffsetTracker(60_000, 100))
+                .offsetStore(offsetStore)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        ArgumentCaptor<ConsumerRebalanceListener> listener = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+        verify(kafkaConsumer, timeout(5000)).subscribe(anyCollection(), listener.capture());
+        listener.getValue().onPartitionsAssigned(List.of(stored, fresh));
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        verify(kafkaConsumer).seek(stored, 42L);
+        verify(kafkaConsumer, never()).seek(eq(fresh), anyLong());
+    }
+
+    @Test
+    void shouldNotReportPartitionCountWhileTopicIsMissing() throws Exception {
+        lenient().when(kafkaConsumer.poll(any(Duration.class))).thenReturn(new ConsumerRecords<>(Map.of()));
+        when(kafkaConsumer.partitionsFor("military_flights")).thenReturn(List.of());
+        List<Integer> counts = new CopyOnWriteArrayList<>();
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .partitionCountListener(counts::add)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        ArgumentCaptor<ConsumerRebalanceListener> listener = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+        verify(kafkaConsumer, timeout(5000)).subscribe(anyCollection(), listener.capture());
+        listener.getValue().onPartitionsAssigned(List.of());
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        assertEquals(List.of(), counts);
+    }
+
+    @Test
+    void shouldReportPartitionCountOnAssignment() throws Exception {
+        lenient().when(kafkaConsumer.poll(any(Duration.class))).thenReturn(new ConsumerRecords<>(Map.of()));
+        // Metadata that has not caught up yet with partitions 6 and 7
+        when(kafkaConsumer.partitionsFor("military_flights")).thenReturn(List.of(
+                new PartitionInfo("military_flights", 0, null, null, null),
+                new PartitionInfo("military_flights", 1, null, null, null),
+                new PartitionInfo("military_flights", 2, null, null, null),
+                new PartitionInfo("military_flights", 3, null, null, null),
+                new PartitionInfo("military_flights", 4, null, null, null),
+                new PartitionInfo("military_flights", 5, null, null, null)));
+        List<Integer> counts = new CopyOnWriteArrayList<>();
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .partitionCountListener(counts::add)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        ArgumentCaptor<ConsumerRebalanceListener> listener = ArgumentCaptor.forClass(ConsumerRebalanceListener.class);
+        verify(kafkaConsumer, timeout(5000)).subscribe(anyCollection(), listener.capture());
+        listener.getValue().onPartitionsAssigned(List.of());
+        listener.getValue().onPartitionsAssigned(List.of(new TopicPartition("military_flights", 7)));
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        assertEquals(List.of(6, 8), counts);
+    }
+
+    @Test
+    void shouldPauseWhileWriterIsBehindAndResumeOnceDrained() throws Exception {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        ConsumerRecord<String, String> first = new ConsumerRecord<>("military_flights", 0, 0, "AE1234",
+                "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}");
+        ConsumerRecord<String, String> second = new ConsumerRecord<>("military_flights", 0, 1, "AE5678",
+                "{\"hex\":\"AE5678\",\"lat\":39.0,\"lon\":-76.0}");
+        ConsumerRecord<String, String> third = new ConsumerRecord<>("military_flights", 0, 2, "AE9012",
+                "{\"hex\":\"AE9012\",\"lat\":40.0,\"lon\":-75.0}");
+        CountDownLatch release = new CountDownLatch(1);
+
+        when(kafkaConsumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(tp, List.of(first, second, third))))
+                .thenReturn(new ConsumerRecords<>(Map.of()));
+        when(kafkaConsumer.assignment()).thenReturn(Set.of(tp));
+        when(kafkaConsumer.paused()).thenReturn(Set.of(tp));
+        when(ingestionService.ingestBatch(anyList(), anyMap(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return 1;
+        });
+
+        // One record per batch and room for one queued batch: the writer holds the first,
+        // the queue the second, and the third cannot be handed off
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(1, 60_000)
+                .offsets(new OffsetTracker(60_000, 100))
+                .queueCapacity(1)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(kafkaConsumer, timeout(5000)).pause(Set.of(tp));
+        verify(kafkaConsumer, never()).resume(anyCollection());
+
+        release.countDown();
+
+        verify(kafkaConsumer, timeout(5000)).resume(Set.of(tp));
+        verify(ingestionService, timeout(5000).times(3)).ingestBatch(anyList(), anyMap(), any());
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        verify(kafkaConsumer).commitSync(Map.of(tp, new OffsetAndMetadata(3)));
+    }
+
+    @Test
+    void shouldSpoolBatchWhileDatabaseIsUnavailableAndReplayItOnceBack(@TempDir Path spoolDir) throws Exception {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("military_flights", 0, 7, "AE1234",
+                "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}");
+
+        when(kafkaConsumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(tp, List.of(record))))
+                .thenReturn(new ConsumerRecords<>(Map.of()));
+        when(ingestionService.ingestBatch(anyList(), anyMap(), any()))
+                .thenThrow(new DatabaseUnavailableException("down"));
+        DiskSpool spool = new DiskSpool(spoolDir, 64 * 1024, 4);
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(1, 60_000)
+                .offsets(new OffsetTracker(60_000, 100))
+                .spool(spool)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(ingestionService, timeout(5000)).ingestBatch(
+                argThat(batch -> batch.size() == 1 && "AE1234".equals(batch.get(0).getHex())),
+                argThat(seenAt -> seenAt.size() == 1), anyMap(), any(), any(CatchUpWindow.class));
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        assertTrue(spool.isEmpty());
+        verify(ingestionService, times(1)).ingestBatch(anyList(), anyMap(), any());
+        verify(kafkaConsumer, never()).seek(any(TopicPartition.class), anyLong());
+        verify(kafkaConsumer).commitSync(Map.of(tp, new OffsetAndMetadata(8)));
+    }
+
+    @Test
+    void shouldDrainWholeSpoolWithRecordedTimesBeforeWritingNewBatches(@TempDir Path spoolDir) throws Exception {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        DiskSpool spool = new DiskSpool(spoolDir, 64 * 1024, 4);
+        Instant outage = Instant.parse("2026-01-01T00:00:00Z");
+        for (int i = 0; i < 3; i++) {
+            AcItem item = new AcItem();
+            item.setHex("AE0001");
+            item.setLat(38.0 + i);
+            item.setLon(-77.0);
+            spool.append(List.of(item), List.of(outage.plusSeconds(i)), Map.of());
+        }
+        ConsumerRecord<String, String> record = new ConsumerRecord<>("military_flights", 0, 7, "AE1234",
+                "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}");
+        when(kafkaConsumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(tp, List.of(record))))
+                .thenReturn(new ConsumerRecords<>(Map.of()));
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(1, 0)
+                .offsets(new OffsetTracker(60_000, 100))
+                .spool(spool)
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(ingestionService, timeout(5000)).ingestBatch(anyList(), anyMap(), any());
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+
+        InOrder inOrder = inOrder(ingestionService);
+        for (int i = 0; i < 3; i++) {
+            inOrder.verify(ingestionService).ingestBatch(anyList(), eq(List.of(outage.plusSeconds(i))), anyMap(),
+                    any(), any(CatchUpWindow.class));
+        }
+        inOrder.verify(ingestionService).finishCatchUp(any(CatchUpWindow.class));
+        inOrder.verify(ingestionService).ingestBatch(
+                argThat(batch -> "AE1234".equals(batch.get(0).getHex())), anyMap(), any());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void shouldCatchUpInBulkWhileLagIsHighAndRebuildTracksOnceCaughtUp() {
+        TopicPartition tp = new TopicPartition("military_flights", 0);
+        ConsumerRecords<String, String> behind = new ConsumerRecords<>(Map.of(tp, List.of(
+                new ConsumerRecord<>("military_flights", 0, 0, "AE1234", "{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0}"))));
+        ConsumerRecords<String, String> caughtUp = new ConsumerRecords<>(Map.of(tp, List.of(
+                new ConsumerRecord<>("military_flights", 0, 1, "AE1234", "{\"hex\":\"AE1234\",\"lat\":38.1,\"lon\":-77.0}"))));
+        ConsumerRecords<String, String> empty = new ConsumerRecords<>(Map.of());
+        // The second record arrives after the next lag check, which finds the lag gone
+        long caughtUpAt = System.currentTimeMillis() + 1500;
+        AtomicInteger delivered = new AtomicInteger();
+        when(kafkaConsumer.poll(any(Duration.class))).thenAnswer(invocation -> {
+            if (delivered.compareAndSet(0, 1)) {
+                return behind;
+            }
+            if (System.currentTimeMillis() >= caughtUpAt && delivered.compareAndSet(1, 2)) {
+                return caughtUp;
+            }
+            return empty;
+        });
+        when(kafkaConsumer.assignment()).thenReturn(Set.of(tp));
+        when(kafkaConsumer.currentLag(tp)).thenReturn(OptionalLong.of(200_000), OptionalLong.of(0));
+
+        FlightKafkaConsumer consumer = FlightKafkaConsumer.builder(kafkaConsumer, ingestionService, "military_flights")
+                .batching(500, 0)
+                .offsets(new OffsetTracker(60_000, 100))
+                .catchUp(new CatchUpPolicy(100_000, 10_000, 5000))
+                .build();
+
+        Thread thread = new Thread(consumer);
+        thread.start();
+
+        verify(ingestionService, timeout(5000)).ingestBatch(anyList(), anyList(), anyMap(), any(), any(CatchUpWindow.class));
+        verify(ingestionService, timeout(5000)).finishCatchUp(any(CatchUpWindow.class));
+        verify(ingestionService, timeout(5000)).ingestBatch(
+                argThat(batch -> batch.size() == 1 && batch.get(0).getLat() == 38.1), anyMap(), any());
+
+        consumer.shutdown();
+        try { thread.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
     }
 }
@@ -0,0 +1,112 @@
+package com.militarytracker.dbingestor.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffsetTrackerTest {
+
+    private static final TopicPartition P0 = new TopicPartition("military_flights", 0);
+    private static final TopicPartition P1 = new TopicPartition("military_flights", 1);
+
+    @Test
+    void shouldCommitNextOffsetPerPartition() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 100);
+        tracker.markProcessed(P0, 4);
+        tracker.markProcessed(P0, 5);
+        tracker.markProcessed(P1, 10);
+
+        assertEquals(Map.of(P0, new OffsetAndMetadata(6), P1, new OffsetAndMetadata(11)), tracker.uncommitted());
+    }
+
+    @Test
+    void shouldIgnoreOffsetsBelowProcessed() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 100);
+        tracker.markProcessed(P0, 5);
+        tracker.markProcessed(P0, 3);
+
+        assertEquals(Map.of(P0, new OffsetAndMetadata(6)), tracker.uncommitted());
+    }
+
+    @Test
+    void shouldOnlyReturnPartitionsChangedSinceLastCommit() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 100);
+        tracker.markProcessed(P0, 5);
+        tracker.markProcessed(P1, 10);
+        tracker.commitSent(tracker.uncommitted());
+
+        tracker.markProcessed(P1, 11);
+
+        assertEquals(Map.of(P1, new OffsetAndMetadata(12)), tracker.uncommitted());
+    }
+
+    @Test
+    void shouldBeDueAfterRecordCount() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 2);
+        long now = System.currentTimeMillis();
+
+        tracker.markProcessed(P0, 1);
+        assertFalse(tracker.isCommitDue(now));
+
+        tracker.markProcessed(P0, 2);
+        assertTrue(tracker.isCommitDue(now));
+    }
+
+    @Test
+    void shouldBeDueAfterInterval() {
+        OffsetTracker tracker = new OffsetTracker(1000, 100);
+        tracker.markProcessed(P0, 1);
+
+        assertTrue(tracker.isCommitDue(System.currentTimeMillis() + 1000));
+    }
+
+    @Test
+    void shouldNotBeDueWithNothingToCommit() {
+        OffsetTracker tracker = new OffsetTracker(0, 0);
+
+        assertFalse(tracker.isCommitDue(System.currentTimeMillis()));
+    }
+
+    @Test
+    void shouldRetryFailedCommitUnlessSuperseded() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 100);
+        tracker.markProcessed(P0, 5);
+        Map<TopicPartition, OffsetAndMetadata> first = tracker.uncommitted();
+        tracker.commitSent(first);
+
+        tracker.commitFailed(first);
+        assertEquals(first, tracker.uncommitted());
+
+        tracker.commitSent(first);
+        tracker.markProcessed(P0, 6);
+        Map<TopicPartition, OffsetAndMetadata> second = tracker.uncommitted();
+        tracker.commitSent(second);
+        tracker.commitFailed(first);
+        assertFalse(tracker.hasUncommitted());
+    }
+
+    @Test
+    void shouldForgetRevokedPartitions() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 100);
+        tracker.markProcessed(P0, 5);
+        tracker.markProcessed(P1, 10);
+
+        tracker.forget(List.of(P0));
+
+        assertEquals(Map.of(P1, new OffsetAndMetadata(11)), tracker.uncommitted());
+    }
+
+    @Test
+    void shouldReportNextOffsetOfProcessedPartitionsOnly() {
+        OffsetTracker tracker = new OffsetTracker(60_000, 100);
+        tracker.markProcessed(P0, 7);
+
+        assertEquals(8L, tracker.nextOffset(P0));
+        assertNull(tracker.nextOffset(P1));
+    }
+}
@@ -0,0 +1,181 @@
+package com.militarytracker.dbingestor.consumer;
+
+import com.militarytracker.dbingestor.cache.AircraftPartitioner;
+import com.militarytracker.dbingestor.repository.AircraftRepository;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository;
+import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class PartitionStateRebalanceListenerTest {
+
+    private static final String TOPIC = "military_flights";
+    private static final Duration RECENT = Duration.ofMinutes(60);
+
+    @Mock
+    private DataSource dataSource;
+    @Mock
+    private AircraftRepository aircraftRepo;
+    @Mock
+    private FlightTrackRepository trackRepo;
+    @Mock
+    private FlightSessionRepository sessionRepo;
+
+    private AircraftPartitioner partitioner;
+    private PartitionStateRebalanceListener listener;
+
+    @BeforeEach
+    void setUp() {
+        partitioner = new AircraftPartitioner(6);
+        listener = new PartitionStateRebalanceListener(partitioner, dataSource, aircraftRepo, null,
+                trackRepo, sessionRepo, RECENT);
+    }
+
+    @Test
+    void shouldWarmOnlyAssignedPartitions() throws Exception {
+        int partition = partitioner.partitionOf("AE1234");
+
+        listener.onPartitionsAssigned(List.of(new TopicPartition(TOPIC, partition)));
+
+        verify(aircraftRepo).warmCache(argThat(owned -> owned.test("AE1234")), eq(RECENT), isNull());
+        verify(aircraftRepo).warmCache(argThat(owned -> !owned.test(hexOutside(partition))), eq(RECENT), isNull());
+        verify(trackRepo).warmPartitions(dataSource, partitioner, Set.of(partition));
+        verify(sessionRepo).warmPartitions(dataSource, partitioner, Set.of(partition));
+    }
+
+    @Test
+    void shouldSkipWarmingWhenNothingWasAssigned() throws Exception {
+        listener.onPartitionsAssigned(List.of());
+
+        verify(aircraftRepo, never()).warmCache(any(), any(), any());
+        verify(trackRepo, never()).warmPartitions(any(), any(), any());
+    }
+
+    @Test
+    void shouldKeepConsumingWhenWarmingFails() throws Exception {
+        when(trackRepo.warmPartitions(any(), any(), any())).thenThrow(new RuntimeException("connection refused"));
+
+        listener.onPartitionsAssigned(List.of(new TopicPartition(TOPIC, 0)));
+
+        verify(trackRepo).warmPartitions(dataSource, partitioner, Set.of(0));
+        verify(sessionRepo).warmPartitions(dataSource, partitioner, Set.of(0));
+    }
+
+    @Test
+    void shouldEvictStateOfRevokedPartitionsOnly() {
+        int partition = partitioner.partitionOf("AE1234");
+        partitioner.record("AE1234", 42L);
+        partitioner.record(hexOutside(partition), 43L);
+
+        listener.onPartitionsRevoked(List.of(new TopicPartition(TOPIC, partition)));
+
+        verify(trackRepo).evictAircraft(Set.of(42L));
+        verify(sessionRepo).evictAircraft(Set.of(42L));
+        verify(aircraftRepo).evictAircraft(argThat((Predicate<String> owned) ->
+                owned.test("AE1234") && !owned.test(hexOutside(partition))));
+        assertEquals(1, partitioner.size());
+    }
+
+    @Test
+    void shouldEvictStateOfLostPartitions() {
+        partitioner.record("AE1234", 42L);
+
+        listener.onPartitionsLost(List.of(new TopicPartition(TOPIC, partitioner.partitionOf("AE1234"))));
+
+        verify(trackRepo).evictAircraft(Set.of(42L));
+        assertEquals(0, partitioner.size());
+    }
+
+    @Test
+    void shouldLeaveStateAloneWhenNothingWasRevoked() {
+        partitioner.record("AE1234", 42L);
+
+        listener.onPartitionsRevoked(List.of());
+
+        verify(trackRepo, never()).evictAircraft(anySet());
+        assertEquals(1, partitioner.size());
+    }
+
+    @Test
+    void shouldDropStateOfAllAircraftWhenPartitionsWereAdded() {
+        partitioner.record("AE1234", 42L);
+        partitioner.record(hexOutside(partitioner.partitionOf("AE1234")), 43L);
+
+        listener.refreshPartitionCount(12);
+
+        assertEquals(12, partitioner.getPartitionCount());
+        assertEquals(0, partitioner.size());
+        verify(trackRepo).evictAircraft(Set.of(42L, 43L));
+        verify(sessionRepo).evictAircraft(Set.of(42L, 43L));
+        verify(aircraftRepo).evictAircraft(argThat((Predicate<String> owned) -> owned.test("AE1234")));
+    }
+
+    @Test
+    void shouldIgnoreUnchangedOrSmallerPartitionCount() {
+        partitioner.record("AE1234", 42L);
+
+        listener.refreshPartitionCount(6);
+        listener.refreshPartitionCount(4);
+
+        assertEquals(6, partitioner.getPartitionCount());
+        assertEquals(1, partitioner.size());
+        verify(trackRepo, never()).evictAircraft(anySet());
+    }
+
+    @Test
+    void shouldTakePartitionCountFromFirstAssignment() {
+        AircraftPartitioner lazy = new AircraftPartitioner();
+        PartitionStateRebalanceListener lazyListener = new PartitionStateRebalanceListener(lazy, dataSource,
+                aircraftRepo, null, trackRepo, sessionRepo, RECENT);
+
+        lazyListener.refreshPartitionCount(6);
+
+        assertEquals(6, lazy.getPartitionCount());
+        verify(trackRepo, never()).evictAircraft(anySet());
+    }
+
+    @Test
+    void shouldDropAircraftWrittenBeforePartitionCountWasKnown() {
+        AircraftPartitioner lazy = new AircraftPartitioner();
+        PartitionStateRebalanceListener lazyListener = new PartitionStateRebalanceListener(lazy, dataSource,
+                aircraftRepo, null, trackRepo, sessionRepo, RECENT);
+        // e.g. replayed from the spool before the first assignment
+        lazy.record("AE1234", 42L);
+
+        lazyListener.refreshPartitionCount(6);
+
+        assertEquals(0, lazy.size());
+        verify(trackRepo).evictAircraft(Set.of(42L));
+        verify(aircraftRepo).evictAircraft(argThat((Predicate<String> owned) -> owned.test("AE1234")));
+    }
+
+    private String hexOutside(int partition) {
+        for (int i = 0; ; i++) {
+            String hex = String.format("AE%04X", i);
+            if (partitioner.partitionOf(hex) != partition) {
+                return hex;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCopyEncoderTest {
+
+    private static final int HEADER_LENGTH = 19;
+
+    @Test
+    void shouldWriteSignatureHeaderAndTrailer() throws Exception {
+        byte[] payload = new BinaryCopyEncoder(0).finish();
+
+        assertEquals(HEADER_LENGTH + 2, payload.length);
+        assertEquals("PGCOPY\n", new String(payload, 0, 7));
+        assertEquals((byte) 0xFF, payload[7]);
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        assertEquals(0, buf.getInt(11));
+        assertEquals(0, buf.getInt(15));
+        assertEquals(-1, buf.getShort(HEADER_LENGTH));
+    }
+
+    @Test
+    void shouldEncodePointZAsLittleEndianEwkbWithSrid() {
+        byte[] ewkb = BinaryCopyEncoder.ewkbPointZ(-77.0364, 38.8951, 35000, 4326);
+
+        ByteBuffer buf = ByteBuffer.wrap(ewkb).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(33, ewkb.length);
+        assertEquals(1, buf.get());
+        assertEquals(0xA0000001, buf.getInt());
+        assertEquals(4326, buf.getInt());
+        assertEquals(-77.0364, buf.getDouble());
+        assertEquals(38.8951, buf.getDouble());
+        assertEquals(35000.0, buf.getDouble());
+    }
+
+    @Test
+    void shouldEncodeTimestampRelativeToPostgresEpoch() throws Exception {
+        byte[] payload = new BinaryCopyEncoder(1)
+                .startRow(1)
+                .writeTimestamp(Instant.parse("2000-01-01T00:00:01Z"))
+                .finish();
+
+        ByteBuffer buf = ByteBuffer.wrap(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH);
+        assertEquals(1, buf.getShort());
+        assertEquals(8, buf.getInt());
+        assertEquals(1_000_000L, buf.getLong());
+    }
+
+    @Test
+    void shouldEncodeOnePositionRowPerItemWithNullsForMissingFields() throws Exception {
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        item.setLat(38.0);
+        item.setLon(-77.0);
+        item.setAltBaro("ground");
+
+        byte[] payload = FlightPositionRepository.encodeCopyPayload(
+                Map.of("AE1234", 42L), List.of(item), List.of(Instant.EPOCH));
+
+        ByteBuffer buf = ByteBuffer.wrap(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH);
+        assertEquals(12, buf.getShort());
+        assertEquals(8, buf.getInt());
+        assertEquals(42L, buf.getLong());
+        assertEquals(-1, buf.getInt()); // flight
+        int geometryLength = buf.getInt();
+        assertEquals(33, geometryLength);
+        buf.position(buf.position() + geometryLength);
+        for (int i = 0; i < 7; i++) {
+            assertEquals(-1, buf.getInt(), "field " + (i + 4) + " should be NULL");
+        }
+        assertEquals(1, buf.getInt());
+        assertEquals(1, buf.get()); // on_ground
+        assertEquals(8, buf.getInt());
+        buf.getLong();
+        assertEquals(-1, buf.getShort());
+        assertFalse(buf.hasRemaining());
+    }
+}
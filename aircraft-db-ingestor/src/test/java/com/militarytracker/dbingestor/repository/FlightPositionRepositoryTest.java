@@ -0,0 +1,130 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.cache.AircraftIdCache;
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FlightPositionRepositoryTest {
+
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement statement;
+    @Mock
+    private ResultSet resultSet;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+    }
+
+    @Test
+    void shouldWritePositionsAndLatestInOneStatementWhenUnnest() throws Exception {
+        FlightPositionRepository repo = new FlightPositionRepository(FlightPositionRepository.WriteMode.UNNEST);
+
+        repo.insertPositions(Map.of("AE1234", 42L, "AE5678", 43L),
+                List.of(createTestItem("AE1234"), createTestItem("AE5678")), connection);
+        repo.upsertLatest(Set.of(42L, 43L), connection);
+
+        verify(connection, times(1)).prepareStatement(anyString());
+        verify(connection).prepareStatement(contains("unnest("));
+        verify(connection).createArrayOf(eq("bigint"), eq(new Long[] {42L, 43L}));
+        verify(statement, times(12)).setArray(anyInt(), any());
+        verify(statement).executeUpdate();
+        verify(statement, never()).executeBatch();
+    }
+
+    @Test
+    void shouldUpsertUncachedAircraftInTheSameStatement() throws Exception {
+        FlightPositionRepository repo = new FlightPositionRepository(FlightPositionRepository.WriteMode.UNNEST);
+        AircraftIdCache cache = new AircraftIdCache(10);
+        AcItem cached = createTestItem("AE1234");
+        AcItem uncached = createTestItem("AE5678");
+        cache.put(cached, 42L);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString(1)).thenReturn("AE5678");
+        when(resultSet.getLong(2)).thenReturn(43L);
+
+        Map<String, Long> ids = repo.upsertAircraftAndPositions(
+                new AircraftRepository(null, cache).lookupBatch(List.of(cached, uncached)),
+                List.of(cached, uncached), connection);
+
+        assertEquals(Map.of("AE1234", 42L, "AE5678", 43L), ids);
+        verify(connection, times(1)).prepareStatement(anyString());
+        verify(connection).prepareStatement(contains("WITH upserted AS"));
+        // The uncached aircraft's id is resolved in SQL, so it goes in as null
+        verify(connection).createArrayOf(eq("bigint"), eq(new Long[] {42L, null}));
+        verify(statement, times(19)).setArray(anyInt(), any());
+    }
+
+    @Test
+    void shouldWriteLeftOutPositionsOnceTheirAircraftIsRead() throws Exception {
+        FlightPositionRepository repo = new FlightPositionRepository(FlightPositionRepository.WriteMode.UNNEST);
+        AcItem item = createTestItem("AE5678");
+        ResultSet none = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(none, resultSet);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString(1)).thenReturn("AE5678");
+        when(resultSet.getLong(2)).thenReturn(43L);
+
+        Map<String, Long> ids = repo.upsertAircraftAndPositions(
+                new AircraftRepository(null, new AircraftIdCache(10)).lookupBatch(List.of(item)),
+                List.of(item), connection);
+
+        // Created by another transaction after the statement's snapshot, so read and written again
+        assertEquals(Map.of("AE5678", 43L), ids);
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).prepareStatement(contains("WITH upserted AS"));
+        inOrder.verify(connection).prepareStatement(contains("SELECT hex_icao, id FROM aircraft"));
+        inOrder.verify(connection).prepareStatement(startsWith("WITH inserted AS"));
+        verify(connection).createArrayOf(eq("bigint"), eq(new Long[] {43L}));
+    }
+
+    @Test
+    void shouldUpsertLatestSeparatelyWhenInsert() throws Exception {
+        FlightPositionRepository repo = new FlightPositionRepository(FlightPositionRepository.WriteMode.INSERT);
+
+        repo.insertPositions(Map.of("AE1234", 42L), List.of(createTestItem("AE1234")), connection);
+        repo.upsertLatest(Set.of(42L), connection);
+
+        verify(statement).executeBatch();
+        verify(connection).prepareStatement(contains("INSERT INTO aircraft_latest"));
+        verify(statement).executeUpdate();
+    }
+
+    private AcItem createTestItem(String hex) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setLat(38.8951);
+        item.setLon(-77.0364);
+        item.setAltBaro(35000);
+        item.setAltGeom(35000);
+        item.setFlight("RCH405");
+        return item;
+    }
+}
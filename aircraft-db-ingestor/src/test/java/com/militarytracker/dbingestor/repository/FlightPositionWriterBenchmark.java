@@ -0,0 +1,180 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.cache.AircraftIdCache;
+import com.militarytracker.model.api.AcItem;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares rows/sec and per-batch latency of the position writers against a local
+ * PostgreSQL/PostGIS database. Each batch runs the aircraft and position stages as the
+ * ingestor does (aircraft upsert, positions, {@code aircraft_latest} upsert) and commits, so
+ * the difference in round trips per batch shows up; point {@code DATABASE_URL} at a database
+ * in another zone to see it at real network latency. Not a unit test: run it by hand with
+ * {@code --rows N --batch N --aircraft N --uncached N}. The rows of a batch are spread over
+ * {@code --aircraft} aircraft, as a poll's are, so the {@code aircraft_latest} upsert touches
+ * as many rows as it does in production, and {@code --uncached} of them are dropped from the
+ * id cache before each batch, as aircraft that are new or were evicted would be. All rows
+ * written by the benchmark are deleted at the end.
+ */
+public final class FlightPositionWriterBenchmark {
+
+    private static final String BENCH_HEX_PREFIX = "BE";
+
+    private FlightPositionWriterBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = intArg(args, "--rows", 100_000);
+        int batchSize = intArg(args, "--batch", 500);
+        int aircraft = intArg(args, "--aircraft", batchSize);
+        int uncached = intArg(args, "--uncached", aircraft / 10);
+        String url = env("DATABASE_URL", "jdbc:postgresql://localhost:5432/militarytracker");
+        String user = env("DATABASE_USERNAME", "postgres");
+        String password = env("DATABASE_PASSWORD", "postgres");
+
+        try (Connection conn = DriverManager.getConnection(url + (url.contains("?") ? "&" : "?")
+                + "reWriteBatchedInserts=true", user, password)) {
+            Map<String, Long> ids = ensureBenchAircraft(conn, aircraft);
+            List<AcItem> batch = sampleBatch(batchSize, aircraft);
+
+            try {
+                // Warm up every path so JIT and server-side plan caching do not skew the first run
+                for (FlightPositionRepository.WriteMode mode : FlightPositionRepository.WriteMode.values()) {
+                    run(new FlightPositionRepository(mode), conn, ids, batch, aircraft, uncached, batchSize * 10);
+                }
+
+                for (FlightPositionRepository.WriteMode mode : FlightPositionRepository.WriteMode.values()) {
+                    long[] batchNanos = run(new FlightPositionRepository(mode), conn, ids, batch, aircraft, uncached, rows);
+                    long elapsedNanos = Arrays.stream(batchNanos).sum();
+                    double rowsPerSec = rows / (elapsedNanos / 1_000_000_000.0);
+                    Arrays.sort(batchNanos);
+                    System.out.printf("%-6s %,d rows in %,d ms -> %,.0f rows/sec, batch p50 %.2f ms, p99 %.2f ms "
+                                    + "(batch=%d, uncached=%d)%n",
+                            mode, rows, elapsedNanos / 1_000_000, rowsPerSec,
+                            percentile(batchNanos, 0.50) / 1e6, percentile(batchNanos, 0.99) / 1e6, batchSize, uncached);
+                }
+            } finally {
+                cleanUp(conn, ids.values());
+            }
+        }
+    }
+
+    /**
+     * @return the time each batch took, from the first statement to the commit
+     */
+    private static long[] run(FlightPositionRepository repo, Connection conn, Map<String, Long> benchIds,
+                              List<AcItem> batch, int aircraft, int uncached, int rows) throws Exception {
+        conn.setAutoCommit(false);
+        AircraftIdCache cache = new AircraftIdCache(aircraft);
+        AircraftRepository aircraftRepo = new AircraftRepository(null, cache);
+        aircraftRepo.cacheCommitted(batch, benchIds);
+        long[] batchNanos = new long[(rows + batch.size() - 1) / batch.size()];
+        int b = 0;
+        for (int written = 0; written < rows; written += batch.size()) {
+            List<AcItem> slice = batch.subList(0, Math.min(batch.size(), rows - written));
+            for (int i = 0; i < uncached; i++) {
+                cache.invalidate(benchHex((b * uncached + i) % aircraft));
+            }
+            long start = System.nanoTime();
+            Map<String, Long> ids;
+            if (repo.getWriteMode() == FlightPositionRepository.WriteMode.UNNEST) {
+                ids = repo.upsertAircraftAndPositions(aircraftRepo.lookupBatch(slice), slice, conn);
+            } else {
+                ids = aircraftRepo.upsertAircraftBatch(slice, conn);
+                repo.insertPositions(ids, slice, conn);
+                repo.upsertLatest(ids.values(), conn);
+            }
+            conn.commit();
+            batchNanos[b++] = System.nanoTime() - start;
+            aircraftRepo.cacheCommitted(slice, ids);
+        }
+        return batchNanos;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static Map<String, Long> ensureBenchAircraft(Connection conn, int count) throws Exception {
+        Map<String, Long> ids = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO aircraft (hex_icao, description) VALUES (?, 'position writer benchmark') "
+                        + "ON CONFLICT (hex_icao) DO UPDATE SET updated_at = NOW() RETURNING id")) {
+            for (int i = 0; i < count; i++) {
+                ps.setString(1, benchHex(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    ids.put(benchHex(i), rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void cleanUp(Connection conn, Collection<Long> aircraftIds) throws Exception {
+        conn.setAutoCommit(true);
+        try (PreparedStatement latest = conn.prepareStatement("DELETE FROM aircraft_latest WHERE aircraft_id = ANY(?)");
+             PreparedStatement positions = conn.prepareStatement("DELETE FROM flight_positions WHERE aircraft_id = ANY(?)");
+             PreparedStatement aircraft = conn.prepareStatement("DELETE FROM aircraft WHERE id = ANY(?)")) {
+            Array ids = conn.createArrayOf("bigint", aircraftIds.toArray());
+            latest.setArray(1, ids);
+            latest.executeUpdate();
+            positions.setArray(1, ids);
+            positions.executeUpdate();
+            aircraft.setArray(1, ids);
+            aircraft.executeUpdate();
+        }
+    }
+
+    private static String benchHex(int i) {
+        return String.format(Locale.ROOT, "%s%04X", BENCH_HEX_PREFIX, i);
+    }
+
+    private static List<AcItem> sampleBatch(int size, int aircraft) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<AcItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            AcItem item = new AcItem();
+            item.setHex(benchHex(i % aircraft));
+            item.setFlight("BENCH" + (i % 100));
+            item.setLat(random.nextDouble(-60, 70));
+            item.setLon(random.nextDouble(-180, 180));
+            item.setAltBaro(random.nextInt(0, 45_000));
+            item.setAltGeom(random.nextInt(0, 45_000));
+            item.setGroundSpeed(random.nextDouble(0, 600));
+            item.setTrack(random.nextDouble(0, 360));
+            item.setVerticalRate(random.nextInt(-3000, 3000));
+            item.setSquawk("7000");
+            item.setCategory("A5");
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return Integer.parseInt(args[i + 1]);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,166 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.cache.FlightSessionRegistry;
+import com.militarytracker.dbingestor.cache.FlightSessionRegistry.SessionState;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository.SessionChanges;
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FlightSessionRepositoryTest {
+
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement statement;
+    @Mock
+    private PreparedStatement find;
+    @Mock
+    private ResultSet resultSet;
+    @Mock
+    private ResultSet noSession;
+
+    private FlightSessionRegistry registry;
+    private FlightSessionRepository sessionRepo;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new FlightSessionRegistry(10);
+        sessionRepo = new FlightSessionRepository(registry, Duration.ofMinutes(15));
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(connection.prepareStatement(contains("SELECT id, last_seen_at FROM flight_sessions"))).thenReturn(find);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(find.executeQuery()).thenReturn(noSession);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getLong(1)).thenReturn(99L);
+    }
+
+    @Test
+    void shouldOpenSessionWithDeparturePointOnTakeoff() throws Exception {
+        registry.register(SessionState.onGround(42L, -76.88, 38.81, Instant.now().minusSeconds(60)));
+
+        SessionChanges changes = sessionRepo.updateSessions(Map.of("AE1234", 42L), List.of(createTestItem(1500)), connection);
+
+        assertEquals(1, changes.getOpened());
+        verify(statement).setBoolean(3, true);
+        verify(statement).setDouble(4, -76.88);
+        verify(statement).setDouble(5, 38.81);
+        verify(connection).prepareStatement(contains("UPDATE flight_sessions s"));
+        assertEquals(99L, changes.getStates().get(0).getSessionId());
+    }
+
+    @Test
+    void shouldOpenSessionWithoutObservedTakeoffWhenFirstSeenAirborne() throws Exception {
+        SessionChanges changes = sessionRepo.updateSessions(Map.of("AE1234", 42L), List.of(createTestItem(35000)), connection);
+
+        assertEquals(1, changes.getOpened());
+        verify(find).executeQuery();
+        verify(statement).setBoolean(3, false);
+        verify(statement).setDouble(4, -77.0364);
+    }
+
+    @Test
+    void shouldExtendOpenSessionWithoutCreatingOne() throws Exception {
+        registry.register(SessionState.airborne(42L, 7L, Instant.now().minusSeconds(10)));
+
+        SessionChanges changes = sessionRepo.updateSessions(Map.of("AE1234", 42L),
+                List.of(createTestItem(35000), createTestItem(36000)), connection);
+
+        assertEquals(0, changes.getOpened());
+        assertTrue(changes.getEndReasons().isEmpty());
+        verify(connection, never()).prepareStatement(contains("INSERT INTO flight_sessions"));
+        verify(connection).prepareStatement(contains("UPDATE flight_sessions s"));
+    }
+
+    @Test
+    void shouldEndSessionOnLanding() throws Exception {
+        registry.register(SessionState.airborne(42L, 7L, Instant.now().minusSeconds(10)));
+
+        SessionChanges changes = sessionRepo.updateSessions(Map.of("AE1234", 42L), List.of(createTestItem("ground")), connection);
+        sessionRepo.registerCommitted(changes);
+
+        assertEquals(List.of("landing"), changes.getEndReasons());
+        assertTrue(registry.lookup(42L).isOnGround());
+        assertFalse(registry.lookup(42L).isOpen());
+    }
+
+    @Test
+    void shouldEndSessionOnSignalLossAndStartNewOne() throws Exception {
+        registry.register(SessionState.airborne(42L, 7L, Instant.now().minus(Duration.ofHours(1))));
+
+        SessionChanges changes = sessionRepo.updateSessions(Map.of("AE1234", 42L), List.of(createTestItem(35000)), connection);
+
+        assertEquals(List.of("signal_lost"), changes.getEndReasons());
+        assertEquals(1, changes.getOpened());
+        verify(connection).prepareStatement(contains("end_reason = 'signal_lost'"));
+        verify(statement).setBoolean(3, false);
+    }
+
+    @Test
+    void shouldMeasureSignalLossBetweenRecordTimes() throws Exception {
+        Instant lastSeen = Instant.now().minus(Duration.ofHours(1));
+        registry.register(SessionState.airborne(42L, 7L, lastSeen));
+
+        SessionChanges changes = sessionRepo.updateSessions(Map.of("AE1234", 42L), List.of(createTestItem(35000)),
+                List.of(lastSeen.plusSeconds(60)), connection);
+        sessionRepo.registerCommitted(changes);
+
+        // A backlog position one minute after the last one continues the session
+        assertTrue(changes.getEndReasons().isEmpty());
+        assertEquals(0, changes.getOpened());
+        assertEquals(lastSeen.plusSeconds(60), registry.lookup(42L).getLastSeenAt());
+        verify(connection, never()).prepareStatement(contains("INSERT INTO flight_sessions"));
+    }
+
+    @Test
+    void shouldNotSweepLostSessionsWhileBacklogIsWritten() throws Exception {
+        sessionRepo.backlogStarted();
+
+        assertTrue(sessionRepo.closeLostSessions(connection).getEndReasons().isEmpty());
+        verify(connection, never()).prepareStatement(anyString());
+
+        sessionRepo.backlogFinished();
+        when(resultSet.next()).thenReturn(false);
+        sessionRepo.closeLostSessions(connection);
+        verify(connection).prepareStatement(contains("last_seen_at < NOW()"));
+    }
+
+    @Test
+    void shouldNotOverwriteSessionOpenedSinceBackgroundClose() {
+        registry.register(SessionState.airborne(42L, 8L, Instant.now()));
+
+        registry.replaceIfInSession(7L, SessionState.lost(42L, Instant.now()));
+
+        assertEquals(8L, registry.lookup(42L).getSessionId());
+    }
+
+    private AcItem createTestItem(Object altBaro) {
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        item.setLat(38.8951);
+        item.setLon(-77.0364);
+        item.setAltBaro(altBaro);
+        item.setFlight("RCH405");
+        return item;
+    }
+}
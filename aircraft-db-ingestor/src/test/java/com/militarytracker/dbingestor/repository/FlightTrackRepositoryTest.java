@@ -0,0 +1,122 @@
+package com.militarytracker.dbingestor.repository;
+
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry;
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FlightTrackRepositoryTest {
+
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement statement;
+    @Mock
+    private ResultSet resultSet;
+
+    private ActiveTrackRegistry registry;
+    private FlightTrackRepository trackRepo;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new ActiveTrackRegistry(10);
+        trackRepo = FlightTrackRepository.builder()
+                .registry(registry)
+                .flushing(20, Duration.ofSeconds(60))
+                .segmentation(Duration.ofMinutes(30), true)
+                .build();
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getLong(1)).thenReturn(99L);
+    }
+
+    @Test
+    void shouldAppendToRecentTrack() throws Exception {
+        registry.register(new ActiveTrack(42L, "RCH405", 7L, Instant.now().minusSeconds(10)));
+
+        List<ActiveTrack> tracks = trackRepo.updateOrCreateTrack(42L, createTestItem(35000), connection);
+
+        assertEquals(1, tracks.size());
+        assertEquals(7L, tracks.get(0).getTrackId());
+        assertEquals(1, tracks.get(0).getPendingPoints());
+        assertFalse(tracks.get(0).isClosed());
+        verify(connection, never()).prepareStatement(contains("INSERT INTO flight_tracks"));
+    }
+
+    @Test
+    void shouldStartNewSegmentAfterGap() throws Exception {
+        registry.register(new ActiveTrack(42L, "RCH405", 7L, Instant.now().minus(Duration.ofHours(2))));
+
+        List<ActiveTrack> tracks = trackRepo.updateOrCreateTrack(42L, createTestItem(35000), connection);
+
+        assertEquals(2, tracks.size());
+        assertEquals(7L, tracks.get(0).getTrackId());
+        assertEquals("gap", tracks.get(0).getCloseReason());
+        assertEquals(99L, tracks.get(1).getTrackId());
+        assertFalse(tracks.get(1).isClosed());
+        verify(connection).prepareStatement(contains("SET end_time = last_point_at"));
+    }
+
+    @Test
+    void shouldCloseTrackOnLanding() throws Exception {
+        registry.register(new ActiveTrack(42L, "RCH405", 7L, Instant.now().minusSeconds(10)));
+
+        List<ActiveTrack> tracks = trackRepo.updateOrCreateTrack(42L, createTestItem("ground"), connection);
+
+        assertEquals(1, tracks.size());
+        assertEquals("landing", tracks.get(0).getCloseReason());
+        verify(connection, never()).prepareStatement(contains("INSERT INTO flight_tracks"));
+    }
+
+    @Test
+    void shouldNotStartTrackOnGround() throws Exception {
+        when(resultSet.next()).thenReturn(false);
+
+        List<ActiveTrack> tracks = trackRepo.updateOrCreateTrack(42L, createTestItem("ground"), connection);
+
+        assertTrue(tracks.isEmpty());
+        verify(connection, never()).prepareStatement(contains("INSERT INTO flight_tracks"));
+    }
+
+    @Test
+    void shouldDropClosedTracksFromRegistry() {
+        ActiveTrack track = new ActiveTrack(42L, "RCH405", 7L, Instant.now());
+        registry.register(track);
+
+        trackRepo.registerCommitted(List.of(track.closed("idle")));
+
+        assertEquals(0, registry.size());
+    }
+
+    private AcItem createTestItem(Object altBaro) {
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        item.setLat(38.8951);
+        item.setLon(-77.0364);
+        item.setAltBaro(altBaro);
+        item.setAltGeom(35000);
+        item.setFlight("RCH405");
+        return item;
+    }
+}
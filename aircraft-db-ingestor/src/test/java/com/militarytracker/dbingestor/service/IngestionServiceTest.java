@@ -1,19 +1,41 @@
 package com.militarytracker.dbingestor.service;
 
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import com.militarytracker.dbingestor.cache.PositionChangeFilter;
 import com.militarytracker.dbingestor.repository.AircraftRepository;
+import com.militarytracker.dbingestor.repository.ConsumerOffsetRepository;
 import com.militarytracker.dbingestor.repository.FlightPositionRepository;
+import com.militarytracker.dbingestor.repository.FlightSessionRepository;
 import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import com.militarytracker.dbingestor.repository.IngestionLogRepository;
 import com.militarytracker.model.api.AcItem;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -30,12 +52,22 @@ class IngestionServiceTest {
     private FlightPositionRepository positionRepo;
     @Mock
     private FlightTrackRepository trackRepo;
+    @Mock
+    private ConsumerOffsetRepository offsetRepo;
+    @Mock
+    private IngestionLogRepository logRepo;
+    @Mock
+    private TrackRebuilder catchUpRebuilder;
+    @Mock
+    private FlightSessionRepository sessionRepo;
 
     private IngestionService ingestionService;
 
     @BeforeEach
     void setUp() {
-        ingestionService = new IngestionService(dataSource, aircraftRepo, positionRepo, trackRepo);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .catchUpRebuilder(catchUpRebuilder)
+                .build();
     }
 
     @Test
@@ -84,6 +116,379 @@ class IngestionServiceTest {
         ingestionService.ingest(item);
 
         verify(connection).rollback();
+        verify(aircraftRepo, never()).cacheCommitted(anyList(), any());
+    }
+
+    @Test
+    void shouldIngestBatchInSingleTransaction() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem first = createTestItem("AE1234", 38.0, -77.0);
+        AcItem second = createTestItem("AE5678", 39.0, -76.0);
+        List<AcItem> batch = List.of(first, second);
+        Map<String, Long> ids = Map.of("AE1234", 1L, "AE5678", 2L);
+        when(aircraftRepo.upsertAircraftBatch(batch, connection)).thenReturn(ids);
+
+        int ingested = ingestionService.ingestBatch(batch);
+
+        assertEquals(2, ingested);
+        verify(dataSource, times(1)).getConnection();
+        verify(positionRepo).insertPositions(ids, batch, connection);
+        verify(positionRepo).upsertLatest(Set.of(1L, 2L), connection);
+        verify(trackRepo).updateOrCreateTracks(ids, batch, connection);
+        verify(connection, times(1)).commit();
+        verify(aircraftRepo).cacheCommitted(batch, ids);
+        verify(aircraftRepo, never()).upsertAircraft(any(), any());
+    }
+
+    @Test
+    void shouldUpsertAircraftWithPositionsUnderUnnestWriter() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem item = createTestItem("AE1234", 38.0, -77.0);
+        Map<String, Long> ids = Map.of("AE1234", 1L);
+        when(positionRepo.getWriteMode()).thenReturn(FlightPositionRepository.WriteMode.UNNEST);
+        when(positionRepo.upsertAircraftAndPositions(any(), eq(List.of(item)), eq(connection))).thenReturn(ids);
+
+        int ingested = ingestionService.ingestBatch(List.of(item));
+
+        assertEquals(1, ingested);
+        verify(aircraftRepo).lookupBatch(List.of(item));
+        verify(aircraftRepo, never()).upsertAircraftBatch(anyList(), any());
+        verify(positionRepo, never()).upsertLatest(any(), any());
+        verify(trackRepo).updateOrCreateTracks(ids, List.of(item), connection);
+        verify(aircraftRepo).cacheCommitted(List.of(item), ids);
+    }
+
+    @Test
+    void shouldCopyPositionsAndDeferTracksWhileCatchingUp() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem first = createTestItem("AE1234", 38.0, -77.0);
+        AcItem second = createTestItem("AE5678", 39.0, -76.0);
+        List<AcItem> batch = List.of(first, second);
+        Map<String, Long> ids = Map.of("AE1234", 1L, "AE5678", 2L);
+        Instant since = Instant.parse("2026-01-01T00:00:00Z");
+        List<Instant> seenAt = List.of(since, since.plusSeconds(1));
+        when(aircraftRepo.upsertAircraftBatch(batch, connection)).thenReturn(ids);
+        CatchUpWindow window = new CatchUpWindow();
+
+        int ingested = ingestionService.ingestBatch(batch, seenAt, Map.of(), new BatchStats("test", 2), window);
+
+        assertEquals(2, ingested);
+        verify(positionRepo).copyPositions(ids, batch, seenAt, connection);
+        verify(positionRepo).upsertLatestSince(Set.of(1L, 2L), since, connection);
+        verify(trackRepo, never()).updateOrCreateTracks(any(), any(), any());
+        assertEquals(since, window.getSince());
+        assertEquals(Set.of(1L, 2L), window.getAircraftIds());
+    }
+
+    @Test
+    void shouldKeepOrderOfOneAircraftsPositionsAcrossCatchUpBatches() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        Instant polled = Instant.parse("2026-01-01T00:00:00Z");
+        AcItem noPosition = new AcItem();
+        noPosition.setHex("AE1234");
+        List<AcItem> olderBatch = List.of(createTestItem("AE1234", 38.0, -77.0), noPosition,
+                createTestItem("AE1234", 38.1, -77.0));
+        List<AcItem> newerBatch = List.of(createTestItem("AE1234", 38.2, -77.0));
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenReturn(Map.of("AE1234", 1L));
+        CatchUpWindow window = new CatchUpWindow();
+
+        ingestionService.ingestBatch(olderBatch, List.of(polled, polled.plusSeconds(5), polled.plusSeconds(10)),
+                Map.of(), new BatchStats("test", 3), window);
+        ingestionService.ingestBatch(newerBatch, List.of(polled.plusSeconds(20)),
+                Map.of(), new BatchStats("test", 1), window);
+
+        // Each position keeps the time of its own record rather than sharing the time of writing
+        verify(positionRepo).copyPositions(any(), eq(List.of(olderBatch.get(0), olderBatch.get(2))),
+                eq(List.of(polled, polled.plusSeconds(10))), eq(connection));
+        verify(positionRepo).copyPositions(any(), eq(newerBatch), eq(List.of(polled.plusSeconds(20))), eq(connection));
+        assertEquals(polled, window.getSince());
+    }
+
+    @Test
+    void shouldRunSessionsOnRecordTimesAndHoldTheSweepWhileCatchingUp() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .sessionRepo(sessionRepo)
+                .catchUpRebuilder(catchUpRebuilder)
+                .build();
+        AcItem item = createTestItem("AE1234", 38.0, -77.0);
+        Map<String, Long> ids = Map.of("AE1234", 1L);
+        Instant polled = Instant.parse("2026-01-01T00:00:00Z");
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenReturn(ids);
+        CatchUpWindow window = new CatchUpWindow();
+
+        ingestionService.ingestBatch(List.of(item), List.of(polled), Map.of(), new BatchStats("test", 1), window);
+        ingestionService.ingestBatch(List.of(item), List.of(polled.plusSeconds(5)), Map.of(),
+                new BatchStats("test", 1), window);
+
+        verify(sessionRepo).updateSessions(ids, List.of(item), List.of(polled), connection);
+        verify(sessionRepo).updateSessions(ids, List.of(item), List.of(polled.plusSeconds(5)), connection);
+        verify(sessionRepo, times(1)).backlogStarted();
+        verify(sessionRepo, never()).backlogFinished();
+
+        when(catchUpRebuilder.rebuildAircraft(any(), any(), any(), any())).thenReturn(new TrackRebuilder.Summary());
+        assertTrue(ingestionService.finishCatchUp(window));
+
+        verify(sessionRepo).backlogFinished();
+    }
+
+    @Test
+    void shouldRetryCatchUpRecordsWithTheirOwnTimesAndWithoutTracks() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem first = createTestItem("AE1234", 38.0, -77.0);
+        AcItem second = createTestItem("AE5678", 39.0, -76.0);
+        Instant polled = Instant.parse("2026-01-01T00:00:00Z");
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenThrow(new RuntimeException("DB error"));
+        when(aircraftRepo.upsertAircraft(eq(first), any())).thenReturn(1L);
+        when(aircraftRepo.upsertAircraft(eq(second), any())).thenReturn(2L);
+        CatchUpWindow window = new CatchUpWindow();
+
+        int ingested = ingestionService.ingestBatch(List.of(first, second), List.of(polled, polled.plusSeconds(5)),
+                Map.of(), new BatchStats("test", 2), window);
+
+        assertEquals(2, ingested);
+        verify(positionRepo).copyPositions(Map.of("AE1234", 1L), List.of(first), List.of(polled), connection);
+        verify(positionRepo).copyPositions(Map.of("AE5678", 2L), List.of(second), List.of(polled.plusSeconds(5)),
+                connection);
+        verify(positionRepo).upsertLatestSince(List.of(2L), polled.plusSeconds(5), connection);
+        verify(positionRepo, never()).insertPosition(anyLong(), any(), any());
+        verify(trackRepo, never()).updateOrCreateTrack(anyLong(), any(), any());
+        assertEquals(polled, window.getSince());
+        assertEquals(Set.of(1L, 2L), window.getAircraftIds());
+    }
+
+    @Test
+    void shouldResegmentTracksOfTheWindowWhenCatchUpEnds() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(catchUpRebuilder.rebuildAircraft(any(), any(), any(), any())).thenReturn(new TrackRebuilder.Summary());
+        Instant since = Instant.parse("2026-01-01T00:00:00Z");
+        CatchUpWindow window = new CatchUpWindow();
+        window.openAt(since);
+        window.addAircraft(List.of(1L, 2L));
+
+        assertTrue(ingestionService.finishCatchUp(window));
+
+        InOrder inOrder = inOrder(catchUpRebuilder, trackRepo, connection);
+        inOrder.verify(catchUpRebuilder).rebuildAircraft(eq(Set.of(1L, 2L)), eq(since), any(), eq(connection));
+        inOrder.verify(connection).commit();
+        inOrder.verify(trackRepo).reloadAircraft(Set.of(1L, 2L), dataSource);
+    }
+
+    @Test
+    void shouldExcludeItemsWithoutPositionFromBatch() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem valid = createTestItem("AE1234", 38.0, -77.0);
+        AcItem noPosition = new AcItem();
+        noPosition.setHex("AE5678");
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenReturn(Map.of("AE1234", 1L));
+
+        int ingested = ingestionService.ingestBatch(List.of(valid, noPosition));
+
+        assertEquals(1, ingested);
+        verify(aircraftRepo).upsertAircraftBatch(eq(List.of(valid)), eq(connection));
+    }
+
+    @Test
+    void shouldFallBackToSingleRecordsWhenBatchFails() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem first = createTestItem("AE1234", 38.0, -77.0);
+        AcItem second = createTestItem("AE5678", 39.0, -76.0);
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenThrow(new RuntimeException("DB error"));
+        when(aircraftRepo.upsertAircraft(eq(first), any())).thenReturn(1L);
+        when(aircraftRepo.upsertAircraft(eq(second), any())).thenThrow(new RuntimeException("bad record"));
+
+        Savepoint firstSavepoint = mock(Savepoint.class);
+        Savepoint secondSavepoint = mock(Savepoint.class);
+        when(connection.setSavepoint()).thenReturn(firstSavepoint, secondSavepoint);
+
+        int ingested = ingestionService.ingestBatch(List.of(first, second));
+
+        assertEquals(1, ingested);
+        verify(positionRepo).insertPosition(eq(1L), eq(first), eq(connection));
+        verify(connection).releaseSavepoint(firstSavepoint);
+        verify(connection).rollback(secondSavepoint);
+        // The batch is rolled back, the retry transaction commits once
+        verify(connection).rollback();
+        verify(connection).commit();
+        verify(aircraftRepo).cacheCommitted(List.of(first), Map.of("AE1234", 1L));
+    }
+
+    @Test
+    void shouldStoreOffsetsWithRetriedRecordsInOneTransaction() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .offsetRepo(offsetRepo)
+                .build();
+        AcItem first = createTestItem("AE1234", 38.0, -77.0);
+        AcItem second = createTestItem("AE5678", 39.0, -76.0);
+        Map<TopicPartition, Long> offsets = Map.of(new TopicPartition("military_flights", 0), 11L);
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenThrow(new RuntimeException("DB error"));
+        when(aircraftRepo.upsertAircraft(eq(first), any())).thenReturn(1L);
+        when(aircraftRepo.upsertAircraft(eq(second), any())).thenThrow(new RuntimeException("bad record"));
+
+        ingestionService.ingestBatch(List.of(first, second), offsets);
+
+        InOrder inOrder = inOrder(positionRepo, offsetRepo, connection);
+        inOrder.verify(connection).rollback();
+        inOrder.verify(positionRepo).insertPosition(1L, first, connection);
+        inOrder.verify(offsetRepo).saveOffsets(offsets, connection);
+        inOrder.verify(connection).commit();
+        verify(offsetRepo).saveOffsets(any(), any());
+    }
+
+    @Test
+    void shouldForgetRetriedRecordsWhenRetryDoesNotCommit() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        AcItem item = createTestItem("AE1234", 38.0, -77.0);
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenThrow(new RuntimeException("DB error"));
+        when(aircraftRepo.upsertAircraft(eq(item), any())).thenReturn(1L);
+        doThrow(new SQLException("connection lost")).when(connection).commit();
+
+        assertThrows(DatabaseUnavailableException.class, () -> ingestionService.ingestBatch(List.of(item)));
+
+        verify(trackRepo).evictAircraft(Set.of(1L));
+        verify(aircraftRepo).evictAircraft(argThat(hex -> hex.test("AE1234")));
+    }
+
+    @Test
+    void shouldUpsertLatestForRecordsRetriedUnderUnnestWriter() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo,
+                new FlightPositionRepository(FlightPositionRepository.WriteMode.UNNEST), trackRepo).build();
+        AcItem item = createTestItem("AE1234", 38.0, -77.0);
+        when(aircraftRepo.lookupBatch(anyList())).thenThrow(new RuntimeException("DB error"));
+        when(aircraftRepo.upsertAircraft(eq(item), any())).thenReturn(1L);
+
+        int ingested = ingestionService.ingestBatch(List.of(item));
+
+        assertEquals(1, ingested);
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).prepareStatement(contains("INSERT INTO flight_positions"));
+        inOrder.verify(connection).prepareStatement(contains("INSERT INTO aircraft_latest"));
+        inOrder.verify(connection).commit();
+    }
+
+    @Test
+    void shouldStoreOffsetsInBatchTransaction() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .offsetRepo(offsetRepo)
+                .build();
+        AcItem item = createTestItem("AE1234", 38.8951, -77.0364);
+        Map<String, Long> ids = Map.of("AE1234", 42L);
+        Map<TopicPartition, Long> offsets = Map.of(new TopicPartition("military_flights", 0), 11L);
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenReturn(ids);
+
+        ingestionService.ingestBatch(List.of(item), offsets);
+
+        InOrder inOrder = inOrder(positionRepo, offsetRepo, connection);
+        inOrder.verify(positionRepo).insertPositions(ids, List.of(item), connection);
+        inOrder.verify(offsetRepo).saveOffsets(offsets, connection);
+        inOrder.verify(connection).commit();
+    }
+
+    @Test
+    void shouldStoreOffsetsWhenNoRecordHasPosition() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .offsetRepo(offsetRepo)
+                .build();
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        Map<TopicPartition, Long> offsets = Map.of(new TopicPartition("military_flights", 0), 11L);
+
+        ingestionService.ingestBatch(List.of(item), offsets);
+
+        verify(offsetRepo).saveOffsets(offsets, connection);
+        verify(aircraftRepo, never()).upsertAircraftBatch(anyList(), any());
+    }
+
+    @Test
+    void shouldSkipPositionsUnchangedSinceLastCommittedBatch() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        PositionChangeFilter filter = new PositionChangeFilter(100, 25, 50, 5, 5, Duration.ofSeconds(300));
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .changeFilter(filter)
+                .build();
+        AcItem parked = createTestItem("AE1234", 38.8951, -77.0364);
+        AcItem moving = createTestItem("AE5678", 38.8951, -77.0364);
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenReturn(Map.of("AE1234", 42L, "AE5678", 43L));
+        ingestionService.ingestBatch(List.of(parked, moving));
+
+        AcItem moved = createTestItem("AE5678", 39.0, -77.0364);
+        int written = ingestionService.ingestBatch(List.of(createTestItem("AE1234", 38.8951, -77.0364), moved));
+
+        assertEquals(1, written);
+        verify(positionRepo).insertPositions(any(), eq(List.of(moved)), eq(connection));
+    }
+
+    @Test
+    void shouldLogBatchWithStageTimingsAfterCommit() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .logRepo(logRepo)
+                .build();
+        AcItem positioned = createTestItem("AE1234", 38.0, -77.0);
+        AcItem noPosition = new AcItem();
+        noPosition.setHex("AE5678");
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenReturn(Map.of("AE1234", 1L));
+        BatchStats stats = new BatchStats("kafka:military_flights", 3);
+        stats.addParseFailures(1);
+
+        ingestionService.ingestBatch(List.of(positioned, noPosition), Map.of(), stats);
+
+        InOrder inOrder = inOrder(connection, logRepo);
+        inOrder.verify(connection).commit();
+        inOrder.verify(logRepo).insert(stats, 1, 1, 1, null, connection);
+        for (BatchStats.Stage stage : List.of(BatchStats.Stage.AIRCRAFT, BatchStats.Stage.POSITIONS,
+                BatchStats.Stage.TRACKS, BatchStats.Stage.COMMIT)) {
+            assertNotNull(stats.getMillis(stage), stage.label());
+        }
+    }
+
+    @Test
+    void shouldLogFallbackFailuresWithBatchError() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ingestionService = IngestionService.builder(dataSource, aircraftRepo, positionRepo, trackRepo)
+                .logRepo(logRepo)
+                .build();
+        AcItem item = createTestItem("AE1234", 38.0, -77.0);
+        when(aircraftRepo.upsertAircraftBatch(anyList(), any())).thenThrow(new RuntimeException("batch failed"));
+        when(aircraftRepo.upsertAircraft(any(), any())).thenThrow(new RuntimeException("record failed"));
+        BatchStats stats = new BatchStats("kafka:military_flights", 1);
+
+        int ingested = ingestionService.ingestBatch(List.of(item), Map.of(), stats);
+
+        assertEquals(0, ingested);
+        verify(logRepo).insert(stats, 0, 1, 0, "batch failed", connection);
+    }
+
+    @Test
+    void shouldRegisterIdleTracksAfterFlushCommits() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        ActiveTrack flushed = new ActiveTrack(42L, "RCH405", 7L, Instant.now());
+        when(trackRepo.flushIdleTracks(connection)).thenReturn(List.of(flushed));
+
+        int count = ingestionService.flushIdleTracks();
+
+        assertEquals(1, count);
+        InOrder inOrder = inOrder(connection, trackRepo);
+        inOrder.verify(connection).commit();
+        inOrder.verify(trackRepo).registerCommitted(List.of(flushed));
+    }
+
+    @Test
+    void shouldNotRegisterIdleTracksWhenFlushFails() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(trackRepo.flushIdleTracks(connection)).thenThrow(new RuntimeException("boom"));
+
+        int count = ingestionService.flushIdleTracks();
+
+        assertEquals(0, count);
+        verify(connection).rollback();
+        verify(trackRepo, never()).registerCommitted(anyList());
     }
 
     private AcItem createTestItem(String hex, double lat, double lon) {
@@ -0,0 +1,92 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.repository.PositionPartitionRepository;
+import com.militarytracker.dbingestor.service.PartitionMaintainer.RetentionMode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class PartitionMaintainerTest {
+
+    private static final LocalDate TODAY = LocalDate.parse("2026-10-18");
+
+    @Mock
+    private DataSource dataSource;
+    @Mock
+    private Connection connection;
+    @Mock
+    private PositionPartitionRepository partitionRepo;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(partitionRepo.listPartitions(connection)).thenReturn(List.of(
+                "flight_positions_p20260917",
+                "flight_positions_p20260918",
+                "flight_positions_p20261018",
+                "flight_positions_archive"));
+    }
+
+    @Test
+    void shouldCreatePartitionsAhead() throws Exception {
+        new PartitionMaintainer(dataSource, partitionRepo, 2, 30, RetentionMode.DROP).maintain(TODAY);
+
+        verify(partitionRepo).createPartition(LocalDate.parse("2026-10-18"), connection);
+        verify(partitionRepo).createPartition(LocalDate.parse("2026-10-19"), connection);
+        verify(partitionRepo).createPartition(LocalDate.parse("2026-10-20"), connection);
+        verify(partitionRepo, times(3)).createPartition(any(), eq(connection));
+    }
+
+    @Test
+    void shouldDropOnlyExpiredPartitions() throws Exception {
+        new PartitionMaintainer(dataSource, partitionRepo, 2, 30, RetentionMode.DROP).maintain(TODAY);
+
+        verify(partitionRepo).dropPartition("flight_positions_p20260917", connection);
+        verify(partitionRepo, times(1)).dropPartition(anyString(), any());
+        verify(partitionRepo, never()).detachPartition(anyString(), any());
+    }
+
+    @Test
+    void shouldDetachExpiredPartitionsInDetachMode() throws Exception {
+        new PartitionMaintainer(dataSource, partitionRepo, 2, 30, RetentionMode.DETACH).maintain(TODAY);
+
+        verify(partitionRepo).detachPartition("flight_positions_p20260917", connection);
+        verify(partitionRepo, never()).dropPartition(anyString(), any());
+    }
+
+    @Test
+    void shouldRollBackAndContinueWhenPartitionDdlFails() throws Exception {
+        doThrow(new RuntimeException("lock timeout"))
+                .when(partitionRepo).createPartition(LocalDate.parse("2026-10-18"), connection);
+
+        new PartitionMaintainer(dataSource, partitionRepo, 2, 30, RetentionMode.DROP).maintain(TODAY);
+
+        verify(connection).rollback();
+        verify(partitionRepo).createPartition(LocalDate.parse("2026-10-20"), connection);
+        verify(partitionRepo).dropPartition("flight_positions_p20260917", connection);
+    }
+
+    @Test
+    void shouldParsePartitionDay() {
+        assertEquals(LocalDate.parse("2026-10-18"), PartitionMaintainer.partitionDay("flight_positions_p20261018"));
+        assertNull(PartitionMaintainer.partitionDay("flight_positions_archive"));
+        assertNull(PartitionMaintainer.partitionDay("aircraft"));
+    }
+}
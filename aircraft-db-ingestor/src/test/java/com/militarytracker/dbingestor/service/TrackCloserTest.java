@@ -0,0 +1,52 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.cache.ActiveTrackRegistry.ActiveTrack;
+import com.militarytracker.dbingestor.repository.FlightTrackRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Instant;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TrackCloserTest {
+
+    @Mock
+    private DataSource dataSource;
+    @Mock
+    private Connection connection;
+    @Mock
+    private FlightTrackRepository trackRepo;
+
+    @Test
+    void shouldDropClosedTracksAfterCommit() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        List<ActiveTrack> closed = List.of(new ActiveTrack(42L, "RCH405", 7L, Instant.now()).closed("idle"));
+        when(trackRepo.closeIdleTracks(connection)).thenReturn(closed);
+
+        new TrackCloser(dataSource, trackRepo).run();
+
+        InOrder inOrder = inOrder(connection, trackRepo);
+        inOrder.verify(connection).commit();
+        inOrder.verify(trackRepo).registerCommitted(closed);
+    }
+
+    @Test
+    void shouldRollBackWhenClosingFails() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(trackRepo.closeIdleTracks(connection)).thenThrow(new RuntimeException("boom"));
+
+        new TrackCloser(dataSource, trackRepo).run();
+
+        verify(connection).rollback();
+        verify(trackRepo, never()).registerCommitted(anyList());
+    }
+}
@@ -0,0 +1,138 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository;
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository.PositionVisitor;
+import com.militarytracker.dbingestor.repository.TrackRebuildRepository.TimeRange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class TrackRebuilderTest {
+
+    private static final Instant FROM = Instant.parse("2026-01-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2026-01-02T00:00:00Z");
+
+    @Mock
+    private DataSource dataSource;
+    @Mock
+    private Connection connection;
+    @Mock
+    private TrackRebuildRepository rebuildRepo;
+
+    private TrackRebuilder rebuilder;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        rebuilder = new TrackRebuilder(dataSource, rebuildRepo, Duration.ofMinutes(30), true, 2, 10, 100, 2);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(rebuildRepo.aircraftIdBounds(connection)).thenReturn(new long[]{3, 25});
+        when(rebuildRepo.coverOverlappingTracks(anyLong(), anyLong(), any(), any(), any()))
+                .thenReturn(new TimeRange(FROM, TO));
+    }
+
+    @Test
+    void shouldReplaceTracksAndCheckpointEachChunkInOneTransaction() throws Exception {
+        when(rebuildRepo.loadCheckpoints("run", connection)).thenReturn(Set.of());
+        when(rebuildRepo.deleteTracks(anyLong(), anyLong(), any(), any(), any())).thenReturn(4);
+        when(rebuildRepo.streamPositions(eq(1L), eq(10L), any(), any(), anyInt(), any(), any())).thenAnswer(invocation -> {
+            PositionVisitor visitor = invocation.getArgument(5);
+            visitor.visit(1, 3, "RCH405", FROM, false);
+            visitor.visit(2, 3, "RCH406", FROM, false);
+            visitor.visit(3, 4, "RCH405", FROM, false);
+            return 3L;
+        });
+        // The rebuilder reuses its buffer, so sizes are recorded as the batches are written
+        List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        when(rebuildRepo.insertSegments(anyList(), any())).thenAnswer(invocation -> {
+            int size = invocation.<List<?>>getArgument(0).size();
+            if (size > 0) {
+                batches.add(size);
+            }
+            return size;
+        });
+
+        TrackRebuilder.Summary summary = rebuilder.rebuild("run", FROM, TO);
+
+        assertEquals(3, summary.getChunks());
+        assertEquals(3, summary.getPositionsRead());
+        assertEquals(12, summary.getTracksDeleted());
+        assertEquals(3, summary.getTracksWritten());
+        assertEquals(List.of(2, 1), batches);
+        InOrder inOrder = inOrder(rebuildRepo, connection);
+        inOrder.verify(rebuildRepo).deleteTracks(1L, 10L, FROM, TO, connection);
+        inOrder.verify(rebuildRepo).saveCheckpoint("run", 1L, 10L, FROM, TO, 3L, 4, 3, connection);
+        inOrder.verify(connection).commit();
+    }
+
+    @Test
+    void shouldSkipCheckpointedChunksAndRollBackFailedOnes() throws Exception {
+        when(rebuildRepo.loadCheckpoints("run", connection)).thenReturn(Set.of(1L, 11L));
+        when(rebuildRepo.deleteTracks(eq(21L), eq(30L), any(), any(), any())).thenThrow(new RuntimeException("lock timeout"));
+
+        TrackRebuilder.Summary summary = rebuilder.rebuild("run", FROM, TO);
+
+        assertEquals(2, summary.getSkipped());
+        assertEquals(1, summary.getFailed());
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        verify(rebuildRepo, never()).saveCheckpoint(anyString(), anyLong(), anyLong(), any(), any(), anyLong(),
+                anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void shouldResegmentGivenAircraftInCallersTransaction() throws Exception {
+        Instant recent = Instant.now().minusSeconds(60);
+        Instant widened = recent.minus(Duration.ofHours(2));
+        when(rebuildRepo.coverOverlappingTracks(eq(Set.of(3L)), any(), any(), eq(connection)))
+                .thenReturn(new TimeRange(widened, TO));
+        when(rebuildRepo.deleteTracks(Set.of(3L), widened, TO, connection)).thenReturn(1);
+        when(rebuildRepo.streamPositions(eq(Set.of(3L)), eq(widened), eq(TO), anyInt(), any(), eq(connection)))
+                .thenAnswer(invocation -> {
+                    PositionVisitor visitor = invocation.getArgument(4);
+                    visitor.visit(1, 3, "RCH405", widened, false);
+                    visitor.visit(2, 3, "RCH405", widened.plusSeconds(600), true);
+                    visitor.visit(3, 3, "RCH405", recent, false);
+                    return 3L;
+                });
+        List<TrackSegmenter.Segment> segments = new ArrayList<>();
+        when(rebuildRepo.insertSegments(anyList(), any())).thenAnswer(invocation -> {
+            segments.addAll(invocation.getArgument(0));
+            return invocation.<List<?>>getArgument(0).size();
+        });
+
+        TrackRebuilder.Summary summary = rebuilder.rebuildAircraft(Set.of(3L), recent, TO, connection);
+
+        // The landing ends the first track and the one still within a segment gap stays open
+        assertEquals(1, summary.getTracksDeleted());
+        assertEquals(2, summary.getTracksWritten());
+        assertEquals(List.of(true, false), segments.stream().map(TrackSegmenter.Segment::isClosed).toList());
+        verify(connection, never()).commit();
+        verify(rebuildRepo, never()).saveCheckpoint(anyString(), anyLong(), anyLong(), any(), any(), anyLong(),
+                anyInt(), anyInt(), any());
+    }
+}
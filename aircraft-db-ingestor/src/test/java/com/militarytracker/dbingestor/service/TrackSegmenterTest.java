@@ -0,0 +1,93 @@
+package com.militarytracker.dbingestor.service;
+
+import com.militarytracker.dbingestor.service.TrackSegmenter.Segment;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackSegmenterTest {
+
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+    private static final Duration GAP = Duration.ofMinutes(30);
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    @Test
+    void shouldKeepPositionsWithinGapInOneClosedTrack() {
+        TrackSegmenter segmenter = new TrackSegmenter(GAP, true, T0.plusSeconds(86_400), segments::add);
+
+        segmenter.accept(1, 42, "RCH405", T0, false);
+        segmenter.accept(2, 42, "RCH405", T0.plusSeconds(60), false);
+        segmenter.accept(3, 42, "RCH405", T0.plusSeconds(60), false);
+        segmenter.finish();
+
+        assertEquals(1, segments.size());
+        Segment segment = segments.get(0);
+        assertEquals(T0, segment.getStartAt());
+        assertEquals(1, segment.getFirstId());
+        assertEquals(T0.plusSeconds(60), segment.getLastAt());
+        assertEquals(3, segment.getLastId());
+        assertTrue(segment.isClosed());
+    }
+
+    @Test
+    void shouldStartNewSegmentAfterGap() {
+        TrackSegmenter segmenter = new TrackSegmenter(GAP, true, T0.plusSeconds(86_400), segments::add);
+
+        segmenter.accept(1, 42, "RCH405", T0, false);
+        segmenter.accept(2, 42, "RCH405", T0.plus(GAP).plusSeconds(1), false);
+        segmenter.finish();
+
+        assertEquals(2, segments.size());
+        assertEquals(1, segments.get(0).getLastId());
+        assertEquals(2, segments.get(1).getFirstId());
+    }
+
+    @Test
+    void shouldEndSegmentOnLandingAndNotStartOneOnGround() {
+        TrackSegmenter segmenter = new TrackSegmenter(GAP, true, T0.plusSeconds(86_400), segments::add);
+
+        segmenter.accept(1, 42, "RCH405", T0, false);
+        segmenter.accept(2, 42, "RCH405", T0.plusSeconds(60), true);
+        segmenter.accept(3, 42, "RCH405", T0.plusSeconds(120), true);
+        segmenter.accept(4, 42, "RCH405", T0.plusSeconds(600), false);
+        segmenter.finish();
+
+        assertEquals(2, segments.size());
+        assertEquals(2, segments.get(0).getLastId());
+        assertEquals(4, segments.get(1).getFirstId());
+    }
+
+    @Test
+    void shouldKeepGroundPositionsWhenNotClosingOnGround() {
+        TrackSegmenter segmenter = new TrackSegmenter(GAP, false, T0.plusSeconds(86_400), segments::add);
+
+        segmenter.accept(1, 42, "RCH405", T0, true);
+        segmenter.accept(2, 42, "RCH405", T0.plusSeconds(60), false);
+        segmenter.finish();
+
+        assertEquals(1, segments.size());
+        assertEquals(1, segments.get(0).getFirstId());
+    }
+
+    @Test
+    void shouldSplitByAircraftAndFlightAndLeaveRecentSegmentOpen() {
+        TrackSegmenter segmenter = new TrackSegmenter(GAP, true, T0.plusSeconds(30), segments::add);
+
+        segmenter.accept(1, 42, "RCH405", T0, false);
+        segmenter.accept(2, 42, "RCH406", T0.plusSeconds(60), false);
+        segmenter.accept(3, 43, "RCH406", T0.plusSeconds(60), false);
+        segmenter.finish();
+
+        assertEquals(3, segments.size());
+        assertTrue(segments.get(0).isClosed());
+        assertFalse(segments.get(1).isClosed());
+        assertEquals(43, segments.get(2).getAircraftId());
+        assertFalse(segments.get(2).isClosed());
+    }
+}
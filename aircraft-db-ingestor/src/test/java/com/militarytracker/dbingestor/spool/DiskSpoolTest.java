@@ -0,0 +1,134 @@
+package com.militarytracker.dbingestor.spool;
+
+import com.militarytracker.model.api.AcItem;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskSpoolTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final TopicPartition PARTITION = new TopicPartition("military_flights", 0);
+    private static final Instant SEEN_AT = Instant.parse("2026-01-01T00:00:00Z");
+
+    @TempDir
+    private Path dir;
+
+    @Test
+    void shouldReplayBatchesInAppendOrder() throws Exception {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES, 4);
+        assertTrue(spool.append(List.of(createTestItem("AE0001")), List.of(SEEN_AT), Map.of(PARTITION, 5L)));
+        assertTrue(spool.append(List.of(createTestItem("AE0002")), List.of(SEEN_AT.plusSeconds(15)),
+                Map.of(PARTITION, 9L)));
+
+        DiskSpool.SpooledBatch first = spool.peek();
+        assertEquals(1, first.getItems().size());
+        assertEquals("AE0001", first.getItems().get(0).getHex());
+        assertEquals(38.8951, first.getItems().get(0).getLat());
+        assertEquals(35000, first.getItems().get(0).getAltBaroFeet());
+        assertEquals(Map.of(PARTITION, 5L), first.getNextOffsets());
+        assertEquals(List.of(SEEN_AT), first.getSeenAt());
+        assertEquals("AE0001", spool.peek().getItems().get(0).getHex());
+
+        spool.confirm(first);
+        DiskSpool.SpooledBatch second = spool.peek();
+        assertEquals("AE0002", second.getItems().get(0).getHex());
+        assertEquals(List.of(SEEN_AT.plusSeconds(15)), second.getSeenAt());
+        spool.confirm(second);
+
+        assertTrue(spool.isEmpty());
+        assertNull(spool.peek());
+    }
+
+    @Test
+    void shouldDeleteSegmentOnceEverythingInItIsConfirmed() throws Exception {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES, 4);
+        spool.append(List.of(createTestItem("AE0001")), List.of(SEEN_AT), Map.of());
+        assertEquals(1, segmentFiles());
+
+        spool.confirm(spool.peek());
+
+        assertEquals(0, segmentFiles());
+    }
+
+    @Test
+    void shouldRollToNewSegmentAndRefuseBatchesWhenFull() throws Exception {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES, 2);
+        int appended = 0;
+        while (spool.append(List.of(createTestItem("AE0001")), List.of(SEEN_AT), Map.of())) {
+            appended++;
+        }
+
+        assertEquals(2, segmentFiles());
+        assertEquals(appended, spool.size());
+        assertTrue(appended > 2);
+    }
+
+    @Test
+    void shouldRecoverPendingBatchesAfterRestart() throws Exception {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES, 4);
+        spool.append(List.of(createTestItem("AE0001")), List.of(SEEN_AT), Map.of(PARTITION, 5L));
+        spool.append(List.of(createTestItem("AE0002")), List.of(SEEN_AT), Map.of(PARTITION, 9L));
+        spool.confirm(spool.peek());
+
+        DiskSpool reopened = new DiskSpool(dir, SEGMENT_BYTES, 4);
+
+        assertEquals(1, reopened.size());
+        assertEquals("AE0002", reopened.peek().getItems().get(0).getHex());
+        assertEquals(Map.of(PARTITION, 9L), reopened.spooledOffsets());
+        reopened.append(List.of(createTestItem("AE0003")), List.of(SEEN_AT), Map.of());
+        reopened.confirm(reopened.peek());
+        assertEquals("AE0003", reopened.peek().getItems().get(0).getHex());
+    }
+
+    @Test
+    void shouldIgnoreTornRecordAfterRestart() throws Exception {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES, 4);
+        spool.append(List.of(createTestItem("AE0001")), List.of(SEEN_AT), Map.of());
+        spool.append(List.of(createTestItem("AE0002")), List.of(SEEN_AT), Map.of());
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        byte[] bytes = Files.readAllBytes(segment);
+        int second = 8 + ByteBuffer.wrap(bytes).getInt(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // Corrupts the payload of the second record, as if the crash came before it was flushed
+            file.seek(second + 8);
+            file.write(new byte[16]);
+        }
+
+        DiskSpool reopened = new DiskSpool(dir, SEGMENT_BYTES, 4);
+
+        assertEquals(1, reopened.size());
+        reopened.confirm(reopened.peek());
+        assertNull(reopened.peek());
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private AcItem createTestItem(String hex) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setLat(38.8951);
+        item.setLon(-77.0364);
+        item.setAltBaro(35000);
+        item.setFlight("RCH405");
+        return item;
+    }
+}
@@ -20,6 +20,10 @@ public final class DataSourceFactory {
         hikari.setIdleTimeout(600000);
         hikari.setMaxLifetime(1800000);
 
+        if (dbConfig.hasPath("rewrite-batched-inserts") && dbConfig.getBoolean("rewrite-batched-inserts")) {
+            hikari.addDataSourceProperty("reWriteBatchedInserts", "true");
+        }
+
         if (dbConfig.hasPath("ssl.enabled") && dbConfig.getBoolean("ssl.enabled")) {
             hikari.addDataSourceProperty("ssl", "true");
             hikari.addDataSourceProperty("sslmode", dbConfig.getString("ssl.mode"));
@@ -2,9 +2,14 @@ package com.militarytracker.common.kafka;
 
 import com.typesafe.config.Config;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.RangeAssignor;
+import org.apache.kafka.clients.consumer.RoundRobinAssignor;
+import org.apache.kafka.clients.consumer.StickyAssignor;
 import org.apache.kafka.common.serialization.StringDeserializer;
 
+import java.util.Locale;
 import java.util.Properties;
 
 public final class KafkaConsumerFactory {
@@ -20,6 +25,10 @@ public final class KafkaConsumerFactory {
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        if (kafkaConfig.hasPath("partition-assignment-strategy")) {
+            props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG,
+                    assignorClass(kafkaConfig.getString("partition-assignment-strategy")));
+        }
 
         if (kafkaConfig.hasPath("ssl.enabled") && kafkaConfig.getBoolean("ssl.enabled")) {
             props.put("security.protocol", "SSL");
@@ -46,4 +55,18 @@ public final class KafkaConsumerFactory {
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
         return props;
     }
+
+    /**
+     * Maps "range", "round-robin", "sticky" or "cooperative-sticky" to its assignor class;
+     * anything else is taken to be a class name.
+     */
+    static String assignorClass(String strategy) {
+        return switch (strategy.trim().toLowerCase(Locale.ROOT)) {
+            case "range" -> RangeAssignor.class.getName();
+            case "round-robin" -> RoundRobinAssignor.class.getName();
+            case "sticky" -> StickyAssignor.class.getName();
+            case "cooperative-sticky" -> CooperativeStickyAssignor.class.getName();
+            default -> strategy.trim();
+        };
+    }
 }
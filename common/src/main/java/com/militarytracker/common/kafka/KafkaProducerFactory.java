@@ -3,8 +3,10 @@ package com.militarytracker.common.kafka;
 import com.typesafe.config.Config;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
+import java.nio.ByteBuffer;
 import java.util.Properties;
 
 public final class KafkaProducerFactory {
@@ -13,10 +15,25 @@ public final class KafkaProducerFactory {
     }
 
     public static KafkaProducer<String, String> create(Config kafkaConfig) {
+        Properties props = producerProperties(kafkaConfig);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        return new KafkaProducer<>(props);
+    }
+
+    /**
+     * Creates a producer whose values are already-encoded bytes, e.g. JSON passed through as
+     * received. Consumers reading values as strings see the same records.
+     */
+    public static KafkaProducer<String, ByteBuffer> createRaw(Config kafkaConfig) {
+        Properties props = producerProperties(kafkaConfig);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteBufferSerializer.class.getName());
+        return new KafkaProducer<>(props);
+    }
+
+    private static Properties producerProperties(Config kafkaConfig) {
         Properties props = new Properties();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaConfig.getString("bootstrap-servers"));
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
         props.put(ProducerConfig.ACKS_CONFIG, kafkaConfig.getString("acks"));
 
         if (kafkaConfig.hasPath("ssl.enabled") && kafkaConfig.getBoolean("ssl.enabled")) {
@@ -30,8 +47,7 @@ public final class KafkaProducerFactory {
                 props.put("ssl.keystore.password", kafkaConfig.getString("ssl.keystore.password"));
             }
         }
-
-        return new KafkaProducer<>(props);
+        return props;
     }
 
     public static Properties buildProperties(Config kafkaConfig) {
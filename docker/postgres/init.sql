@@ -67,3 +67,145 @@ CREATE TABLE ingestion_log (
 );
 
 CREATE INDEX idx_ingestion_log_time ON ingestion_log (started_at DESC);
+
+ALTER TABLE flight_tracks ADD COLUMN last_point_at TIMESTAMPTZ;
+UPDATE flight_tracks SET last_point_at = COALESCE(end_time, updated_at, start_time);
+ALTER TABLE flight_tracks ALTER COLUMN last_point_at SET DEFAULT NOW();
+ALTER TABLE flight_tracks ALTER COLUMN last_point_at SET NOT NULL;
+
+CREATE INDEX idx_flight_tracks_open ON flight_tracks (aircraft_id, flight) WHERE end_time IS NULL;
+
+CREATE TABLE flight_positions_partitioned (
+    id              BIGINT          NOT NULL DEFAULT nextval('flight_positions_id_seq'),
+    aircraft_id     BIGINT          NOT NULL REFERENCES aircraft(id),
+    flight          VARCHAR(8),
+    position        GEOMETRY(POINTZ, 4326) NOT NULL,
+    alt_baro        INTEGER,
+    alt_geom        INTEGER,
+    ground_speed    REAL,
+    track           REAL,
+    vertical_rate   INTEGER,
+    squawk          VARCHAR(4),
+    category        VARCHAR(4),
+    on_ground       BOOLEAN         DEFAULT FALSE,
+    seen_at         TIMESTAMPTZ     NOT NULL,
+    ingested_at     TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+
+    PRIMARY KEY (id, seen_at)
+) PARTITION BY RANGE (seen_at);
+
+DO $$
+DECLARE
+    day DATE;
+    last_day DATE := (NOW() AT TIME ZONE 'UTC')::date + 7;
+BEGIN
+    SELECT COALESCE(MIN(seen_at AT TIME ZONE 'UTC')::date, (NOW() AT TIME ZONE 'UTC')::date)
+    INTO day FROM flight_positions;
+    WHILE day <= last_day LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF flight_positions_partitioned FOR VALUES FROM (%L) TO (%L)',
+                       'flight_positions_p' || to_char(day, 'YYYYMMDD'),
+                       day::timestamp AT TIME ZONE 'UTC',
+                       (day + 1)::timestamp AT TIME ZONE 'UTC');
+        day := day + 1;
+    END LOOP;
+END $$;
+
+INSERT INTO flight_positions_partitioned
+    (id, aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+     vertical_rate, squawk, category, on_ground, seen_at, ingested_at)
+SELECT id, aircraft_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+       vertical_rate, squawk, category, on_ground, seen_at, ingested_at
+FROM flight_positions;
+
+ALTER SEQUENCE flight_positions_id_seq OWNED BY NONE;
+DROP TABLE flight_positions;
+ALTER TABLE flight_positions_partitioned RENAME TO flight_positions;
+ALTER TABLE flight_positions RENAME CONSTRAINT flight_positions_partitioned_pkey TO flight_positions_pkey;
+ALTER SEQUENCE flight_positions_id_seq OWNED BY flight_positions.id;
+
+CREATE INDEX idx_flight_positions_geom ON flight_positions USING GIST (position);
+CREATE INDEX idx_flight_positions_seen ON flight_positions (seen_at DESC);
+CREATE INDEX idx_flight_positions_aircraft_time ON flight_positions (aircraft_id, seen_at DESC);
+CREATE INDEX idx_flight_positions_flight ON flight_positions (flight);
+
+CREATE TABLE consumer_offsets (
+    consumer_group  VARCHAR(255)    NOT NULL,
+    topic           VARCHAR(255)    NOT NULL,
+    partition       INTEGER         NOT NULL,
+    next_offset     BIGINT          NOT NULL,
+    updated_at      TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+
+    PRIMARY KEY (consumer_group, topic, partition)
+);
+
+CREATE TABLE aircraft_latest (
+    aircraft_id     BIGINT          PRIMARY KEY REFERENCES aircraft(id),
+    position_id     BIGINT          NOT NULL,
+    flight          VARCHAR(8),
+    position        GEOMETRY(POINTZ, 4326) NOT NULL,
+    alt_baro        INTEGER,
+    alt_geom        INTEGER,
+    ground_speed    REAL,
+    track           REAL,
+    vertical_rate   INTEGER,
+    squawk          VARCHAR(4),
+    category        VARCHAR(4),
+    on_ground       BOOLEAN         DEFAULT FALSE,
+    seen_at         TIMESTAMPTZ     NOT NULL
+);
+
+CREATE INDEX idx_aircraft_latest_geom ON aircraft_latest USING GIST (position);
+CREATE INDEX idx_aircraft_latest_seen ON aircraft_latest (seen_at DESC);
+
+INSERT INTO aircraft_latest
+    (aircraft_id, position_id, flight, position, alt_baro, alt_geom, ground_speed, track,
+     vertical_rate, squawk, category, on_ground, seen_at)
+SELECT DISTINCT ON (aircraft_id)
+    aircraft_id, id, flight, position, alt_baro, alt_geom, ground_speed, track,
+    vertical_rate, squawk, category, on_ground, seen_at
+FROM flight_positions
+ORDER BY aircraft_id, seen_at DESC, id DESC;
+
+ALTER TABLE ingestion_log
+    ADD COLUMN records_skipped  INTEGER     NOT NULL DEFAULT 0,
+    ADD COLUMN parse_ms         DOUBLE PRECISION,
+    ADD COLUMN aircraft_ms      DOUBLE PRECISION,
+    ADD COLUMN positions_ms     DOUBLE PRECISION,
+    ADD COLUMN tracks_ms        DOUBLE PRECISION,
+    ADD COLUMN commit_ms        DOUBLE PRECISION;
+
+CREATE TABLE flight_sessions (
+    id                  BIGSERIAL       PRIMARY KEY,
+    aircraft_id         BIGINT          NOT NULL REFERENCES aircraft(id),
+    callsign            VARCHAR(8),
+    start_time          TIMESTAMPTZ     NOT NULL,
+    end_time            TIMESTAMPTZ,
+    end_reason          VARCHAR(16),
+    takeoff_observed    BOOLEAN         NOT NULL DEFAULT FALSE,
+    departure_position  GEOMETRY(POINT, 4326),
+    arrival_position    GEOMETRY(POINT, 4326),
+    last_position       GEOMETRY(POINT, 4326),
+    max_altitude        INTEGER,
+    point_count         INTEGER         NOT NULL DEFAULT 0,
+    last_seen_at        TIMESTAMPTZ     NOT NULL,
+    created_at          TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+    updated_at          TIMESTAMPTZ     NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX idx_flight_sessions_aircraft ON flight_sessions (aircraft_id, start_time DESC);
+CREATE INDEX idx_flight_sessions_time ON flight_sessions (start_time DESC);
+CREATE INDEX idx_flight_sessions_open ON flight_sessions (last_seen_at) WHERE end_time IS NULL;
+
+CREATE TABLE track_rebuild_checkpoints (
+    run_id              VARCHAR(64)     NOT NULL,
+    first_aircraft_id   BIGINT          NOT NULL,
+    last_aircraft_id    BIGINT          NOT NULL,
+    range_start         TIMESTAMPTZ     NOT NULL,
+    range_end           TIMESTAMPTZ     NOT NULL,
+    positions_read      BIGINT          NOT NULL,
+    tracks_deleted      INTEGER         NOT NULL,
+    tracks_written      INTEGER         NOT NULL,
+    completed_at        TIMESTAMPTZ     NOT NULL DEFAULT NOW(),
+
+    PRIMARY KEY (run_id, first_aircraft_id)
+);
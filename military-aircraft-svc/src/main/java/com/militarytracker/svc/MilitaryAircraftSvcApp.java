@@ -5,13 +5,25 @@ import com.militarytracker.common.kafka.KafkaProducerFactory;
 import com.militarytracker.common.lifecycle.HealthCheckServer;
 import com.militarytracker.common.lifecycle.ShutdownHook;
 import com.militarytracker.common.metrics.MetricsServer;
+import com.militarytracker.svc.cache.KinematicStateCache;
 import com.militarytracker.svc.poller.AdsbApiClient;
 import com.militarytracker.svc.poller.AdsbApiPoller;
+import com.militarytracker.svc.poller.AdsbApiPoller.PublishMode;
+import com.militarytracker.svc.poller.AircraftFeed;
+import com.militarytracker.svc.poller.GeoTile;
+import com.militarytracker.svc.poller.TiledAdsbApiClient;
 import com.militarytracker.svc.publisher.FlightKafkaPublisher;
+import com.militarytracker.svc.publisher.RawFlightKafkaPublisher;
+import com.typesafe.config.Config;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -28,13 +40,47 @@ public class MilitaryAircraftSvcApp {
         MetricsServer metricsServer = new MetricsServer(config.getInt("metrics.port"));
         HealthCheckServer healthServer = new HealthCheckServer(config.getInt("health.port"));
 
-        KafkaProducer<String, String> producer = KafkaProducerFactory.create(config.getSubConfig("kafka"));
         String topic = config.getString("kafka.topic");
-        FlightKafkaPublisher publisher = new FlightKafkaPublisher(producer, topic);
-
         String apiUrl = config.getString("adsb.api-url");
-        AdsbApiClient apiClient = new AdsbApiClient(apiUrl);
-        AdsbApiPoller poller = new AdsbApiPoller(apiClient, publisher);
+        PublishMode publishMode = PublishMode.fromConfig(config.getString("adsb.publish-mode"));
+        boolean tiled = config.getBoolean("adsb.tiles.enabled");
+        if (tiled && publishMode == PublishMode.PASSTHROUGH) {
+            throw new IllegalArgumentException("adsb.tiles.enabled cannot be combined with adsb.publish-mode "
+                    + "passthrough: a tiled poll has no single response body to pass through");
+        }
+        List<AdsbApiClient> endpoints = new ArrayList<>();
+        if (!tiled) {
+            endpoints.add(new AdsbApiClient(apiUrl));
+            for (String url : config.getString("adsb.additional-api-urls").split(",")) {
+                if (!url.isBlank()) {
+                    endpoints.add(new AdsbApiClient(url.trim()));
+                }
+            }
+        }
+        List<? extends AircraftFeed> feeds = tiled
+                ? List.of(createTiledClient(config.getSubConfig("adsb.tiles")))
+                : endpoints;
+        KinematicStateCache changeCache = null;
+        if (config.getBoolean("adsb.dead-reckoning.enabled")) {
+            changeCache = new KinematicStateCache(
+                    config.getInt("adsb.dead-reckoning.max-size"),
+                    config.getInt("adsb.dead-reckoning.position-meters"),
+                    config.getInt("adsb.dead-reckoning.altitude-feet"),
+                    TimeUnit.SECONDS.toMillis(config.getLong("adsb.dead-reckoning.max-silence-seconds")));
+        }
+        AdsbApiPoller poller;
+        AutoCloseable closePublisher;
+        if (publishMode == PublishMode.PASSTHROUGH) {
+            KafkaProducer<String, ByteBuffer> producer = KafkaProducerFactory.createRaw(config.getSubConfig("kafka"));
+            RawFlightKafkaPublisher publisher = new RawFlightKafkaPublisher(producer, topic);
+            poller = new AdsbApiPoller(endpoints, publisher, changeCache);
+            closePublisher = publisher::close;
+        } else {
+            KafkaProducer<String, String> producer = KafkaProducerFactory.create(config.getSubConfig("kafka"));
+            FlightKafkaPublisher publisher = new FlightKafkaPublisher(producer, topic);
+            poller = new AdsbApiPoller(feeds, publisher, publishMode, changeCache);
+            closePublisher = publisher::close;
+        }
 
         int pollInterval = config.getInt("adsb.poll-interval-seconds");
         ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
@@ -45,13 +91,28 @@ public class MilitaryAircraftSvcApp {
         scheduler.scheduleAtFixedRate(poller, 0, pollInterval, TimeUnit.SECONDS);
 
         healthServer.setReady(true);
-        LOG.info("Military Aircraft SVC started. Polling every {}s from {}", pollInterval, apiUrl);
+        LOG.info("Military Aircraft SVC started. Polling every {}s from {} (publish mode: {}, dead reckoning: {})",
+                pollInterval, feeds.stream().map(AircraftFeed::getApiUrl).toList(), publishMode, changeCache != null);
 
         new ShutdownHook()
                 .register(() -> scheduler.shutdown())
-                .register(publisher::close)
+                .register(closePublisher)
                 .register(metricsServer::stop)
                 .register(healthServer::stop)
                 .install();
     }
+
+    private static TiledAdsbApiClient createTiledClient(Config tiles) {
+        GeoTile area = new GeoTile(tiles.getDouble("min-lat"), tiles.getDouble("max-lat"),
+                tiles.getDouble("min-lon"), tiles.getDouble("max-lon"));
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        TiledAdsbApiClient client = new TiledAdsbApiClient(tiles.getString("point-url"), httpClient, area,
+                tiles.getInt("max-aircraft"), tiles.getInt("merge-below-aircraft"),
+                Duration.ofSeconds(tiles.getInt("latency-budget-seconds")), tiles.getInt("max-depth"),
+                tiles.getInt("max-concurrency"), tiles.getBoolean("military-only"));
+        LOG.info("Covering {} with {} tiles", area, client.getTiles().size());
+        return client;
+    }
 }
@@ -0,0 +1,163 @@
+package com.militarytracker.svc.cache;
+
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.svc.metrics.SvcMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded LRU map of hex to the kinematic state of the last record published for that
+ * aircraft, used to publish only records that carry new information. From the last published
+ * position, ground speed and track it dead-reckons where the aircraft should be when the new
+ * record was observed, and from its altitude and vertical rate how high; a record is
+ * published when the observed position or altitude deviates from that prediction by more than
+ * the thresholds, when its squawk, flight or on-ground state changed, when it gained or lost a
+ * position, or when nothing was published for the aircraft for the maximum silence interval.
+ * An unknown aircraft always
+ * passes. Aircraft flying straight and level at constant speed are thus published once per
+ * silence interval, while manoeuvring ones are published on every poll.
+ */
+public class KinematicStateCache {
+
+    static final String REASON_NEW = "new";
+    static final String REASON_SILENCE = "silence";
+    static final String REASON_IDENTITY = "identity";
+    static final String REASON_POSITION = "position";
+    static final String REASON_ALTITUDE = "altitude";
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+    private static final double METERS_PER_SECOND_PER_KNOT = 1852.0 / 3600;
+
+    private final int maxSize;
+    private final double positionMeters;
+    private final int altitudeFeet;
+    private final long maxSilenceMillis;
+    private final LinkedHashMap<String, State> states;
+
+    public KinematicStateCache(int maxSize, double positionMeters, int altitudeFeet, long maxSilenceMillis) {
+        this.maxSize = maxSize;
+        this.positionMeters = positionMeters;
+        this.altitudeFeet = altitudeFeet;
+        this.maxSilenceMillis = maxSilenceMillis;
+        this.states = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+                return size() > KinematicStateCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Decides whether a record should be published and, if so, records it as the aircraft's
+     * last published state.
+     *
+     * @param nowMillis when the record was observed, in epoch milliseconds; the feed's
+     *                  {@code now} minus the aircraft's {@code seen_pos}, not the time of the poll
+     */
+    public synchronized boolean shouldPublish(AcItem item, long nowMillis) {
+        State previous = states.get(item.getHex());
+        String reason = previous == null ? REASON_NEW : deviation(previous, item, nowMillis);
+        if (reason == null) {
+            SvcMetrics.RECORDS_SUPPRESSED.inc();
+            return false;
+        }
+        states.put(item.getHex(), new State(item, nowMillis));
+        SvcMetrics.RECORDS_PASSED.labels(reason).inc();
+        return true;
+    }
+
+    public synchronized int size() {
+        return states.size();
+    }
+
+    /**
+     * @return why the record must be published, or null if it matches the prediction
+     */
+    private String deviation(State previous, AcItem item, long nowMillis) {
+        if (nowMillis - previous.publishedAt >= maxSilenceMillis) {
+            return REASON_SILENCE;
+        }
+        if (!Objects.equals(previous.squawk, item.getSquawk())
+                || !Objects.equals(previous.flight, item.getFlight())
+                || previous.onGround != item.isOnGround()
+                || previous.hasPosition() != hasPosition(item)) {
+            return REASON_IDENTITY;
+        }
+        double seconds = (nowMillis - previous.publishedAt) / 1000.0;
+        if (previous.hasPosition()) {
+            double[] predicted = previous.predictPosition(seconds);
+            if (distanceMeters(predicted[0], predicted[1], item.getLat(), item.getLon()) > positionMeters) {
+                return REASON_POSITION;
+            }
+        }
+        Integer altitude = item.getAltBaroFeet();
+        if (previous.altitude == null || altitude == null) {
+            return (previous.altitude == null) != (altitude == null) ? REASON_ALTITUDE : null;
+        }
+        return Math.abs(previous.predictAltitude(seconds) - altitude) > altitudeFeet ? REASON_ALTITUDE : null;
+    }
+
+    private static boolean hasPosition(AcItem item) {
+        return item.getLat() != null && item.getLon() != null;
+    }
+
+    /**
+     * Equirectangular approximation, accurate to well under a meter at threshold distances.
+     */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+
+    private static final class State {
+        private final String squawk;
+        private final String flight;
+        private final boolean onGround;
+        private final Double lat;
+        private final Double lon;
+        private final Double groundSpeed;
+        private final Double track;
+        private final Integer altitude;
+        private final Integer verticalRate;
+        private final long publishedAt;
+
+        private State(AcItem item, long publishedAt) {
+            this.squawk = item.getSquawk();
+            this.flight = item.getFlight();
+            this.onGround = item.isOnGround();
+            this.lat = item.getLat();
+            this.lon = item.getLon();
+            this.groundSpeed = item.getGroundSpeed();
+            this.track = item.getTrack();
+            this.altitude = item.getAltBaroFeet();
+            this.verticalRate = item.getVerticalRate();
+            this.publishedAt = publishedAt;
+        }
+
+        private boolean hasPosition() {
+            return lat != null && lon != null;
+        }
+
+        /**
+         * @return {lat, lon} after flying the last ground speed and track for the given time,
+         *         or the last position if either is unknown
+         */
+        private double[] predictPosition(double seconds) {
+            if (groundSpeed == null || track == null) {
+                return new double[] {lat, lon};
+            }
+            double meters = groundSpeed * METERS_PER_SECOND_PER_KNOT * seconds;
+            double bearing = Math.toRadians(track);
+            double dLat = meters * Math.cos(bearing) / EARTH_RADIUS_METERS;
+            double dLon = meters * Math.sin(bearing) / (EARTH_RADIUS_METERS * Math.cos(Math.toRadians(lat)));
+            return new double[] {lat + Math.toDegrees(dLat), lon + Math.toDegrees(dLon)};
+        }
+
+        private double predictAltitude(double seconds) {
+            return verticalRate != null ? altitude + verticalRate * seconds / 60 : altitude;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.militarytracker.svc.metrics;
 
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 
 public final class SvcMetrics {
 
@@ -25,6 +26,81 @@ public final class SvcMetrics {
             .help("Rate of aircraft records retrieved over time")
             .register();
 
+    public static final Gauge FIRST_RECORD_SECONDS = Gauge.build()
+            .name("poll_first_record_seconds")
+            .help("Time from the start of the last poll until its first aircraft record was handed to Kafka")
+            .register();
+
+    public static final Counter PASSTHROUGH_INVALID = Counter.build()
+            .name("passthrough_records_invalid")
+            .help("Count of aircraft elements skipped in passthrough mode because they could not be published")
+            .labelNames("reason")
+            .register();
+
+    public static final Counter RECORDS_SUPPRESSED = Counter.build()
+            .name("records_suppressed")
+            .help("Count of aircraft records not published because they matched the dead-reckoned prediction")
+            .register();
+
+    public static final Counter RECORDS_PASSED = Counter.build()
+            .name("records_passed")
+            .help("Count of aircraft records published by change suppression, by why they were published")
+            .labelNames("reason")
+            .register();
+
+    public static final Histogram FEED_FETCH_SECONDS = Histogram.build()
+            .name("feed_fetch_seconds")
+            .help("Time to fetch the aircraft of one feed, by feed")
+            .labelNames("feed")
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register();
+
+    public static final Counter FEED_CALLS_UNSUCCESSFUL = Counter.build()
+            .name("feed_calls_unsuccessful")
+            .help("Count of failed fetches of one feed, by feed")
+            .labelNames("feed")
+            .register();
+
+    public static final Gauge FEED_SNAPSHOT_AGE_SECONDS = Gauge.build()
+            .name("feed_snapshot_age_seconds")
+            .help("How old the last response of a feed was when it arrived, from its now field, by feed")
+            .labelNames("feed")
+            .register();
+
+    public static final Gauge FEED_AIRCRAFT_RETRIEVED = Gauge.build()
+            .name("feed_aircraft_retrieved")
+            .help("Aircraft in the last response of a feed, by feed")
+            .labelNames("feed")
+            .register();
+
+    public static final Gauge FEED_AIRCRAFT_SELECTED = Gauge.build()
+            .name("feed_aircraft_selected")
+            .help("Aircraft of the last merged poll whose freshest observation came from a feed, by feed")
+            .labelNames("feed")
+            .register();
+
+    public static final Gauge TILES_ACTIVE = Gauge.build()
+            .name("tiles_active")
+            .help("Geographic tiles requested per poll in tiled mode")
+            .register();
+
+    public static final Histogram TILE_FETCH_SECONDS = Histogram.build()
+            .name("tile_fetch_seconds")
+            .help("Time to fetch one geographic tile in tiled mode")
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register();
+
+    public static final Counter TILE_CALLS_UNSUCCESSFUL = Counter.build()
+            .name("tile_calls_unsuccessful")
+            .help("Count of failed geographic tile fetches in tiled mode")
+            .register();
+
+    public static final Counter TILE_ADJUSTMENTS = Counter.build()
+            .name("tile_adjustments")
+            .help("Count of geographic tiles split or merged after a poll in tiled mode")
+            .labelNames("action")
+            .register();
+
     private SvcMetrics() {
     }
 }
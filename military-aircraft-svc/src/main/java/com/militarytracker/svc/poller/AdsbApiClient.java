@@ -1,17 +1,23 @@
 package com.militarytracker.svc.poller;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.militarytracker.common.json.JsonMapper;
+import com.militarytracker.model.api.AcItem;
 import com.militarytracker.model.api.V2Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 
-public class AdsbApiClient {
+public class AdsbApiClient implements AircraftFeed {
 
     private static final Logger LOG = LoggerFactory.getLogger(AdsbApiClient.class);
 
@@ -30,17 +36,16 @@ public class AdsbApiClient {
         this.httpClient = httpClient;
     }
 
-    public V2Response fetchMilitaryAircraft() throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .header("Accept", "application/json")
-                .timeout(Duration.ofSeconds(30))
-                .GET()
-                .build();
+    @Override
+    public String getApiUrl() {
+        return apiUrl;
+    }
 
+    @Override
+    public V2Response fetchMilitaryAircraft() throws Exception {
         LOG.debug("Fetching military aircraft data from {}", apiUrl);
 
-        HttpResponse<String> response = httpClient.send(request,
+        HttpResponse<String> response = httpClient.send(buildRequest(),
                 HttpResponse.BodyHandlers.ofString());
 
         if (response.statusCode() != 200) {
@@ -49,4 +54,102 @@ public class AdsbApiClient {
 
         return JsonMapper.get().readValue(response.body(), V2Response.class);
     }
+
+    /**
+     * @return the response body exactly as received, for {@link RawAircraftScanner}
+     */
+    public byte[] fetchRaw() throws Exception {
+        LOG.debug("Fetching raw military aircraft data from {}", apiUrl);
+
+        HttpResponse<byte[]> response = httpClient.send(buildRequest(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        if (response.statusCode() != 200) {
+            throw new AdsbApiException("ADS-B API returned status: " + response.statusCode());
+        }
+
+        return response.body();
+    }
+
+    /**
+     * Fetches the same data as {@link #fetchMilitaryAircraft()}, but decodes the {@code ac}
+     * array one aircraft at a time straight from the response body and hands each one to
+     * {@code sink} as soon as it is read. Only a single aircraft is held in memory, and the
+     * first one can be published while the rest are still arriving. If the body turns out to
+     * be malformed partway through, the aircraft before that point have already been handed on.
+     * Each aircraft's observation time is taken against the response's {@code now} if that
+     * precedes the {@code ac} array, and against the time the response arrived otherwise.
+     *
+     * @return {@code now} and {@code total} of the response, without the aircraft
+     */
+    @Override
+    public V2Response streamMilitaryAircraft(ObservationSink sink) throws Exception {
+        LOG.debug("Streaming military aircraft data from {}", apiUrl);
+
+        HttpResponse<InputStream> response = httpClient.send(buildRequest(),
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new AdsbApiException("ADS-B API returned status: " + response.statusCode());
+            }
+            return readStreaming(body, System.currentTimeMillis(), sink);
+        }
+    }
+
+    static V2Response readStreaming(InputStream body, long receivedAt, ObservationSink sink) throws IOException {
+        ObjectMapper mapper = JsonMapper.get();
+        V2Response summary = new V2Response();
+        try (JsonParser parser = mapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new AdsbApiException("ADS-B API response is not a JSON object");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "now" -> summary.setNow(parser.getValueAsLong());
+                    case "total" -> summary.setTotal(parser.getValueAsInt());
+                    case "ac" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            readAircraft(parser, mapper, FeedMerger.nowMillis(summary.getNow(), receivedAt), sink);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new AdsbApiException("ADS-B API response ended unexpectedly");
+            }
+        }
+        return summary;
+    }
+
+    private static void readAircraft(JsonParser parser, ObjectMapper mapper, long nowMillis, ObservationSink sink)
+            throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new AdsbApiException("ADS-B API response ended inside the aircraft array");
+            }
+            if (token == JsonToken.START_OBJECT) {
+                AcItem item = mapper.readValue(parser, AcItem.class);
+                sink.accept(item, FeedMerger.observedAt(item, nowMillis));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private HttpRequest buildRequest() {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl))
+                .header("Accept", "application/json")
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+    }
 }
@@ -1,43 +1,256 @@
 package com.militarytracker.svc.poller;
 
+import com.militarytracker.model.api.AcItem;
 import com.militarytracker.model.api.V2Response;
+import com.militarytracker.svc.cache.KinematicStateCache;
 import com.militarytracker.svc.metrics.SvcMetrics;
 import com.militarytracker.svc.publisher.FlightKafkaPublisher;
+import com.militarytracker.svc.publisher.RawFlightKafkaPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 public class AdsbApiPoller implements Runnable {
 
     private static final Logger LOG = LoggerFactory.getLogger(AdsbApiPoller.class);
 
-    private final AdsbApiClient apiClient;
+    /**
+     * How a poll turns the response into records: read it whole into a {@code V2Response}
+     * and then publish, publish each aircraft as soon as it is decoded from the response
+     * stream, or publish each aircraft's JSON exactly as received, reading only its hex.
+     */
+    public enum PublishMode {
+        BUFFERED,
+        STREAMING,
+        PASSTHROUGH;
+
+        public static PublishMode fromConfig(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final AircraftFeed feed;
+    private final FeedMerger<? extends AircraftFeed> feedMerger;
+    private final AdsbApiClient rawFeed;
+    private final FeedMerger<AdsbApiClient> rawMerger;
     private final FlightKafkaPublisher publisher;
+    private final RawFlightKafkaPublisher rawPublisher;
+    private final PublishMode mode;
+    private final KinematicStateCache changeCache;
+
+    public AdsbApiPoller(AircraftFeed feed, FlightKafkaPublisher publisher) {
+        this(feed, publisher, PublishMode.BUFFERED);
+    }
+
+    /**
+     * @param mode {@link PublishMode#BUFFERED} or {@link PublishMode#STREAMING}
+     */
+    public AdsbApiPoller(AircraftFeed feed, FlightKafkaPublisher publisher, PublishMode mode) {
+        this(List.of(feed), publisher, mode, null);
+    }
 
-    public AdsbApiPoller(AdsbApiClient apiClient, FlightKafkaPublisher publisher) {
-        this.apiClient = apiClient;
+    /**
+     * @param feeds       the feeds to poll; more than one are fetched concurrently and merged
+     *                    with a {@link FeedMerger}
+     * @param mode        {@link PublishMode#BUFFERED} or {@link PublishMode#STREAMING}
+     * @param changeCache decides which aircraft changed enough to be published, or null to
+     *                    publish every aircraft on every poll
+     */
+    public AdsbApiPoller(List<? extends AircraftFeed> feeds, FlightKafkaPublisher publisher, PublishMode mode,
+                         KinematicStateCache changeCache) {
+        if (mode == PublishMode.PASSTHROUGH) {
+            throw new IllegalArgumentException("Passthrough polling needs a RawFlightKafkaPublisher");
+        }
+        this.feed = feeds.get(0);
+        this.feedMerger = feeds.size() > 1 ? new FeedMerger<>(feeds) : null;
+        this.rawFeed = null;
+        this.rawMerger = null;
         this.publisher = publisher;
+        this.rawPublisher = null;
+        this.mode = mode;
+        this.changeCache = changeCache;
+    }
+
+    public AdsbApiPoller(AdsbApiClient feed, RawFlightKafkaPublisher rawPublisher) {
+        this(List.of(feed), rawPublisher, null);
+    }
+
+    /**
+     * @param feeds       the endpoints to poll; more than one are fetched concurrently and
+     *                    merged with a {@link FeedMerger}
+     * @param changeCache decides which aircraft changed enough to be published, or null to
+     *                    publish every aircraft on every poll
+     */
+    public AdsbApiPoller(List<AdsbApiClient> feeds, RawFlightKafkaPublisher rawPublisher,
+                         KinematicStateCache changeCache) {
+        this.feed = null;
+        this.feedMerger = null;
+        this.rawFeed = feeds.get(0);
+        this.rawMerger = feeds.size() > 1 ? new FeedMerger<>(feeds) : null;
+        this.publisher = null;
+        this.rawPublisher = rawPublisher;
+        this.mode = PublishMode.PASSTHROUGH;
+        this.changeCache = changeCache;
     }
 
     @Override
     public void run() {
         try {
-            V2Response response = apiClient.fetchMilitaryAircraft();
+            switch (mode) {
+                case BUFFERED -> pollBuffered();
+                case STREAMING -> pollStreaming();
+                case PASSTHROUGH -> pollPassthrough();
+            }
+        } catch (Exception e) {
+            SvcMetrics.CALLS_UNSUCCESSFUL.inc();
+            LOG.error("Error polling ADS-B API: {}", e.getMessage(), e);
+        }
+    }
 
-            int total = response.getTotal();
-            SvcMetrics.METRICS_RETRIEVED.set(total);
-            SvcMetrics.METRICS_RETRIEVED_TOTAL.inc(total);
-            SvcMetrics.CALLS_SUCCESSFUL.inc();
+    private void pollBuffered() throws Exception {
+        long start = System.nanoTime();
+        V2Response response = feedMerger != null ? feedMerger.fetchMerged() : feed.fetchMilitaryAircraft();
+        long now = FeedMerger.nowMillis(response.getNow(), System.currentTimeMillis());
 
-            LOG.info("Fetched {} aircraft records", total);
+        int total = response.getTotal();
+        recordRetrieved(total);
+
+        LOG.info("Fetched {} aircraft records", total);
+
+        if (response.getAc() != null && !response.getAc().isEmpty()) {
+            SvcMetrics.FIRST_RECORD_SECONDS.set((System.nanoTime() - start) / 1e9);
+            List<AcItem> changed = changed(response.getAc(), now);
+            int published = changed.isEmpty() ? 0 : publisher.publish(changed);
+            LOG.info("Published {} records to Kafka", published);
+        }
+    }
 
-            if (response.getAc() != null && !response.getAc().isEmpty()) {
-                int published = publisher.publish(response.getAc());
-                LOG.info("Published {} records to Kafka", published);
+    /**
+     * @param now the response's {@code now}, against which each aircraft's ages give the time
+     *            it was observed
+     */
+    private List<AcItem> changed(List<AcItem> items, long now) {
+        if (changeCache == null) {
+            return items;
+        }
+        List<AcItem> changed = new ArrayList<>(items.size());
+        for (AcItem item : items) {
+            if (item.getHex() == null || changeCache.shouldPublish(item, FeedMerger.observedAt(item, now))) {
+                changed.add(item);
             }
+        }
+        return changed;
+    }
 
-        } catch (Exception e) {
-            SvcMetrics.CALLS_UNSUCCESSFUL.inc();
-            LOG.error("Error polling ADS-B API: {}", e.getMessage(), e);
+    private void pollStreaming() throws Exception {
+        StreamCounter counter = new StreamCounter(System.nanoTime());
+        try {
+            V2Response response;
+            if (feedMerger != null) {
+                // A later feed may still bring a fresher observation, so nothing can be sent
+                // before all of them are in
+                response = feedMerger.fetchMerged();
+                for (AcItem item : response.getAc()) {
+                    counter.accept(item, FeedMerger.observedAt(item, response.getNow()));
+                }
+            } else {
+                response = feed.streamMilitaryAircraft(counter::accept);
+            }
+            recordRetrieved(response.getTotal());
+            LOG.info("Fetched {} aircraft records", response.getTotal());
+        } finally {
+            // Whatever was decoded before a failure is already on its way to Kafka
+            publisher.flush();
+            if (counter.decoded > 0) {
+                LOG.info("Published {} records to Kafka", counter.published);
+            }
+        }
+    }
+
+    private void pollPassthrough() throws Exception {
+        StreamCounter counter = new StreamCounter(System.nanoTime());
+        try {
+            // The observation times are taken against the response's now, which may follow the
+            // ac array, so the elements are sent once the whole body has been scanned
+            List<ScannedAircraft> scanned = new ArrayList<>();
+            RawAircraftScanner.Sink collect = (fields, body, offset, length) ->
+                    scanned.add(new ScannedAircraft(fields, body, offset, length));
+            V2Response response = rawMerger != null
+                    ? rawMerger.scanMerged(AdsbApiClient::fetchRaw, collect)
+                    : RawAircraftScanner.scan(rawFeed.fetchRaw(), collect);
+            long now = FeedMerger.nowMillis(response.getNow(), System.currentTimeMillis());
+            for (ScannedAircraft aircraft : scanned) {
+                counter.accept(aircraft, FeedMerger.observedAt(aircraft.fields, now));
+            }
+            recordRetrieved(response.getTotal());
+            LOG.info("Fetched {} aircraft records", response.getTotal());
+        } finally {
+            rawPublisher.flush();
+            if (counter.decoded > 0) {
+                LOG.info("Published {} records to Kafka", counter.published);
+            }
+        }
+    }
+
+    private static void recordRetrieved(int total) {
+        SvcMetrics.METRICS_RETRIEVED.set(total);
+        SvcMetrics.METRICS_RETRIEVED_TOTAL.inc(total);
+        SvcMetrics.CALLS_SUCCESSFUL.inc();
+    }
+
+    private final class StreamCounter {
+        private final long start;
+        private int decoded;
+        private int published;
+
+        private StreamCounter(long start) {
+            this.start = start;
+        }
+
+        private void accept(AcItem item, long observedAt) {
+            first();
+            if (suppressed(item, observedAt)) {
+                return;
+            }
+            if (publisher.send(item)) {
+                published++;
+            }
+        }
+
+        private void accept(ScannedAircraft aircraft, long observedAt) {
+            first();
+            if (suppressed(aircraft.fields, observedAt)) {
+                return;
+            }
+            rawPublisher.send(aircraft.fields.getHex(), aircraft.body, aircraft.offset, aircraft.length);
+            published++;
+        }
+
+        private boolean suppressed(AcItem item, long observedAt) {
+            return changeCache != null && item.getHex() != null && !changeCache.shouldPublish(item, observedAt);
+        }
+
+        private void first() {
+            if (decoded++ == 0) {
+                SvcMetrics.FIRST_RECORD_SECONDS.set((System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+
+    private static final class ScannedAircraft {
+        private final AcItem fields;
+        private final byte[] body;
+        private final int offset;
+        private final int length;
+
+        private ScannedAircraft(AcItem fields, byte[] body, int offset, int length) {
+            this.fields = fields;
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
         }
     }
 }
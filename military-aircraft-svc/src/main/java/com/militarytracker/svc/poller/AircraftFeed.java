@@ -0,0 +1,42 @@
+package com.militarytracker.svc.poller;
+
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+
+/**
+ * A source of military aircraft the poller can fetch whole or stream. Passthrough publishing
+ * needs the raw response body as well, which only a single endpoint has, so it takes an
+ * {@link AdsbApiClient} rather than any feed.
+ */
+public interface AircraftFeed {
+
+    /**
+     * @return the endpoint the feed polls, used to label its logs and metrics
+     */
+    String getApiUrl();
+
+    /**
+     * @return the aircraft, with each one's {@code seen_pos} and {@code seen} relative to the
+     *         response's {@code now}
+     */
+    V2Response fetchMilitaryAircraft() throws Exception;
+
+    /**
+     * Hands each aircraft to {@code sink} as soon as the feed has it.
+     *
+     * @return {@code now} and {@code total} of the response, without the aircraft
+     */
+    V2Response streamMilitaryAircraft(ObservationSink sink) throws Exception;
+
+    /**
+     * Receives one aircraft together with when it was observed.
+     */
+    @FunctionalInterface
+    interface ObservationSink {
+        /**
+         * @param observedAt when the aircraft's position (or, without one, any message) was last
+         *                   received, in epoch milliseconds
+         */
+        void accept(AcItem item, long observedAt);
+    }
+}
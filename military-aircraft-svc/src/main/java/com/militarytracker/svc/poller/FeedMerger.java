@@ -0,0 +1,307 @@
+package com.militarytracker.svc.poller;
+
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+import com.militarytracker.svc.metrics.SvcMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches several ADS-B feeds concurrently, one virtual thread per feed, and merges their
+ * aircraft by hex into one de-duplicated set, so that adding a feed widens coverage without
+ * adding records downstream. Of the observations of one aircraft the one with the freshest
+ * position wins: its age is the feed's {@code now} minus the aircraft's {@code seen_pos}
+ * (or {@code seen} when it has no position), and an observation with a position always beats
+ * one without. The ages of the winning observations are restated relative to the merged
+ * {@code now}, so that {@code now} minus {@code seen_pos} stays the time each was observed.
+ * Hex is matched trimmed and in lower case, and the winning observation is published with its
+ * hex in that form, so an aircraft keeps one record key whichever feed wins.
+ * A feed that fails is left out of the poll; the poll fails only if all of them do.
+ * Fetch time, snapshot age, size and contribution of each feed are recorded per feed.
+ *
+ * @param <F> the type of feed; {@link #scanMerged} reads raw bodies and so needs feeds that have one
+ */
+public class FeedMerger<F extends AircraftFeed> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FeedMerger.class);
+
+    /**
+     * Below this a feed's {@code now} is taken to be in seconds (readsb) rather than milliseconds
+     * (adsb.lol and its clones); it is 1973 in milliseconds and the year 5138 in seconds.
+     */
+    private static final long MIN_NOW_MILLIS = 100_000_000_000L;
+
+    private final List<F> feeds;
+
+    public FeedMerger(List<? extends F> feeds) {
+        if (feeds.isEmpty()) {
+            throw new IllegalArgumentException("At least one feed is required");
+        }
+        this.feeds = List.copyOf(feeds);
+    }
+
+    /**
+     * @return the merged aircraft, with {@code now} the latest of the feeds in milliseconds and
+     *         {@code total} the number of distinct aircraft
+     */
+    public V2Response fetchMerged() throws Exception {
+        List<FeedResponse> responses = fetchAll(feed -> {
+            V2Response response = feed.fetchMilitaryAircraft();
+            List<Observation> aircraft = new ArrayList<>();
+            if (response.getAc() != null) {
+                for (AcItem item : response.getAc()) {
+                    aircraft.add(new Observation(item, null, 0, 0));
+                }
+            }
+            return new FeedResponse(response.getNow(), aircraft);
+        });
+        long now = latestNow(responses);
+        List<Observation> merged = merge(responses);
+        List<AcItem> aircraft = new ArrayList<>(merged.size());
+        for (Observation observation : merged) {
+            rebase(observation.fields, observation.feedNow, now);
+            aircraft.add(observation.fields);
+        }
+        return new V2Response(now, aircraft.size(), aircraft);
+    }
+
+    /**
+     * Fetches the raw body of every feed with {@code fetchRaw} and hands the original bytes of
+     * the freshest element of each aircraft to {@code sink}, once all feeds are in. The fields
+     * handed on carry ages relative to the merged {@code now}; the bytes are left as received.
+     *
+     * @return {@code now} and {@code total} of the merged set, without the aircraft
+     */
+    public V2Response scanMerged(RawFetch<? super F> fetchRaw, RawAircraftScanner.Sink sink) throws Exception {
+        List<FeedResponse> responses = fetchAll(feed -> {
+            List<Observation> aircraft = new ArrayList<>();
+            V2Response summary = RawAircraftScanner.scan(fetchRaw.fetch(feed),
+                    (fields, body, offset, length) -> aircraft.add(new Observation(fields, body, offset, length)));
+            return new FeedResponse(summary.getNow(), aircraft);
+        });
+        long now = latestNow(responses);
+        List<Observation> merged = merge(responses);
+        for (Observation observation : merged) {
+            rebase(observation.fields, observation.feedNow, now);
+            sink.accept(observation.fields, observation.body, observation.offset, observation.length);
+        }
+        return new V2Response(now, merged.size(), null);
+    }
+
+    private List<FeedResponse> fetchAll(FeedFetch<F> fetch) throws Exception {
+        List<Future<FeedResponse>> futures = new ArrayList<>(feeds.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (F feed : feeds) {
+                futures.add(executor.submit(() -> fetchTimed(feed, fetch)));
+            }
+        }
+        List<FeedResponse> responses = new ArrayList<>(feeds.size());
+        AdsbApiException failure = null;
+        for (int i = 0; i < feeds.size(); i++) {
+            try {
+                responses.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                String feed = feeds.get(i).getApiUrl();
+                SvcMetrics.FEED_CALLS_UNSUCCESSFUL.labels(feed).inc();
+                LOG.warn("Failed to fetch feed {}: {}", feed, e.getCause().getMessage());
+                if (failure == null) {
+                    failure = new AdsbApiException("All " + feeds.size() + " ADS-B feeds failed", e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (responses.isEmpty()) {
+            throw failure;
+        }
+        return responses;
+    }
+
+    private static <F extends AircraftFeed> FeedResponse fetchTimed(F feed, FeedFetch<F> fetch) throws Exception {
+        long start = System.nanoTime();
+        FeedResponse response = fetch.fetch(feed);
+        long receivedAt = System.currentTimeMillis();
+        String name = feed.getApiUrl();
+        SvcMetrics.FEED_FETCH_SECONDS.labels(name).observe((System.nanoTime() - start) / 1e9);
+
+        response.now = nowMillis(response.now, receivedAt);
+        for (Observation observation : response.aircraft) {
+            observation.feed = name;
+            observation.feedNow = response.now;
+            observation.observedAt = observedAt(observation.fields, response.now);
+        }
+        SvcMetrics.FEED_SNAPSHOT_AGE_SECONDS.labels(name).set(Math.max(0, receivedAt - response.now) / 1000.0);
+        SvcMetrics.FEED_AIRCRAFT_RETRIEVED.labels(name).set(response.aircraft.size());
+        return response;
+    }
+
+    private List<Observation> merge(List<FeedResponse> responses) throws IOException {
+        Map<String, Observation> freshest = new LinkedHashMap<>();
+        for (FeedResponse response : responses) {
+            for (Observation observation : response.aircraft) {
+                String hex = observation.fields.getHex();
+                if (hex != null) {
+                    freshest.merge(normalizeHex(hex), observation, FeedMerger::fresher);
+                }
+            }
+        }
+        for (Map.Entry<String, Observation> entry : freshest.entrySet()) {
+            entry.getValue().setHex(entry.getKey());
+        }
+        Map<String, Integer> selected = new HashMap<>();
+        for (Observation observation : freshest.values()) {
+            selected.merge(observation.feed, 1, Integer::sum);
+        }
+        for (F feed : feeds) {
+            SvcMetrics.FEED_AIRCRAFT_SELECTED.labels(feed.getApiUrl())
+                    .set(selected.getOrDefault(feed.getApiUrl(), 0));
+        }
+        return new ArrayList<>(freshest.values());
+    }
+
+    private static Observation fresher(Observation current, Observation candidate) {
+        return isFresher(candidate.fields, candidate.observedAt, current.fields, current.observedAt) ? candidate : current;
+    }
+
+    /**
+     * @return the hex aircraft are matched and keyed by: trimmed and in lower case, as adsb.lol
+     *         and readsb report it
+     */
+    static String normalizeHex(String hex) {
+        return hex.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param now        the {@code now} of a response, in seconds or milliseconds, or 0 if absent
+     * @param receivedAt when the response arrived, in epoch milliseconds
+     * @return the response's {@code now} in epoch milliseconds
+     */
+    static long nowMillis(long now, long receivedAt) {
+        if (now <= 0) {
+            return receivedAt;
+        }
+        return now < MIN_NOW_MILLIS ? now * 1000 : now;
+    }
+
+    /**
+     * @return when the aircraft's position (or, without one, any message) was last received,
+     *         in epoch milliseconds
+     */
+    static long observedAt(AcItem item, long nowMillis) {
+        Double seconds = hasPosition(item) && item.getSeenPos() != null ? item.getSeenPos() : item.getSeen();
+        return nowMillis - (seconds != null ? Math.round(seconds * 1000) : 0);
+    }
+
+    /**
+     * Shifts the aircraft's {@code seen_pos} and {@code seen} from the {@code now} of the
+     * response it came in to {@code targetNow}, both in epoch milliseconds, so that
+     * {@link #observedAt} gives the same time against either.
+     */
+    static void rebase(AcItem item, long fromNow, long targetNow) {
+        if (fromNow == targetNow) {
+            return;
+        }
+        double shift = (targetNow - fromNow) / 1000.0;
+        if (item.getSeenPos() != null) {
+            item.setSeenPos(item.getSeenPos() + shift);
+        }
+        if (item.getSeen() != null) {
+            item.setSeen(item.getSeen() + shift);
+        } else if (!hasPosition(item) || item.getSeenPos() == null) {
+            // Without an age the aircraft counts as observed at now, which has moved
+            item.setSeen(shift);
+        }
+    }
+
+    /**
+     * @return whether {@code candidate} is a better observation of an aircraft than {@code current}
+     */
+    static boolean isFresher(AcItem candidate, long candidateAt, AcItem current, long currentAt) {
+        if (hasPosition(candidate) != hasPosition(current)) {
+            return hasPosition(candidate);
+        }
+        return candidateAt > currentAt;
+    }
+
+    private static boolean hasPosition(AcItem item) {
+        return item.getLat() != null && item.getLon() != null;
+    }
+
+    private static long latestNow(List<FeedResponse> responses) {
+        long now = 0;
+        for (FeedResponse response : responses) {
+            now = Math.max(now, response.now);
+        }
+        return now;
+    }
+
+    /**
+     * Reads the response body of one feed exactly as received, e.g. {@code AdsbApiClient::fetchRaw}.
+     */
+    @FunctionalInterface
+    public interface RawFetch<F> {
+        byte[] fetch(F feed) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface FeedFetch<F> {
+        FeedResponse fetch(F feed) throws Exception;
+    }
+
+    private static final class FeedResponse {
+        private final List<Observation> aircraft;
+        private long now;
+
+        private FeedResponse(long now, List<Observation> aircraft) {
+            this.now = now;
+            this.aircraft = aircraft;
+        }
+    }
+
+    /**
+     * One feed's view of one aircraft, with the element's original bytes when fetched raw.
+     */
+    private static final class Observation {
+        private final AcItem fields;
+        private byte[] body;
+        private int offset;
+        private int length;
+        private String feed;
+        private long feedNow;
+        private long observedAt;
+
+        private Observation(AcItem fields, byte[] body, int offset, int length) {
+            this.fields = fields;
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Rewrites the hex in the fields and, when fetched raw, in a copy of the element's bytes.
+         */
+        private void setHex(String hex) throws IOException {
+            if (hex.equals(fields.getHex())) {
+                return;
+            }
+            fields.setHex(hex);
+            if (body != null) {
+                body = RawAircraftScanner.withHex(body, offset, length, hex);
+                offset = 0;
+                length = body.length;
+            }
+        }
+    }
+}
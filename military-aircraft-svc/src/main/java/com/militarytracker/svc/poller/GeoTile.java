@@ -0,0 +1,108 @@
+package com.militarytracker.svc.poller;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A latitude/longitude box of a quadtree over the area of interest. It is queried as the
+ * smallest circle around its center that covers it, since the ADS-B APIs take point/radius
+ * queries. Splitting a tile gives its four quadrants, which remember it as their parent so
+ * they can be merged back.
+ */
+public final class GeoTile {
+
+    private static final double EARTH_RADIUS_NM = 3440.065;
+
+    private final double minLat;
+    private final double maxLat;
+    private final double minLon;
+    private final double maxLon;
+    private final GeoTile parent;
+    private final int depth;
+    private List<GeoTile> children = List.of();
+
+    public GeoTile(double minLat, double maxLat, double minLon, double maxLon) {
+        this(minLat, maxLat, minLon, maxLon, null);
+        if (minLat >= maxLat || minLon >= maxLon || minLat < -90 || maxLat > 90 || minLon < -180 || maxLon > 180) {
+            throw new IllegalArgumentException("Invalid area: lat " + minLat + ".." + maxLat
+                    + ", lon " + minLon + ".." + maxLon);
+        }
+    }
+
+    private GeoTile(double minLat, double maxLat, double minLon, double maxLon, GeoTile parent) {
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.parent = parent;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * @return the south-west, south-east, north-west and north-east quadrants
+     */
+    public List<GeoTile> split() {
+        double midLat = getCenterLat();
+        double midLon = getCenterLon();
+        children = List.of(
+                new GeoTile(minLat, midLat, minLon, midLon, this),
+                new GeoTile(minLat, midLat, midLon, maxLon, this),
+                new GeoTile(midLat, maxLat, minLon, midLon, this),
+                new GeoTile(midLat, maxLat, midLon, maxLon, this));
+        return children;
+    }
+
+    /**
+     * @return the quadrants of the last split, or an empty list if the tile was never split
+     */
+    public List<GeoTile> getChildren() {
+        return children;
+    }
+
+    public boolean contains(Double lat, Double lon) {
+        return lat != null && lon != null && lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /**
+     * @return the radius in nautical miles of the circle around the center that covers the
+     *         tile, which is the distance to its corners on the side away from the equator
+     */
+    public double getRadiusNm() {
+        double radius = 0;
+        for (double lat : new double[] {minLat, maxLat}) {
+            for (double lon : new double[] {minLon, maxLon}) {
+                radius = Math.max(radius, distanceNm(getCenterLat(), getCenterLon(), lat, lon));
+            }
+        }
+        return radius;
+    }
+
+    public double getCenterLat() {
+        return (minLat + maxLat) / 2;
+    }
+
+    public double getCenterLon() {
+        return (minLon + maxLon) / 2;
+    }
+
+    public GeoTile getParent() {
+        return parent;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "[%.3f..%.3f, %.3f..%.3f]", minLat, maxLat, minLon, maxLon);
+    }
+
+    private static double distanceNm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_NM * Math.asin(Math.sqrt(a));
+    }
+}
@@ -0,0 +1,170 @@
+package com.militarytracker.svc.poller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.militarytracker.common.json.JsonMapper;
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+import com.militarytracker.svc.metrics.SvcMetrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds each element of the {@code ac} array in a raw ADS-B API response and reads only its
+ * {@code hex} key and the few kinematic fields change suppression and feed merging look at, so the element can
+ * be published byte for byte as received. Elements are tokenized but never bound to objects,
+ * and fields that {@code AcItem} does not model survive.
+ * Elements that cannot be published (not an object, or without a hex to key them by) are
+ * skipped and counted in {@code passthrough_records_invalid}.
+ */
+public final class RawAircraftScanner {
+
+    static final String INVALID_NOT_OBJECT = "not_object";
+    static final String INVALID_MISSING_HEX = "missing_hex";
+
+    private RawAircraftScanner() {
+    }
+
+    /**
+     * Receives the location of one aircraft within the response body.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * @param fields the aircraft's hex, flight, position, altitude, ground speed, track,
+         *               vertical rate, squawk and message ages; every other field is left unset
+         */
+        void accept(AcItem fields, byte[] body, int offset, int length);
+    }
+
+    /**
+     * @return {@code now} and {@code total} of the response, without the aircraft
+     */
+    public static V2Response scan(byte[] body, Sink sink) throws IOException {
+        V2Response summary = new V2Response();
+        try (JsonParser parser = JsonMapper.get().getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new AdsbApiException("ADS-B API response is not a JSON object");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "now" -> summary.setNow(parser.getValueAsLong());
+                    case "total" -> summary.setTotal(parser.getValueAsInt());
+                    case "ac" -> {
+                        if (value == JsonToken.START_ARRAY) {
+                            scanAircraft(parser, body, sink);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new AdsbApiException("ADS-B API response ended unexpectedly");
+            }
+        }
+        return summary;
+    }
+
+    private static void scanAircraft(JsonParser parser, byte[] body, Sink sink) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new AdsbApiException("ADS-B API response ended inside the aircraft array");
+            }
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                SvcMetrics.PASSTHROUGH_INVALID.labels(INVALID_NOT_OBJECT).inc();
+                continue;
+            }
+            int start = (int) parser.currentTokenLocation().getByteOffset();
+            AcItem fields = new AcItem();
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_STRING) {
+                    readText(field, parser.getText(), fields);
+                } else if (value.isNumeric()) {
+                    readNumber(field, parser, fields);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new AdsbApiException("ADS-B API response ended inside an aircraft");
+            }
+            if (fields.getHex() == null || fields.getHex().isBlank()) {
+                SvcMetrics.PASSTHROUGH_INVALID.labels(INVALID_MISSING_HEX).inc();
+                continue;
+            }
+            int end = (int) parser.currentLocation().getByteOffset();
+            sink.accept(fields, body, start, end - start);
+        }
+    }
+
+    /**
+     * Copies one aircraft element with the value of its {@code hex} key replaced, leaving every
+     * other byte as received.
+     *
+     * @param offset where the element starts in {@code body}
+     * @param length the element's length in bytes
+     * @param hex    the new value, which must not need escaping
+     * @return the rewritten element
+     */
+    public static byte[] withHex(byte[] body, int offset, int length, String hex) throws IOException {
+        try (JsonParser parser = JsonMapper.get().getFactory().createParser(body, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new AdsbApiException("Aircraft element is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("hex") && value == JsonToken.VALUE_STRING) {
+                    // Offsets are relative to the element and span the value's quotes
+                    parser.getText();
+                    int start = (int) parser.currentTokenLocation().getByteOffset();
+                    int end = (int) parser.currentLocation().getByteOffset();
+                    byte[] replacement = ('"' + hex + '"').getBytes(StandardCharsets.UTF_8);
+                    byte[] element = new byte[length - (end - start) + replacement.length];
+                    System.arraycopy(body, offset, element, 0, start);
+                    System.arraycopy(replacement, 0, element, start, replacement.length);
+                    System.arraycopy(body, offset + end, element, start + replacement.length, length - end);
+                    return element;
+                }
+                parser.skipChildren();
+            }
+        }
+        throw new AdsbApiException("Aircraft element has no hex");
+    }
+
+    private static void readText(String field, String text, AcItem fields) {
+        switch (field) {
+            case "hex" -> fields.setHex(text);
+            case "flight" -> fields.setFlight(text);
+            case "alt_baro" -> fields.setAltBaro(text);
+            case "squawk" -> fields.setSquawk(text);
+            default -> {
+            }
+        }
+    }
+
+    private static void readNumber(String field, JsonParser parser, AcItem fields) throws IOException {
+        switch (field) {
+            case "lat" -> fields.setLat(parser.getDoubleValue());
+            case "lon" -> fields.setLon(parser.getDoubleValue());
+            case "alt_baro" -> fields.setAltBaro(parser.getIntValue());
+            case "gs" -> fields.setGroundSpeed(parser.getDoubleValue());
+            case "track" -> fields.setTrack(parser.getDoubleValue());
+            case "baro_rate" -> fields.setVerticalRate(parser.getIntValue());
+            case "seen" -> fields.setSeen(parser.getDoubleValue());
+            case "seen_pos" -> fields.setSeenPos(parser.getDoubleValue());
+            default -> {
+            }
+        }
+    }
+}
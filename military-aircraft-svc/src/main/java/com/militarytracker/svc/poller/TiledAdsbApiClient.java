@@ -0,0 +1,314 @@
+package com.militarytracker.svc.poller;
+
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+import com.militarytracker.svc.metrics.SvcMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Covers an area of interest with point/radius queries ({@code <point-url>/<lat>/<lon>/<radius>})
+ * over a quadtree of {@link GeoTile}s instead of one global request, so no single response
+ * grows large enough to run into the request timeout. The tiles of a poll are fetched in
+ * parallel on virtual threads, at most {@code maxConcurrency} at a time, and their aircraft are
+ * de-duplicated by hex, keeping the freshest observation where tiles overlap. The ages of the
+ * aircraft kept are restated relative to the latest tile's {@code now}. After each poll the
+ * tiling adapts: a tile whose response held more than {@code maxAircraft} aircraft, took
+ * longer than the latency budget or timed out is split into its quadrants for the next poll,
+ * and four sibling tiles that together held fewer than {@code mergeBelowAircraft} are merged
+ * back into their parent. A tile split for its latency is only merged back once its quadrants
+ * together respond within the budget, as the parent would otherwise be slow again and split
+ * on the next poll. Tiles never get wider than the API's maximum radius.
+ *
+ * <p>Point queries return every aircraft, so with {@code militaryOnly} only those flagged
+ * military in {@code dbFlags} are kept. Aircraft outside the area are dropped. There is no
+ * single response body to pass through, so a tiled feed cannot be polled in passthrough mode.
+ */
+public class TiledAdsbApiClient implements AircraftFeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TiledAdsbApiClient.class);
+
+    /**
+     * Largest radius the point endpoints of adsb.lol and its clones accept.
+     */
+    static final double MAX_RADIUS_NM = 250;
+
+    private static final int DB_FLAG_MILITARY = 1;
+
+    private final String pointUrl;
+    private final HttpClient httpClient;
+    private final GeoTile area;
+    private final int maxAircraft;
+    private final int mergeBelowAircraft;
+    private final long latencyBudgetNanos;
+    private final int maxDepth;
+    private final int maxConcurrency;
+    private final boolean militaryOnly;
+    private List<GeoTile> tiles;
+    /** Tiles that were split because they were slow or timed out, rather than for their size */
+    private final Set<GeoTile> latencySplits = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param pointUrl           the point query endpoint, e.g. {@code https://api.adsb.lol/v2/point}
+     * @param area               the area of interest
+     * @param maxAircraft        response size above which a tile is split
+     * @param mergeBelowAircraft combined response size of four siblings below which they are merged
+     * @param latencyBudget      response time above which a tile is split
+     * @param maxDepth           how many times the area may be split at most
+     * @param maxConcurrency     how many tiles are fetched at once at most
+     * @param militaryOnly       whether to keep only aircraft flagged military
+     */
+    public TiledAdsbApiClient(String pointUrl, HttpClient httpClient, GeoTile area, int maxAircraft,
+                              int mergeBelowAircraft, Duration latencyBudget, int maxDepth,
+                              int maxConcurrency, boolean militaryOnly) {
+        if (mergeBelowAircraft > maxAircraft) {
+            throw new IllegalArgumentException("mergeBelowAircraft must not exceed maxAircraft, or tiles would "
+                    + "be merged straight back after splitting");
+        }
+        this.pointUrl = pointUrl.endsWith("/") ? pointUrl.substring(0, pointUrl.length() - 1) : pointUrl;
+        this.httpClient = httpClient;
+        this.area = area;
+        this.maxAircraft = maxAircraft;
+        this.mergeBelowAircraft = mergeBelowAircraft;
+        this.latencyBudgetNanos = latencyBudget.toNanos();
+        this.maxDepth = maxDepth;
+        this.maxConcurrency = maxConcurrency;
+        this.militaryOnly = militaryOnly;
+        this.tiles = new ArrayList<>();
+        coverWithinRadius(area, tiles);
+        SvcMetrics.TILES_ACTIVE.set(tiles.size());
+    }
+
+    @Override
+    public String getApiUrl() {
+        return pointUrl;
+    }
+
+    /**
+     * @return the tiles the next poll will request
+     */
+    public synchronized List<GeoTile> getTiles() {
+        return List.copyOf(tiles);
+    }
+
+    @Override
+    public synchronized V2Response fetchMilitaryAircraft() throws Exception {
+        long receivedAt = System.currentTimeMillis();
+        Map<GeoTile, TileResult> results = fetchTiles();
+        Map<String, AcItem> freshest = new LinkedHashMap<>();
+        Map<String, Long> observedAt = new LinkedHashMap<>();
+        Map<String, Long> tileNow = new HashMap<>();
+        long latestNow = 0;
+        int failed = 0;
+        for (TileResult result : results.values()) {
+            if (result.response == null) {
+                failed++;
+                continue;
+            }
+            long now = FeedMerger.nowMillis(result.response.getNow(), receivedAt);
+            latestNow = Math.max(latestNow, now);
+            for (AcItem item : result.response.getAc() != null ? result.response.getAc() : List.<AcItem>of()) {
+                if (item.getHex() == null || !area.contains(item.getLat(), item.getLon()) || !wanted(item)) {
+                    continue;
+                }
+                String hex = FeedMerger.normalizeHex(item.getHex());
+                long at = FeedMerger.observedAt(item, now);
+                AcItem current = freshest.get(hex);
+                if (current == null || FeedMerger.isFresher(item, at, current, observedAt.get(hex))) {
+                    freshest.put(hex, item);
+                    observedAt.put(hex, at);
+                    tileNow.put(hex, now);
+                }
+            }
+        }
+        if (failed == results.size()) {
+            throw new AdsbApiException("All " + failed + " tiles failed");
+        }
+        adapt(results);
+        for (Map.Entry<String, AcItem> entry : freshest.entrySet()) {
+            // Keyed by the normalized hex, so overlapping tiles never publish it in two forms
+            entry.getValue().setHex(entry.getKey());
+            FeedMerger.rebase(entry.getValue(), tileNow.get(entry.getKey()), latestNow);
+        }
+        return new V2Response(latestNow, freshest.size(), new ArrayList<>(freshest.values()));
+    }
+
+    /**
+     * A tiled poll is only complete once every tile is in, so the aircraft are handed on after
+     * the merge rather than as they are decoded.
+     */
+    @Override
+    public V2Response streamMilitaryAircraft(ObservationSink sink) throws Exception {
+        V2Response response = fetchMilitaryAircraft();
+        for (AcItem item : response.getAc()) {
+            sink.accept(item, FeedMerger.observedAt(item, response.getNow()));
+        }
+        return new V2Response(response.getNow(), response.getTotal(), null);
+    }
+
+    /**
+     * Fetches one tile, through the same client as a single-endpoint poll.
+     */
+    protected V2Response fetchTile(GeoTile tile) throws Exception {
+        return new AdsbApiClient(tileUrl(tile), httpClient).fetchMilitaryAircraft();
+    }
+
+    String tileUrl(GeoTile tile) {
+        return String.format(Locale.ROOT, "%s/%.4f/%.4f/%d", pointUrl, tile.getCenterLat(), tile.getCenterLon(),
+                (int) Math.ceil(tile.getRadiusNm()));
+    }
+
+    private Map<GeoTile, TileResult> fetchTiles() throws InterruptedException {
+        Semaphore permits = new Semaphore(maxConcurrency);
+        Map<GeoTile, Future<TileResult>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (GeoTile tile : tiles) {
+                futures.put(tile, executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        long start = System.nanoTime();
+                        V2Response response = fetchTile(tile);
+                        long nanos = System.nanoTime() - start;
+                        SvcMetrics.TILE_FETCH_SECONDS.observe(nanos / 1e9);
+                        return new TileResult(response, nanos, false);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        Map<GeoTile, TileResult> results = new LinkedHashMap<>();
+        for (Map.Entry<GeoTile, Future<TileResult>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                SvcMetrics.TILE_CALLS_UNSUCCESSFUL.inc();
+                LOG.warn("Failed to fetch tile {}: {}", entry.getKey(), e.getCause().getMessage());
+                results.put(entry.getKey(), new TileResult(null, 0, e.getCause() instanceof HttpTimeoutException));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Splits the tiles over budget and merges sibling tiles that are sparse.
+     */
+    private void adapt(Map<GeoTile, TileResult> results) {
+        Set<GeoTile> current = Collections.newSetFromMap(new IdentityHashMap<>());
+        current.addAll(tiles);
+        Set<GeoTile> merging = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (GeoTile tile : tiles) {
+            GeoTile parent = tile.getParent();
+            if (parent != null && !merging.contains(parent) && sparse(parent, current, results)) {
+                merging.add(parent);
+            }
+        }
+
+        List<GeoTile> next = new ArrayList<>();
+        int splits = 0;
+        for (GeoTile tile : tiles) {
+            if (tile.getParent() != null && merging.contains(tile.getParent())) {
+                if (tile == tile.getParent().getChildren().get(0)) {
+                    next.add(tile.getParent());
+                    latencySplits.remove(tile.getParent());
+                }
+            } else if (overBudget(results.get(tile)) && tile.getDepth() < maxDepth) {
+                next.addAll(tile.split());
+                if (slow(results.get(tile))) {
+                    latencySplits.add(tile);
+                }
+                splits++;
+            } else {
+                next.add(tile);
+            }
+        }
+        if (splits > 0 || !merging.isEmpty()) {
+            SvcMetrics.TILE_ADJUSTMENTS.labels("split").inc(splits);
+            SvcMetrics.TILE_ADJUSTMENTS.labels("merge").inc(merging.size());
+            LOG.info("Split {} and merged {} tiles, now polling {} tiles", splits, merging.size(), next.size());
+        }
+        tiles = next;
+        SvcMetrics.TILES_ACTIVE.set(tiles.size());
+    }
+
+    private boolean sparse(GeoTile parent, Set<GeoTile> current, Map<GeoTile, TileResult> results) {
+        if (parent.getRadiusNm() > MAX_RADIUS_NM) {
+            return false;
+        }
+        int aircraft = 0;
+        long nanos = 0;
+        for (GeoTile child : parent.getChildren()) {
+            TileResult result = results.get(child);
+            if (!current.contains(child) || result == null || result.response == null || overBudget(result)) {
+                return false;
+            }
+            aircraft += size(result.response);
+            nanos += result.nanos;
+        }
+        // The parent's response holds what its quadrants' do, so it takes about as long as
+        // fetching them one after another
+        if (latencySplits.contains(parent) && nanos > latencyBudgetNanos) {
+            return false;
+        }
+        return aircraft < mergeBelowAircraft;
+    }
+
+    private boolean overBudget(TileResult result) {
+        if (result.response == null) {
+            return result.timedOut;
+        }
+        return size(result.response) > maxAircraft || slow(result);
+    }
+
+    private boolean slow(TileResult result) {
+        return result.timedOut || result.nanos > latencyBudgetNanos;
+    }
+
+    private boolean wanted(AcItem item) {
+        return !militaryOnly || (item.getDbFlags() != null && (item.getDbFlags() & DB_FLAG_MILITARY) != 0);
+    }
+
+    private static int size(V2Response response) {
+        return response.getAc() != null ? response.getAc().size() : 0;
+    }
+
+    private static void coverWithinRadius(GeoTile tile, List<GeoTile> tiles) {
+        if (tile.getRadiusNm() <= MAX_RADIUS_NM) {
+            tiles.add(tile);
+            return;
+        }
+        for (GeoTile quadrant : tile.split()) {
+            coverWithinRadius(quadrant, tiles);
+        }
+    }
+
+    private static final class TileResult {
+        private final V2Response response;
+        private final long nanos;
+        private final boolean timedOut;
+
+        private TileResult(V2Response response, long nanos, boolean timedOut) {
+            this.response = response;
+            this.nanos = nanos;
+            this.timedOut = timedOut;
+        }
+    }
+}
@@ -26,28 +26,48 @@ public class FlightKafkaPublisher {
     public int publish(List<AcItem> items) {
         int successCount = 0;
         for (AcItem item : items) {
-            try {
-                String jsonValue = JsonMapper.get().writeValueAsString(item);
-                String key = item.getHex();
-
-                ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, jsonValue);
-                Future<RecordMetadata> future = producer.send(record, (metadata, exception) -> {
-                    if (exception != null) {
-                        LOG.error("Failed to send record for hex={}: {}", item.getHex(), exception.getMessage());
-                    } else {
-                        LOG.trace("Sent record for hex={} to partition={} offset={}",
-                                item.getHex(), metadata.partition(), metadata.offset());
-                    }
-                });
+            if (send(item)) {
                 successCount++;
-            } catch (Exception e) {
-                LOG.error("Error serializing AcItem hex={}: {}", item.getHex(), e.getMessage());
             }
         }
         producer.flush();
         return successCount;
     }
 
+    /**
+     * Hands one aircraft to the producer without waiting for it to be acknowledged. Call
+     * {@link #flush()} once the poll is done.
+     *
+     * @return false if the aircraft could not be serialized
+     */
+    public boolean send(AcItem item) {
+        try {
+            String jsonValue = JsonMapper.get().writeValueAsString(item);
+            String key = item.getHex();
+
+            ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, jsonValue);
+            Future<RecordMetadata> future = producer.send(record, (metadata, exception) -> {
+                if (exception != null) {
+                    LOG.error("Failed to send record for hex={}: {}", item.getHex(), exception.getMessage());
+                } else {
+                    LOG.trace("Sent record for hex={} to partition={} offset={}",
+                            item.getHex(), metadata.partition(), metadata.offset());
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            LOG.error("Error serializing AcItem hex={}: {}", item.getHex(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Blocks until every record sent so far has been acknowledged or has failed.
+     */
+    public void flush() {
+        producer.flush();
+    }
+
     public void close() {
         producer.close();
     }
@@ -0,0 +1,55 @@
+package com.militarytracker.svc.publisher;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Publishes aircraft records exactly as they were received from the ADS-B API, keyed by hex
+ * like {@link FlightKafkaPublisher}. Each value is a view of the response body, so the bytes
+ * are only copied once, by the producer's serializer.
+ */
+public class RawFlightKafkaPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RawFlightKafkaPublisher.class);
+
+    private final KafkaProducer<String, ByteBuffer> producer;
+    private final String topic;
+
+    public RawFlightKafkaPublisher(KafkaProducer<String, ByteBuffer> producer, String topic) {
+        this.producer = producer;
+        this.topic = topic;
+    }
+
+    /**
+     * Hands one aircraft to the producer without waiting for it to be acknowledged. The body
+     * may be reused once this returns. Call {@link #flush()} once the poll is done.
+     */
+    public void send(String hex, byte[] body, int offset, int length) {
+        // ByteBufferSerializer rewinds the buffer, so the view must start at the record
+        ProducerRecord<String, ByteBuffer> record = new ProducerRecord<>(topic, hex,
+                ByteBuffer.wrap(body, offset, length).slice());
+        producer.send(record, (metadata, exception) -> {
+            if (exception != null) {
+                LOG.error("Failed to send record for hex={}: {}", hex, exception.getMessage());
+            } else {
+                LOG.trace("Sent record for hex={} to partition={} offset={}",
+                        hex, metadata.partition(), metadata.offset());
+            }
+        });
+    }
+
+    /**
+     * Blocks until every record sent so far has been acknowledged or has failed.
+     */
+    public void flush() {
+        producer.flush();
+    }
+
+    public void close() {
+        producer.close();
+    }
+}
@@ -0,0 +1,95 @@
+package com.militarytracker.svc.cache;
+
+import com.militarytracker.model.api.AcItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KinematicStateCacheTest {
+
+    private static final long T0 = 1_709_052_000_000L;
+    // 360 kt is 185.2 m/s, so 15 s of flight due north is 2778 m
+    private static final double NORTH_AFTER_15S = Math.toDegrees(2778 / 6_371_000.0);
+
+    private KinematicStateCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new KinematicStateCache(10, 200, 200, 60_000);
+    }
+
+    @Test
+    void shouldSuppressAircraftFlyingAsPredicted() {
+        assertTrue(cache.shouldPublish(createTestItem("AE1234", 38.0, 35000, 0), T0));
+
+        assertFalse(cache.shouldPublish(createTestItem("AE1234", 38.0 + NORTH_AFTER_15S, 35000, 0), T0 + 15_000));
+        assertFalse(cache.shouldPublish(createTestItem("AE1234", 38.0 + 2 * NORTH_AFTER_15S, 35100, 0), T0 + 30_000));
+    }
+
+    @Test
+    void shouldPublishWhenPositionDeviatesFromPrediction() {
+        cache.shouldPublish(createTestItem("AE1234", 38.0, 35000, 0), T0);
+
+        // Still where it was: 2.8 km behind the prediction
+        assertTrue(cache.shouldPublish(createTestItem("AE1234", 38.0, 35000, 0), T0 + 15_000));
+    }
+
+    @Test
+    void shouldPredictAltitudeFromVerticalRate() {
+        cache.shouldPublish(createTestItem("AE1234", 38.0, 10000, 2000), T0);
+
+        assertFalse(cache.shouldPublish(createTestItem("AE1234", 38.0 + NORTH_AFTER_15S, 10500, 2000), T0 + 15_000));
+        // Levelled off: 500 ft below the climb predicted from the last published record
+        assertTrue(cache.shouldPublish(createTestItem("AE1234", 38.0 + 2 * NORTH_AFTER_15S, 10500, 0), T0 + 30_000));
+    }
+
+    @Test
+    void shouldPublishWhenSquawkOrGroundStateChanges() {
+        cache.shouldPublish(createTestItem("AE1234", 38.0, 35000, 0), T0);
+        AcItem emergency = createTestItem("AE1234", 38.0 + NORTH_AFTER_15S, 35000, 0);
+        emergency.setSquawk("7700");
+        AcItem landed = createTestItem("AE1234", 38.0 + NORTH_AFTER_15S, 0, 0);
+        landed.setSquawk("7700");
+        landed.setAltBaro("ground");
+
+        assertTrue(cache.shouldPublish(emergency, T0 + 15_000));
+        assertTrue(cache.shouldPublish(landed, T0 + 15_000));
+    }
+
+    @Test
+    void shouldPublishAfterMaxSilence() {
+        AcItem parked = createTestItem("AE1234", 38.0, 0, 0);
+        parked.setAltBaro("ground");
+        parked.setGroundSpeed(0.0);
+
+        assertTrue(cache.shouldPublish(parked, T0));
+        assertFalse(cache.shouldPublish(parked, T0 + 45_000));
+        assertTrue(cache.shouldPublish(parked, T0 + 60_000));
+        assertFalse(cache.shouldPublish(parked, T0 + 75_000));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedAircraft() {
+        for (int i = 0; i < 12; i++) {
+            cache.shouldPublish(createTestItem("AE00" + i, 38.0, 35000, 0), T0);
+        }
+
+        assertEquals(10, cache.size());
+        assertTrue(cache.shouldPublish(createTestItem("AE000", 38.0, 35000, 0), T0));
+    }
+
+    private AcItem createTestItem(String hex, double lat, int altitude, int verticalRate) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setFlight("RCH405");
+        item.setSquawk("4521");
+        item.setLat(lat);
+        item.setLon(-77.0364);
+        item.setAltBaro(altitude);
+        item.setGroundSpeed(360.0);
+        item.setTrack(0.0);
+        item.setVerticalRate(verticalRate);
+        return item;
+    }
+}
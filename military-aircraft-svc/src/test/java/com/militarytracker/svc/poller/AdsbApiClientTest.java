@@ -1,13 +1,19 @@
 package com.militarytracker.svc.poller;
 
+import com.militarytracker.model.api.AcItem;
 import com.militarytracker.model.api.V2Response;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -71,4 +77,80 @@ class AdsbApiClientTest {
                 request.headers().firstValue("Accept").orElse("").equals("application/json")
         ), any());
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldStreamEachAircraftToSink() throws Exception {
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse<InputStream> mockResponse = mock(HttpResponse.class);
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(mockResponse.body()).thenReturn(getClass().getResourceAsStream("/sample-v2-response.json"));
+        when(mockClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        AdsbApiClient client = new AdsbApiClient("https://api.adsb.lol/v2/mil", mockClient);
+        List<AcItem> streamed = new ArrayList<>();
+        V2Response summary = client.streamMilitaryAircraft((item, observedAt) -> streamed.add(item));
+
+        assertEquals(2, summary.getTotal());
+        assertEquals(1709052000L, summary.getNow());
+        assertNull(summary.getAc());
+        assertEquals(2, streamed.size());
+        assertEquals("AE1234", streamed.get(0).getHex());
+        assertTrue(streamed.get(1).isOnGround());
+    }
+
+    @Test
+    void shouldSkipUnknownFieldsAndNonObjectEntriesWhenStreaming() throws Exception {
+        String json = "{\"ac\":[{\"hex\":\"AE1234\",\"nav_modes\":[\"autopilot\"]},null,{\"hex\":\"AE5678\"}],"
+                + "\"msg\":\"No error\",\"now\":1709052000,\"total\":2,\"ctime\":{\"a\":1}}";
+        List<AcItem> streamed = new ArrayList<>();
+
+        V2Response summary = AdsbApiClient.readStreaming(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), 0, (item, observedAt) -> streamed.add(item));
+
+        assertEquals(2, summary.getTotal());
+        assertEquals(List.of("AE1234", "AE5678"), streamed.stream().map(AcItem::getHex).toList());
+    }
+
+    @Test
+    void shouldFailOnTruncatedStreamAfterHandingOnCompleteAircraft() {
+        String json = "{\"now\":1709052000,\"ac\":[{\"hex\":\"AE1234\"},{\"hex\":\"AE56";
+        List<AcItem> streamed = new ArrayList<>();
+
+        assertThrows(Exception.class, () -> AdsbApiClient.readStreaming(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), 0, (item, observedAt) -> streamed.add(item)));
+        assertEquals(1, streamed.size());
+    }
+
+    @Test
+    void shouldTimeStreamedAircraftByFeedNowOrElseArrival() throws Exception {
+        String nowFirst = "{\"now\":1709052000000,\"ac\":[{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0,\"seen_pos\":2.5}]}";
+        String nowLast = "{\"ac\":[{\"hex\":\"AE1234\",\"lat\":38.0,\"lon\":-77.0,\"seen_pos\":2.5}],\"now\":1709052000000}";
+        List<Long> times = new ArrayList<>();
+
+        AdsbApiClient.readStreaming(new ByteArrayInputStream(nowFirst.getBytes(StandardCharsets.UTF_8)),
+                1709052004000L, (item, observedAt) -> times.add(observedAt));
+        AdsbApiClient.readStreaming(new ByteArrayInputStream(nowLast.getBytes(StandardCharsets.UTF_8)),
+                1709052004000L, (item, observedAt) -> times.add(observedAt));
+
+        assertEquals(List.of(1709051997500L, 1709052001500L), times);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldCloseBodyOnNon200StatusWhenStreaming() throws Exception {
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse<InputStream> mockResponse = mock(HttpResponse.class);
+        InputStream body = mock(InputStream.class);
+        when(mockResponse.statusCode()).thenReturn(503);
+        when(mockResponse.body()).thenReturn(body);
+        when(mockClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockResponse);
+
+        AdsbApiClient client = new AdsbApiClient("https://api.adsb.lol/v2/mil", mockClient);
+
+        assertThrows(AdsbApiException.class, () -> client.streamMilitaryAircraft((item, observedAt) -> { }));
+        verify(body).close();
+    }
 }
@@ -2,21 +2,30 @@ package com.militarytracker.svc.poller;
 
 import com.militarytracker.model.api.AcItem;
 import com.militarytracker.model.api.V2Response;
+import com.militarytracker.svc.cache.KinematicStateCache;
+import com.militarytracker.svc.poller.AdsbApiPoller.PublishMode;
 import com.militarytracker.svc.publisher.FlightKafkaPublisher;
+import com.militarytracker.svc.publisher.RawFlightKafkaPublisher;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class AdsbApiPollerTest {
 
+    private static final long T0 = 1_709_052_000_000L;
+    // 360 kt is 185.2 m/s
+    private static final double NORTH_PER_SECOND = Math.toDegrees(185.2 / 6_371_000.0);
+
     @Mock
     private AdsbApiClient mockApiClient;
 
@@ -65,4 +74,181 @@ class AdsbApiPollerTest {
         verify(mockApiClient).fetchMilitaryAircraft();
         verify(mockPublisher, never()).publish(anyList());
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldSendEachAircraftAsItIsStreamed() throws Exception {
+        AcItem first = new AcItem();
+        first.setHex("AE1234");
+        AcItem second = new AcItem();
+        second.setHex("AE5678");
+        when(mockApiClient.streamMilitaryAircraft(any())).thenAnswer(invocation -> {
+            AircraftFeed.ObservationSink sink = invocation.getArgument(0);
+            sink.accept(first, 0);
+            verify(mockPublisher).send(first);
+            sink.accept(second, 0);
+            return new V2Response(1709052000L, 2, null);
+        });
+        when(mockPublisher.send(any())).thenReturn(true);
+
+        new AdsbApiPoller(mockApiClient, mockPublisher, PublishMode.STREAMING).run();
+
+        verify(mockPublisher).send(second);
+        verify(mockPublisher).flush();
+        verify(mockApiClient, never()).fetchMilitaryAircraft();
+        verify(mockPublisher, never()).publish(anyList());
+    }
+
+    @Test
+    void shouldFlushAircraftStreamedBeforeFailure() throws Exception {
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        when(mockApiClient.streamMilitaryAircraft(any())).thenAnswer(invocation -> {
+            AircraftFeed.ObservationSink sink = invocation.getArgument(0);
+            sink.accept(item, 0);
+            throw new AdsbApiException("ADS-B API response ended unexpectedly");
+        });
+
+        new AdsbApiPoller(mockApiClient, mockPublisher, PublishMode.STREAMING).run(); // should not throw
+
+        verify(mockPublisher).send(item);
+        verify(mockPublisher).flush();
+    }
+
+    @Test
+    void shouldPublishRawAircraftInPassthroughMode() throws Exception {
+        RawFlightKafkaPublisher rawPublisher = mock(RawFlightKafkaPublisher.class);
+        byte[] body = "{\"ac\":[{\"hex\":\"AE1234\",\"rssi\":-21.4}],\"total\":1}".getBytes(StandardCharsets.UTF_8);
+        when(mockApiClient.fetchRaw()).thenReturn(body);
+
+        new AdsbApiPoller(mockApiClient, rawPublisher).run();
+
+        verify(rawPublisher).send("AE1234", body, 7, 29);
+        verify(rawPublisher).flush();
+        verify(mockApiClient, never()).fetchMilitaryAircraft();
+    }
+
+    @Test
+    void shouldPublishOnlyAircraftThatChanged() throws Exception {
+        KinematicStateCache changeCache = new KinematicStateCache(10, 200, 200, 60_000);
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        item.setLat(38.8951);
+        item.setLon(-77.0364);
+        item.setAltBaro(35000);
+        V2Response response = new V2Response(1709052000L, 1, List.of(item));
+        when(mockApiClient.fetchMilitaryAircraft()).thenReturn(response);
+        when(mockPublisher.publish(anyList())).thenReturn(1);
+        AdsbApiPoller suppressing = new AdsbApiPoller(List.of(mockApiClient), mockPublisher, PublishMode.BUFFERED, changeCache);
+
+        suppressing.run();
+        suppressing.run();
+
+        verify(mockApiClient, times(2)).fetchMilitaryAircraft();
+        verify(mockPublisher, times(1)).publish(List.of(item));
+    }
+
+    @Test
+    void shouldSuppressUnchangedRawAircraftInPassthroughMode() throws Exception {
+        RawFlightKafkaPublisher rawPublisher = mock(RawFlightKafkaPublisher.class);
+        byte[] body = "{\"ac\":[{\"hex\":\"AE1234\",\"lat\":38.8951,\"lon\":-77.0364,\"alt_baro\":35000}],\"total\":1}"
+                .getBytes(StandardCharsets.UTF_8);
+        when(mockApiClient.fetchRaw()).thenReturn(body);
+        AdsbApiPoller suppressing = new AdsbApiPoller(List.of(mockApiClient), rawPublisher,
+                new KinematicStateCache(10, 200, 200, 60_000));
+
+        suppressing.run();
+        suppressing.run();
+
+        verify(rawPublisher, times(1)).send(eq("AE1234"), eq(body), anyInt(), anyInt());
+        verify(rawPublisher, times(2)).flush();
+    }
+
+    @Test
+    void shouldPublishMergedAircraftOfSeveralFeedsOnce() throws Exception {
+        AdsbApiClient secondFeed = mock(AdsbApiClient.class);
+        when(mockApiClient.getApiUrl()).thenReturn("https://api.adsb.lol/v2/mil");
+        when(secondFeed.getApiUrl()).thenReturn("https://api.airplanes.live/v2/mil");
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        when(mockApiClient.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(item)));
+        when(secondFeed.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(item)));
+        when(mockPublisher.publish(anyList())).thenReturn(1);
+
+        new AdsbApiPoller(List.of(mockApiClient, secondFeed), mockPublisher, PublishMode.BUFFERED, null).run();
+
+        verify(mockApiClient).fetchMilitaryAircraft();
+        verify(secondFeed).fetchMilitaryAircraft();
+        verify(mockPublisher).publish(List.of(item));
+    }
+
+    @Test
+    void shouldStreamAircraftOfFeedWithoutRawBody() throws Exception {
+        AircraftFeed tiledFeed = mock(AircraftFeed.class);
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        when(tiledFeed.streamMilitaryAircraft(any())).thenAnswer(invocation -> {
+            AircraftFeed.ObservationSink sink = invocation.getArgument(0);
+            sink.accept(item, 0);
+            return new V2Response(1709052000L, 1, null);
+        });
+        when(mockPublisher.send(any())).thenReturn(true);
+
+        new AdsbApiPoller(tiledFeed, mockPublisher, PublishMode.STREAMING).run();
+
+        verify(mockPublisher).send(item);
+        verify(mockPublisher).flush();
+        verifyNoInteractions(mockApiClient);
+    }
+
+    @Test
+    void shouldDeadReckonToFeedTimeRatherThanPollTime() throws Exception {
+        KinematicStateCache changeCache = new KinematicStateCache(10, 200, 200, 60_000);
+        V2Response first = new V2Response(T0, 1, List.of(createMovingItem(38.0, 0.0)));
+        // Served again from a cache, then the next snapshot 15 s on, both as predicted
+        V2Response repeated = new V2Response(T0, 1, List.of(createMovingItem(38.0, 0.0)));
+        V2Response next = new V2Response(T0 + 15_000, 1, List.of(createMovingItem(38.0 + 15 * NORTH_PER_SECOND, 0.0)));
+        when(mockApiClient.fetchMilitaryAircraft()).thenReturn(first, repeated, next);
+        when(mockPublisher.publish(anyList())).thenReturn(1);
+        AdsbApiPoller suppressing = new AdsbApiPoller(List.of(mockApiClient), mockPublisher, PublishMode.BUFFERED, changeCache);
+
+        suppressing.run();
+        suppressing.run();
+        suppressing.run();
+
+        verify(mockPublisher, times(1)).publish(anyList());
+    }
+
+    @Test
+    void shouldTimePositionsBySeenPos() throws Exception {
+        KinematicStateCache changeCache = new KinematicStateCache(10, 200, 200, 60_000);
+        // 15 s on, but the position is 4 s old, so it is where the aircraft was 11 s on
+        AcItem jittered = createMovingItem(38.0 + 11 * NORTH_PER_SECOND, 4.0);
+        AcItem stuck = createMovingItem(38.0 + 11 * NORTH_PER_SECOND, 0.0);
+        when(mockApiClient.fetchMilitaryAircraft()).thenReturn(
+                new V2Response(T0, 1, List.of(createMovingItem(38.0, 0.0))),
+                new V2Response(T0 + 15_000, 1, List.of(jittered)),
+                new V2Response(T0 + 30_000, 1, List.of(stuck)));
+        when(mockPublisher.publish(anyList())).thenReturn(1);
+        AdsbApiPoller suppressing = new AdsbApiPoller(List.of(mockApiClient), mockPublisher, PublishMode.BUFFERED, changeCache);
+
+        suppressing.run();
+        suppressing.run();
+        suppressing.run();
+
+        verify(mockPublisher, never()).publish(List.of(jittered));
+        verify(mockPublisher).publish(List.of(stuck));
+    }
+
+    private static AcItem createMovingItem(double lat, double seenPos) {
+        AcItem item = new AcItem();
+        item.setHex("AE1234");
+        item.setLat(lat);
+        item.setLon(-77.0);
+        item.setAltBaro(35000);
+        item.setGroundSpeed(360.0);
+        item.setTrack(0.0);
+        item.setSeenPos(seenPos);
+        return item;
+    }
 }
@@ -0,0 +1,140 @@
+package com.militarytracker.svc.poller;
+
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FeedMergerTest {
+
+    @Mock
+    private AdsbApiClient primary;
+    @Mock
+    private AdsbApiClient secondary;
+
+    private FeedMerger<AdsbApiClient> merger;
+
+    @BeforeEach
+    void setUp() {
+        when(primary.getApiUrl()).thenReturn("https://api.adsb.lol/v2/mil");
+        when(secondary.getApiUrl()).thenReturn("https://api.airplanes.live/v2/mil");
+        merger = new FeedMerger<>(List.of(primary, secondary));
+    }
+
+    @Test
+    void shouldKeepFreshestPositionOfEachAircraft() throws Exception {
+        AcItem stale = createTestItem("ae1234", 38.0, 12.0);
+        AcItem fresh = createTestItem("AE1234", 38.1, 0.5);
+        AcItem onlyPrimary = createTestItem("ae5678", 39.0, 1.0);
+        // Seconds on one feed, milliseconds on the other
+        when(primary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 2, List.of(stale, onlyPrimary)));
+        when(secondary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052001000L, 1, List.of(fresh)));
+
+        V2Response merged = merger.fetchMerged();
+
+        assertEquals(2, merged.getTotal());
+        assertEquals(List.of(fresh, onlyPrimary), merged.getAc());
+        // Restated against the secondary's later now, so it still dates from the same moment
+        assertEquals(1709052001000L, merged.getNow());
+        assertEquals(0.5, fresh.getSeenPos(), 1e-9);
+        assertEquals(2.0, onlyPrimary.getSeenPos(), 1e-9);
+    }
+
+    @Test
+    void shouldPreferObservationWithPosition() throws Exception {
+        AcItem positioned = createTestItem("ae1234", 38.0, 30.0);
+        AcItem modeS = createTestItem("ae1234", null, null);
+        modeS.setSeen(0.1);
+        when(primary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(positioned)));
+        when(secondary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(modeS)));
+
+        assertEquals(List.of(positioned), merger.fetchMerged().getAc());
+    }
+
+    @Test
+    void shouldMergeRemainingFeedsWhenOneFails() throws Exception {
+        AcItem item = createTestItem("ae1234", 38.0, 1.0);
+        when(primary.fetchMilitaryAircraft()).thenThrow(new AdsbApiException("ADS-B API returned status: 503"));
+        when(secondary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(item)));
+
+        assertEquals(List.of(item), merger.fetchMerged().getAc());
+    }
+
+    @Test
+    void shouldFailWhenAllFeedsFail() throws Exception {
+        when(primary.fetchMilitaryAircraft()).thenThrow(new AdsbApiException("ADS-B API returned status: 503"));
+        when(secondary.fetchMilitaryAircraft()).thenThrow(new AdsbApiException("ADS-B API returned status: 429"));
+
+        AdsbApiException e = assertThrows(AdsbApiException.class, merger::fetchMerged);
+        assertEquals(1, e.getSuppressed().length);
+    }
+
+    @Test
+    void shouldHandOnOriginalBytesOfFreshestRawAircraft() throws Exception {
+        String stale = "{\"hex\":\"ae1234\",\"lat\":38.0,\"lon\":-77.0,\"seen_pos\":9.5}";
+        String fresh = "{\"hex\":\"ae1234\",\"lat\":38.1,\"lon\":-77.0,\"seen_pos\":0.2,\"rssi\":-18.1}";
+        when(primary.fetchRaw()).thenReturn(("{\"now\":1709052000,\"ac\":[" + stale + "]}").getBytes(StandardCharsets.UTF_8));
+        when(secondary.fetchRaw()).thenReturn(("{\"now\":1709052000,\"ac\":[" + fresh + "]}").getBytes(StandardCharsets.UTF_8));
+        List<String> published = new ArrayList<>();
+
+        V2Response summary = merger.scanMerged(AdsbApiClient::fetchRaw,
+                (fields, body, offset, length) -> published.add(new String(body, offset, length, StandardCharsets.UTF_8)));
+
+        assertEquals(1, summary.getTotal());
+        assertEquals(List.of(fresh), published);
+    }
+
+    @Test
+    void shouldPublishWinnerUnderNormalizedHex() throws Exception {
+        AcItem stale = createTestItem("ae1234", 38.0, 12.0);
+        AcItem fresh = createTestItem(" AE1234", 38.1, 0.5);
+        when(primary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(stale)));
+        when(secondary.fetchMilitaryAircraft()).thenReturn(new V2Response(1709052000L, 1, List.of(fresh)));
+
+        V2Response merged = merger.fetchMerged();
+
+        assertEquals(List.of(fresh), merged.getAc());
+        assertEquals("ae1234", fresh.getHex());
+    }
+
+    @Test
+    void shouldRewriteHexInBytesOfRawWinner() throws Exception {
+        String stale = "{\"hex\":\"ae1234\",\"lat\":38.0,\"lon\":-77.0,\"seen_pos\":9.5}";
+        String fresh = "{\"hex\":\"AE1234 \",\"lat\":38.1,\"lon\":-77.0,\"seen_pos\":0.2,\"rssi\":-18.1}";
+        when(primary.fetchRaw()).thenReturn(("{\"now\":1709052000,\"ac\":[" + stale + "]}").getBytes(StandardCharsets.UTF_8));
+        when(secondary.fetchRaw()).thenReturn(("{\"now\":1709052000,\"ac\":[" + fresh + "]}").getBytes(StandardCharsets.UTF_8));
+        List<String> keys = new ArrayList<>();
+        List<String> published = new ArrayList<>();
+
+        merger.scanMerged(AdsbApiClient::fetchRaw, (fields, body, offset, length) -> {
+            keys.add(fields.getHex());
+            published.add(new String(body, offset, length, StandardCharsets.UTF_8));
+        });
+
+        assertEquals(List.of("ae1234"), keys);
+        assertEquals(List.of(fresh.replace("AE1234 ", "ae1234")), published);
+    }
+
+    private AcItem createTestItem(String hex, Double lat, Double seenPos) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setLat(lat);
+        item.setLon(lat != null ? -77.0 : null);
+        item.setSeenPos(seenPos);
+        return item;
+    }
+}
@@ -0,0 +1,103 @@
+package com.militarytracker.svc.poller;
+
+import com.militarytracker.common.json.JsonMapper;
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+import com.militarytracker.svc.metrics.SvcMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RawAircraftScannerTest {
+
+    @Test
+    void shouldLocateEachAircraftInSampleResponse() throws Exception {
+        byte[] body = getClass().getResourceAsStream("/sample-v2-response.json").readAllBytes();
+        List<String> hexes = new ArrayList<>();
+        List<String> slices = new ArrayList<>();
+
+        V2Response summary = RawAircraftScanner.scan(body, (fields, bytes, offset, length) -> {
+            hexes.add(fields.getHex());
+            slices.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        });
+
+        assertEquals(2, summary.getTotal());
+        assertEquals(List.of("AE1234", "AE5678"), hexes);
+        AcItem first = JsonMapper.get().readValue(slices.get(0), AcItem.class);
+        assertEquals("AE1234", first.getHex());
+        assertEquals("RCH405", first.getFlight());
+        assertTrue(slices.get(0).startsWith("{") && slices.get(0).endsWith("}"));
+    }
+
+    @Test
+    void shouldKeepFieldsTheModelDoesNotKnowByteForByte() throws Exception {
+        String aircraft = "{\"nav_modes\":[\"autopilot\",\"tcas\"],\"hex\":\"ae1234\",\"rssi\":-21.4,\"mlat\":[]}";
+        String json = "{\"ac\":[" + aircraft + "],\"now\":1709052000,\"total\":1}";
+        List<String> slices = new ArrayList<>();
+
+        RawAircraftScanner.scan(json.getBytes(StandardCharsets.UTF_8),
+                (fields, bytes, offset, length) -> slices.add(new String(bytes, offset, length, StandardCharsets.UTF_8)));
+
+        assertEquals(List.of(aircraft), slices);
+    }
+
+    @Test
+    void shouldRewriteOnlyTheHexOfAnElement() throws Exception {
+        String aircraft = "{\"nav_modes\":[\"hex\"],\"hex\" : \" AE1234\",\"rssi\":-21.4}";
+        byte[] body = ("{\"ac\":[" + aircraft + "]}").getBytes(StandardCharsets.UTF_8);
+
+        byte[] element = RawAircraftScanner.withHex(body, 7, aircraft.length(), "ae1234");
+
+        assertEquals("{\"nav_modes\":[\"hex\"],\"hex\" : \"ae1234\",\"rssi\":-21.4}",
+                new String(element, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shouldCountAndSkipElementsThatCannotBePublished() throws Exception {
+        String json = "{\"ac\":[{\"hex\":\"AE1234\"},null,\"AE5678\",{\"flight\":\"RCH405\"},{\"hex\":\" \"},"
+                + "{\"hex\":\"AE9999\"}],\"total\":6}";
+        double notObject = SvcMetrics.PASSTHROUGH_INVALID.labels(RawAircraftScanner.INVALID_NOT_OBJECT).get();
+        double missingHex = SvcMetrics.PASSTHROUGH_INVALID.labels(RawAircraftScanner.INVALID_MISSING_HEX).get();
+        List<String> hexes = new ArrayList<>();
+
+        RawAircraftScanner.scan(json.getBytes(StandardCharsets.UTF_8), (fields, bytes, offset, length) -> hexes.add(fields.getHex()));
+
+        assertEquals(List.of("AE1234", "AE9999"), hexes);
+        assertEquals(notObject + 2, SvcMetrics.PASSTHROUGH_INVALID.labels(RawAircraftScanner.INVALID_NOT_OBJECT).get());
+        assertEquals(missingHex + 2, SvcMetrics.PASSTHROUGH_INVALID.labels(RawAircraftScanner.INVALID_MISSING_HEX).get());
+    }
+
+    @Test
+    void shouldFailOnTruncatedResponse() {
+        byte[] body = "{\"ac\":[{\"hex\":\"AE1234\"},{\"hex\":\"AE56".getBytes(StandardCharsets.UTF_8);
+        List<String> hexes = new ArrayList<>();
+
+        assertThrows(Exception.class, () -> RawAircraftScanner.scan(body, (fields, bytes, offset, length) -> hexes.add(fields.getHex())));
+        assertEquals(List.of("AE1234"), hexes);
+    }
+
+    @Test
+    void shouldReadKinematicFieldsOfEachAircraft() throws Exception {
+        String json = "{\"ac\":[{\"hex\":\"AE1234\",\"flight\":\"RCH405  \",\"lat\":38.8951,\"lon\":-77.0364,"
+                + "\"alt_baro\":35000,\"gs\":450.2,\"track\":90,\"baro_rate\":-64,\"squawk\":\"4521\",\"rssi\":-21.4},"
+                + "{\"hex\":\"AE5678\",\"alt_baro\":\"ground\"}]}";
+        List<AcItem> items = new ArrayList<>();
+
+        RawAircraftScanner.scan(json.getBytes(StandardCharsets.UTF_8), (fields, bytes, offset, length) -> items.add(fields));
+
+        AcItem airborne = items.get(0);
+        assertEquals("RCH405", airborne.getFlight());
+        assertEquals(38.8951, airborne.getLat());
+        assertEquals(-77.0364, airborne.getLon());
+        assertEquals(35000, airborne.getAltBaroFeet());
+        assertEquals(450.2, airborne.getGroundSpeed());
+        assertEquals(90.0, airborne.getTrack());
+        assertEquals(-64, airborne.getVerticalRate());
+        assertEquals("4521", airborne.getSquawk());
+        assertTrue(items.get(1).isOnGround());
+    }
+}
@@ -0,0 +1,137 @@
+package com.militarytracker.svc.poller;
+
+import com.militarytracker.model.api.AcItem;
+import com.militarytracker.model.api.V2Response;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class TiledAdsbApiClientTest {
+
+    private static final GeoTile AREA = new GeoTile(50, 52, 10, 12);
+
+    @Test
+    void shouldCoverLargeAreaWithTilesWithinMaxRadius() {
+        TiledAdsbApiClient client = createClient(new GeoTile(45, 56, 0, 25), tile -> null);
+
+        List<GeoTile> tiles = client.getTiles();
+
+        assertEquals(16, tiles.size());
+        for (GeoTile tile : tiles) {
+            assertTrue(tile.getRadiusNm() <= TiledAdsbApiClient.MAX_RADIUS_NM);
+        }
+        assertEquals("https://api.adsb.lol/v2/point/46.3750/3.1250/155", client.tileUrl(tiles.get(0)));
+    }
+
+    @Test
+    void shouldKeepFreshestMilitaryAircraftInsideArea() throws Exception {
+        AcItem stale = createTestItem("ae1234", 51.0, 11.0, 1);
+        stale.setSeenPos(8.0);
+        AcItem fresh = createTestItem("AE1234", 51.1, 11.0, 1);
+        fresh.setSeenPos(0.4);
+        AcItem civil = createTestItem("3c6444", 51.0, 11.5, 0);
+        AcItem outside = createTestItem("ae5678", 53.0, 11.0, 1);
+        TiledAdsbApiClient client = createClient(AREA, tile -> new V2Response(1709052000L, 4, List.of(stale, civil, outside, fresh)));
+
+        V2Response response = client.fetchMilitaryAircraft();
+
+        assertEquals(1, response.getTotal());
+        assertEquals(List.of(fresh), response.getAc());
+        assertEquals("ae1234", fresh.getHex());
+    }
+
+    @Test
+    void shouldSplitTileOverBudgetAndMergeSparseQuadrantsBack() throws Exception {
+        Map<GeoTile, Integer> sizes = new ConcurrentHashMap<>();
+        TiledAdsbApiClient client = createClient(AREA, tile -> {
+            int size = sizes.getOrDefault(tile, 0);
+            List<AcItem> aircraft = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                aircraft.add(createTestItem("ae00" + i, 51.0, 11.0, 1));
+            }
+            return new V2Response(1709052000L, size, aircraft);
+        });
+        sizes.put(AREA, 5);
+
+        client.fetchMilitaryAircraft();
+        List<GeoTile> quadrants = client.getTiles();
+        client.fetchMilitaryAircraft();
+
+        assertEquals(4, quadrants.size());
+        assertEquals(AREA, quadrants.get(0).getParent());
+        assertEquals(List.of(AREA), client.getTiles());
+    }
+
+    @Test
+    void shouldMergeLatencySplitBackOnlyOnceQuadrantsFitBudgetTogether() throws Exception {
+        Map<GeoTile, Long> delays = new ConcurrentHashMap<>();
+        TiledAdsbApiClient client = createClient(AREA, Duration.ofMillis(200), tile -> {
+            try {
+                Thread.sleep(delays.getOrDefault(tile, 0L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new V2Response(1709052000L, 0, List.of());
+        });
+        delays.put(AREA, 300L);
+
+        client.fetchMilitaryAircraft();
+        List<GeoTile> quadrants = client.getTiles();
+        // Each quadrant is within budget and empty, but the four together are not
+        for (GeoTile quadrant : quadrants) {
+            delays.put(quadrant, 70L);
+        }
+        client.fetchMilitaryAircraft();
+        List<GeoTile> stillSplit = client.getTiles();
+        for (GeoTile quadrant : quadrants) {
+            delays.put(quadrant, 0L);
+        }
+        client.fetchMilitaryAircraft();
+
+        assertEquals(4, quadrants.size());
+        assertEquals(quadrants, stillSplit);
+        assertEquals(List.of(AREA), client.getTiles());
+    }
+
+    @Test
+    void shouldFailWhenAllTilesFail() {
+        TiledAdsbApiClient client = createClient(AREA, tile -> {
+            throw new AdsbApiException("ADS-B API returned status: 503");
+        });
+
+        assertThrows(AdsbApiException.class, client::fetchMilitaryAircraft);
+        assertEquals(List.of(AREA), client.getTiles());
+    }
+
+    private TiledAdsbApiClient createClient(GeoTile area, Function<GeoTile, V2Response> tiles) {
+        return createClient(area, Duration.ofSeconds(5), tiles);
+    }
+
+    private TiledAdsbApiClient createClient(GeoTile area, Duration latencyBudget, Function<GeoTile, V2Response> tiles) {
+        return new TiledAdsbApiClient("https://api.adsb.lol/v2/point/", mock(HttpClient.class), area,
+                4, 2, latencyBudget, 6, 2, true) {
+            @Override
+            protected V2Response fetchTile(GeoTile tile) {
+                return tiles.apply(tile);
+            }
+        };
+    }
+
+    private AcItem createTestItem(String hex, double lat, double lon, int dbFlags) {
+        AcItem item = new AcItem();
+        item.setHex(hex);
+        item.setLat(lat);
+        item.setLon(lon);
+        item.setDbFlags(dbFlags);
+        return item;
+    }
+}
@@ -0,0 +1,45 @@
+package com.militarytracker.svc.publisher;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RawFlightKafkaPublisherTest {
+
+    @Mock
+    private KafkaProducer<String, ByteBuffer> mockProducer;
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldPublishSliceOfBodyKeyedByHex() {
+        byte[] body = "{\"ac\":[{\"hex\":\"AE1234\",\"rssi\":-21.4}]}".getBytes(StandardCharsets.UTF_8);
+        RawFlightKafkaPublisher publisher = new RawFlightKafkaPublisher(mockProducer, "military_flights");
+
+        publisher.send("AE1234", body, 7, 29);
+        publisher.flush();
+
+        ArgumentCaptor<ProducerRecord<String, ByteBuffer>> captor = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(mockProducer).send(captor.capture(), any());
+        verify(mockProducer).flush();
+        ProducerRecord<String, ByteBuffer> record = captor.getValue();
+        assertEquals("military_flights", record.topic());
+        assertEquals("AE1234", record.key());
+        try (ByteBufferSerializer serializer = new ByteBufferSerializer()) {
+            assertEquals("{\"hex\":\"AE1234\",\"rssi\":-21.4}",
+                    new String(serializer.serialize("military_flights", record.value()), StandardCharsets.UTF_8));
+        }
+    }
+}
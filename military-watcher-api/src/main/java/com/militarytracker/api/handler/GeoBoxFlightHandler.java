@@ -41,7 +41,7 @@ public class GeoBoxFlightHandler {
                 request.getNorth(), request.getSouth(), request.getEast(), request.getWest());
 
         try {
-            List<FlightSummaryDto> flights = repository.findWithinBoundingBox(
+            List<FlightSummaryDto> flights = repository.findLiveWithinBoundingBox(
                     request.getNorth(), request.getSouth(),
                     request.getEast(), request.getWest());
             ApiMetrics.REQUESTS_TOTAL.labels("geobox_flights", "200").inc();
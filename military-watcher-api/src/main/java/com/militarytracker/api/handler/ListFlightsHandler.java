@@ -28,7 +28,7 @@ public class ListFlightsHandler {
         LOG.debug("Listing flights with limit={}, offset={}", limit, offset);
 
         try {
-            List<FlightSummaryDto> flights = repository.listFlights(limit, offset);
+            List<FlightSummaryDto> flights = repository.listLiveFlights(limit, offset);
             ApiMetrics.REQUESTS_TOTAL.labels("list_flights", "200").inc();
             ctx.json(flights);
         } catch (Exception e) {
@@ -19,15 +19,6 @@ public class FlightReadRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(FlightReadRepository.class);
 
-    private static final String LIST_FLIGHTS_SQL =
-            "SELECT a.hex_icao, a.aircraft_type, fp.flight, fp.alt_baro, fp.ground_speed, " +
-            "fp.track, ST_Y(fp.position) AS lat, ST_X(fp.position) AS lon, " +
-            "ST_Z(fp.position) AS alt_geom, fp.on_ground, fp.seen_at, fp.id " +
-            "FROM flight_positions fp " +
-            "JOIN aircraft a ON fp.aircraft_id = a.id " +
-            "ORDER BY fp.seen_at DESC " +
-            "LIMIT ? OFFSET ?";
-
     private static final String GET_FLIGHT_DETAIL_BY_ID_SQL =
             "SELECT a.hex_icao, a.registration, a.aircraft_type, a.description, a.operator, a.country, " +
             "fp.flight, fp.alt_baro, fp.ground_speed, fp.track, " +
@@ -46,14 +37,24 @@ public class FlightReadRepository {
             "ORDER BY fp.seen_at ASC " +
             "LIMIT 500";
 
-    private static final String FIND_WITHIN_BOUNDING_BOX_SQL =
-            "SELECT a.hex_icao, a.aircraft_type, fp.flight, fp.alt_baro, fp.ground_speed, " +
-            "fp.track, ST_Y(fp.position) AS lat, ST_X(fp.position) AS lon, " +
-            "ST_Z(fp.position) AS alt_geom, fp.on_ground, fp.seen_at, fp.id " +
-            "FROM flight_positions fp " +
-            "JOIN aircraft a ON fp.aircraft_id = a.id " +
-            "WHERE fp.position && ST_MakeEnvelope(?, ?, ?, ?, 4326) " +
-            "AND fp.seen_at > NOW() - INTERVAL '1 hour'";
+    private static final String LIST_LIVE_FLIGHTS_SQL =
+            "SELECT a.hex_icao, a.aircraft_type, al.flight, al.alt_baro, al.ground_speed, " +
+            "al.track, ST_Y(al.position) AS lat, ST_X(al.position) AS lon, " +
+            "ST_Z(al.position) AS alt_geom, al.on_ground, al.seen_at, al.position_id AS id " +
+            "FROM aircraft_latest al " +
+            "JOIN aircraft a ON al.aircraft_id = a.id " +
+            "WHERE al.seen_at > NOW() - INTERVAL '1 hour' " +
+            "ORDER BY al.seen_at DESC " +
+            "LIMIT ? OFFSET ?";
+
+    private static final String FIND_LIVE_WITHIN_BOUNDING_BOX_SQL =
+            "SELECT a.hex_icao, a.aircraft_type, al.flight, al.alt_baro, al.ground_speed, " +
+            "al.track, ST_Y(al.position) AS lat, ST_X(al.position) AS lon, " +
+            "ST_Z(al.position) AS alt_geom, al.on_ground, al.seen_at, al.position_id AS id " +
+            "FROM aircraft_latest al " +
+            "JOIN aircraft a ON al.aircraft_id = a.id " +
+            "WHERE al.position && ST_MakeEnvelope(?, ?, ?, ?, 4326) " +
+            "AND al.seen_at > NOW() - INTERVAL '1 hour'";
 
     private final DataSource dataSource;
 
@@ -61,22 +62,6 @@ public class FlightReadRepository {
         this.dataSource = dataSource;
     }
 
-    public List<FlightSummaryDto> listFlights(int limit, int offset) throws SQLException {
-        List<FlightSummaryDto> flights = new ArrayList<>();
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(LIST_FLIGHTS_SQL)) {
-            ps.setInt(1, limit);
-            ps.setInt(2, offset);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    flights.add(FlightMapper.mapRow(rs));
-                }
-            }
-        }
-        LOG.debug("Listed {} flights (limit={}, offset={})", flights.size(), limit, offset);
-        return flights;
-    }
-
     public FlightDetailDto getFlightDetailById(long id) throws SQLException {
         try (Connection conn = dataSource.getConnection();
              PreparedStatement ps = conn.prepareStatement(GET_FLIGHT_DETAIL_BY_ID_SQL)) {
@@ -105,11 +90,36 @@ public class FlightReadRepository {
         return points;
     }
 
-    public List<FlightSummaryDto> findWithinBoundingBox(double north, double south,
-                                                         double east, double west) throws SQLException {
+    /**
+     * Lists the current position of every aircraft seen in the last hour, newest first, from
+     * {@code aircraft_latest}. Each aircraft appears once; the id is that of its latest
+     * position row, so it works with {@link #getFlightDetailById} and {@link #getFlightTrack}.
+     */
+    public List<FlightSummaryDto> listLiveFlights(int limit, int offset) throws SQLException {
+        List<FlightSummaryDto> flights = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(LIST_LIVE_FLIGHTS_SQL)) {
+            ps.setInt(1, limit);
+            ps.setInt(2, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    flights.add(FlightMapper.mapRow(rs));
+                }
+            }
+        }
+        LOG.debug("Listed {} live flights (limit={}, offset={})", flights.size(), limit, offset);
+        return flights;
+    }
+
+    /**
+     * Finds the current position of every aircraft seen in the last hour inside the bounding
+     * box, from {@code aircraft_latest}. Each aircraft appears once.
+     */
+    public List<FlightSummaryDto> findLiveWithinBoundingBox(double north, double south,
+                                                             double east, double west) throws SQLException {
         List<FlightSummaryDto> flights = new ArrayList<>();
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(FIND_WITHIN_BOUNDING_BOX_SQL)) {
+             PreparedStatement ps = conn.prepareStatement(FIND_LIVE_WITHIN_BOUNDING_BOX_SQL)) {
             ps.setDouble(1, west);
             ps.setDouble(2, south);
             ps.setDouble(3, east);
@@ -120,7 +130,7 @@ public class FlightReadRepository {
                 }
             }
         }
-        LOG.debug("Found {} flights within bounding box [N={}, S={}, E={}, W={}]",
+        LOG.debug("Found {} live flights within bounding box [N={}, S={}, E={}, W={}]",
                 flights.size(), north, south, east, west);
         return flights;
     }
@@ -41,12 +41,12 @@ class GeoBoxFlightHandlerTest {
         dto.setHexIcao("AE1234");
 
         when(ctx.bodyAsClass(GeoBoxRequest.class)).thenReturn(request);
-        when(repository.findWithinBoundingBox(50.0, 40.0, -70.0, -80.0))
+        when(repository.findLiveWithinBoundingBox(50.0, 40.0, -70.0, -80.0))
                 .thenReturn(List.of(dto));
 
         handler.handle(ctx);
 
-        verify(repository).findWithinBoundingBox(50.0, 40.0, -70.0, -80.0);
+        verify(repository).findLiveWithinBoundingBox(50.0, 40.0, -70.0, -80.0);
         verify(ctx).json(List.of(dto));
     }
 
@@ -80,7 +80,7 @@ class GeoBoxFlightHandlerTest {
         GeoBoxRequest request = new GeoBoxRequest(50.0, 40.0, -70.0, -80.0);
 
         when(ctx.bodyAsClass(GeoBoxRequest.class)).thenReturn(request);
-        when(repository.findWithinBoundingBox(50.0, 40.0, -70.0, -80.0))
+        when(repository.findLiveWithinBoundingBox(50.0, 40.0, -70.0, -80.0))
                 .thenThrow(new RuntimeException("DB error"));
         when(ctx.status(500)).thenReturn(ctx);
 
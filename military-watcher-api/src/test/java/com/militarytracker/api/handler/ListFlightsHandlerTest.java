@@ -40,11 +40,11 @@ class ListFlightsHandlerTest {
 
         when(ctx.queryParam("limit")).thenReturn(null);
         when(ctx.queryParam("offset")).thenReturn(null);
-        when(repository.listFlights(100, 0)).thenReturn(List.of(dto));
+        when(repository.listLiveFlights(100, 0)).thenReturn(List.of(dto));
 
         handler.handle(ctx);
 
-        verify(repository).listFlights(100, 0);
+        verify(repository).listLiveFlights(100, 0);
         verify(ctx).json(List.of(dto));
     }
 
@@ -52,11 +52,11 @@ class ListFlightsHandlerTest {
     void handle_customLimitAndOffset_passesToRepository() throws Exception {
         when(ctx.queryParam("limit")).thenReturn("50");
         when(ctx.queryParam("offset")).thenReturn("10");
-        when(repository.listFlights(50, 10)).thenReturn(List.of());
+        when(repository.listLiveFlights(50, 10)).thenReturn(List.of());
 
         handler.handle(ctx);
 
-        verify(repository).listFlights(50, 10);
+        verify(repository).listLiveFlights(50, 10);
         verify(ctx).json(List.of());
     }
 
@@ -64,18 +64,18 @@ class ListFlightsHandlerTest {
     void handle_invalidLimit_usesDefault() throws Exception {
         when(ctx.queryParam("limit")).thenReturn("abc");
         when(ctx.queryParam("offset")).thenReturn("0");
-        when(repository.listFlights(100, 0)).thenReturn(List.of());
+        when(repository.listLiveFlights(100, 0)).thenReturn(List.of());
 
         handler.handle(ctx);
 
-        verify(repository).listFlights(100, 0);
+        verify(repository).listLiveFlights(100, 0);
     }
 
     @Test
     void handle_repositoryThrows_returns500() throws Exception {
         when(ctx.queryParam("limit")).thenReturn(null);
         when(ctx.queryParam("offset")).thenReturn(null);
-        when(repository.listFlights(anyInt(), anyInt())).thenThrow(new RuntimeException("DB error"));
+        when(repository.listLiveFlights(anyInt(), anyInt())).thenThrow(new RuntimeException("DB error"));
         when(ctx.status(500)).thenReturn(ctx);
 
         handler.handle(ctx);
@@ -60,6 +60,12 @@ public class AcItem {
     @JsonProperty("dbFlags")
     private Integer dbFlags;
 
+    @JsonProperty("seen")
+    private Double seen;
+
+    @JsonProperty("seen_pos")
+    private Double seenPos;
+
     public AcItem() {
     }
 
@@ -223,4 +229,26 @@ public class AcItem {
     public void setDbFlags(Integer dbFlags) {
         this.dbFlags = dbFlags;
     }
+
+    /**
+     * Returns how many seconds before the response's {@code now} any message was last received.
+     */
+    public Double getSeen() {
+        return seen;
+    }
+
+    public void setSeen(Double seen) {
+        this.seen = seen;
+    }
+
+    /**
+     * Returns how many seconds before the response's {@code now} the position was last updated.
+     */
+    public Double getSeenPos() {
+        return seenPos;
+    }
+
+    public void setSeenPos(Double seenPos) {
+        this.seenPos = seenPos;
+    }
 }